@@ -11,6 +11,10 @@ CREATE INDEX auditrecorddata_idx3 ON AuditRecordData (timeStamp);
 -- ordered by time stamp.
 CREATE INDEX archivedata_idx3 ON ArchiveData (time);
 
+-- Exporting archivables page by page seeks on the time stamp and unique ID
+-- of the last entry of the previous page.
+CREATE INDEX archivedata_idx4 ON ArchiveData (time,uniqueId);
+
 -- Selecting by signerType is done by the services loader
 CREATE INDEX signerconfigdata_idx2 ON signerconfigdata (signerType);
 
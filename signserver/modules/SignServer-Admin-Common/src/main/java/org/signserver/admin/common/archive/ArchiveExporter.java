@@ -0,0 +1,299 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.admin.common.archive;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.log4j.Logger;
+import org.signserver.common.ArchiveMetadata;
+
+/**
+ * Streams matching archive entries, including their data, to files or a ZIP
+ * archive.
+ *
+ * The meta data is read one page at a time using keyset pagination, i.e.
+ * each page starts after the time and unique ID of the last entry of the
+ * previous one, so getting a page does not get slower the further into the
+ * result set it is. The archive data for the entries of a page is fetched
+ * in chunks of unique IDs by a number of tasks in parallel, on the executor
+ * service given by the caller, while the next page is queried. Only one
+ * page of data is kept in memory at a time and the entries are written in
+ * the order of the result set.
+ *
+ * @version $Id$
+ */
+public class ArchiveExporter {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ArchiveExporter.class);
+
+    /** Default number of entries to query meta data for at a time. */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    /** Default number of entries to fetch data for in one call. */
+    public static final int DEFAULT_FETCH_SIZE = 50;
+
+    /** Default number of calls fetching data in parallel. */
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Source of pages of archive meta data, without the archive data.
+     */
+    public interface PageSource {
+        /**
+         * @param afterTime time of the last entry of the previous page or null for the first page
+         * @param afterUniqueId unique ID of the last entry of the previous page or null for the first page
+         * @param max maximum number of entries to return
+         * @return the next page, empty if there are no more entries
+         * @throws Exception in case of failure querying the archive
+         */
+        List<ArchiveMetadata> next(Long afterTime, String afterUniqueId, int max) throws Exception;
+    }
+
+    /**
+     * Source of archive entries including the archive data.
+     */
+    public interface DataSource {
+        /**
+         * @param uniqueIds of the entries to fetch
+         * @return the entries found, in any order
+         * @throws Exception in case of failure querying the archive
+         */
+        List<ArchiveMetadata> fetch(List<String> uniqueIds) throws Exception;
+    }
+
+    /**
+     * Receiver of the exported entries.
+     */
+    public interface Sink {
+        /**
+         * @param entry including the archive data
+         * @throws IOException in case of failure writing the entry
+         */
+        void write(ArchiveMetadata entry) throws IOException;
+    }
+
+    private final PageSource pages;
+    private final DataSource data;
+    private final int pageSize;
+    private final int fetchSize;
+    private final int threads;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param pages source of the meta data
+     * @param data source of the archive data
+     * @param pageSize number of entries to query meta data for at a time
+     * @param fetchSize number of entries to fetch data for in one call
+     * @param threads maximum number of calls fetching data in parallel
+     */
+    public ArchiveExporter(final PageSource pages, final DataSource data,
+            final int pageSize, final int fetchSize, final int threads) {
+        if (pageSize < 1 || fetchSize < 1 || threads < 1) {
+            throw new IllegalArgumentException("Page size, fetch size and threads must be at least 1");
+        }
+        this.pages = pages;
+        this.data = data;
+        this.pageSize = pageSize;
+        this.fetchSize = fetchSize;
+        this.threads = threads;
+    }
+
+    /**
+     * Exports the matching entries.
+     *
+     * @param skip number of entries in the beginning of the result set to
+     * skip, without fetching their data
+     * @param limit maximum number of entries to export, 0 for no limit
+     * @param sink to write the entries to
+     * @param executor to fetch the data with, which is not shut down, or
+     * null to fetch it in the calling thread
+     * @return number of entries written
+     * @throws IOException in case of failure querying the archive or
+     * writing an entry
+     */
+    public long export(final long skip, final long limit, final Sink sink,
+            final ExecutorService executor) throws IOException {
+        List<Future<?>> tasks = new ArrayList<>();
+        boolean done = false;
+        try {
+            long skipped = 0;
+            long written = 0;
+            List<ArchiveMetadata> page = nextPage(null);
+            while (!page.isEmpty()) {
+                final ArchiveMetadata last = page.get(page.size() - 1);
+
+                // Entries of this page to export
+                int from = 0;
+                if (skipped < skip) {
+                    from = (int) Math.min(page.size(), skip - skipped);
+                    skipped += from;
+                }
+                int to = page.size();
+                if (limit > 0) {
+                    to = (int) Math.min(to, from + limit - written);
+                }
+                final List<ArchiveMetadata> entries = page.subList(from, to);
+
+                // Start fetching the data and query the next page meanwhile
+                final List<CompletableFuture<List<ArchiveMetadata>>> chunks = new ArrayList<>();
+                tasks = submit(executor, entries, chunks);
+                final boolean more = page.size() == pageSize && (limit == 0 || written + entries.size() < limit);
+                page = more ? nextPage(last) : new ArrayList<>();
+
+                for (final Future<List<ArchiveMetadata>> chunk : chunks) {
+                    for (final ArchiveMetadata entry : chunk.get()) {
+                        sink.write(entry);
+                        written++;
+                    }
+                }
+            }
+            done = true;
+            return written;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting", ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to fetch archive data: " + cause.getMessage(), cause);
+        } finally {
+            if (!done) {
+                for (Future<?> task : tasks) {
+                    task.cancel(true);
+                }
+            }
+        }
+    }
+
+    private List<ArchiveMetadata> nextPage(final ArchiveMetadata last) throws IOException {
+        try {
+            if (last == null) {
+                return pages.next(null, null, pageSize);
+            } else {
+                return pages.next(last.getTime().getTime(), last.getUniqueId(), pageSize);
+            }
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException("Failed to query archive: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Splits the entries in chunks and starts fetching their data using at
+     * most the configured number of tasks, each fetching every n:th chunk.
+     *
+     * @param executor to run the tasks with or null to fetch in this thread
+     * @param entries to fetch the data for
+     * @param chunks list to add the result of each chunk to, in order
+     * @return the submitted tasks
+     */
+    private List<Future<?>> submit(final ExecutorService executor,
+            final List<ArchiveMetadata> entries,
+            final List<CompletableFuture<List<ArchiveMetadata>>> chunks) {
+        final List<List<String>> ids = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i += fetchSize) {
+            final List<String> chunk = new ArrayList<>(fetchSize);
+            for (ArchiveMetadata entry : entries.subList(i, Math.min(entries.size(), i + fetchSize))) {
+                chunk.add(entry.getUniqueId());
+            }
+            ids.add(chunk);
+            chunks.add(new CompletableFuture<>());
+        }
+
+        final int count = Math.min(threads, ids.size());
+        final List<Future<?>> result = new ArrayList<>(count);
+        for (int t = 0; t < count; t++) {
+            final int first = t;
+            final Runnable task = () -> {
+                for (int i = first; i < ids.size(); i += count) {
+                    try {
+                        chunks.get(i).complete(fetchInOrder(ids.get(i)));
+                    } catch (Exception ex) {
+                        chunks.get(i).completeExceptionally(ex);
+                    }
+                }
+            };
+            if (executor == null) {
+                task.run();
+            } else {
+                result.add(executor.submit(task));
+            }
+        }
+        return result;
+    }
+
+    private List<ArchiveMetadata> fetchInOrder(final List<String> ids) throws Exception {
+        final Map<String, ArchiveMetadata> fetched = new HashMap<>();
+        for (ArchiveMetadata entry : data.fetch(ids)) {
+            fetched.put(entry.getUniqueId(), entry);
+        }
+        final List<ArchiveMetadata> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            final ArchiveMetadata entry = fetched.get(id);
+            if (entry == null) {
+                // Could have been removed after the page was queried
+                LOG.warn("Archive entry no longer available: " + id);
+            } else {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a sink writing each entry to a file, named by
+     * ArchiveMetadata.suggestedFilename(), in the given directory.
+     *
+     * @param directory to write to
+     * @return the new sink
+     */
+    public static Sink toDirectory(final File directory) {
+        return entry -> {
+            try (OutputStream out = new FileOutputStream(new File(directory, entry.suggestedFilename()))) {
+                out.write(entry.getArchiveData());
+            }
+        };
+    }
+
+    /**
+     * Creates a sink writing each entry to the ZIP stream, named by
+     * ArchiveMetadata.suggestedFilename(). The stream is not closed.
+     *
+     * @param out to write to
+     * @return the new sink
+     */
+    public static Sink toZip(final ZipOutputStream out) {
+        return entry -> {
+            out.putNextEntry(new ZipEntry(entry.suggestedFilename()));
+            out.write(entry.getArchiveData());
+            out.closeEntry();
+        };
+    }
+}
@@ -0,0 +1,214 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.admin.common.archive;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.signserver.common.ArchiveDataVO;
+import org.signserver.common.ArchiveMetadata;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the ArchiveExporter class.
+ *
+ * @version $Id$
+ */
+public class ArchiveExporterUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ArchiveExporterUnitTest.class);
+
+    /** Executor service shared by the tests, as a managed one would be. */
+    private static final ExecutorService EXECUTOR_SERVICE = Executors.newCachedThreadPool();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * In-memory archive ordered by time and unique ID, with several entries
+     * having the same time.
+     */
+    private static class Archive implements ArchiveExporter.PageSource, ArchiveExporter.DataSource {
+        private final List<ArchiveMetadata> entries = new ArrayList<>();
+        private final AtomicInteger pageCalls = new AtomicInteger();
+        private final AtomicInteger dataCalls = new AtomicInteger();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        Archive(final int count) {
+            for (int i = 0; i < count; i++) {
+                final String id = String.format("%05d", i);
+                entries.add(new ArchiveMetadata(ArchiveDataVO.TYPE_RESPONSE, 1,
+                        "1;1;" + id, id, new Date(1000 + i / 3), null, null, null,
+                        ("data" + id).getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+
+        @Override
+        public List<ArchiveMetadata> next(final Long afterTime, final String afterUniqueId, final int max) {
+            pageCalls.incrementAndGet();
+            final List<ArchiveMetadata> result = new ArrayList<>();
+            for (ArchiveMetadata entry : entries) {
+                final long time = entry.getTime().getTime();
+                if (afterTime == null || time > afterTime
+                        || (time == afterTime && entry.getUniqueId().compareTo(afterUniqueId) > 0)) {
+                    if (result.size() == max) {
+                        break;
+                    }
+                    result.add(new ArchiveMetadata(entry.getType(), entry.getSignerId(),
+                            entry.getUniqueId(), entry.getArchiveId(), entry.getTime(),
+                            null, null, null));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<ArchiveMetadata> fetch(final List<String> uniqueIds) throws Exception {
+            dataCalls.incrementAndGet();
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                final List<ArchiveMetadata> result = new ArrayList<>();
+                for (ArchiveMetadata entry : entries) {
+                    if (uniqueIds.contains(entry.getUniqueId())) {
+                        result.add(entry);
+                    }
+                }
+                // Order is not guaranteed by the archive
+                Collections.reverse(result);
+                return result;
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Tests that all entries are exported once and in order, with the data
+     * fetched in parallel.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testExportAll() throws Exception {
+        LOG.info("testExportAll");
+        final Archive archive = new Archive(250);
+        final List<String> written = new ArrayList<>();
+
+        final long count = new ArchiveExporter(archive, archive, 40, 10, 4).export(0, 0, entry -> {
+            assertNotNull("data", entry.getArchiveData());
+            written.add(entry.getArchiveId());
+        }, EXECUTOR_SERVICE);
+
+        assertEquals("count", 250, count);
+        assertEquals("written", 250, written.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals("order", String.format("%05d", i), written.get(i));
+        }
+        assertEquals("data calls", 25, archive.dataCalls.get());
+        assertEquals("page calls", 7, archive.pageCalls.get());
+        assertTrue("parallel: " + archive.maxConcurrent.get(), archive.maxConcurrent.get() > 1);
+        assertTrue("bounded: " + archive.maxConcurrent.get(), archive.maxConcurrent.get() <= 4);
+        assertFalse("executor not shut down", EXECUTOR_SERVICE.isShutdown());
+    }
+
+    /**
+     * Tests that the data is fetched in the calling thread when no executor
+     * service is given.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testExportWithoutExecutor() throws Exception {
+        LOG.info("testExportWithoutExecutor");
+        final Archive archive = new Archive(50);
+        final List<String> written = new ArrayList<>();
+
+        final long count = new ArchiveExporter(archive, archive, 20, 7, 4).export(0, 0, entry -> written.add(entry.getArchiveId()), null);
+
+        assertEquals("count", 50, count);
+        assertEquals("last", "00049", written.get(49));
+        assertEquals("sequential", 1, archive.maxConcurrent.get());
+    }
+
+    /**
+     * Tests skipping and limiting the number of entries.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSkipAndLimit() throws Exception {
+        LOG.info("testSkipAndLimit");
+        final Archive archive = new Archive(100);
+        final List<String> written = new ArrayList<>();
+
+        final long count = new ArchiveExporter(archive, archive, 20, 7, 2).export(35, 30, entry -> written.add(entry.getArchiveId()), EXECUTOR_SERVICE);
+
+        assertEquals("count", 30, count);
+        assertEquals("first", "00035", written.get(0));
+        assertEquals("last", "00064", written.get(29));
+        // Data only fetched for the exported entries
+        assertEquals("data calls", 5, archive.dataCalls.get());
+        assertEquals("page calls", 4, archive.pageCalls.get());
+    }
+
+    /**
+     * Tests the directory and ZIP sinks.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSinks() throws Exception {
+        LOG.info("testSinks");
+        final Archive archive = new Archive(5);
+        final ArchiveExporter instance = new ArchiveExporter(archive, archive,
+                ArchiveExporter.DEFAULT_PAGE_SIZE, ArchiveExporter.DEFAULT_FETCH_SIZE, ArchiveExporter.DEFAULT_THREADS);
+
+        final File dir = folder.newFolder();
+        assertEquals(5, instance.export(0, 0, ArchiveExporter.toDirectory(dir), EXECUTOR_SERVICE));
+        assertEquals("data00003", new String(Files.readAllBytes(new File(dir, "00003.response").toPath()), StandardCharsets.UTF_8));
+
+        final File zip = folder.newFile();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+            assertEquals(5, instance.export(0, 0, ArchiveExporter.toZip(out), EXECUTOR_SERVICE));
+        }
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+            int entries = 0;
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                assertEquals(String.format("%05d", entries) + ".response", entry.getName());
+                assertEquals("data" + String.format("%05d", entries), new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8));
+                entries++;
+            }
+            assertEquals("entries", 5, entries);
+        }
+    }
+}
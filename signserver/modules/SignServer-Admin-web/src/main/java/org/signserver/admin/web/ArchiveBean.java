@@ -18,6 +18,7 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -72,6 +73,9 @@ public class ArchiveBean {
     private String[] queryStrings = new String[] { DEFAULT_QUERY };
     private final PaginationSupport pagination = new PaginationSupport();
     private List<WebArchiveEntry> entries;
+    private ArchiveMetadata lastEntry;
+    private Long afterTime;
+    private String afterUniqueId;
     private String queryError;
     private List<QueryCondition> conditions;
     private String conditionToAddError;
@@ -126,18 +130,44 @@ public class ArchiveBean {
         pagination.setFromIndex(fromIndex - 1);
     }
 
+    public Long getAfterTime() {
+        return afterTime;
+    }
+
+    public void setAfterTime(Long afterTime) {
+        this.afterTime = afterTime;
+    }
+
+    public String getAfterUniqueId() {
+        return afterUniqueId;
+    }
+
+    public void setAfterUniqueId(String afterUniqueId) {
+        this.afterUniqueId = afterUniqueId;
+    }
+
     public void reloadAction() throws IOException {
         entries = null;
-        FacesContext.getCurrentInstance().getExternalContext().redirect("archive.xhtml?q=" + StringUtils.join(createQueryStrings(conditions), "&q=") + "&fromIndex=" + (pagination.getFromIndex() + 1) + "&maxEntries=" + pagination.getMaxEntries());
+        final StringBuilder url = new StringBuilder();
+        url.append("archive.xhtml?q=").append(StringUtils.join(createQueryStrings(conditions), "&q="))
+                .append("&fromIndex=").append(pagination.getFromIndex() + 1)
+                .append("&maxEntries=").append(pagination.getMaxEntries());
+        if (afterTime != null && afterUniqueId != null) {
+            url.append("&afterTime=").append(afterTime)
+                    .append("&afterUniqueId=").append(URLEncoder.encode(afterUniqueId, StandardCharsets.UTF_8.name()));
+        }
+        FacesContext.getCurrentInstance().getExternalContext().redirect(url.toString());
     }
 
     public void firstAction() throws IOException {
         pagination.goToFirst();
+        clearAfter();
         reloadAction();
     }
 
     public void previousAction() throws IOException {
         pagination.goBackwards();
+        clearAfter();
 
         // Reload
         reloadAction();
@@ -146,10 +176,24 @@ public class ArchiveBean {
     public void nextAction() throws IOException {
         pagination.goForward();
 
+        // Continue after the last entry instead of skipping all entries
+        // before it, which gets slower the further into the archive
+        if (lastEntry == null) {
+            clearAfter();
+        } else {
+            afterTime = lastEntry.getTime().getTime();
+            afterUniqueId = lastEntry.getUniqueId();
+        }
+
         // Reload
         reloadAction();
     }
 
+    private void clearAfter() {
+        afterTime = null;
+        afterUniqueId = null;
+    }
+
     public Integer getMaxEntries() {
         return pagination.getMaxEntries();
     }
@@ -177,21 +221,34 @@ public class ArchiveBean {
     public List<WebArchiveEntry> getEntries() throws AdminNotAuthorizedException {
         if (entries == null) {
             queryError = null;
+            // Same order as when continuing after an entry
             final QueryOrdering ordering = new QueryOrdering();
             ordering.setOrder(QueryOrdering.Order.DESC);
             ordering.setColumn(ArchiveMetadata.TIME);
+            final QueryOrdering secondaryOrdering = new QueryOrdering();
+            secondaryOrdering.setOrder(QueryOrdering.Order.DESC);
+            secondaryOrdering.setColumn(ArchiveMetadata.UNIQUE_ID);
 
             Boolean moreAvailable = null;
             try {
 
-                List<ArchiveMetadata> results = workerSessionBean.queryArchive(authBean.getAdminCertificate(),
-                        pagination.getFromIndex(), pagination.getMaxEntries(),
-                        getConditions(),
-                        Collections.singletonList(ordering), false);
-                if (results == null) {
+                final List<ArchiveMetadata> results;
+                if (afterTime != null && afterUniqueId != null) {
+                    results = workerSessionBean.queryArchiveAfter(authBean.getAdminCertificate(),
+                            afterTime, afterUniqueId, pagination.getMaxEntries(),
+                            getConditions(), true, false);
+                } else {
+                    results = workerSessionBean.queryArchive(authBean.getAdminCertificate(),
+                            pagination.getFromIndex(), pagination.getMaxEntries(),
+                            getConditions(),
+                            Arrays.asList(ordering, secondaryOrdering), false);
+                }
+                if (results == null || results.isEmpty()) {
                     entries = Collections.emptyList();
+                    lastEntry = null;
                 } else {
                     entries = convert(results);
+                    lastEntry = results.get(results.size() - 1);
                 }
                 pagination.updateResults(entries.size(), moreAvailable);
 
@@ -392,6 +449,10 @@ public class ArchiveBean {
         }
     }
 
+    public String downloadAllAction() {
+        return "archive-download?faces-redirect=true&amp;all=true&amp;q=" + StringUtils.join(createQueryStrings(getConditions()), "&amp;q=");
+    }
+
     public String getRequestedSelected() {
         return requestedSelected;
     }
@@ -14,9 +14,12 @@ package org.signserver.admin.web;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.security.cert.X509Certificate;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import javax.ejb.EJB;
@@ -25,7 +28,14 @@ import javax.faces.bean.ManagedProperty;
 import javax.faces.bean.ViewScoped;
 import javax.faces.context.ExternalContext;
 import javax.faces.context.FacesContext;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import org.apache.log4j.Logger;
+import org.cesecore.util.query.elems.Term;
+import org.signserver.admin.common.archive.ArchiveExporter;
+import org.signserver.admin.common.query.ArchiveFields;
+import org.signserver.admin.common.query.QueryCondition;
+import org.signserver.admin.common.query.QueryUtil;
 import org.signserver.common.ArchiveMetadata;
 import org.signserver.common.SignServerException;
 import org.signserver.admin.common.auth.AdminNotAuthorizedException;
@@ -45,6 +55,9 @@ public class ArchiveDownloadBean {
      */
     private static final Logger LOG = Logger.getLogger(ArchiveDownloadBean.class);
 
+    /** JNDI name of the executor service used for fetching archive data. */
+    private static final String EXECUTOR_SERVICE_NAME = "java:comp/DefaultManagedExecutorService";
+
     @EJB
     private AdminWebSessionBean workerSessionBean;
 
@@ -53,6 +66,7 @@ public class ArchiveDownloadBean {
 
     private String uniqueId;
     private String uniqueIds;
+    private boolean all;
     private String errorMessage;
 
     /**
@@ -85,6 +99,14 @@ public class ArchiveDownloadBean {
         this.uniqueIds = uniqueIds;
     }
 
+    public boolean isAll() {
+        return all;
+    }
+
+    public void setAll(boolean all) {
+        this.all = all;
+    }
+
     public String getErrorMessage() {
         return errorMessage;
     }
@@ -92,8 +114,10 @@ public class ArchiveDownloadBean {
     public void init() throws AdminNotAuthorizedException, IOException { // preRenderView in archive-download.xhtml
 
         try {
-            // Multiple entries ZIP:ed or one uncompressed?
-            if (uniqueIds != null && !uniqueIds.trim().isEmpty()) {
+            // All matching entries, multiple entries ZIP:ed or one uncompressed?
+            if (all) {
+                downloadAll();
+            } else if (uniqueIds != null && !uniqueIds.trim().isEmpty()) {
                 List<String> ids = new ArrayList<>();
                 for (String id : uniqueIds.split(",")) {
                     id = id.trim();
@@ -157,4 +181,62 @@ public class ArchiveDownloadBean {
         }
     }
 
+    /**
+     * Streams all entries matching the query as a ZIP file, reading the
+     * archive page by page.
+     */
+    private void downloadAll() throws AdminNotAuthorizedException, IOException {
+        final List<QueryCondition> conditions = new ArrayList<>();
+        final String[] q = FacesContext.getCurrentInstance().getExternalContext().getRequestParameterValuesMap().get("q");
+        if (q != null) {
+            for (String queryString : q) {
+                if (!queryString.trim().isEmpty()) {
+                    try {
+                        final Term t = QueryUtil.parseCriteria(queryString, ArchiveFields.ALLOWED_FIELDS, ArchiveFields.NO_ARG_OPS, Collections.<String>emptySet(), ArchiveFields.INT_FIELDS, ArchiveFields.DATE_FIELDS);
+                        conditions.add(new QueryCondition(t.getName(), t.getOperator(), t.getValue() == null ? null : String.valueOf(t.getValue())));
+                    } catch (IllegalArgumentException | ParseException ex) {
+                        errorMessage = "Incorrect query condition: " + ex.getMessage();
+                        return;
+                    }
+                }
+            }
+        }
+
+        final X509Certificate adminCertificate = authBean.getAdminCertificate();
+        final ArchiveExporter exporter = new ArchiveExporter(
+                (afterTime, afterUniqueId, max) -> workerSessionBean.queryArchiveAfter(adminCertificate, afterTime, afterUniqueId, max, conditions, true, false),
+                ids -> workerSessionBean.queryArchiveWithIds(adminCertificate, ids, true),
+                ArchiveExporter.DEFAULT_PAGE_SIZE, ArchiveExporter.DEFAULT_FETCH_SIZE, ArchiveExporter.DEFAULT_THREADS);
+
+        final FacesContext context = FacesContext.getCurrentInstance();
+        final ExternalContext externalContext = context.getExternalContext();
+
+        externalContext.responseReset();
+
+        // No content-length as we will be streaming
+        externalContext.setResponseContentType("application/zip");
+        externalContext.setResponseHeader("Content-Disposition", "attachment; filename=\"archives.zip");
+
+        try (ZipOutputStream out = new ZipOutputStream(externalContext.getResponseOutputStream())) {
+            final long count = exporter.export(0, 0, ArchiveExporter.toZip(out), getExecutorService());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Downloaded " + count + " archive entries");
+            }
+        }
+
+        context.responseComplete();
+    }
+
+    /**
+     * @return the container managed executor service to fetch the archive
+     * data with or null if not available
+     */
+    private ExecutorService getExecutorService() {
+        try {
+            return (ExecutorService) new InitialContext().lookup(EXECUTOR_SERVICE_NAME);
+        } catch (NamingException | ClassCastException ex) {
+            LOG.warn("No managed executor service available, archive data will be fetched in the request thread: " + ex.getMessage());
+            return null;
+        }
+    }
 }
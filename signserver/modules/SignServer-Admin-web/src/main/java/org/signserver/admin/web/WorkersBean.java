@@ -96,8 +96,8 @@ public class WorkersBean {
                     if (workerSetAsDisabled) {
                         w.setStatus(text.getString("DISABLED"));
                     } else {
-                        w.setStatus(workerSessionBean.getStatus(authBean.getAdminCertificate(),
-                                new WorkerIdentifier(id)).getFatalErrors().isEmpty()
+                        w.setStatus(workerSessionBean.getSnapshotStatus(authBean.getAdminCertificate(),
+                                new WorkerIdentifier(id), false).getFatalErrors().isEmpty()
                                         ? text.getString("ACTIVE") : text.getString("OFFLINE"));
                     }
                 } catch (Throwable ignored) { // NOPMD: We safe-guard for bugs in worker implementations and don't want the GUI to fail for those.
@@ -110,6 +110,25 @@ public class WorkersBean {
         return workers;
     }
 
+    /**
+     * @return the age of the status snapshot and the time the last refresh
+     * took, or null if no status snapshot is used
+     * @throws AdminNotAuthorizedException
+     */
+    public Object[] getStatusSnapshotInfo() throws AdminNotAuthorizedException {
+        final long age = workerSessionBean.getStatusSnapshotAge(authBean.getAdminCertificate());
+        if (age < 0) {
+            return null;
+        }
+        return new Object[] {age / 1000, workerSessionBean.getStatusSnapshotRefreshDuration(authBean.getAdminCertificate())};
+    }
+
+    public String refreshStatusAction() throws AdminNotAuthorizedException {
+        workerSessionBean.refreshStatusSnapshot(authBean.getAdminCertificate());
+        workers = null;
+        return "";
+    }
+
     public String getActivatePassword() {
         return activatePassword;
     }
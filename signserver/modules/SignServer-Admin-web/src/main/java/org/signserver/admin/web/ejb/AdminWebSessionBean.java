@@ -90,6 +90,7 @@ import org.signserver.common.data.SignatureResponse;
 import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
 import org.signserver.ejb.interfaces.ProcessSessionLocal;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 import org.signserver.server.CertificateClientCredential;
 import org.signserver.server.IClientCredential;
 import org.signserver.server.cryptotokens.TokenSearchResults;
@@ -122,6 +123,9 @@ public class AdminWebSessionBean {
     
     @EJB
     private ProcessSessionLocal process;
+
+    @EJB
+    private WorkerStatusSnapshotSessionLocal statusSnapshot;
     
     @EJB
     private SecurityEventsAuditorSessionLocal auditor;
@@ -155,6 +159,26 @@ public class AdminWebSessionBean {
         return worker.getStatus(wi);
     }
     
+    public WorkerStatus getSnapshotStatus(final X509Certificate adminCertificate, final WorkerIdentifier wi, final boolean forceRefresh) throws AdminNotAuthorizedException, InvalidWorkerIdException {
+        auth.requireAdminAuthorization(adminCertificate, "getStatus", wi.toString());
+        return statusSnapshot.getStatus(wi, forceRefresh);
+    }
+
+    public void refreshStatusSnapshot(final X509Certificate adminCertificate) throws AdminNotAuthorizedException {
+        auth.requireAdminAuthorization(adminCertificate, "refreshStatusSnapshot");
+        statusSnapshot.refresh();
+    }
+
+    public long getStatusSnapshotAge(final X509Certificate adminCertificate) throws AdminNotAuthorizedException {
+        auth.requireAdminAuthorization(adminCertificate, "getStatusSnapshotAge");
+        return statusSnapshot.getSnapshotAge();
+    }
+
+    public long getStatusSnapshotRefreshDuration(final X509Certificate adminCertificate) throws AdminNotAuthorizedException {
+        auth.requireAdminAuthorization(adminCertificate, "getStatusSnapshotRefreshDuration");
+        return statusSnapshot.getLastRefreshDuration();
+    }
+
     public boolean isTokenActive(final X509Certificate adminCertificate, final WorkerIdentifier wi) throws InvalidWorkerIdException, AuthorizationDeniedException, AdminNotAuthorizedException {
         auth.requireAdminAuthorization(adminCertificate, "isTokenActive", wi.toString());
         return worker.isTokenActive(wi);
@@ -703,6 +727,32 @@ public class AdminWebSessionBean {
         }
     }
 
+    public List<ArchiveMetadata> queryArchiveAfter(
+            final X509Certificate adminCertificate,
+            final Long afterTime,
+            final String afterUniqueId,
+            final int max,
+            final List<QueryCondition> conditions,
+            final boolean descending,
+            final boolean includeData)
+                    throws SignServerException, AdminNotAuthorizedException {
+        final AdminInfo adminInfo = auth.requireArchiveAuditorAuthorization(adminCertificate, "queryArchiveAfter", String.valueOf(afterTime), afterUniqueId, String.valueOf(max));
+
+        final List<Elem> elements = QueryUtil.toElements(conditions);
+        final QueryCriteria qc = QueryCriteria.create();
+
+        if (!elements.isEmpty()) {
+            qc.add(QueryUtil.andAll(elements, 0));
+        }
+
+        try {
+            return worker.searchArchiveAfter(adminInfo, afterTime,
+                    afterUniqueId, max, qc, descending, includeData);
+        } catch (AuthorizationDeniedException ex) {
+            throw new AdminNotAuthorizedException(ex.getMessage());
+        }
+    }
+
     public List<ArchiveMetadata> queryArchiveWithIds(
             final X509Certificate adminCertificate,
             List<String> uniqueIds,
@@ -18,7 +18,11 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipOutputStream;
 
+import org.signserver.admin.common.archive.ArchiveExporter;
 import org.signserver.admin.common.query.QueryUtil;
 import org.signserver.admin.cli.defaultimpl.AdminCommandHelper;
 import org.signserver.cli.spi.AbstractCommand;
@@ -53,6 +57,8 @@ public class QueryArchiveCommand extends AbstractCommand {
     public static final String REQUEST = "request";
     public static final String RESPONSE = "response";
     public static final String OUTPATH = "outpath";
+    public static final String OUTZIP = "outzip";
+    public static final String THREADS = "threads";
     
     /** The command line options */
     private static final Options OPTIONS;
@@ -62,6 +68,8 @@ public class QueryArchiveCommand extends AbstractCommand {
     private boolean printHeader;
     private QueryCriteria qc;
     private File outPath;
+    private File outZip;
+    private int threads = ArchiveExporter.DEFAULT_THREADS;
     
     private static final String HEADER_FIELDS = "archiveid, time, type, signerid, requestIssuerDN, requestCertSerialNumber, requestIP";
     private static final String HEADER_NAMES =  "Archive ID, Time, Type, Signer ID, Issuer DN, Certificate Serial Number, IP Address";
@@ -77,6 +85,8 @@ public class QueryArchiveCommand extends AbstractCommand {
         OPTIONS.addOption(REQUEST, false, "Search for requests");
         OPTIONS.addOption(RESPONSE, false, "Search for responses");
         OPTIONS.addOption(OUTPATH, true, "Directory to write output to");
+        OPTIONS.addOption(OUTZIP, true, "ZIP file to write output to");
+        OPTIONS.addOption(THREADS, true, "Number of parallel calls fetching archive data (default " + ArchiveExporter.DEFAULT_THREADS + ")");
     }
 
     @Override
@@ -86,16 +96,19 @@ public class QueryArchiveCommand extends AbstractCommand {
 
     @Override
     public String getUsages() {
-        return "Usage: signserver archive query -limit <number> [-criteria  \"<field> <op> <value>\" [-criteria...]] [-from <index>] [-header] [-request|-response] [-outpath <path>]\n"
+        return "Usage: signserver archive query -limit <number> [-criteria  \"<field> <op> <value>\" [-criteria...]] [-from <index>] [-header] [-request|-response] [-outpath <path>|-outzip <file>] [-threads <number>]\n"
         + "<field> is a field name from the archive: archiveid, requestCertSerialnumber, requestIP, requestIssuerDN, signerid, time, type, uniqueId\n"
         + "<op> is a relational operator: GT, GE, LT, LE, EQ, NEQ, LIKE, NULL, NOTNULL\n"
 	+ "-request shows only entries for requests\n"
 	+ "-response shows only entries for responses\n"
         + "if the -outpath option is given, archive data for the matched items are written to the given directory\n"
+        + "if the -outzip option is given, archive data for the matched items are written to the given ZIP file\n"
+        + "with -outpath or -outzip the matched items are read page by page and -limit is optional, to export all matched items\n"
         + "Example: signserver archive query -limit 10 -criteria \"signerid EQ 1\"\n"
 	+ "Example: signserver archive query -limit 10 -criteria \"signerid EQ 1\" -request\n"
         + "Example: signserver archive query -limit 10 -criteria \"time GT 1359623137000\" -criteria \"requestIP EQ 127.0.0.1\"\n"
-        + "Example: signserver archive query -limit 10 -criteria \"signerid EQ 1\" -outpath /tmp/out\n\n";
+        + "Example: signserver archive query -limit 10 -criteria \"signerid EQ 1\" -outpath /tmp/out\n"
+        + "Example: signserver archive query -criteria \"time GE 2013-02-11 00:00:00+0100\" -criteria \"time LT 2013-02-12 00:00:00+0100\" -outzip /tmp/out.zip\n\n";
     }
 
     @Override
@@ -110,50 +123,24 @@ public class QueryArchiveCommand extends AbstractCommand {
         }
         
         try {
-            // if an output path was specified, download data for result entries
-            final boolean downloadData = (outPath != null);
-            int downloadedItems = 0;
-            
             if (printHeader) {
                 out.println(HEADER_NAMES);
                 out.println(HEADER_FIELDS);
             }
- 
-            // Perform the query
-            List<? extends ArchiveMetadata> entries =
-                    helper.getWorkerSession().searchArchive(from, limit, qc, downloadData);
-    
-            for (final ArchiveMetadata entry : entries) {
-                // render the result
-                final StringBuilder buff = new StringBuilder();
-                final String type = ArchiveMetadata.getTypeName(entry.getType());
-                final String issuer =
-                        entry.getRequestIssuerDN() != null ? entry.getRequestIssuerDN() : "";
-                final String serial =
-                        entry.getRequestCertSerialNumber() != null ?
-                                entry.getRequestCertSerialNumber() : "";
-                final String ip =
-                        entry.getRequestIP() != null ? entry.getRequestIP() : "Local EJB";
-                
-                buff.append(entry.getArchiveId()).append(", ")
-                    .append(fdf.format(entry.getTime())).append(", ")
-                    .append(type).append(", ")
-                    .append(entry.getSignerId()).append(", ")
-                    .append(issuer).append(", ")
-                    .append(serial).append(", ")
-                    .append(ip);
-            
-                out.println(buff.toString());
-                
-                if (downloadData) {
-                    saveEntry(entry);
-                    downloadedItems++;
-                }
-            }
-            
-            if (downloadData) {
+
+            // if an output path was specified, download data for result entries
+            if (outPath != null || outZip != null) {
+                final long downloadedItems = export();
                 out.print(String.format("\nDownloaded %d archive entries",
                         downloadedItems));
+            } else {
+                // Perform the query
+                List<? extends ArchiveMetadata> entries =
+                        helper.getWorkerSession().searchArchive(from, limit, qc, false);
+
+                for (final ArchiveMetadata entry : entries) {
+                    out.println(render(entry));
+                }
             }
             
             out.println("\n\n");
@@ -162,13 +149,62 @@ public class QueryArchiveCommand extends AbstractCommand {
             throw new UnexpectedCommandFailureException(e);
         }
     }
-    
-    private void saveEntry(final ArchiveMetadata entry) throws IOException {
-        final String fileName = entry.suggestedFilename();
-        final File outfile = new File(outPath, fileName);
-        final FileOutputStream fis = new FileOutputStream(outfile);
+
+    /**
+     * Writes the archive data for all matched entries, reading the archive
+     * page by page instead of all at once.
+     */
+    private long export() throws IOException {
+        final ArchiveExporter exporter = new ArchiveExporter(
+                (afterTime, afterUniqueId, max) -> helper.getWorkerSession().searchArchiveAfter(afterTime, afterUniqueId, max, qc, true, false),
+                uniqueIds -> helper.getWorkerSession().searchArchiveWithIds(uniqueIds, true),
+                ArchiveExporter.DEFAULT_PAGE_SIZE, ArchiveExporter.DEFAULT_FETCH_SIZE, threads);
+
+        if (outZip != null) {
+            try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(outZip))) {
+                return export(exporter, ArchiveExporter.toZip(zip));
+            }
+        } else {
+            return export(exporter, ArchiveExporter.toDirectory(outPath));
+        }
+    }
+
+    private long export(final ArchiveExporter exporter, final ArchiveExporter.Sink sink) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "ArchiveExporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            return exporter.export(from, limit, entry -> {
+                out.println(render(entry));
+                sink.write(entry);
+            }, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String render(final ArchiveMetadata entry) {
+        // render the result
+        final StringBuilder buff = new StringBuilder();
+        final String type = ArchiveMetadata.getTypeName(entry.getType());
+        final String issuer =
+                entry.getRequestIssuerDN() != null ? entry.getRequestIssuerDN() : "";
+        final String serial =
+                entry.getRequestCertSerialNumber() != null ?
+                        entry.getRequestCertSerialNumber() : "";
+        final String ip =
+                entry.getRequestIP() != null ? entry.getRequestIP() : "Local EJB";
         
-        fis.write(entry.getArchiveData());
+        buff.append(entry.getArchiveId()).append(", ")
+            .append(fdf.format(entry.getTime())).append(", ")
+            .append(type).append(", ")
+            .append(entry.getSignerId()).append(", ")
+            .append(issuer).append(", ")
+            .append(serial).append(", ")
+            .append(ip);
+        return buff.toString();
     }
     
     private void parseCommandLine(final CommandLine line) throws ParseException {
@@ -195,7 +231,7 @@ public class QueryArchiveCommand extends AbstractCommand {
             } catch (NumberFormatException ex) {
                 throw new ParseException("Invalid limit value: " + limitString);
             }
-        } else {
+        } else if (!line.hasOption(OUTPATH) && !line.hasOption(OUTZIP)) {
             throw new ParseException("Must specify a limit.");
         }
         
@@ -207,12 +243,32 @@ public class QueryArchiveCommand extends AbstractCommand {
             qc.add(new Term(RelationalOperator.EQ, ArchiveMetadata.TYPE, ArchiveDataVO.TYPE_RESPONSE));
         }
         
-        if (line.hasOption(OUTPATH)) {
+        if (line.hasOption(OUTPATH) && line.hasOption(OUTZIP)) {
+            throw new ParseException("Can not specify both -outpath and -outzip at the same time");
+        } else if (line.hasOption(OUTPATH)) {
             outPath = new File(line.getOptionValue(OUTPATH));
             
             if (!outPath.isDirectory()) {
                 throw new ParseException("Output path must be a directory");
             }
+        } else if (line.hasOption(OUTZIP)) {
+            outZip = new File(line.getOptionValue(OUTZIP));
+
+            if (outZip.isDirectory()) {
+                throw new ParseException("Output ZIP file must not be a directory");
+            }
+        }
+
+        final String threadsString = line.getOptionValue(THREADS);
+        if (threadsString != null) {
+            try {
+                threads = Integer.parseInt(threadsString);
+            } catch (NumberFormatException ex) {
+                throw new ParseException("Invalid threads value: " + threadsString);
+            }
+            if (threads < 1) {
+                throw new ParseException("Too small value specified for threads: " + threads);
+            }
         }
         
         final String[] criterias = line.getOptionValues(ArchiveFields.CRITERIA);
@@ -14,6 +14,9 @@ package org.signserver.client.cli.defaultimpl;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import org.signserver.common.CryptoTokenOfflineException;
 import org.signserver.common.IllegalRequestException;
@@ -52,6 +55,52 @@ public abstract class AbstractSODSigner implements SODSigner {
         doSign(dataGroups, ENCODING_BINARY, out);
     }
 
+    /**
+     * Splits concatenated DER encoded SODs.
+     *
+     * @param data the encoded SODs
+     * @return each SOD
+     * @throws IOException if the data is not correctly encoded
+     */
+    protected static List<byte[]> splitSODs(final byte[] data) throws IOException {
+        final List<byte[]> result = new ArrayList<>();
+        int pos = 0;
+        while (pos < data.length) {
+            final int start = pos;
+            if ((data[pos++] & 0x1f) == 0x1f) {
+                // High tag number
+                while (pos < data.length && (data[pos] & 0x80) != 0) {
+                    pos++;
+                }
+                pos++;
+            }
+            if (pos >= data.length) {
+                throw new IOException("Truncated SOD at offset " + start);
+            }
+            long length = data[pos++] & 0xff;
+            if (length > 0x7f) {
+                final int count = (int) (length & 0x7f);
+                if (count == 0 || count > 4) {
+                    throw new IOException("Unsupported length encoding at offset " + start);
+                }
+                length = 0;
+                for (int i = 0; i < count; i++) {
+                    if (pos >= data.length) {
+                        throw new IOException("Truncated SOD at offset " + start);
+                    }
+                    length = (length << 8) | (data[pos++] & 0xff);
+                }
+            }
+            final long end = pos + length;
+            if (end > data.length) {
+                throw new IOException("Truncated SOD at offset " + start);
+            }
+            result.add(Arrays.copyOfRange(data, start, (int) end));
+            pos = (int) end;
+        }
+        return result;
+    }
+
     protected abstract void doSign(final Map<Integer, byte[]> dataGroups, final String encoding,
             final OutputStream out) throws IllegalRequestException,
                 CryptoTokenOfflineException, SignServerException,
@@ -0,0 +1,161 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
+
+/**
+ * Append-only journal of the input files completed in batch mode, so that a
+ * restarted run can skip them.
+ *
+ * Each file is recorded as a 64-bit key computed from its name, size and
+ * last modification time, so a file replaced with new content is processed
+ * again. With 8 bytes per file the journal stays small also for millions of
+ * files, at the cost of a negligible probability of two files getting the
+ * same key. Each key is written directly to the file so at most the key
+ * being written is lost if the process is killed; an incomplete last record
+ * is discarded when the journal is opened again.
+ *
+ * All methods are thread-safe.
+ *
+ * @version $Id$
+ */
+public class CheckpointJournal implements AutoCloseable {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(CheckpointJournal.class);
+
+    private static final int RECORD_SIZE = Long.BYTES;
+
+    private final File file;
+    private final FileChannel channel;
+
+    /** Keys from earlier runs, sorted. */
+    private final long[] previous;
+
+    /** Keys recorded in this run. */
+    private final Set<Long> recorded = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Opens the journal, creating it if it does not exist.
+     *
+     * @param file to store the journal in
+     * @throws IOException in case of failure reading or opening the file
+     */
+    public CheckpointJournal(final File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final long size = channel.size();
+            final long complete = size - size % RECORD_SIZE;
+            if (complete != size) {
+                LOG.warn("Discarding incomplete last record of checkpoint journal " + file);
+                channel.truncate(complete);
+            }
+            if (complete / RECORD_SIZE > Integer.MAX_VALUE) {
+                throw new IOException("Checkpoint journal too large: " + file);
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate((int) complete);
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) { // NOPMD
+                // Read until full
+            }
+            buffer.flip();
+            previous = new long[(int) (complete / RECORD_SIZE)];
+            buffer.asLongBuffer().get(previous);
+            Arrays.sort(previous);
+            channel.position(complete);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Computes the key of a file from its name, size and last modification
+     * time.
+     *
+     * @param file to get the key for
+     * @return the key
+     */
+    public static long key(final File file) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(file.getName().getBytes(StandardCharsets.UTF_8));
+            md.update(ByteBuffer.allocate(1 + 2 * Long.BYTES)
+                    .put((byte) 0).putLong(file.length()).putLong(file.lastModified()).array());
+            return ByteBuffer.wrap(md.digest()).getLong();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param file to check
+     * @return true if the file is recorded as completed
+     */
+    public boolean isCompleted(final File file) {
+        final long key = key(file);
+        return Arrays.binarySearch(previous, key) >= 0 || recorded.contains(key);
+    }
+
+    /**
+     * Records a file as completed. Should be called while the file still
+     * exists and before it is modified.
+     *
+     * @param file to record
+     * @throws IOException in case of failure writing to the journal
+     */
+    public void record(final File file) throws IOException {
+        final long key = key(file);
+        if (recorded.add(key)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE).putLong(key);
+            buffer.flip();
+            synchronized (channel) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of files recorded in earlier runs and this one
+     */
+    public int size() {
+        return previous.length + recorded.size();
+    }
+
+    /**
+     * @return the file the journal is stored in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -34,6 +34,9 @@ import org.signserver.client.clientws.DataResponse;
 import org.signserver.client.clientws.InternalServerException_Exception;
 import org.signserver.client.clientws.Metadata;
 import org.signserver.client.clientws.RequestFailedException_Exception;
+import org.signserver.client.clientws.SodBatchRequest;
+import org.signserver.client.clientws.SodBatchResponse;
+import org.signserver.client.clientws.SodDocument;
 import org.signserver.client.clientws.SodRequest;
 import org.signserver.common.CryptoTokenOfflineException;
 import org.signserver.common.IllegalRequestException;
@@ -157,4 +160,57 @@ public class ClientWSSODSigner extends AbstractSODSigner {
         }
     }
 
+    @Override
+    public List<byte[]> signBatch(final List<Map<Integer, byte[]>> documents,
+            final String encoding) throws IllegalRequestException,
+                CryptoTokenOfflineException, SignServerException,
+                IOException {
+        try {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Sending batch sign request containing "
+                        + documents.size() + " documents to worker " + workerName);
+            }
+            final long startTime = System.nanoTime();
+
+            final SodBatchRequest request = new SodBatchRequest();
+            for (Map<Integer, byte[]> dataGroups : documents) {
+                final SodDocument document = new SodDocument();
+                for (Map.Entry<Integer, byte[]> entry : dataGroups.entrySet()) {
+                    DataGroup dg = new DataGroup();
+                    dg.setId(entry.getKey());
+                    dg.setValue(entry.getValue());
+                    document.getDataGroup().add(dg);
+                }
+                request.getDocument().add(document);
+            }
+
+            List<Metadata> requestMetadata = new LinkedList<>();
+            if (metadata != null) {
+                for (final String key : metadata.keySet()) {
+                    final Metadata md = new Metadata();
+                    md.setName(key);
+                    md.setValue(metadata.get(key));
+                    requestMetadata.add(md);
+                }
+            }
+
+            final SodBatchResponse response = signServer.processSODBatch(workerName,
+                        requestMetadata, request);
+            if (response.getSod().size() != documents.size()) {
+                throw new SignServerException("Expected " + documents.size()
+                        + " SODs in response but got " + response.getSod().size());
+            }
+
+            if (LOG.isInfoEnabled()) {
+                LOG.info("Processing " + documents.size() + " documents took "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+            }
+            return response.getSod();
+        } catch (InternalServerException_Exception ex) {
+            throw new SignServerException("Exception at server side: " + ex.getLocalizedMessage(), ex);
+        } catch (RequestFailedException_Exception ex) {
+            throw new IllegalRequestException("Client request failed: " + ex.getLocalizedMessage(), ex);
+        }
+    }
+
 }
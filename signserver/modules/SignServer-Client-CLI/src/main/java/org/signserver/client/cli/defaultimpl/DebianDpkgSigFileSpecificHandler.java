@@ -0,0 +1,158 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Locale;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.bcpg.ArmoredInputStream;
+import org.bouncycastle.cms.CMSAlgorithm;
+import org.bouncycastle.openpgp.PGPSignatureList;
+import org.bouncycastle.openpgp.jcajce.JcaPGPObjectFactory;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.signserver.debiandpkgsig.ar.ParsedArFile;
+import org.signserver.debiandpkgsig.utils.DebianDpkgSigUtils;
+
+/**
+ * File specific handler for client-side hashing and construction of
+ * dpkg-sig signed Debian packages.
+ *
+ * The package is copied to the output file while the digests of its entries
+ * are computed. Only the dpkg-sig manifest with the digests is sent to the
+ * signer, which should be an OpenPGPSigner producing clear-text signatures,
+ * and the signed manifest is then appended as the _gpgbuilder entry.
+ *
+ * The manifest contains the fingerprint of the signing key, which has to be
+ * provided as the signature does not contain it. The key ID of the returned
+ * signature is checked against the fingerprint.
+ *
+ * @version $Id$
+ */
+public class DebianDpkgSigFileSpecificHandler extends AbstractFileSpecificHandler {
+
+    /** File type identifier. */
+    public static final String TYPE_ID = "DPKG";
+
+    private static final AlgorithmIdentifier MD5 = new AlgorithmIdentifier(CMSAlgorithm.MD5);
+    private static final AlgorithmIdentifier SHA1 = new AlgorithmIdentifier(CMSAlgorithm.SHA1);
+
+    private static final byte[] SIGNATURE_BEGIN = "-----BEGIN PGP SIGNATURE-----".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] fingerprint;
+    private final Date signingTime;
+    private OutputStream out;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param inFile package to sign
+     * @param outFile to write the signed package to
+     * @param fingerprint of the OpenPGP key used by the signer
+     * @param signingTime to put in the manifest
+     */
+    public DebianDpkgSigFileSpecificHandler(final File inFile, final File outFile,
+                                            final byte[] fingerprint,
+                                            final Date signingTime) {
+        super(inFile, outFile);
+        this.fingerprint = fingerprint;
+        this.signingTime = signingTime;
+    }
+
+    @Override
+    public boolean isSignatureInputHash() {
+        return false;
+    }
+
+    @Override
+    public InputSource produceSignatureInput(final String algorithm) throws IOException {
+        // The manifest always uses MD5 and SHA-1, regardless of the algorithm
+        out = closeLater(new BufferedOutputStream(new FileOutputStream(getOutFile())));
+
+        final ParsedArFile arFile;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(getInFile()))) {
+            arFile = ParsedArFile.parseCopyAndHash(in, out, MD5, SHA1);
+        } catch (OperatorCreationException ex) {
+            throw new IOException("Unable to digest package entries: " + ex.getMessage(), ex);
+        }
+
+        final String manifest =
+                DebianDpkgSigUtils.createManifest(fingerprint, signingTime, arFile);
+        return new InputSource(manifest.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void assemble(final OutputCollector oc) throws IOException, IllegalArgumentException {
+        final byte[] signedManifest = oc.toByteArray();
+        checkKeyID(signedManifest);
+
+        DebianDpkgSigUtils.writeSignatureEntry(out, signedManifest, signingTime);
+        out.close();
+    }
+
+    /**
+     * Check that the signature is made by the key given by the fingerprint in
+     * the manifest, as a signer using an other key would give a package that
+     * can not be verified.
+     */
+    private void checkKeyID(final byte[] signedManifest) throws IOException {
+        final int start = indexOf(signedManifest, SIGNATURE_BEGIN);
+        if (start < 0) {
+            throw new IllegalArgumentException("Response is not a clear-text signature. The signer should be an OpenPGPSigner with DETACHEDSIGNATURE=FALSE");
+        }
+
+        final Object object;
+        try (InputStream in = new ArmoredInputStream(new ByteArrayInputStream(signedManifest, start, signedManifest.length - start))) {
+            object = new JcaPGPObjectFactory(in).nextObject();
+        }
+        if (!(object instanceof PGPSignatureList) || ((PGPSignatureList) object).isEmpty()) {
+            throw new IllegalArgumentException("No signature found in response");
+        }
+
+        final long keyID = ((PGPSignatureList) object).get(0).getKeyID();
+        final long expectedKeyID = ByteBuffer.wrap(fingerprint, fingerprint.length - Long.BYTES, Long.BYTES).getLong();
+        if (keyID != expectedKeyID) {
+            throw new IllegalArgumentException("Signature made by key "
+                    + Long.toHexString(keyID).toUpperCase(Locale.ENGLISH)
+                    + " but the fingerprint is "
+                    + Hex.toHexString(fingerprint).toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    private static int indexOf(final byte[] data, final byte[] pattern) {
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            if (Arrays.areEqual(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String getFileTypeIdentifier() {
+        return TYPE_ID;
+    }
+
+}
@@ -0,0 +1,246 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import org.bouncycastle.util.encoders.DecoderException;
+import org.bouncycastle.util.encoders.Hex;
+import org.signserver.client.cli.spi.FileSpecificHandlerFactory;
+
+/**
+ * FileSpecificHandlerFactory creating handlers for client-side hashing and
+ * construction of dpkg-sig signed Debian packages.
+ *
+ * The fingerprint of the signer's OpenPGP key is given with the extra option
+ * KEY_FINGERPRINT. Without client-side construction a straight handler is
+ * created. Without a file type, client-side construction is only done for
+ * files starting as an ar archive, as Debian packages do.
+ *
+ * @version $Id$
+ */
+public class DebianDpkgSigFileSpecificHandlerFactory implements FileSpecificHandlerFactory {
+
+    /** Extra option with the fingerprint of the signer's OpenPGP key. */
+    public static final String KEY_FINGERPRINT = "KEY_FINGERPRINT";
+
+    /** Length of a version 4 OpenPGP key fingerprint. */
+    private static final int FINGERPRINT_LENGTH = 20;
+
+    /** Magic string an ar archive, like a Debian package, starts with. */
+    private static final byte[] AR_MAGIC = "!<arch>\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Override
+    public FileSpecificHandler createHandler(final File inFile, final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions)
+            throws IOException {
+        if (clientSide && !isArArchive(inFile)) {
+            throw new IllegalArgumentException("Client-side construction is only supported for Debian packages, specify -filetype for other files: " + inFile.getName());
+        }
+        return createHandlerForType(inFile, outFile, clientSide, extraOptions);
+    }
+
+    private FileSpecificHandler createHandlerForType(final File inFile, final File outFile,
+                                                     final boolean clientSide,
+                                                     final Map<String, String> extraOptions) {
+        if (!clientSide) {
+            return new StraightFileSpecificHandler(inFile, inFile.length());
+        }
+        return new DebianDpkgSigFileSpecificHandler(inFile, outFile,
+                                                    getFingerprint(extraOptions),
+                                                    new Date());
+    }
+
+    @Override
+    public FileSpecificHandler createHandler(final File inFile, final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions,
+                                             final String workerName)
+            throws IOException {
+        return createHandler(inFile, outFile, clientSide, extraOptions);
+    }
+
+    @Override
+    public FileSpecificHandler createHandler(final File inFile, final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions,
+                                             final String workerName,
+                                             final DocumentSignerFactory signerFactory,
+                                             final Map<String, Object> requestContext,
+                                             final Map<String, String> metadata)
+            throws IOException {
+        return createHandler(inFile, outFile, clientSide, extraOptions);
+    }
+
+    @Override
+    public FileSpecificHandler createHandler(final File inFile, final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions,
+                                             final int workerId)
+            throws IOException {
+        return createHandler(inFile, outFile, clientSide, extraOptions);
+    }
+
+    @Override
+    public FileSpecificHandler createHandler(final File inFile, final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions,
+                                             final int workerId,
+                                             final DocumentSignerFactory signerFactory,
+                                             final Map<String, Object> requestContext,
+                                             final Map<String, String> metadata)
+            throws IOException {
+        return createHandler(inFile, outFile, clientSide, extraOptions);
+    }
+
+    @Override
+    public FileSpecificHandler createHandler(final byte[] inData, final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions) {
+        if (clientSide) {
+            throw new IllegalArgumentException("Client-side contruction is only supported for input files");
+        }
+        return new StraightFileSpecificHandler(inData);
+    }
+
+    @Override
+    public FileSpecificHandler createHandler(final String fileType,
+                                             final File inFile,
+                                             final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions)
+            throws IOException {
+        checkFileType(fileType);
+        return createHandlerForType(inFile, outFile, clientSide, extraOptions);
+    }
+
+    @Override
+    public FileSpecificHandler createHandler(final String fileType,
+                                             final File inFile,
+                                             final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions,
+                                             final String workerName)
+            throws IOException {
+        return createHandler(fileType, inFile, outFile, clientSide, extraOptions);
+    }
+
+    @Override
+    public FileSpecificHandler createHandler(final String fileType,
+                                             final File inFile,
+                                             final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions,
+                                             final String workerName,
+                                             final DocumentSignerFactory signerFactory,
+                                             final Map<String, Object> requestContext,
+                                             final Map<String, String> metadata)
+            throws IOException {
+        return createHandler(fileType, inFile, outFile, clientSide, extraOptions);
+    }
+
+    @Override
+    public FileSpecificHandler createHandler(final String fileType,
+                                             final File inFile,
+                                             final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions,
+                                             final int workerId)
+            throws IOException {
+        return createHandler(fileType, inFile, outFile, clientSide, extraOptions);
+    }
+
+    @Override
+    public FileSpecificHandler createHandler(final String fileType,
+                                             final File inFile,
+                                             final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions,
+                                             final int workerId,
+                                             final DocumentSignerFactory signerFactory,
+                                             final Map<String, Object> requestContext,
+                                             final Map<String, String> metadata)
+            throws IOException {
+        return createHandler(fileType, inFile, outFile, clientSide, extraOptions);
+    }
+
+    @Override
+    public FileSpecificHandler createHandler(final String fileType,
+                                             final byte[] inData,
+                                             final File outFile,
+                                             final boolean clientSide,
+                                             final Map<String, String> extraOptions) {
+        checkFileType(fileType);
+        return createHandler(inData, outFile, clientSide, extraOptions);
+    }
+
+    @Override
+    public boolean canCreateClientSideCapableHandler() {
+        return true;
+    }
+
+    @Override
+    public boolean canHandleFileType(final String fileType) {
+        return DebianDpkgSigFileSpecificHandler.TYPE_ID.equalsIgnoreCase(fileType);
+    }
+
+    private void checkFileType(final String fileType) {
+        if (!canHandleFileType(fileType)) {
+            throw new IllegalArgumentException("Unsupported file type: " + fileType);
+        }
+    }
+
+    /**
+     * @return true if the file starts with the magic string of an ar archive
+     */
+    private static boolean isArArchive(final File file) throws IOException {
+        final byte[] magic = new byte[AR_MAGIC.length];
+        int read = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while (read < magic.length && (n = in.read(magic, read, magic.length - read)) != -1) {
+                read += n;
+            }
+        }
+        return read == magic.length && Arrays.equals(AR_MAGIC, magic);
+    }
+
+    /**
+     * Get the fingerprint from the extra options. Spaces, as in the output
+     * from gpg, are allowed.
+     */
+    private static byte[] getFingerprint(final Map<String, String> extraOptions) {
+        final String value = extraOptions == null ? null : extraOptions.get(KEY_FINGERPRINT);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing extra option " + KEY_FINGERPRINT + " with the fingerprint of the signer's OpenPGP key");
+        }
+
+        final byte[] fingerprint;
+        try {
+            fingerprint = Hex.decode(value.replace(" ", ""));
+        } catch (DecoderException ex) {
+            throw new IllegalArgumentException("Malformed " + KEY_FINGERPRINT + ": " + ex.getMessage());
+        }
+        if (fingerprint.length != FINGERPRINT_LENGTH) {
+            throw new IllegalArgumentException("Malformed " + KEY_FINGERPRINT + ": expected " + FINGERPRINT_LENGTH + " bytes but was " + fingerprint.length);
+        }
+        return fingerprint;
+    }
+}
@@ -0,0 +1,270 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * Producer of the input files in batch mode, reading the input directory
+ * incrementally instead of listing all files up front.
+ *
+ * A background thread iterates over the directory and puts the files in a
+ * bounded queue, so the memory used does not depend on the number of files
+ * and the signing can start directly. Files already recorded in the
+ * checkpoint journal are skipped.
+ *
+ * In watch mode the directory is monitored for new files after the initial
+ * listing. A new or modified file is only queued after no change has been
+ * seen for it during the settle time, to not pick up files still being
+ * written. Watch mode continues until the ingester is closed. A file is
+ * remembered from being queued until it is completed or removed, so that
+ * it is not queued again unless it has been changed.
+ *
+ * @version $Id$
+ */
+public class DirectoryIngester implements Closeable {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(DirectoryIngester.class);
+
+    /** Default number of files to have queued. */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    /** Default time without changes before a file is picked up in watch mode. */
+    public static final long DEFAULT_SETTLE_TIME = 1000;
+
+    private final Path inDir;
+    private final CheckpointJournal journal;
+    private final File journalFile;
+    private final boolean watch;
+    private final long settleTime;
+    private final BlockingQueue<File> queue;
+    private final Thread thread;
+
+    /** Keys of the files queued in watch mode, to not queue a file twice. */
+    private final ConcurrentMap<File, Long> queued = new ConcurrentHashMap<>();
+
+    private volatile boolean finished;
+    private volatile boolean closed;
+    private volatile IOException error;
+
+    /**
+     * Creates a new instance. Call start() to begin reading the directory.
+     *
+     * @param inDir directory to read files from
+     * @param capacity maximum number of files to have queued
+     * @param journal of files to skip or null
+     * @param watch if new files should be picked up until closed
+     * @param settleTime milliseconds without changes before picking up a
+     * file in watch mode
+     */
+    public DirectoryIngester(final File inDir, final int capacity,
+            final CheckpointJournal journal, final boolean watch,
+            final long settleTime) {
+        this.inDir = inDir.toPath();
+        this.journal = journal;
+        this.journalFile = journal == null ? null : canonical(journal.getFile());
+        this.watch = watch;
+        this.settleTime = settleTime;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::run, "DirectoryIngester");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the background thread reading the directory.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * @return the next file if one is available directly, otherwise null
+     */
+    public File poll() {
+        return queue.poll();
+    }
+
+    /**
+     * @return true if all files have been read and taken from the queue
+     */
+    public boolean isDone() {
+        return finished && queue.isEmpty();
+    }
+
+    /**
+     * @return the error that stopped the reading or null
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    private void run() {
+        try {
+            if (watch) {
+                try (WatchService watcher = inDir.getFileSystem().newWatchService()) {
+                    // Register before listing to not miss any file
+                    inDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    scan();
+                    watch(watcher);
+                }
+            } else {
+                scan();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            if (!closed) {
+                LOG.error("Directory reading interrupted");
+                error = new IOException("Interrupted", ex);
+            }
+        } catch (IOException ex) {
+            LOG.error("Failed to read directory " + inDir + ": " + ex.getMessage());
+            error = ex;
+        } finally {
+            finished = true;
+        }
+    }
+
+    private void scan() throws IOException, InterruptedException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(inDir)) {
+            for (Path path : stream) {
+                if (closed) {
+                    return;
+                }
+                offer(path.toFile());
+            }
+        }
+    }
+
+    private void watch(final WatchService watcher) throws IOException, InterruptedException {
+        final Map<Path, Long> pending = new LinkedHashMap<>();
+        while (!closed) {
+            final WatchKey key = watcher.poll(Math.max(settleTime / 2, 1), TimeUnit.MILLISECONDS);
+            final long now = System.nanoTime();
+            if (key != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        LOG.debug("Events lost, listing directory again");
+                        scan();
+                    } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        final Path path = inDir.resolve((Path) event.context());
+                        pending.remove(path);
+                        queued.remove(path.toFile());
+                    } else {
+                        pending.put(inDir.resolve((Path) event.context()), now);
+                    }
+                }
+                if (!key.reset()) {
+                    throw new IOException("Directory no longer accessible: " + inDir);
+                }
+            }
+            final Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<Path, Long> entry = it.next();
+                if (now - entry.getValue() >= TimeUnit.MILLISECONDS.toNanos(settleTime)) {
+                    it.remove();
+                    offer(entry.getKey().toFile());
+                }
+            }
+        }
+    }
+
+    private void offer(final File file) throws InterruptedException {
+        if (file.isDirectory()) {
+            LOG.warn("Skipping directory: " + file.getName());
+            return;
+        }
+        if (!file.isFile()) {
+            // Removed since listed
+            return;
+        }
+        if (journal != null) {
+            if (file.getName().equals(journalFile.getName())
+                    && canonical(file).equals(journalFile)) {
+                return;
+            }
+            if (journal.isCompleted(file)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Skipping already completed file: " + file.getName());
+                }
+                return;
+            }
+        }
+        if (watch) {
+            final Long key = CheckpointJournal.key(file);
+            if (key.equals(queued.put(file, key))) {
+                // Already queued and not changed since
+                return;
+            }
+        }
+        queue.put(file);
+    }
+
+    /**
+     * @param file to resolve
+     * @return the canonical file or the absolute file if it can not be
+     * resolved, for comparing files given through different paths
+     */
+    private static File canonical(final File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException ex) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    /**
+     * Forgets a file that has been processed so that the files remembered in
+     * watch mode do not grow with the number of files.
+     *
+     * @param file that has been completed
+     */
+    public void completed(final File file) {
+        queued.remove(file);
+    }
+
+    /**
+     * @return number of files remembered as queued in watch mode
+     */
+    int getQueuedCount() {
+        return queued.size();
+    }
+
+    /**
+     * Stops reading the directory. Files already queued can still be taken.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+}
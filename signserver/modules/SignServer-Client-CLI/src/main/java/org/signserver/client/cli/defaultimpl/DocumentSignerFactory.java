@@ -44,6 +44,7 @@ public class DocumentSignerFactory {
     private final String pdfPassword;
     private final HostManager hostsManager;
     private final int timeOutLimit;
+    private final HTTPTransport transport;
 
     /**
      * Create a signer factory given command invocation parameters.
@@ -73,6 +74,43 @@ public class DocumentSignerFactory {
                                  final String pdfPassword,
                                  final HostManager hostsManager,
                                  final int timeOutLimit) {
+        this(protocol, keyStoreOptions, host, servlet, port, digestAlgorithm,
+             username, currentPassword, accessToken, pdfPassword, hostsManager,
+             timeOutLimit, null);
+    }
+
+    /**
+     * Create a signer factory given command invocation parameters and a
+     * shared HTTP transport.
+     *
+     * @param protocol Request protococl (HTTP, CLIENTWS, or WEBSERVICES)
+     * @param keyStoreOptions Options for client certificate keystore
+     * @param host Servlet host
+     * @param servlet Servlet enpoint
+     * @param port Servlet port
+     * @param digestAlgorithm Digest algorithm
+     * @param username Username when using HTTP Basic authentication
+     * @param currentPassword Password for HTTP Basic authentication
+     * @param accessToken Access token to use with JWT authentication
+     * @param pdfPassword PDF password (used by PDFSigner for password-protected PDFs)
+     * @param hostsManager Hosts manager
+     * @param timeOutLimit Timeout limit
+     * @param transport Transport re-using connections for protocol HTTP or
+     * null to open a new connection for each request
+     */
+    public DocumentSignerFactory(final Protocol protocol,
+                                 final KeyStoreOptions keyStoreOptions,
+                                 final String host,
+                                 final String servlet,
+                                 final Integer port,
+                                 final String digestAlgorithm,
+                                 final String username,
+                                 final String currentPassword,
+                                 final String accessToken,
+                                 final String pdfPassword,
+                                 final HostManager hostsManager,
+                                 final int timeOutLimit,
+                                 final HTTPTransport transport) {
         this.protocol = protocol;
         this.host = host;
         this.servlet = servlet;
@@ -84,6 +122,7 @@ public class DocumentSignerFactory {
         this.pdfPassword = pdfPassword;
         this.hostsManager = hostsManager;
         this.timeOutLimit = timeOutLimit;
+        this.transport = transport;
         sf = keyStoreOptions.setupHTTPS(createConsolePasswordReader(), out); // TODO: Should be done earlier and only once (not for each signer)
         
         if (port == null) {
@@ -149,7 +188,9 @@ public class DocumentSignerFactory {
             if (isSignatureInputHash) {
                 metadata.put("USING_CLIENTSUPPLIED_HASH", "true");
             }
-            metadata.put("CLIENTSIDE_HASHDIGESTALGORITHM", digestAlgorithm);
+            if (digestAlgorithm != null) {
+                metadata.put("CLIENTSIDE_HASHDIGESTALGORITHM", digestAlgorithm);
+            }
         }
 
         if (typeId != null) {
@@ -211,14 +252,14 @@ public class DocumentSignerFactory {
                                                     workerName, username,
                                                     currentPassword, accessToken,
                                                     pdfPassword, metadata,
-                                                    timeOutLimit);
+                                                    timeOutLimit, transport);
                 } else {
                     signer = new HTTPDocumentSigner(hostsManager, port, servlet,
                                                     keyStoreOptions.isUseHTTPS(),
                                                     workerId, username,
                                                     currentPassword, accessToken,
                                                     pdfPassword, metadata,
-                                                    timeOutLimit);
+                                                    timeOutLimit, transport);
                 }
             }
         }
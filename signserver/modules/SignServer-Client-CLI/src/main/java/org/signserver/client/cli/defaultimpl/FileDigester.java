@@ -0,0 +1,99 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Computes digests of files.
+ *
+ * Large files are memory-mapped one window at a time so the data is not
+ * read into an intermediate buffer first. Note that the MessageDigest still
+ * copies the data from the mapped buffer to a small temporary array on the
+ * heap before hashing it, as the digest implementations only work on arrays.
+ * Smaller files are read through a direct buffer as mapping them costs more
+ * than it saves.
+ *
+ * @version $Id$
+ */
+public final class FileDigester {
+
+    /** Files smaller than this are read instead of mapped. */
+    static final long MAP_THRESHOLD = 1024 * 1024;
+
+    /** Size of each mapped region, also limiting the address space used. */
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private FileDigester() {
+    }
+
+    /**
+     * Computes the digest of a file.
+     *
+     * @param file to hash
+     * @param algorithm digest algorithm
+     * @return the digest
+     * @throws IOException in case of failure reading the file
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     * @throws NoSuchProviderException if the BC provider is not installed
+     */
+    public static byte[] digest(final File file, final String algorithm) throws IOException, NoSuchAlgorithmException, NoSuchProviderException {
+        return digest(file, MessageDigest.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME));
+    }
+
+    /**
+     * Computes the digest of a file.
+     *
+     * @param file to hash
+     * @param md digest to update, it is reset after the call
+     * @return the digest
+     * @throws IOException in case of failure reading the file
+     */
+    public static byte[] digest(final File file, final MessageDigest md) throws IOException {
+        return digest(file, md, DEFAULT_WINDOW_SIZE);
+    }
+
+    static byte[] digest(final File file, final MessageDigest md, final int windowSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < MAP_THRESHOLD) {
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    md.update(buffer);
+                    buffer.clear();
+                }
+            } else {
+                long position = 0;
+                while (position < size) {
+                    final long length = Math.min(windowSize, size - position);
+                    final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    md.update(window);
+                    position += length;
+                }
+            }
+        }
+        return md.digest();
+    }
+}
@@ -93,4 +93,15 @@ public interface FileSpecificHandler extends AutoCloseable {
      */
     String getFileTypeIdentifier();
 
+    /**
+     * Provides a hashing stage that can have the digest of the input file
+     * computed ahead of time. Implementations hashing the complete input file
+     * should get the digest from the stage instead of reading the file.
+     *
+     * @param hashingStage to get input file digests from
+     */
+    default void setHashingStage(HashingStage hashingStage) {
+        // Do nothing in default implementation
+    }
+
 }
@@ -45,7 +45,9 @@ public class HTTPDocumentSigner extends AbstractDocumentSigner {
         
     static final String DEFAULT_LOAD_BALANCING = "NONE";
     
-    static final String ROUND_ROBIN_LOAD_BALANCING = "ROUND_ROBIN";    
+    static final String ROUND_ROBIN_LOAD_BALANCING = "ROUND_ROBIN";
+
+    static final String LEAST_LATENCY_LOAD_BALANCING = "LEAST_LATENCY";
 
     private static final String BASICAUTH_AUTHORIZATION = "Authorization";
 
@@ -82,6 +84,9 @@ public class HTTPDocumentSigner extends AbstractDocumentSigner {
     
     private boolean connectionFailure;
 
+    /** Shared transport or null to open a new connection for each request. */
+    private final HTTPTransport transport;
+
     public HTTPDocumentSigner(final HostManager hostsManager,
             final int port,
             final String servlet,
@@ -90,7 +95,22 @@ public class HTTPDocumentSigner extends AbstractDocumentSigner {
             final String username, final String password,
             final String accessToken,
             final String pdfPassword,
-            final Map<String, String> metadata, final int timeOutLimit) {        
+            final Map<String, String> metadata, final int timeOutLimit) {
+        this(hostsManager, port, servlet, useHTTPS, workerName, username,
+                password, accessToken, pdfPassword, metadata, timeOutLimit,
+                null);
+    }
+
+    public HTTPDocumentSigner(final HostManager hostsManager,
+            final int port,
+            final String servlet,
+            final boolean useHTTPS,
+            final String workerName,
+            final String username, final String password,
+            final String accessToken,
+            final String pdfPassword,
+            final Map<String, String> metadata, final int timeOutLimit,
+            final HTTPTransport transport) {
         this.hostsManager = hostsManager;
         this.port = port;
         this.servlet = servlet;
@@ -103,6 +123,7 @@ public class HTTPDocumentSigner extends AbstractDocumentSigner {
         this.pdfPassword = pdfPassword;
         this.metadata = metadata;
         this.timeOutLimit = timeOutLimit;
+        this.transport = transport;
     }
     
     public HTTPDocumentSigner(final HostManager hostsManager,
@@ -113,7 +134,22 @@ public class HTTPDocumentSigner extends AbstractDocumentSigner {
             final String username, final String password,
             final String accessToken,
             final String pdfPassword,
-            final Map<String, String> metadata, final int timeOutLimit) {        
+            final Map<String, String> metadata, final int timeOutLimit) {
+        this(hostsManager, port, servlet, useHTTPS, workerId, username,
+                password, accessToken, pdfPassword, metadata, timeOutLimit,
+                null);
+    }
+
+    public HTTPDocumentSigner(final HostManager hostsManager,
+            final int port,
+            final String servlet,
+            final boolean useHTTPS,
+            final int workerId, 
+            final String username, final String password,
+            final String accessToken,
+            final String pdfPassword,
+            final Map<String, String> metadata, final int timeOutLimit,
+            final HTTPTransport transport) {
         this.hostsManager = hostsManager;
         this.port = port;
         this.servlet = servlet;
@@ -126,6 +162,7 @@ public class HTTPDocumentSigner extends AbstractDocumentSigner {
         this.pdfPassword = pdfPassword;
         this.metadata = metadata;
         this.timeOutLimit = timeOutLimit;
+        this.transport = transport;
     }
 
     @Override
@@ -162,7 +199,16 @@ public class HTTPDocumentSigner extends AbstractDocumentSigner {
                 LOG.debug("Sending to URL: " + url.toString());
             }
 
-            sendRequest(url, in, size, out, requestContext);
+            if (transport == null) {
+                sendRequest(host, url, in, size, out, requestContext);
+            } else {
+                transport.acquire(host);
+                try {
+                    sendRequest(host, url, in, size, out, requestContext);
+                } finally {
+                    transport.release(host);
+                }
+            }
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Got sign response");
@@ -192,6 +238,27 @@ public class HTTPDocumentSigner extends AbstractDocumentSigner {
         return new URL(useHTTPS ? "https" : "http", host, port, servlet);
     }
 
+    private void sendRequest(final String host, final URL processServlet,
+            final InputStream in,
+            final long size,
+            final OutputStream out, final Map<String, Object> requestContext) throws IOException {
+        final long startTime = hostsManager.requestStarted(host);
+        boolean completed = false;
+        try {
+            sendRequest(processServlet, in, size, out, requestContext);
+            completed = true;
+        } catch (IOException ex) {
+            completed = !connectionFailure;
+            throw ex;
+        } finally {
+            if (completed) {
+                hostsManager.requestCompleted(host, startTime);
+            } else {
+                hostsManager.requestFailed(host, startTime);
+            }
+        }
+    }
+
     private void sendRequest(final URL processServlet,
             final InputStream in,
             final long size,
@@ -204,11 +271,16 @@ public class HTTPDocumentSigner extends AbstractDocumentSigner {
         connectionFailure = false;
 
         try {
-            final HttpURLConnection conn = (HttpURLConnection) processServlet.openConnection();
-            
-            // only set timeout for connection when provided on command line
-            if (timeOutLimit != -1) {
-                conn.setConnectTimeout(timeOutLimit);
+            final HttpURLConnection conn;
+            if (transport == null) {
+                conn = (HttpURLConnection) processServlet.openConnection();
+
+                // only set timeout for connection when provided on command line
+                if (timeOutLimit != -1) {
+                    conn.setConnectTimeout(timeOutLimit);
+                }
+            } else {
+                conn = transport.openConnection(processServlet);
             }
             
             conn.setDoOutput(true);
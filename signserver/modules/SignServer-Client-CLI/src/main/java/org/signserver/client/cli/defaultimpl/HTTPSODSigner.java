@@ -20,6 +20,8 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
@@ -96,7 +98,7 @@ public class HTTPSODSigner extends AbstractSODSigner {
         final long startTime = System.nanoTime();
 
         final Response response = sendRequest(processServlet, workerName, 
-                dataGroups,  encoding);
+                Collections.singletonList(dataGroups), false, encoding);
 
         // Take stop time
         final long estimatedTime = System.nanoTime() - startTime;
@@ -116,9 +118,35 @@ public class HTTPSODSigner extends AbstractSODSigner {
         }
     }
 
+    @Override
+    public List<byte[]> signBatch(final List<Map<Integer, byte[]>> documents,
+            final String encoding) throws IllegalRequestException,
+                CryptoTokenOfflineException, SignServerException,
+                IOException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Sending batch sign request containing "
+                    + documents.size() + " documents to worker " + workerName);
+        }
+        final long startTime = System.nanoTime();
+
+        final Response response = sendRequest(processServlet, workerName,
+                documents, true, encoding);
+        final List<byte[]> result = splitSODs(response.getData());
+        if (result.size() != documents.size()) {
+            throw new SignServerException("Expected " + documents.size()
+                    + " SODs in response but got " + result.size());
+        }
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Processing " + documents.size() + " documents took "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+        }
+        return result;
+    }
+
     private Response sendRequest(final URL processServlet,
-            final String workerName, final Map<Integer, byte[]> data,
-            final String encoding) throws IOException {
+            final String workerName, final List<Map<Integer, byte[]>> documents,
+            final boolean batch, final String encoding) throws IOException {
         
         OutputStream out = null;
         InputStream in = null;
@@ -143,10 +171,13 @@ public class HTTPSODSigner extends AbstractSODSigner {
                 sb.append("workerId=").append(workerId).append("&");
             }
             sb.append("encoding=").append(encoding).append("&");
-            for (Map.Entry<Integer, byte[]> entry : data.entrySet()) {
-                sb.append("dataGroup").append(entry.getKey()).append("=")
-                    .append(URLEncoder.encode(new String(entry.getValue()), StandardCharsets.UTF_8.name()))
-                    .append("&");
+            for (int i = 0; i < documents.size(); i++) {
+                final String prefix = batch ? "document" + i + ".dataGroup" : "dataGroup";
+                for (Map.Entry<Integer, byte[]> entry : documents.get(i).entrySet()) {
+                    sb.append(prefix).append(entry.getKey()).append("=")
+                        .append(URLEncoder.encode(new String(entry.getValue()), StandardCharsets.UTF_8.name()))
+                        .append("&");
+                }
             }
 
             if (metadata != null) {
@@ -0,0 +1,143 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * HTTP transport shared by all requests of a command invocation.
+ *
+ * Connections are kept alive and re-used between requests to the same host
+ * through the connection cache of the JRE. All HTTPS connections are opened
+ * using the SSLSocketFactory given to the transport so that connections
+ * opened later, i.e. when a kept alive connection has been closed by the
+ * server, resume the TLS session instead of doing a full handshake. The
+ * number of concurrent requests to each host is limited and the connection
+ * cache is sized accordingly so that no connections have to be closed after
+ * use.
+ *
+ * @version $Id$
+ */
+public class HTTPTransport {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(HTTPTransport.class);
+
+    /** System property for the number of idle connections to keep per host. */
+    static final String PROPERTY_MAX_CONNECTIONS = "http.maxConnections";
+
+    private final int maxConnectionsPerHost;
+    private final SSLSocketFactory socketFactory;
+    private final int connectTimeout;
+
+    /** Permits for concurrent requests per host. */
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new transport.
+     *
+     * @param maxConnectionsPerHost maximum number of concurrent requests to
+     * each host
+     * @param socketFactory to use for HTTPS connections or null for the
+     * default
+     * @param connectTimeout connect timeout in milliseconds or -1 for the
+     * system default
+     */
+    public HTTPTransport(final int maxConnectionsPerHost, final SSLSocketFactory socketFactory, final int connectTimeout) {
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("Max connections per host must be > 0");
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.socketFactory = socketFactory;
+        this.connectTimeout = connectTimeout;
+        configureConnectionCache(maxConnectionsPerHost);
+    }
+
+    /**
+     * Makes the JRE keep enough idle connections per host unless explicitly
+     * configured. Has to be done before the first connection is opened as the
+     * value is only read once.
+     */
+    private static void configureConnectionCache(final int maxConnectionsPerHost) {
+        final String current = System.getProperty(PROPERTY_MAX_CONNECTIONS);
+        if (current == null) {
+            System.setProperty(PROPERTY_MAX_CONNECTIONS, String.valueOf(maxConnectionsPerHost));
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug("Using configured " + PROPERTY_MAX_CONNECTIONS + ": " + current);
+        }
+    }
+
+    /**
+     * Opens a connection to the URL, re-using an idle connection if there is
+     * one.
+     *
+     * @param url to connect to
+     * @return the connection
+     * @throws IOException in case of failure opening the connection
+     */
+    public HttpURLConnection openConnection(final URL url) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        if (socketFactory != null && conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setSSLSocketFactory(socketFactory);
+        }
+        // only set timeout for connection when provided on command line
+        if (connectTimeout != -1) {
+            conn.setConnectTimeout(connectTimeout);
+        }
+        return conn;
+    }
+
+    /**
+     * Waits until a request can be sent to the host.
+     *
+     * @param host to send the request to
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void acquire(final String host) throws InterruptedIOException {
+        try {
+            getPermits(host).acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + host);
+        }
+    }
+
+    /**
+     * Signals that a request to the host is done.
+     *
+     * @param host the request was sent to
+     */
+    public void release(final String host) {
+        getPermits(host).release();
+    }
+
+    private Semaphore getPermits(final String host) {
+        return hostPermits.computeIfAbsent(host, h -> new Semaphore(maxConnectionsPerHost, true));
+    }
+
+    /**
+     * @return maximum number of concurrent requests to each host
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+}
@@ -0,0 +1,152 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ * Hashes input files in a separate bounded thread pool.
+ *
+ * Files are scheduled with prefetch() ahead of being processed so that the
+ * hashing of the next files overlaps with the network round trip of the
+ * current one. The transfer threads then get the digests with getDigest(),
+ * which waits for a scheduled computation or hashes the file directly if it
+ * was not scheduled. Each digest is handed out once and then forgotten.
+ * Digests of a file not asked for are dropped by calling evict() when the
+ * file is done, so that the stage does not grow with the number of files.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings("PMD.DoNotUseThreads") // Not an JEE application
+public class HashingStage implements AutoCloseable {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(HashingStage.class);
+
+    private final ExecutorService executor;
+    private final List<String> algorithms;
+    private final ConcurrentMap<String, Future<byte[]>> digests = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new hashing stage.
+     *
+     * @param threads number of threads to hash with
+     * @param algorithms digest algorithms to compute when prefetching
+     */
+    public HashingStage(final int threads, final Collection<String> algorithms) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of hashing threads must be > 0");
+        }
+        this.algorithms = new ArrayList<>(algorithms);
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "hashing-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static String key(final File file, final String algorithm) {
+        return algorithm + ":" + file.getAbsolutePath();
+    }
+
+    /**
+     * Schedules hashing of the file with all algorithms unless already done.
+     *
+     * @param file to hash
+     */
+    public void prefetch(final File file) {
+        for (final String algorithm : algorithms) {
+            digests.computeIfAbsent(key(file, algorithm), k -> executor.submit(() -> FileDigester.digest(file, algorithm)));
+        }
+    }
+
+    /**
+     * Gets the digest of a file, waiting for it if it is being computed.
+     *
+     * @param file to get the digest for
+     * @param algorithm digest algorithm
+     * @return the digest
+     * @throws IOException in case of failure reading the file
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     * @throws NoSuchProviderException if the BC provider is not installed
+     */
+    public byte[] getDigest(final File file, final String algorithm) throws IOException, NoSuchAlgorithmException, NoSuchProviderException {
+        final Future<byte[]> future = digests.remove(key(file, algorithm));
+        if (future == null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Not prefetched: " + file.getName());
+            }
+            return FileDigester.digest(file, algorithm);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing " + file.getName(), ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) cause;
+            } else if (cause instanceof NoSuchProviderException) {
+                throw (NoSuchProviderException) cause;
+            }
+            throw new IOException("Hashing " + file.getName() + " failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Drops any digests of the file not handed out, cancelling the hashing
+     * if it has not started yet.
+     *
+     * @param file that is done
+     */
+    public void evict(final File file) {
+        for (final String algorithm : algorithms) {
+            final Future<byte[]> future = digests.remove(key(file, algorithm));
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * @return number of prefetched digests not yet handed out
+     */
+    public int getPending() {
+        return digests.size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        digests.clear();
+    }
+}
@@ -16,10 +16,15 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import org.apache.log4j.Logger;
+import org.signserver.common.util.HostBalancer;
 
 /**
  * Class containing logic for managing participant hosts under load balancing & fail over.
  *
+ * When created with a HostBalancer the hosts are selected based on their
+ * latency and load and hosts failing are only left out until their back-off
+ * has passed, instead of being removed.
+ *
  * @author Vinay Singh
  * @version $Id$
  */
@@ -33,23 +38,43 @@ public class HostManager {
     private final Random random = new Random();
     private boolean firstRequestWithLoadBalancing;
     private int randomIndex = -1;
+    private final HostBalancer balancer;
 
     public HostManager(List<String> hosts, boolean useLoadBalancing) {
         participantHosts = new ArrayList(hosts);
         this.useLoadBalancing = useLoadBalancing;
+        this.balancer = null;
 
         if (useLoadBalancing) { // get randomized host for first attempt if loadbalancing is enabled
             randomIndex = getHostIndexByRandom();
             firstRequestWithLoadBalancing = true;
         }
     }
+
+    /**
+     * Creates a HostManager selecting hosts using the supplied balancer.
+     *
+     * @param balancer to select the hosts with
+     */
+    public HostManager(HostBalancer balancer) {
+        participantHosts = balancer.getHosts();
+        this.useLoadBalancing = true;
+        this.balancer = balancer;
+    }
     
     /**
      * Determines the next host to be used for sending signing request.
      *
      * @returns host.
      */
-    synchronized String getNextHostForRequest() {
+    String getNextHostForRequest() {
+        if (balancer != null) {
+            return balancer.select();
+        }
+        return getNextHostInOrder();
+    }
+
+    private synchronized String getNextHostInOrder() {
         if (participantHosts.isEmpty()) {
             return null;
         }
@@ -87,7 +112,15 @@ public class HostManager {
      *
      * @returns host.
      */
-    synchronized String getNextHostForRequestWhenFailure() {
+    String getNextHostForRequestWhenFailure() {
+        if (balancer != null) {
+            // The failed host is backing off so another one is selected
+            return balancer.select();
+        }
+        return getNextHostInOrderWhenFailure();
+    }
+
+    private synchronized String getNextHostInOrderWhenFailure() {
         if (participantHosts.isEmpty()) {
             return null;
         }
@@ -123,6 +156,10 @@ public class HostManager {
      * @param host to be removed.
      */
     synchronized void removeHost(String host) {
+        if (balancer != null) {
+            // Failures are handled by the back-off in the balancer
+            return;
+        }
         // If condition is imporant here to avoid a scenario where multiple thread try to remove host and only one of them actually remove
         // the host and others just decrease the currentIndex (it may set currentIndex to negative value)
         if (participantHosts.remove(host)) {
@@ -133,4 +170,38 @@ public class HostManager {
     synchronized boolean hasHost() {
         return !participantHosts.isEmpty();
     }
+
+    /**
+     * Records that a request is about to be sent to the host.
+     *
+     * @param host the request is sent to
+     * @return start time to pass to requestCompleted or requestFailed
+     */
+    long requestStarted(String host) {
+        return balancer == null ? 0 : balancer.requestStarted(host);
+    }
+
+    /**
+     * Records that the host responded to a request.
+     *
+     * @param host the request was sent to
+     * @param startTime returned by requestStarted
+     */
+    void requestCompleted(String host, long startTime) {
+        if (balancer != null) {
+            balancer.requestCompleted(host, startTime);
+        }
+    }
+
+    /**
+     * Records that the host could not be reached or failed the request.
+     *
+     * @param host the request was sent to
+     * @param startTime returned by requestStarted
+     */
+    void requestFailed(String host, long startTime) {
+        if (balancer != null) {
+            balancer.requestFailed(host, startTime);
+        }
+    }
 }
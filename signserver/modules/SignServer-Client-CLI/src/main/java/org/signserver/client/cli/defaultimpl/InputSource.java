@@ -12,7 +12,6 @@
  *************************************************************************/
 package org.signserver.client.cli.defaultimpl;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -43,6 +42,7 @@ public class InputSource {
     private final Map<String, String> metadata;
     private final Map<String, byte[]> hashes = new HashMap<>(1);
     private final File file;
+    private HashingStage hashingStage;
 
     /**
      * Construct an instance of InputSource given "raw" input data as
@@ -115,14 +115,20 @@ public class InputSource {
         return metadata;
     }
 
+    /**
+     * @param hashingStage to get the digest of the file from, or null
+     */
+    public void setHashingStage(final HashingStage hashingStage) {
+        this.hashingStage = hashingStage;
+    }
+
     public byte[] getHash(final String algorithm) throws IOException, NoSuchAlgorithmException, NoSuchProviderException {
         byte[] hash = hashes.get(algorithm);
         if (hash == null) {
-            if (file != null) {
-                try (BufferedInputStream bis =
-                        new BufferedInputStream(new FileInputStream(file))) {
-                    hash = calculateHash(algorithm, bis, metadata);
-                }
+            if (file != null && hashingStage != null) {
+                hash = hashingStage.getDigest(file, algorithm);
+            } else if (file != null) {
+                hash = FileDigester.digest(file, algorithm);
             } else {
                 hash = calculateHash(algorithm, inputStream, metadata);
                 // this works, since in this case inputStream is a ByteArrayInputStream
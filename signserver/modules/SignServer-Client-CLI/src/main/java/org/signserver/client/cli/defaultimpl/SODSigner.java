@@ -14,6 +14,7 @@ package org.signserver.client.cli.defaultimpl;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
 import org.signserver.common.CryptoTokenOfflineException;
 import org.signserver.common.IllegalRequestException;
@@ -35,4 +36,13 @@ public interface SODSigner {
 
     void sign(final Map<Integer,byte[]> dataGroups, final OutputStream out) throws IllegalRequestException, CryptoTokenOfflineException, SignServerException, IOException;
 
+    /**
+     * Requests one SOD for each document, all in one request.
+     *
+     * @param documents data groups of each document
+     * @param encoding of the data group values
+     * @return the SODs in the same order as the documents
+     */
+    List<byte[]> signBatch(final List<Map<Integer,byte[]>> documents, final String encoding) throws IllegalRequestException, CryptoTokenOfflineException, SignServerException, IOException;
+
 }
@@ -17,10 +17,15 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
 import org.apache.commons.cli.*;
@@ -90,6 +95,18 @@ public class SignDataGroupsCommand extends AbstractCommand {
     /** Option METADATA. */
     public static final String METADATA = "metadata";
 
+    /** Option INFILE. */
+    public static final String INFILE = "infile";
+
+    /** Option OUTDIR. */
+    public static final String OUTDIR = "outdir";
+
+    /** Option BATCHSIZE. */
+    public static final String BATCHSIZE = "batchsize";
+
+    /** Default number of documents per request in batch mode. */
+    private static final int DEFAULT_BATCHSIZE = 100;
+
     /** The command line options. */
     private static final Options OPTIONS;
     
@@ -129,6 +146,12 @@ public class SignDataGroupsCommand extends AbstractCommand {
         OPTIONS.addOption(REPEAT, true, TEXTS.getString("REPEAT_DESCRIPTION"));
         OPTIONS.addOption(METADATA, true,
                 TEXTS.getString("METADATA_DESCRIPTION"));
+        OPTIONS.addOption(INFILE, true,
+                TEXTS.getString("INFILE_SOD_DESCRIPTION"));
+        OPTIONS.addOption(OUTDIR, true,
+                TEXTS.getString("OUTDIR_SOD_DESCRIPTION"));
+        OPTIONS.addOption(BATCHSIZE, true,
+                TEXTS.getString("BATCHSIZE_SOD_DESCRIPTION"));
         for (Option option : KeyStoreOptions.getKeyStoreOptions()) {
             OPTIONS.addOption(option);
         }
@@ -156,8 +179,14 @@ public class SignDataGroupsCommand extends AbstractCommand {
     
     private static final String DEFAULT_SERVLET = "/signserver/sod";
 
-    /** File to read the data from. */
-    private File inFile;  //NOPMD //TODO Add support for reading from file
+    /** File to read the data groups of each document from in batch mode. */
+    private File inFile;
+
+    /** Directory to write the SODs to in batch mode. */
+    private File outDir;
+
+    /** Number of documents per request in batch mode. */
+    private int batchSize = DEFAULT_BATCHSIZE;
 
     /** Protocol to use for contacting SignServer. */
     private Protocol protocol = Protocol.HTTP;
@@ -186,7 +215,8 @@ public class SignDataGroupsCommand extends AbstractCommand {
                 .append("Sample usages:").append(NL)
                 .append("a) ").append(COMMAND).append(" -workername MRTDSODSigner -data \"1=value1&2=value2&3=value3\"").append(NL)
                 .append("b) ").append(COMMAND).append(" -workername MRTDSODSigner -data \"1=PJaDAX+eS/M9D77dJr8UP9ct6bndFFRBt18GBAR+oo4=&2=BTfUgfc6dXM0MoBS2jr5YmztlwKOILhJ9hFcIs12UZc=&3=idxq5/Bqn0a1Za8D6rDs4L9gJNNlm346HQNXPP6wtZ0=\"").append(NL)
-                .append("c) ").append(COMMAND).append(" -workername MRTDSODSigner -data \"1=value1&2=value2&3=value3\" -metadata param1=value1 -metadata param2=value2").append(NL);
+                .append("c) ").append(COMMAND).append(" -workername MRTDSODSigner -data \"1=value1&2=value2&3=value3\" -metadata param1=value1 -metadata param2=value2").append(NL)
+                .append("d) ").append(COMMAND).append(" -workername MRTDSODSigner -infile documents.txt -outdir ./sods/ -batchsize 500").append(NL);
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
         final HelpFormatter formatter = new HelpFormatter();
         try (PrintWriter pw = new PrintWriter(bout)) {
@@ -221,17 +251,16 @@ public class SignDataGroupsCommand extends AbstractCommand {
         }
         if (line.hasOption(DATA)) {
             data = line.getOptionValue(DATA, "");
-
-            dataGroups = new HashMap<>();
-
-            final String[] groups = data.split("\\&");
-            for(final String group : groups) {
-                final String[] entry = group.split("=", 2);
-                if (entry.length != 2) {
-                    throw new IllegalCommandArgumentsException("Malformed data group argument: " + group);
-                }
-                dataGroups.put(new Integer(entry[0]), entry[1].getBytes());
-            }
+            dataGroups = parseDataGroups(data);
+        }
+        if (line.hasOption(INFILE)) {
+            inFile = new File(line.getOptionValue(INFILE, null));
+        }
+        if (line.hasOption(OUTDIR)) {
+            outDir = new File(line.getOptionValue(OUTDIR, null));
+        }
+        if (line.hasOption(BATCHSIZE)) {
+            batchSize = Integer.parseInt(line.getOptionValue(BATCHSIZE));
         }
         if (line.hasOption(PROTOCOL)) {
             protocol = Protocol.valueOf(line.getOptionValue(
@@ -274,6 +303,32 @@ public class SignDataGroupsCommand extends AbstractCommand {
         }
     }
     
+    /**
+     * Parses data groups of the form 1=value1&2=value2.
+     *
+     * @param data to parse
+     * @return map from data group number to value
+     * @throws IllegalCommandArgumentsException in case of malformed data
+     */
+    private static Map<Integer, byte[]> parseDataGroups(final String data)
+            throws IllegalCommandArgumentsException {
+        final Map<Integer, byte[]> result = new HashMap<>();
+
+        final String[] groups = data.split("\\&");
+        for(final String group : groups) {
+            final String[] entry = group.split("=", 2);
+            if (entry.length != 2) {
+                throw new IllegalCommandArgumentsException("Malformed data group argument: " + group);
+            }
+            try {
+                result.put(Integer.valueOf(entry[0]), entry[1].getBytes());
+            } catch (NumberFormatException ex) {
+                throw new IllegalCommandArgumentsException("Malformed data group argument: " + group);
+            }
+        }
+        return result;
+    }
+
     /**
      * @return a ConsolePasswordReader that can be used to read passwords
      */
@@ -288,8 +343,16 @@ public class SignDataGroupsCommand extends AbstractCommand {
         if (workerName == null && workerId == 0) {
             throw new ParseException(
                     "Missing -workername or -workerid");
-        } else if (data == null) {
-            throw new ParseException("Missing -data");
+        } else if (data == null && inFile == null) {
+            throw new ParseException("Missing -data or -infile");
+        } else if (data != null && inFile != null) {
+            throw new IllegalCommandArgumentsException("Can not specify both -data and -infile");
+        } else if (inFile != null && outDir == null) {
+            throw new IllegalCommandArgumentsException("Missing -outdir");
+        } else if (inFile == null && outDir != null) {
+            throw new IllegalCommandArgumentsException("Can not specify -outdir unless -infile");
+        } else if (batchSize < 1) {
+            throw new IllegalCommandArgumentsException("Batch size must be > 0");
         }
         keyStoreOptions.validateOptions();
     }
@@ -356,6 +419,55 @@ public class SignDataGroupsCommand extends AbstractCommand {
         return signer;
     }
 
+    /**
+     * Signs the documents in the input file, one per line, sending
+     * batchSize documents per request.
+     *
+     * @param signer to use
+     * @throws CommandFailureException in case of failure
+     * @throws IllegalCommandArgumentsException in case of malformed input
+     */
+    private void runBatch(final SODSigner signer) throws CommandFailureException, IllegalCommandArgumentsException {
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new CommandFailureException("Could not create output directory: " + outDir);
+        }
+        final long startTime = System.nanoTime();
+        int lineNumber = 0;
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(inFile), StandardCharsets.UTF_8))) {
+            final List<Map<Integer, byte[]>> documents = new ArrayList<>(batchSize);
+            final List<Integer> lineNumbers = new ArrayList<>(batchSize);
+            String line;
+            do {
+                line = reader.readLine();
+                if (line != null) {
+                    lineNumber++;
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    documents.add(parseDataGroups(line.trim()));
+                    lineNumbers.add(lineNumber);
+                }
+                if (documents.size() == batchSize || (line == null && !documents.isEmpty())) {
+                    final List<byte[]> sods = signer.signBatch(documents, encoding);
+                    for (int i = 0; i < sods.size(); i++) {
+                        Files.write(new File(outDir, lineNumbers.get(i) + ".sod").toPath(), sods.get(i));
+                    }
+                    count += sods.size();
+                    documents.clear();
+                    lineNumbers.clear();
+                }
+            } while (line != null);
+        } catch (HTTPException ex) {
+            throw new CommandFailureException("Failure: HTTP error: " +
+                    ex.getResponseCode() + ": " + ex.getResponseMessage());
+        } catch (IOException | IllegalRequestException | CryptoTokenOfflineException | SignServerException ex) {
+            throw new CommandFailureException("Failed after " + count + " documents: " + ex.getMessage());
+        }
+        LOG.info("Signed " + count + " documents in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+    }
+
     /**
      * Execute the signing operation.
      */
@@ -373,6 +485,11 @@ public class SignDataGroupsCommand extends AbstractCommand {
         } catch (MalformedURLException ex) {
             throw new IllegalCommandArgumentsException("Malformed URL: " + ex.getMessage());
         }
+
+        if (inFile != null) {
+            runBatch(signer);
+            return;
+        }
         
         for(int i = 0; i < NUM_WORKERS; i++) {
             workers[i] = new Worker("Worker " + i, signer,
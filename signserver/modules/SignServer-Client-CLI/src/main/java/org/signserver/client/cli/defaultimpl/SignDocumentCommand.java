@@ -33,6 +33,7 @@ import java.util.ResourceBundle;
 import java.util.ServiceConfigurationError;
 import java.util.ServiceLoader;
 import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLSocketFactory;
 import javax.xml.ws.soap.SOAPFaultException;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
@@ -48,10 +49,12 @@ import org.signserver.common.IllegalRequestException;
 import org.signserver.common.SignServerException;
 import org.signserver.protocol.ws.client.SignServerWSClientFactory;
 import static org.signserver.client.cli.defaultimpl.HTTPDocumentSigner.DEFAULT_LOAD_BALANCING;
+import static org.signserver.client.cli.defaultimpl.HTTPDocumentSigner.LEAST_LATENCY_LOAD_BALANCING;
 import static org.signserver.client.cli.defaultimpl.HTTPDocumentSigner.ROUND_ROBIN_LOAD_BALANCING;
 import org.signserver.common.RequestContext;
 import org.signserver.common.signedrequest.SignedRequestException;
 import org.signserver.common.signedrequest.SignedRequestSigningHelper;
+import org.signserver.common.util.HostBalancer;
 
 /**
  * Command Line Interface (CLI) for signing documents.
@@ -155,6 +158,21 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
     
     /** Option LOAD_BALANCING. */
     public static final String LOAD_BALANCING = "loadbalancing";
+
+    /** Option MAXCONNECTIONSPERHOST. */
+    public static final String MAXCONNECTIONSPERHOST = "maxconnectionsperhost";
+
+    /** Option HASHTHREADS. */
+    public static final String HASHTHREADS = "hashthreads";
+
+    /** Option STREAMING. */
+    public static final String STREAMING = "streaming";
+
+    /** Option WATCH. */
+    public static final String WATCH = "watch";
+
+    /** Option CHECKPOINT. */
+    public static final String CHECKPOINT = "checkpoint";
     
     /** The command line options. */
     private static final Options OPTIONS;
@@ -231,6 +249,16 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
                 TEXTS.getString("TIMEOUT_DESCRIPTION"));
         OPTIONS.addOption(LOAD_BALANCING, true,
                 TEXTS.getString("LOAD_BALANCING_DESCRIPTION"));
+        OPTIONS.addOption(MAXCONNECTIONSPERHOST, true,
+                TEXTS.getString("MAXCONNECTIONSPERHOST_DESCRIPTION"));
+        OPTIONS.addOption(HASHTHREADS, true,
+                TEXTS.getString("HASHTHREADS_DESCRIPTION"));
+        OPTIONS.addOption(STREAMING, false,
+                TEXTS.getString("STREAMING_DESCRIPTION"));
+        OPTIONS.addOption(WATCH, false,
+                TEXTS.getString("WATCH_DESCRIPTION"));
+        OPTIONS.addOption(CHECKPOINT, true,
+                TEXTS.getString("CHECKPOINT_DESCRIPTION"));
         for (Option option : KeyStoreOptions.getKeyStoreOptions()) {
             OPTIONS.addOption(option);
         }
@@ -300,6 +328,27 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
     private int timeOutLimit;    
     private boolean useLoadBalancing;
     private String loadBalancing;
+
+    /** Maximum number of concurrent connections to each host. */
+    private Integer maxConnectionsPerHost;
+
+    /** Transport shared by all requests when using protocol HTTP. */
+    private HTTPTransport transport;
+
+    /** Number of threads for hashing input files ahead in batch mode. */
+    private Integer hashThreads;
+
+    /** Stage hashing the upcoming files in batch mode or null. */
+    private HashingStage hashingStage;
+
+    /** If the input directory should be read incrementally in batch mode. */
+    private boolean streaming;
+
+    /** If new files in the input directory should be processed until stopped. */
+    private boolean watch;
+
+    /** File to record the completed files in for restarting batch mode or null. */
+    private File checkpointFile;
     
     private final KeyStoreOptions keyStoreOptions = new KeyStoreOptions();
 
@@ -336,7 +385,13 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
             .append("k) ").append(COMMAND).append(" -workerid 2 -data \"<root/>\" -keystoretype PKCS11 -keystore libcryptoki.so -keyaliasprompt").append(NL)
             .append("l) ").append(COMMAND).append(" -workerid 2 -data \"<root/>\" -keystoretype PKCS11 -keystore libcryptoki.so -keyalias admin3").append(NL)
             .append("m) ").append(COMMAND).append(" -workerid 2 -data \"<root/>\" -keystoretype PKCS11_CONFIG -keystore sunpkcs11.cfg").append(NL)
-            .append("n) ").append(COMMAND).append(" -data \"<root/>\" -servlet /signserver/worker/XMLSigner").append(NL); 
+            .append("n) ").append(COMMAND).append(" -data \"<root/>\" -servlet /signserver/worker/XMLSigner").append(NL)
+            .append("o) ").append(COMMAND).append(" -workerid 3 -indir ./input/ -outdir ./output/ -threads 20 -hosts host1,host2 -loadbalancing ROUND_ROBIN -maxconnectionsperhost 10").append(NL)
+            .append("p) ").append(COMMAND).append(" -workername XMLSigner -indir ./input/ -outdir ./output/ -threads 4 -hashthreads 2 -keystore signer.p12 -keystorepwd foo123 -signrequest").append(NL)
+            .append("q) ").append(COMMAND).append(" -workername CMSSigner -indir ./input/ -outdir ./output/ -threads 20 -hosts host1,host2,host3 -loadbalancing LEAST_LATENCY").append(NL)
+            .append("r) ").append(COMMAND).append(" -workername CMSSigner -indir ./input/ -outdir ./output/ -threads 10 -streaming -checkpoint ./signed.checkpoint").append(NL)
+            .append("s) ").append(COMMAND).append(" -workername CMSSigner -indir ./incoming/ -outdir ./output/ -threads 10 -watch -removefromindir").append(NL)
+            .append("t) ").append(COMMAND).append(" -workername OpenPGPSigner -infile package.deb -outfile signed.deb -clientside -filetype DPKG -extraoption KEY_FINGERPRINT=0123456789ABCDEF0123456789ABCDEF01234567").append(NL);
 
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
         final HelpFormatter formatter = new HelpFormatter();
@@ -400,9 +455,22 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
         if (line.hasOption(THREADS)) {
             threads = Integer.parseInt(line.getOptionValue(THREADS, null));
         }
+        if (line.hasOption(HASHTHREADS)) {
+            hashThreads = Integer.parseInt(line.getOptionValue(HASHTHREADS, null));
+        }
         if (line.hasOption(REMOVEFROMINDIR)) {
             removeFromIndir = true;
         }
+        if (line.hasOption(STREAMING)) {
+            streaming = true;
+        }
+        if (line.hasOption(WATCH)) {
+            watch = true;
+            streaming = true;
+        }
+        if (line.hasOption(CHECKPOINT)) {
+            checkpointFile = new File(line.getOptionValue(CHECKPOINT, null));
+        }
         if (line.hasOption(ONEFIRST)) {
             oneFirst = true;
         }
@@ -495,6 +563,14 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
                 
         loadBalancing = line.getOptionValue(LOAD_BALANCING, DEFAULT_LOAD_BALANCING);
 
+        if (line.hasOption(MAXCONNECTIONSPERHOST)) {
+            try {
+                maxConnectionsPerHost = Integer.parseInt(line.getOptionValue(MAXCONNECTIONSPERHOST));
+            } catch (NumberFormatException ex) {
+                throw new IllegalCommandArgumentsException("Illegal value for -" + MAXCONNECTIONSPERHOST + ": " + line.getOptionValue(MAXCONNECTIONSPERHOST));
+            }
+        }
+
         try {
             final ConsolePasswordReader passwordReader = createConsolePasswordReader();
             keyStoreOptions.parseCommandLine(line, passwordReader, out);
@@ -560,6 +636,22 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
         if (threads != null && threads < 1) {
             throw new IllegalCommandArgumentsException("Number of threads must be > 0");
         }
+
+        if (inDir == null && hashThreads != null) {
+            throw new IllegalCommandArgumentsException("Can not specify -" + HASHTHREADS + " unless -indir");
+        }
+
+        if (hashThreads != null && hashThreads < 1) {
+            throw new IllegalCommandArgumentsException("Number of hashing threads must be > 0");
+        }
+
+        if (inDir == null && (streaming || checkpointFile != null)) {
+            throw new IllegalCommandArgumentsException("The options -" + STREAMING + ", -" + WATCH + " and -" + CHECKPOINT + " only supported in batch mode. Specify -indir.");
+        }
+
+        if (watch && checkpointFile == null && !removeFromIndir) {
+            throw new IllegalCommandArgumentsException("The option -" + WATCH + " requires -" + CHECKPOINT + " or -" + REMOVEFROMINDIR + ", as signed files would otherwise be signed again when listed or modified");
+        }
         
         if (startAll && oneFirst) {
             throw new IllegalCommandArgumentsException("Can not specify both -onefirst and -startall");
@@ -576,7 +668,8 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
         
         // check client-side options
         if (clientside) {
-            if (digestAlgorithm == null) {
+            // The dpkg-sig manifest always uses MD5 and SHA-1
+            if (digestAlgorithm == null && !DebianDpkgSigFileSpecificHandler.TYPE_ID.equalsIgnoreCase(fileType)) {
                 throw new IllegalCommandArgumentsException("Must specify -digestalgorithm when using -clientside");
             }
 
@@ -613,6 +706,15 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
         if (timeOutString != null && protocol != Protocol.HTTP) {
             throw new IllegalCommandArgumentsException("Can only use -timeout with protocol HTTP");
         }
+
+        if (maxConnectionsPerHost != null) {
+            if (protocol != Protocol.HTTP) {
+                throw new IllegalCommandArgumentsException("Can only use -" + MAXCONNECTIONSPERHOST + " with protocol HTTP");
+            }
+            if (maxConnectionsPerHost < 1) {
+                throw new IllegalCommandArgumentsException("Max connections per host must be > 0");
+            }
+        }
         
         if (host != null) {
             if (host.trim().isEmpty()) {
@@ -631,7 +733,7 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
             throw new IllegalCommandArgumentsException("-loadbalancing can not be empty");
         }
 
-        if (!Arrays.asList(DEFAULT_LOAD_BALANCING, ROUND_ROBIN_LOAD_BALANCING).contains(loadBalancing)) {
+        if (!Arrays.asList(DEFAULT_LOAD_BALANCING, ROUND_ROBIN_LOAD_BALANCING, LEAST_LATENCY_LOAD_BALANCING).contains(loadBalancing)) {
             throw new IllegalCommandArgumentsException("Not supported -loadbalancing: " + loadBalancing);
         }     
                            
@@ -653,7 +755,11 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
         useLoadBalancing = loadBalancing.equals(ROUND_ROBIN_LOAD_BALANCING);
 
         //  it is right time to initialize HostsManager after all validations
-        hostsManager = new HostManager(hosts, useLoadBalancing);
+        if (loadBalancing.equals(LEAST_LATENCY_LOAD_BALANCING)) {
+            hostsManager = new HostManager(new HostBalancer(hosts));
+        } else {
+            hostsManager = new HostManager(hosts, useLoadBalancing);
+        }
 
         // don't allow both -username and -access-token at the same time
         if (username != null && accessToken != null) {
@@ -669,6 +775,10 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
         if (keyStoreOptions.isSignRequest() && keyStoreOptions.getKeystoreFile() == null) {
             throw new IllegalCommandArgumentsException("-signrequest requires -keystore");
         }
+
+        if (hashThreads != null && getPrefetchedDigestAlgorithms().isEmpty()) {
+            throw new IllegalCommandArgumentsException("Can not specify -" + HASHTHREADS + " unless -signrequest is used without -clientside, as no input files are hashed ahead otherwise");
+        }
     }
 
     /**
@@ -749,7 +859,8 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
                                               digestAlgorithm, username,
                                               currentPassword, accessToken,
                                               pdfPassword,
-                                              hostsManager, timeOutLimit);
+                                              hostsManager, timeOutLimit,
+                                              transport);
     }
     
     /**
@@ -791,6 +902,8 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
                     createFileSpecificHandler(handlerFactory,
                                               bytes, size, outFile,
                                               extraOptions)) {
+                handler.setHashingStage(hashingStage);
+
                 // Take start time
                 final long startTime = System.nanoTime();
                 
@@ -822,6 +935,10 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
                 // Take stop time
                 final long estimatedTime = System.nanoTime() - startTime;
                 
+                if (manager != null) {
+                    manager.getStatistics().recordSuccess(size, estimatedTime);
+                }
+
                 if (LOG.isInfoEnabled()) {
                     LOG.info("Wrote " + outFile + ".");
                     LOG.info("Processing " + (inFile == null ? "" : inFile.getName()) + " took "
@@ -841,6 +958,10 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
                 }
             }
 
+            if (success && manager != null && inFile != null) {
+                manager.registerCompleted(inFile);
+            }
+
             if (removeFromIndir && inFile != null && inFile.exists()) {
                 if (inFile.delete()) {
                     LOG.info("Removed " + inFile);
@@ -911,6 +1032,10 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
         if (cleanUpOutputFileOnFailure) {
             cleanUpOutputFileOnFailure(outFile);
         }
+        if (hashingStage != null && inFile != null) {
+            // Done with the file, drop any digest not consumed by the handler
+            hashingStage.evict(inFile);
+        }
         return success;
     }
     
@@ -1049,6 +1174,27 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
         }        
     }
     
+    /**
+     * Creates the transport re-using connections between the requests, by
+     * default allowing one connection per thread to each host. All HTTPS
+     * connections use the same socket factory so that the TLS sessions can be
+     * resumed when new connections are opened.
+     */
+    private void initTransport() {
+        if (protocol == Protocol.HTTP) {
+            final int maxConnections;
+            if (maxConnectionsPerHost != null) {
+                maxConnections = maxConnectionsPerHost;
+            } else if (threads != null) {
+                maxConnections = threads;
+            } else {
+                maxConnections = DEFAULT_THREADS;
+            }
+            final SSLSocketFactory sf = keyStoreOptions.setupHTTPS(createConsolePasswordReader(), out);
+            transport = new HTTPTransport(maxConnections, sf, timeOutLimit);
+        }
+    }
+
     @Override
     public int execute(String[] args) throws IllegalCommandArgumentsException, CommandFailureException {
         try {
@@ -1056,6 +1202,7 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
             parseCommandLine(new GnuParser().parse(OPTIONS, args));
             validateOptions();
             initFileSpecificHandlerFactory();
+            initTransport();
             
             if (inFile != null) {
                 LOG.debug("Will request for single file " + inFile);
@@ -1064,72 +1211,23 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
                 }
             } else if(inDir != null) {
                 LOG.debug("Will request for each file in directory " + inDir);
-                File[] inFiles = inDir.listFiles(new FileFilter() {
-                    @Override
-                    public boolean accept(File file) {
-                        if (file.isDirectory()) {
-                            LOG.warn("Skipping directory: " + file.getName());
-                            return false;
-                        }
-                        return true;
-                    }
-                });
-                if (inFiles == null || inFiles.length == 0) {
-                    LOG.error("No input files");
-                    return 1;
-                }
-                final TransferManager producer = new TransferManager(inFiles, username, password, this, out, oneFirst);
-                
-                if (threads == null) {
-                    threads = DEFAULT_THREADS;
-                }
-                final int threadCount = threads > inFiles.length ? inFiles.length : threads;
-                final ArrayList<TransferThread> consumers = new ArrayList<>();
-                
-                final Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler() {
-                    @Override
-                    public void uncaughtException(Thread t, Throwable e) {                        
-                        LOG.error("Unexpected failure in thread " + t.getName() + ". Aborting.", e);
-                        producer.abort();
-                    }
-                };
-                
-                for (int i = 0; i < threadCount; i++) {
-                    final TransferThread t = new TransferThread(i, producer, hostsManager);
-                    t.setUncaughtExceptionHandler(handler);
-                    consumers.add(t);
-                }
-                
-                // Start the threads
-                for (TransferThread consumer : consumers) {
-                    consumer.start();
+                final CheckpointJournal journal;
+                try {
+                    journal = checkpointFile == null ? null : new CheckpointJournal(checkpointFile);
+                } catch (IOException ex) {
+                    throw new CommandFailureException("Failed to open checkpoint file: " + ex.getMessage());
                 }
-                
-                // Wait for the threads to finish
                 try {
-                    for (TransferThread w : consumers) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Waiting for thread " + w.getName());
-                        }
-                        w.join();
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Thread " + w.getName() + " stopped");
+                    return runDirectory(journal);
+                } finally {
+                    if (journal != null) {
+                        try {
+                            journal.close();
+                        } catch (IOException ex) {
+                            LOG.error("Failed to close checkpoint file: " + ex.getMessage());
                         }
                     }
-                } catch (InterruptedException ex) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Interupted when waiting for thread: " + ex.getMessage());
-                    }
                 }
-                
-                if (producer.isAborted()) {
-                    throw new CommandFailureException("Aborted due to failure.");
-                }
-                
-                if (producer.hasFailures()) {
-                    throw new CommandFailureException("At least one file failed.");
-                }
-                
             } else {
                 LOG.debug("Will requst for the specified data");
                 if (!runBatch(null, null, outFile)) {
@@ -1142,7 +1240,145 @@ public class SignDocumentCommand extends AbstractCommand implements ConsolePassw
             throw new IllegalCommandArgumentsException(ex.getMessage());
         }
     }
+
+    /**
+     * Runs the signing operation for the files in the input directory.
+     *
+     * @param journal of completed files to skip and to record in, or null
+     * @return the exit code
+     * @throws CommandFailureException in case of failure
+     */
+    private int runDirectory(final CheckpointJournal journal) throws CommandFailureException {
+        final TransferManager producer;
+        final DirectoryIngester ingester;
+        final int threadCount;
+        if (threads == null) {
+            threads = DEFAULT_THREADS;
+        }
+        if (streaming) {
+            producer = new TransferManager(new File[0], username, password, this, out, oneFirst);
+            ingester = new DirectoryIngester(inDir, DirectoryIngester.DEFAULT_CAPACITY,
+                    journal, watch, DirectoryIngester.DEFAULT_SETTLE_TIME);
+            producer.setIngester(ingester);
+            threadCount = threads;
+        } else {
+            File[] inFiles = inDir.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    if (file.isDirectory()) {
+                        LOG.warn("Skipping directory: " + file.getName());
+                        return false;
+                    }
+                    if (journal != null && (file.equals(journal.getFile()) || journal.isCompleted(file))) {
+                        return false;
+                    }
+                    return true;
+                }
+            });
+            if (inFiles == null || (inFiles.length == 0 && journal == null)) {
+                LOG.error("No input files");
+                return 1;
+            }
+            if (inFiles.length == 0) {
+                LOG.info("All " + journal.size() + " files in checkpoint already completed");
+                return 0;
+            }
+            producer = new TransferManager(inFiles, username, password, this, out, oneFirst);
+            ingester = null;
+            threadCount = threads > inFiles.length ? inFiles.length : threads;
+        }
+        producer.setJournal(journal);
+
+        // Hash the next files while the current ones are transferred
+        final List<String> hashAlgorithms = getPrefetchedDigestAlgorithms();
+        if (!hashAlgorithms.isEmpty()) {
+            final int hashThreadCount = hashThreads != null ? hashThreads
+                    : Math.min(Runtime.getRuntime().availableProcessors(), threadCount);
+            hashingStage = new HashingStage(hashThreadCount, hashAlgorithms);
+            producer.setHashingStage(hashingStage, threadCount + hashThreadCount);
+        }
+        final ArrayList<TransferThread> consumers = new ArrayList<>();
+        
+        final Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {                        
+                LOG.error("Unexpected failure in thread " + t.getName() + ". Aborting.", e);
+                producer.abort();
+            }
+        };
+        
+        for (int i = 0; i < threadCount; i++) {
+            final TransferThread t = new TransferThread(i, producer, hostsManager);
+            t.setUncaughtExceptionHandler(handler);
+            consumers.add(t);
+        }
+        
+        // Start the threads
+        if (ingester != null) {
+            ingester.start();
+        }
+        for (TransferThread consumer : consumers) {
+            consumer.start();
+        }
+        
+        // Wait for the threads to finish
+        try {
+            for (TransferThread w : consumers) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Waiting for thread " + w.getName());
+                }
+                w.join();
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Thread " + w.getName() + " stopped");
+                }
+            }
+        } catch (InterruptedException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Interupted when waiting for thread: " + ex.getMessage());
+            }
+        }
+
+        if (ingester != null) {
+            ingester.close();
+        }
+
+        LOG.info(producer.getStatistics().getReport());
+
+        if (hashingStage != null) {
+            hashingStage.close();
+            hashingStage = null;
+        }
+        
+        if (producer.isAborted()) {
+            throw new CommandFailureException("Aborted due to failure.");
+        }
+
+        if (ingester != null && ingester.getError() != null) {
+            throw new CommandFailureException("Failed to read input directory: " + ingester.getError().getMessage());
+        }
+        
+        if (producer.hasFailures()) {
+            throw new CommandFailureException("At least one file failed.");
+        }
+
+        return 0;
+    }
     
+    /**
+     * @return digest algorithms of the complete input files needed for the
+     * requests, which can be computed ahead by the hashing stage. Only the
+     * digest for signing the request is consumed from the stage (through the
+     * input source of the straight handler), the client-side handlers hash
+     * other data than the complete file.
+     */
+    private List<String> getPrefetchedDigestAlgorithms() {
+        final List<String> result = new ArrayList<>(1);
+        if (keyStoreOptions.isSignRequest() && !clientside) {
+            result.add("SHA-256");
+        }
+        return result;
+    }
+
     /**
      * Thread for running the upload/download of the data.
      */
@@ -33,6 +33,7 @@ public class StraightFileSpecificHandler implements FileSpecificHandler {
     private final byte[] inputData;
     private final File file;
     private long size;
+    private HashingStage hashingStage;
     
     private Collection<InputSource> sourcesToClose = new ArrayList<InputSource>();
     
@@ -56,7 +57,9 @@ public class StraightFileSpecificHandler implements FileSpecificHandler {
     @Override
     public InputSource produceSignatureInput(String algorithm) throws NoSuchAlgorithmException, IOException {
         if (file != null) {
-            return closeLater(new InputSource(file, size));
+            final InputSource source = closeLater(new InputSource(file, size));
+            source.setHashingStage(hashingStage);
+            return source;
         } else {
             return new InputSource(inputData);
         }
@@ -83,6 +86,11 @@ public class StraightFileSpecificHandler implements FileSpecificHandler {
         }
     }
 
+    @Override
+    public void setHashingStage(HashingStage hashingStage) {
+        this.hashingStage = hashingStage;
+    }
+
     @Override
     public String getFileTypeIdentifier() {
         return null;
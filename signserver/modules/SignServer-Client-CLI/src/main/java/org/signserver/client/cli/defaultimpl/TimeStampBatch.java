@@ -0,0 +1,455 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.math.BigInteger;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampRequestGenerator;
+import org.bouncycastle.tsp.TimeStampResponse;
+import org.bouncycastle.util.encoders.Hex;
+import org.signserver.common.util.HostBalancer;
+
+/**
+ * Time-stamps a large number of files or digests, keeping a number of
+ * requests in flight at the same time.
+ *
+ * Each worker thread hashes its next input, sends the request over a
+ * re-used connection, verifies the response and stores it as a .tsr file
+ * next to the input. The names of the time-stamped inputs are appended to a
+ * checkpoint journal so that an interrupted run can be resumed without
+ * requesting them again.
+ *
+ * @version $Id$
+ */
+public class TimeStampBatch {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(TimeStampBatch.class);
+
+    /** Suffix of the stored responses. */
+    public static final String RESPONSE_SUFFIX = ".tsr";
+
+    /** Name of the checkpoint journal when time-stamping a directory. */
+    public static final String CHECKPOINT_NAME = ".timestamp-checkpoint";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final URL url;
+    private final HostBalancer balancer;
+    private final HTTPTransport transport;
+    private final ASN1ObjectIdentifier digestAlgorithm;
+    private final boolean certReq;
+    private final String reqPolicy;
+    private final X509Certificate signerCert;
+    private final int threads;
+
+    /**
+     * Creates a new batch.
+     *
+     * @param url of the TSA
+     * @param balancer to select the host for each request or null to use the
+     * host in the URL
+     * @param transport to send the requests with
+     * @param digestAlgorithm of the message imprints
+     * @param certReq if the TSA certificate should be requested
+     * @param reqPolicy policy OID to request or null
+     * @param signerCert to verify the time-stamp tokens with or null to only
+     * check that the responses match the requests
+     * @param threads number of requests in flight
+     */
+    public TimeStampBatch(final URL url, final HostBalancer balancer,
+            final HTTPTransport transport,
+            final ASN1ObjectIdentifier digestAlgorithm, final boolean certReq,
+            final String reqPolicy, final X509Certificate signerCert,
+            final int threads) {
+        this.url = url;
+        this.balancer = balancer;
+        this.transport = transport;
+        this.digestAlgorithm = digestAlgorithm;
+        this.certReq = certReq;
+        this.reqPolicy = reqPolicy;
+        this.signerCert = signerCert;
+        this.threads = threads;
+    }
+
+    /**
+     * Time-stamps the inputs not already in the checkpoint journal.
+     *
+     * @param items inputs to time-stamp, only accessed by one thread at a time
+     * @param checkpoint journal of inputs already time-stamped
+     * @return statistics of the run
+     * @throws IOException in case of failure reading or writing the journal
+     * @throws InterruptedException if interrupted while waiting for the
+     * requests in flight
+     */
+    public TransferStatistics run(final Iterator<Item> items, final File checkpoint)
+            throws IOException, InterruptedException {
+        final Set<String> done = readCheckpoint(checkpoint);
+        if (!done.isEmpty()) {
+            LOG.info("Resuming with " + done.size() + " inputs already time-stamped");
+        }
+        final TransferStatistics statistics = new TransferStatistics();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (BufferedWriter journal = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(checkpoint, true), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < threads; i++) {
+                executor.submit(() -> {
+                    try {
+                        Item item;
+                        while ((item = next(items, done)) != null) {
+                            process(item, journal, statistics);
+                        }
+                    } catch (RuntimeException ex) {
+                        LOG.error("Failed reading the inputs: " + ex.getMessage(), ex);
+                        statistics.recordFailure();
+                    }
+                });
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.info(statistics.getReport());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return statistics;
+    }
+
+    private static Item next(final Iterator<Item> items, final Set<String> done) {
+        synchronized (items) {
+            while (items.hasNext()) {
+                final Item item = items.next();
+                if (!done.contains(item.getName())) {
+                    return item;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void process(final Item item, final BufferedWriter journal,
+            final TransferStatistics statistics) {
+        final long startTime = System.nanoTime();
+        try {
+            final byte[] digest;
+            if (item.getDigest() != null) {
+                digest = item.getDigest();
+            } else {
+                digest = FileDigester.digest(item.getFile(), digestAlgorithm.getId());
+            }
+
+            final TimeStampRequestGenerator generator = new TimeStampRequestGenerator();
+            generator.setCertReq(certReq);
+            if (reqPolicy != null) {
+                generator.setReqPolicy(new ASN1ObjectIdentifier(reqPolicy));
+            }
+            final TimeStampRequest request = generator.generate(digestAlgorithm, digest,
+                    BigInteger.valueOf(ThreadLocalRandom.current().nextLong()));
+
+            final byte[] replyBytes = send(request.getEncoded());
+            final TimeStampResponse response = new TimeStampResponse(replyBytes);
+            response.validate(request);
+            if (response.getTimeStampToken() == null) {
+                throw new IOException("Request not granted: status " + response.getStatus()
+                        + (response.getStatusString() == null ? "" : " (" + response.getStatusString() + ")"));
+            }
+            if (signerCert != null) {
+                response.getTimeStampToken().validate(new JcaSimpleSignerInfoVerifierBuilder()
+                        .setProvider("BC").build(signerCert));
+            }
+
+            // Write to a temporary file first so that no partial responses are left
+            final File output = item.getOutput();
+            final File temp = new File(output.getParentFile(), output.getName() + TEMP_SUFFIX);
+            Files.write(temp.toPath(), replyBytes);
+            Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            synchronized (journal) {
+                journal.write(item.getName());
+                journal.newLine();
+                journal.flush();
+            }
+            statistics.recordSuccess(item.getSize(), System.nanoTime() - startTime);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Time-stamped " + item.getName());
+            }
+        } catch (Exception ex) {
+            LOG.error("Failed to time-stamp " + item.getName() + ": " + ex.getMessage());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failed to time-stamp " + item.getName(), ex);
+            }
+            statistics.recordFailure();
+        }
+    }
+
+    /**
+     * Sends the request to the host in the URL or the hosts selected by the
+     * balancer, trying the next host if the request fails because of the host.
+     */
+    private byte[] send(final byte[] requestBytes) throws IOException {
+        if (balancer == null) {
+            return send(url, requestBytes);
+        }
+        IOException lastFailure = null;
+        String host;
+        while ((host = balancer.select()) != null) {
+            final long startTime = balancer.requestStarted(host);
+            try {
+                final byte[] result = send(new URL(url.getProtocol(), host, url.getPort(), url.getFile()), requestBytes);
+                balancer.requestCompleted(host, startTime);
+                return result;
+            } catch (ConnectException | SocketTimeoutException | UnknownHostException ex) {
+                balancer.requestFailed(host, startTime);
+                lastFailure = ex;
+            } catch (HTTPException ex) {
+                if (ex.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND
+                        || ex.getResponseCode() == HttpURLConnection.HTTP_INTERNAL_ERROR
+                        || ex.getResponseCode() == HttpURLConnection.HTTP_UNAVAILABLE) {
+                    balancer.requestFailed(host, startTime);
+                    lastFailure = ex;
+                } else {
+                    balancer.requestCompleted(host, startTime);
+                    throw ex;
+                }
+            } catch (IOException ex) {
+                balancer.requestFailed(host, startTime);
+                throw ex;
+            }
+            LOG.error("Connection failure occurred: " + lastFailure.getMessage());
+        }
+        if (lastFailure != null) {
+            throw lastFailure;
+        }
+        throw new IOException("No more hosts to try");
+    }
+
+    private byte[] send(final URL hostURL, final byte[] requestBytes) throws IOException {
+        transport.acquire(hostURL.getHost());
+        try {
+            final HttpURLConnection conn = transport.openConnection(hostURL);
+            conn.setDoOutput(true);
+            conn.setUseCaches(false);
+            conn.setRequestProperty("Content-Type", "application/timestamp-query");
+            conn.setFixedLengthStreamingMode(requestBytes.length);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(requestBytes);
+            }
+
+            // Read the whole body so that the connection can be re-used
+            final int responseCode = conn.getResponseCode();
+            InputStream in = conn.getErrorStream();
+            if (in == null) {
+                in = conn.getInputStream();
+            }
+            final byte[] body;
+            try {
+                body = IOUtils.toByteArray(in);
+            } finally {
+                in.close();
+            }
+            if (responseCode >= 400) {
+                throw new HTTPException(hostURL, responseCode, conn.getResponseMessage(), body);
+            }
+            return body;
+        } finally {
+            transport.release(hostURL.getHost());
+        }
+    }
+
+    private static Set<String> readCheckpoint(final File checkpoint) throws IOException {
+        final Set<String> result = new HashSet<>();
+        if (checkpoint.exists()) {
+            for (String line : Files.readAllLines(checkpoint.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    result.add(line);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lists the files to time-stamp in a directory, skipping stored responses
+     * and the checkpoint journal. The directory is read lazily.
+     *
+     * @param directory to list
+     * @return the inputs, to be closed after use
+     * @throws IOException in case of failure opening the directory
+     */
+    public static Items listDirectory(final File directory) throws IOException {
+        final DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), path -> {
+            final String name = path.getFileName().toString();
+            return !name.endsWith(RESPONSE_SUFFIX) && !name.endsWith(TEMP_SUFFIX)
+                    && !name.equals(CHECKPOINT_NAME) && Files.isRegularFile(path);
+        });
+        final Iterator<Path> paths = stream.iterator();
+        return new Items(stream) {
+            @Override
+            public boolean hasNext() {
+                return paths.hasNext();
+            }
+
+            @Override
+            public Item next() {
+                final File file = paths.next().toFile();
+                return new Item(file.getName(), file, null, new File(directory, file.getName() + RESPONSE_SUFFIX), file.length());
+            }
+        };
+    }
+
+    /**
+     * Reads a list of digests, one per line in hexadecimal, optionally
+     * followed by white space and the name of the file it is the digest of.
+     * This is the format written by tools like sha256sum. The responses are
+     * stored next to the named files or next to the list named after the
+     * digest.
+     *
+     * @param list file to read
+     * @param digestLength expected length of the digests in bytes
+     * @return the inputs
+     * @throws IOException in case of failure reading the list or if it has
+     * malformed lines
+     */
+    public static List<Item> readDigestList(final File list, final int digestLength) throws IOException {
+        final File directory = list.getAbsoluteFile().getParentFile();
+        final List<Item> result = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(list.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] parts = line.split("\\s+", 2);
+                final byte[] digest;
+                try {
+                    digest = Hex.decode(parts[0]);
+                } catch (RuntimeException ex) {
+                    throw new IOException("Malformed digest on line " + lineNumber + " of " + list);
+                }
+                if (digest.length != digestLength) {
+                    throw new IOException("Expected a digest of " + digestLength + " bytes on line " + lineNumber + " of " + list);
+                }
+                String name = parts[0].toLowerCase();
+                File output = new File(directory, name + RESPONSE_SUFFIX);
+                if (parts.length > 1) {
+                    // File names can be prefixed with * for binary mode
+                    name = parts[1].startsWith("*") ? parts[1].substring(1) : parts[1];
+                    final File file = new File(name);
+                    output = new File(file.isAbsolute() ? file.getParentFile() : new File(directory, name).getParentFile(),
+                            file.getName() + RESPONSE_SUFFIX);
+                }
+                result.add(new Item(name, null, digest, output, 0));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Iterator over the inputs that has to be closed.
+     */
+    public abstract static class Items implements Iterator<Item>, Closeable {
+        private final Closeable resource;
+
+        protected Items(final Closeable resource) {
+            this.resource = resource;
+        }
+
+        @Override
+        public void close() throws IOException {
+            resource.close();
+        }
+    }
+
+    /**
+     * Input to time-stamp: a file or a digest.
+     */
+    public static class Item {
+        private final String name;
+        private final File file;
+        private final byte[] digest;
+        private final File output;
+        private final long size;
+
+        /**
+         * @param name recorded in the checkpoint journal
+         * @param file to hash or null if the digest is given
+         * @param digest of the data or null to hash the file
+         * @param output to store the response in
+         * @param size of the input in bytes, for the statistics
+         */
+        public Item(final String name, final File file, final byte[] digest, final File output, final long size) {
+            this.name = name;
+            this.file = file;
+            this.digest = digest;
+            this.output = output;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public byte[] getDigest() {
+            return digest;
+        }
+
+        public File getOutput() {
+            return output;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
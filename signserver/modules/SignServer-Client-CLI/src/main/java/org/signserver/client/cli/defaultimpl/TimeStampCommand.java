@@ -14,8 +14,11 @@ package org.signserver.client.cli.defaultimpl;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -59,6 +62,7 @@ import org.signserver.cli.spi.AbstractCommand;
 import org.signserver.cli.spi.CommandFailureException;
 import org.signserver.cli.spi.IllegalCommandArgumentsException;
 import org.signserver.cli.spi.UnexpectedCommandFailureException;
+import org.signserver.common.util.HostBalancer;
 
 /**
  * Class making a simple timestamp request to a timestamp server and tries to
@@ -97,8 +101,23 @@ public class TimeStampCommand extends AbstractCommand {
     private static final ASN1ObjectIdentifier DEFAULT_DIGEST_ALGORITHM = TSPAlgorithms.SHA256;
     private static final int DEFAULT_DIGEST_ALGORITHM_OUTPUT_LENGTH = 32; //SHA-256;
 
+    /** Default number of requests in flight in batch mode. */
+    private static final int DEFAULT_THREADS = 10;
+
     private String urlstring;
 
+    /** Hosts to balance the requests between, replacing the host in the URL. */
+    private List<String> hosts;
+
+    /** Directory with files to time-stamp in batch mode. */
+    private String indirstring;
+
+    /** File with digests to time-stamp in batch mode. */
+    private String digestliststring;
+
+    /** Number of requests in flight in batch mode. */
+    private int threads = DEFAULT_THREADS;
+
     private String outrepstring;
 
     private String inrepstring;
@@ -154,6 +173,42 @@ public class TimeStampCommand extends AbstractCommand {
         OptionBuilder.withArgName("url");
         final Option url = OptionBuilder.create("url");
 
+        OptionBuilder.hasArg();
+        OptionBuilder.withDescription("Comma separated list of hosts to send "
+                + "the requests to instead of the host in the URL. The host "
+                + "with the lowest latency and fewest requests in progress is "
+                + "preferred and failing hosts are left out for a time "
+                + "growing with each failure.");
+        OptionBuilder.withArgName("hosts");
+        final Option hostsOption = OptionBuilder.create("hosts");
+
+        OptionBuilder.hasArg();
+        OptionBuilder.withArgName("directory");
+        OptionBuilder.withDescription("Batch mode: time-stamp each file in the "
+                + "directory and store the replies next to them with the "
+                + "suffix .tsr. Files already time-stamped according to the "
+                + "checkpoint file " + TimeStampBatch.CHECKPOINT_NAME
+                + " in the directory are skipped so that an interrupted run "
+                + "can be resumed.");
+        final Option indir = OptionBuilder.create("indir");
+
+        OptionBuilder.hasArg();
+        OptionBuilder.withArgName("file");
+        OptionBuilder.withDescription("Batch mode: time-stamp each digest in "
+                + "the file, one hex encoded digest per line optionally "
+                + "followed by the name of the file, as written by sha256sum. "
+                + "The replies are stored next to the named files with the "
+                + "suffix .tsr. The checkpoint file has the same name as the "
+                + "list with the suffix .checkpoint.");
+        final Option digestlist = OptionBuilder.create("digestlist");
+
+        OptionBuilder.hasArg();
+        OptionBuilder.withArgName("num");
+        OptionBuilder.withDescription("Batch mode: number of requests to "
+                + "have in flight at the same time. Default "
+                + DEFAULT_THREADS + ".");
+        final Option threadsOption = OptionBuilder.create("threads");
+
         OptionBuilder.hasArg();
         OptionBuilder.withArgName("file");
         OptionBuilder.withDescription("Output file to store the recevied TSA "
@@ -224,6 +279,10 @@ public class TimeStampCommand extends AbstractCommand {
         options.addOption(verifyopt);
         options.addOption(printopt);
         options.addOption(url);
+        options.addOption(hostsOption);
+        options.addOption(indir);
+        options.addOption(digestlist);
+        options.addOption(threadsOption);
         options.addOption(outrep);
         options.addOption(inrep);
         options.addOption(cafileopt);
@@ -262,7 +321,10 @@ public class TimeStampCommand extends AbstractCommand {
             .append("Sample usages:").append(NL)
             .append("a) ").append(COMMAND).append(" -url http://localhost:8080/signserver/tsa?workerName=TimeStampSigner").append(NL)
             .append("b) ").append(COMMAND).append(" -print -inreq query.tsq").append(NL)
-            .append("c) ").append(COMMAND).append(" -print -inrep reply.tsr").append(NL);
+            .append("c) ").append(COMMAND).append(" -print -inrep reply.tsr").append(NL)
+            .append("d) ").append(COMMAND).append(" -url http://localhost:8080/signserver/tsa?workerName=TimeStampSigner -hosts host1,host2,host3").append(NL)
+            .append("e) ").append(COMMAND).append(" -url http://localhost:8080/signserver/tsa?workerName=TimeStampSigner -indir ./logs/ -threads 50 -signerfile tsa.pem").append(NL)
+            .append("f) ").append(COMMAND).append(" -url http://localhost:8080/signserver/tsa?workerName=TimeStampSigner -digestlist SHA256SUMS -threads 50").append(NL);
         return footer.toString();
     }
 
@@ -279,6 +341,33 @@ public class TimeStampCommand extends AbstractCommand {
             if (cmd.hasOption("url")) {
                 urlstring = cmd.getOptionValue("url");
             }
+            if (cmd.hasOption("hosts")) {
+                hosts = new ArrayList<>();
+                for (String host : cmd.getOptionValue("hosts").split(",")) {
+                    if (!host.trim().isEmpty()) {
+                        hosts.add(host.trim());
+                    }
+                }
+                if (hosts.isEmpty()) {
+                    LOG.error("-hosts can not be empty");
+                    out.println(usage(options));
+                    return CommandLineInterface.RETURN_INVALID_ARGUMENTS;
+                }
+            }
+            if (cmd.hasOption("indir")) {
+                indirstring = cmd.getOptionValue("indir");
+            }
+            if (cmd.hasOption("digestlist")) {
+                digestliststring = cmd.getOptionValue("digestlist");
+            }
+            if (cmd.hasOption("threads")) {
+                threads = Integer.parseInt(cmd.getOptionValue("threads"));
+                if (threads < 1) {
+                    LOG.error("-threads must be > 0");
+                    out.println(usage(options));
+                    return CommandLineInterface.RETURN_INVALID_ARGUMENTS;
+                }
+            }
             if (cmd.hasOption("instr")) {
                 instring = cmd.getOptionValue("instr");
             }
@@ -347,6 +436,22 @@ public class TimeStampCommand extends AbstractCommand {
                 return CommandLineInterface.RETURN_INVALID_ARGUMENTS;
             }
 
+            final boolean batch = indirstring != null || digestliststring != null;
+            if (batch && (indirstring != null && digestliststring != null
+                    || instring != null || infilestring != null
+                    || inreqstring != null || outreqstring != null
+                    || outrepstring != null || verify || print)) {
+                LOG.error("-indir and -digestlist can not be combined with each other or with "
+                        + "-instr, -infile, -inreq, -outreq, -outrep, -verify or -print");
+                out.println(usage(options));
+                return CommandLineInterface.RETURN_INVALID_ARGUMENTS;
+            }
+            if (cmd.hasOption("threads") && !batch) {
+                LOG.error("-threads can only be used with -indir or -digestlist");
+                out.println(usage(options));
+                return CommandLineInterface.RETURN_INVALID_ARGUMENTS;
+            }
+
             if (args.length < 1) {
                 out.println(usage(options));
                 return CommandLineInterface.RETURN_INVALID_ARGUMENTS;
@@ -369,7 +474,7 @@ public class TimeStampCommand extends AbstractCommand {
                 run();
                 return CommandLineInterface.RETURN_SUCCESS;
             }
-        } catch (ParseException e) {
+        } catch (ParseException | NumberFormatException e) {
             // oops, something went wrong
             out.println(usage(options));
             return CommandLineInterface.RETURN_INVALID_ARGUMENTS;
@@ -377,6 +482,8 @@ public class TimeStampCommand extends AbstractCommand {
             err.println("Failure: HTTP error: " + ex.getResponseCode() + ": " +
                     ex.getResponseMessage());
             return CommandLineInterface.RETURN_ERROR;
+        } catch (CommandFailureException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new UnexpectedCommandFailureException(ex);
         }
@@ -398,6 +505,8 @@ public class TimeStampCommand extends AbstractCommand {
         }
         else if (verify) {
             tsaVerify();
+        } else if (indirstring != null || digestliststring != null) {
+            tsaBatch();
         } else {
             tsaRequest();
         }
@@ -672,6 +781,51 @@ public class TimeStampCommand extends AbstractCommand {
         }
     }
 
+    private void tsaBatch() throws Exception {
+        ASN1ObjectIdentifier requestDigestAlgorithm = DEFAULT_DIGEST_ALGORITHM;
+        int digestLength = DEFAULT_DIGEST_ALGORITHM_OUTPUT_LENGTH;
+        if (digestalgorithm != null) {
+            requestDigestAlgorithm = getDigestAlgorithmFromString(digestalgorithm);
+            digestLength = getOutputSizeBitsFromDigestAlgorithmString(digestalgorithm) / 8;
+        }
+
+        X509Certificate signerCert = null;
+        if (signerfilestring != null) {
+            final List<X509Certificate> certs = getCertsFromPEM(signerfilestring);
+            if (certs.isEmpty()) {
+                throw new CommandFailureException("No certificate found in file: " + signerfilestring);
+            }
+            signerCert = certs.get(0);
+        }
+
+        final URL url = new URL(urlstring);
+        final SSLSocketFactory sf = keyStoreOptions.setupHTTPS(createConsolePasswordReader(), out);
+        final HTTPTransport transport = new HTTPTransport(threads, sf, -1);
+        final TimeStampBatch batch = new TimeStampBatch(url,
+                hosts == null ? null : new HostBalancer(hosts), transport,
+                requestDigestAlgorithm, certReq, reqPolicy, signerCert, threads);
+
+        final TransferStatistics statistics;
+        if (indirstring != null) {
+            final File indir = new File(indirstring);
+            if (!indir.isDirectory()) {
+                throw new CommandFailureException("Not a directory: " + indir);
+            }
+            try (TimeStampBatch.Items items = TimeStampBatch.listDirectory(indir)) {
+                statistics = batch.run(items, new File(indir, TimeStampBatch.CHECKPOINT_NAME));
+            }
+        } else {
+            final File list = new File(digestliststring);
+            statistics = batch.run(TimeStampBatch.readDigestList(list, digestLength).iterator(),
+                    new File(list.getPath() + ".checkpoint"));
+        }
+
+        out.println(statistics.getReport());
+        if (statistics.getFailures() > 0) {
+            throw new CommandFailureException("At least one time-stamp request failed.");
+        }
+    }
+
     @SuppressWarnings("SleepWhileInLoop") // We are just using the sleep for rate limiting
     private void tsaRequest() throws Exception {
         final Random rand = new Random();
@@ -680,6 +834,7 @@ public class TimeStampCommand extends AbstractCommand {
         boolean doRun = true;
         ASN1ObjectIdentifier requestDigestAlgorithm = DEFAULT_DIGEST_ALGORITHM;
         int digestLength = DEFAULT_DIGEST_ALGORITHM_OUTPUT_LENGTH;
+        final HostBalancer balancer = hosts == null ? null : new HostBalancer(hosts);
         do {
 
             if (digestalgorithm != null) {
@@ -746,12 +901,7 @@ public class TimeStampCommand extends AbstractCommand {
                 HttpsURLConnection.setDefaultSSLSocketFactory(sf);
             }
 
-            URL url;
-            HttpURLConnection urlConn;
-            DataOutputStream printout;
-            DataInputStream input;
-
-            url = new URL(urlstring);
+            final URL url = new URL(urlstring);
 
             // Take start time
             final long startMillis = System.currentTimeMillis();
@@ -760,39 +910,11 @@ public class TimeStampCommand extends AbstractCommand {
                 LOG.debug("Sending request at: " + startMillis);
             }
 
-            urlConn = (HttpURLConnection) url.openConnection();
-
-            urlConn.setDoInput(true);
-            urlConn.setDoOutput(true);
-            urlConn.setUseCaches(false);
-            urlConn.setRequestProperty("Content-Type",
-                    "application/timestamp-query");
-
-            // Send POST output.
-            printout = new DataOutputStream(urlConn.getOutputStream());
-            printout.write(requestBytes);
-            printout.flush();
-            printout.close();
-
-            // Get response data.
-            final int responseCode = urlConn.getResponseCode();
-
-            if (responseCode >= 400) {
-                input = new DataInputStream(urlConn.getErrorStream());
-            } else {
-                input = new DataInputStream(urlConn.getInputStream());
-            }
-
             final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            int b;
-            while ((b = input.read()) != -1) {
-                baos.write(b);
-            }
-
-            if (responseCode >= 400) {
-                throw new HTTPException(url, responseCode,
-                                        urlConn.getResponseMessage(),
-                                        baos.toByteArray());
+            if (balancer == null) {
+                sendRequest(url, requestBytes, baos);
+            } else {
+                sendRequest(balancer, url, requestBytes, baos);
             }
 
             // Take stop time
@@ -859,6 +981,96 @@ public class TimeStampCommand extends AbstractCommand {
         } while (doRun);
     }
 
+    /**
+     * Sends the request to the URL and writes the response to the stream.
+     */
+    private void sendRequest(final URL url, final byte[] requestBytes,
+            final ByteArrayOutputStream baos) throws IOException {
+        final HttpURLConnection urlConn;
+        final DataOutputStream printout;
+        final DataInputStream input;
+
+        urlConn = (HttpURLConnection) url.openConnection();
+
+        urlConn.setDoInput(true);
+        urlConn.setDoOutput(true);
+        urlConn.setUseCaches(false);
+        urlConn.setRequestProperty("Content-Type",
+                "application/timestamp-query");
+
+        // Send POST output.
+        printout = new DataOutputStream(urlConn.getOutputStream());
+        printout.write(requestBytes);
+        printout.flush();
+        printout.close();
+
+        // Get response data.
+        final int responseCode = urlConn.getResponseCode();
+
+        if (responseCode >= 400) {
+            input = new DataInputStream(urlConn.getErrorStream());
+        } else {
+            input = new DataInputStream(urlConn.getInputStream());
+        }
+
+        int b;
+        while ((b = input.read()) != -1) {
+            baos.write(b);
+        }
+
+        if (responseCode >= 400) {
+            throw new HTTPException(url, responseCode,
+                                    urlConn.getResponseMessage(),
+                                    baos.toByteArray());
+        }
+    }
+
+    /**
+     * Sends the request to the host selected by the balancer, trying the
+     * next host if the request fails because of the host.
+     */
+    private void sendRequest(final HostBalancer balancer, final URL url,
+            final byte[] requestBytes, final ByteArrayOutputStream baos)
+            throws IOException {
+        IOException lastFailure = null;
+        String host;
+        while ((host = balancer.select()) != null) {
+            final URL hostURL = new URL(url.getProtocol(), host, url.getPort(), url.getFile());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Sending to URL: " + hostURL);
+            }
+            final long startTime = balancer.requestStarted(host);
+            try {
+                baos.reset();
+                sendRequest(hostURL, requestBytes, baos);
+                balancer.requestCompleted(host, startTime);
+                return;
+            } catch (ConnectException | SocketTimeoutException | UnknownHostException ex) {
+                balancer.requestFailed(host, startTime);
+                LOG.error("Connection failure occurred: " + ex.getMessage());
+                lastFailure = ex;
+            } catch (HTTPException ex) {
+                if (ex.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND
+                        || ex.getResponseCode() == HttpURLConnection.HTTP_INTERNAL_ERROR
+                        || ex.getResponseCode() == HttpURLConnection.HTTP_UNAVAILABLE) {
+                    balancer.requestFailed(host, startTime);
+                    LOG.error("Connection failure occurred: " + ex.getMessage());
+                    lastFailure = ex;
+                } else {
+                    balancer.requestCompleted(host, startTime);
+                    throw ex;
+                }
+            } catch (IOException ex) {
+                balancer.requestFailed(host, startTime);
+                throw ex;
+            }
+        }
+        if (lastFailure != null) {
+            throw lastFailure;
+        }
+        throw new IOException("No more hosts to try");
+    }
+
     /**
      * Helpfunction to read a file to a byte array.
      *
@@ -16,6 +16,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import org.apache.log4j.Logger;
 import org.signserver.cli.spi.CommandFailureException;
@@ -32,6 +33,9 @@ public class TransferManager {
     /** Logger for this class. */
     private static final Logger LOG = Logger.getLogger(TransferManager.class);
 
+    /** Milliseconds to wait between checks for more files from the ingester. */
+    private static final long INGESTER_POLL_INTERVAL = 50;
+
     /** Queue of files to process. */
     private final LinkedList<File> files = new LinkedList<>();
     
@@ -71,6 +75,21 @@ public class TransferManager {
     /** Number of successful files. */
     private int success;
 
+    /** Throughput and latencies of the processed files. */
+    private final TransferStatistics statistics = new TransferStatistics();
+
+    /** Stage hashing the upcoming files or null. */
+    private HashingStage hashingStage;
+
+    /** Number of upcoming files to have hashed ahead. */
+    private int lookahead;
+
+    /** Source of more files when reading the input directory incrementally or null. */
+    private DirectoryIngester ingester;
+
+    /** Journal to record the completed files in or null. */
+    private CheckpointJournal journal;
+
     /**
      * Constructs a new instance of TransferManager.
      * @param inFiles to work on.
@@ -118,10 +137,117 @@ public class TransferManager {
             }
         } else if (oneFirst) { // Otherwise if we are the first
             firstAlreadyServed = true; // Signal that we are serving it
+            awaitFiles();
             first = files.isEmpty() ? null : files.remove(); // Get the file
+            prefetch();
             return first;
         }
-        return files.isEmpty() ? null : files.remove(); // Else just return the next file
+        awaitFiles();
+        final File result = files.isEmpty() ? null : files.remove(); // Else just return the next file
+        prefetch();
+        return result;
+    }
+
+    /**
+     * Moves the files available from the ingester to the queue, waiting
+     * for more if the queue is empty and the ingester is not done. The
+     * monitor is released while waiting so that other threads can report
+     * their results.
+     */
+    private void awaitFiles() {
+        if (ingester == null) {
+            return;
+        }
+        fill();
+        while (files.isEmpty() && !ingester.isDone() && !aborted) {
+            try {
+                wait(INGESTER_POLL_INTERVAL);
+            } catch (InterruptedException ex) {
+                aborted = true;
+                LOG.error("Interrupted: " + ex.getLocalizedMessage());
+                Thread.currentThread().interrupt();
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Takes files from the ingester, without blocking, so that there is
+     * enough queued for the hashing stage to work ahead.
+     */
+    private void fill() {
+        File file;
+        while (files.size() <= lookahead && (file = ingester.poll()) != null) {
+            files.add(file);
+        }
+    }
+
+    /**
+     * Reads the files incrementally from the ingester instead of, or in
+     * addition to, the files given in the constructor.
+     *
+     * @param ingester to take files from
+     */
+    public synchronized void setIngester(DirectoryIngester ingester) {
+        this.ingester = ingester;
+    }
+
+    /**
+     * Records completed files in the journal so that they can be skipped
+     * if the processing is restarted.
+     *
+     * @param journal to record the files in
+     */
+    public synchronized void setJournal(CheckpointJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Records that a file has been processed and its output written. Must be
+     * called before the input file is removed.
+     *
+     * @param inFile the processed file
+     * @throws IOException in case of failure writing to the journal
+     */
+    public void registerCompleted(File inFile) throws IOException {
+        final CheckpointJournal current;
+        final DirectoryIngester currentIngester;
+        synchronized (this) {
+            current = journal;
+            currentIngester = ingester;
+        }
+        if (current != null) {
+            current.record(inFile);
+        }
+        if (currentIngester != null) {
+            currentIngester.completed(inFile);
+        }
+    }
+
+    /**
+     * Uses a hashing stage to compute the digests of the next files while
+     * the current ones are being transferred.
+     *
+     * @param hashingStage to hash the upcoming files with
+     * @param lookahead number of upcoming files to keep hashed ahead
+     */
+    public synchronized void setHashingStage(HashingStage hashingStage, int lookahead) {
+        this.hashingStage = hashingStage;
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * Schedules hashing of the upcoming files. Files already scheduled are
+     * skipped by the hashing stage, so only the newly entered files in the
+     * window are hashed.
+     */
+    private void prefetch() {
+        if (hashingStage != null) {
+            final Iterator<File> it = files.iterator();
+            for (int i = 0; i < lookahead && it.hasNext(); i++) {
+                hashingStage.prefetch(it.next());
+            }
+        }
     }
 
     /**
@@ -147,6 +273,7 @@ public class TransferManager {
      */
     public synchronized void registerFailure() {
         failed = true;
+        statistics.recordFailure();
         if (oneFirst) {
             // If the first one did not succeed in onefirst mode we will abort
             abort();
@@ -222,6 +349,13 @@ public class TransferManager {
         notifyAll();
     }
 
+    /**
+     * @return The statistics of the processed files
+     */
+    public TransferStatistics getStatistics() {
+        return statistics;
+    }
+
     /**
      * @return The current password
      */
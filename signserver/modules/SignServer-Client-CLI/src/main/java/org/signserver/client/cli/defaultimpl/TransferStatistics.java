@@ -0,0 +1,111 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.signserver.common.util.LatencyHistogram;
+
+/**
+ * Throughput and latency of the files processed in a batch run.
+ *
+ * All methods are thread-safe.
+ *
+ * @version $Id$
+ */
+public class TransferStatistics {
+
+    /** Latencies in microseconds. */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private final long startTime;
+
+    /**
+     * Creates a new instance, starting the clock.
+     */
+    public TransferStatistics() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param startTime of the batch from System.nanoTime()
+     */
+    TransferStatistics(final long startTime) {
+        this.startTime = startTime;
+    }
+
+    /**
+     * Records a successfully processed file.
+     *
+     * @param size of the input file in bytes
+     * @param nanos time it took to process the file
+     */
+    public void recordSuccess(final long size, final long nanos) {
+        bytes.addAndGet(Math.max(0, size));
+        latencies.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Records a file that failed.
+     */
+    public void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * @return number of successfully processed files
+     */
+    public long getFiles() {
+        return latencies.getCount();
+    }
+
+    /**
+     * @return number of failed files
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @param endTime from System.nanoTime()
+     * @return a one line summary of the throughput and latencies
+     */
+    public String getReport(final long endTime) {
+        final double seconds = Math.max(1, endTime - startTime) / 1e9;
+        final long files = latencies.getCount();
+        return String.format(Locale.ENGLISH,
+                "Processed %d files (%d failed) in %.1f s: %.1f files/s, %.2f MB/s, latency p50: %d ms, p99: %d ms, max: %d ms",
+                files, failures.get(), seconds,
+                files / seconds, bytes.get() / seconds / (1024 * 1024),
+                toMillis(latencies.getValueAtPercentile(50)),
+                toMillis(latencies.getValueAtPercentile(99)),
+                toMillis(latencies.getMax()));
+    }
+
+    /**
+     * @return a one line summary of the throughput and latencies until now
+     */
+    public String getReport() {
+        return getReport(System.nanoTime());
+    }
+
+    private static long toMillis(final long micros) {
+        return TimeUnit.MICROSECONDS.toMillis(micros);
+    }
+}
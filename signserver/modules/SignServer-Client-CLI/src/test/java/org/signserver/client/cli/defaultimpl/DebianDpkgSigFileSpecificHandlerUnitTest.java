@@ -0,0 +1,235 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Random;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.cms.CMSAlgorithm;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyConverter;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPPrivateKey;
+import org.bouncycastle.util.encoders.Hex;
+import org.signserver.debiandpkgsig.ar.ParsedArFile;
+import org.signserver.debiandpkgsig.utils.DebianDpkgSigUtils;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the client-side hashing and construction of dpkg-sig
+ * signed Debian packages.
+ *
+ * @version $Id$
+ */
+public class DebianDpkgSigFileSpecificHandlerUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(DebianDpkgSigFileSpecificHandlerUnitTest.class);
+
+    private static KeyPair keyPair;
+    private static PGPPublicKey publicKey;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(1024);
+        keyPair = kpg.generateKeyPair();
+        publicKey = new JcaPGPKeyConverter().getPGPPublicKey(PGPPublicKey.RSA_GENERAL, keyPair.getPublic(), new Date(1500000000000L));
+    }
+
+    /**
+     * Creates a package with the given entries, using an odd size for the
+     * control entry to get padding.
+     */
+    private static byte[] createPackage(final int dataSize) {
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        final byte[] data = new byte[dataSize];
+        new Random(4711).nextBytes(data);
+        bout.write("!<arch>\n".getBytes(StandardCharsets.US_ASCII), 0, 8);
+        writeEntry(bout, "debian-binary", "2.0\n".getBytes(StandardCharsets.US_ASCII));
+        writeEntry(bout, "control.tar.xz", "odd-sized control".getBytes(StandardCharsets.US_ASCII));
+        writeEntry(bout, "data.tar.xz", data);
+        return bout.toByteArray();
+    }
+
+    private static void writeEntry(final ByteArrayOutputStream bout, final String name, final byte[] content) {
+        final byte[] header = String.format("%-16s%-12d%-6d%-6d%-8s%-10d`\n", name, 1557903108, 0, 0, "100644", content.length).getBytes(StandardCharsets.US_ASCII);
+        bout.write(header, 0, header.length);
+        bout.write(content, 0, content.length);
+        if (content.length % 2 != 0) {
+            bout.write('\n');
+        }
+    }
+
+    /**
+     * Clear-text signs the data as done by the OpenPGPSigner, with the given
+     * key.
+     */
+    private static byte[] clearSign(final byte[] data, final KeyPair signKeyPair, final PGPPublicKey signKey) throws Exception {
+        final PGPSignatureGenerator generator = new PGPSignatureGenerator(new JcaPGPContentSignerBuilder(signKey.getAlgorithm(), HashAlgorithmTags.SHA256));
+        generator.init(PGPSignature.CANONICAL_TEXT_DOCUMENT, new JcaPGPPrivateKey(signKey, signKeyPair.getPrivate()));
+        generator.update(data);
+
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (ArmoredOutputStream aOut = new ArmoredOutputStream(bout)) {
+            aOut.beginClearText(HashAlgorithmTags.SHA256);
+            aOut.write(data);
+            aOut.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            aOut.endClearText();
+            generator.generate().encode(new BCPGOutputStream(aOut));
+        }
+        return bout.toByteArray();
+    }
+
+    private DebianDpkgSigFileSpecificHandler createHandler(final byte[] packageData, final File outFile, final Date date) throws IOException {
+        final File inFile = folder.newFile("package.deb");
+        Files.write(inFile.toPath(), packageData);
+        return new DebianDpkgSigFileSpecificHandler(inFile, outFile, publicKey.getFingerprint(), date);
+    }
+
+    /**
+     * Tests that only the manifest is sent for signing and that the assembled
+     * package is the input package followed by the signature entry, byte by
+     * byte as when signing the complete package server-side.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testClientSideSigning() throws Exception {
+        LOG.info("testClientSideSigning");
+        final byte[] packageData = createPackage(100001);
+        final File outFile = new File(folder.getRoot(), "signed.deb");
+        final Date date = new Date(1557903108000L);
+
+        final byte[] signed;
+        try (DebianDpkgSigFileSpecificHandler handler = createHandler(packageData, outFile, date)) {
+            assertFalse("not hash", handler.isSignatureInputHash());
+            assertEquals("type", "DPKG", handler.getFileTypeIdentifier());
+
+            final InputSource input = handler.produceSignatureInput("SHA-256");
+            final byte[] manifest = IOUtils.toByteArray(input.getInputStream());
+            final ParsedArFile parsed = ParsedArFile.parseCopyAndHash(new ByteArrayInputStream(packageData), new ByteArrayOutputStream(),
+                    new AlgorithmIdentifier(CMSAlgorithm.MD5), new AlgorithmIdentifier(CMSAlgorithm.SHA1));
+            final String expectedManifest = DebianDpkgSigUtils.createManifest(publicKey.getFingerprint(), date, parsed);
+            assertEquals("manifest", expectedManifest, new String(manifest, StandardCharsets.UTF_8));
+            assertTrue("manifest small", manifest.length < 1000);
+            assertTrue("signer: " + expectedManifest, expectedManifest.contains("Signer: " + Hex.toHexString(publicKey.getFingerprint()).toUpperCase()));
+
+            signed = clearSign(manifest, keyPair, publicKey);
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            response.write(signed);
+            handler.assemble(new OutputCollector(response));
+        }
+
+        // Expected result as appended by dpkg-sig
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(packageData, 0, packageData.length);
+        writeEntry(expected, "_gpgbuilder", signed);
+        assertArrayEquals("signed package", expected.toByteArray(), Files.readAllBytes(outFile.toPath()));
+
+        // The result is a valid package with the signature as last entry
+        final ParsedArFile result = ParsedArFile.parse(new ByteArrayInputStream(Files.readAllBytes(outFile.toPath())));
+        assertEquals("entries", 4, result.getEntries().size());
+        assertEquals("last entry", "_gpgbuilder", result.getEntries().get(3).getHeader().getFileIdentifier());
+    }
+
+    /**
+     * Tests that a signature made by another key than the one given by the
+     * fingerprint is rejected.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testOtherKeyRejected() throws Exception {
+        LOG.info("testOtherKeyRejected");
+        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(1024);
+        final KeyPair otherKeyPair = kpg.generateKeyPair();
+        final PGPPublicKey otherKey = new JcaPGPKeyConverter().getPGPPublicKey(PGPPublicKey.RSA_GENERAL, otherKeyPair.getPublic(), new Date());
+
+        try (DebianDpkgSigFileSpecificHandler handler = createHandler(createPackage(10), new File(folder.getRoot(), "signed.deb"), new Date())) {
+            final byte[] manifest = IOUtils.toByteArray(handler.produceSignatureInput("SHA-256").getInputStream());
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            response.write(clearSign(manifest, otherKeyPair, otherKey));
+            handler.assemble(new OutputCollector(response));
+            fail("Should have failed for other key");
+        } catch (IllegalArgumentException expected) { // NOPMD
+            // OK
+        }
+    }
+
+    /**
+     * Tests that the factory requires a valid fingerprint for client-side
+     * construction.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testFactory() throws Exception {
+        LOG.info("testFactory");
+        final DebianDpkgSigFileSpecificHandlerFactory factory = new DebianDpkgSigFileSpecificHandlerFactory();
+        final File inFile = folder.newFile("in.deb");
+        final File outFile = new File(folder.getRoot(), "out.deb");
+        final String fingerprint = Hex.toHexString(publicKey.getFingerprint());
+
+        assertTrue("client-side", factory.canCreateClientSideCapableHandler());
+        assertTrue("DPKG", factory.canHandleFileType("DPKG"));
+        assertFalse("PE", factory.canHandleFileType("PE"));
+
+        assertTrue("straight", factory.createHandler(inFile, outFile, false, Collections.emptyMap()) instanceof StraightFileSpecificHandler);
+        assertTrue("client-side", factory.createHandler("DPKG", inFile, outFile, true, Collections.singletonMap("KEY_FINGERPRINT", fingerprint)) instanceof DebianDpkgSigFileSpecificHandler);
+
+        // Without file type only ar archives are constructed client-side
+        try {
+            factory.createHandler(inFile, outFile, true, Collections.singletonMap("KEY_FINGERPRINT", fingerprint));
+            fail("Should have failed for a file not being an ar archive");
+        } catch (IllegalArgumentException expected) { // NOPMD
+            // OK
+        }
+        final File arFile = folder.newFile("ar.deb");
+        Files.write(arFile.toPath(), "!<arch>\n".getBytes(StandardCharsets.US_ASCII));
+        assertTrue("detected", factory.createHandler(arFile, outFile, true, Collections.singletonMap("KEY_FINGERPRINT", fingerprint)) instanceof DebianDpkgSigFileSpecificHandler);
+
+        for (String value : new String[] {null, "not hex", "0123456789ABCDEF"}) {
+            try {
+                factory.createHandler("DPKG", inFile, outFile, true, Collections.singletonMap("KEY_FINGERPRINT", value));
+                fail("Should have failed for: " + value);
+            } catch (IllegalArgumentException expected) { // NOPMD
+                // OK
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the streaming batch mode input: DirectoryIngester,
+ * CheckpointJournal and how they are used by the TransferManager.
+ *
+ * @version $Id$
+ */
+public class DirectoryIngesterUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(DirectoryIngesterUnitTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createFiles(final int count) throws IOException {
+        final File inDir = folder.newFolder("in");
+        for (int i = 0; i < count; i++) {
+            Files.write(new File(inDir, "file" + i).toPath(), ("content" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        return inDir;
+    }
+
+    private Set<String> takeAll(final TransferManager manager) {
+        final Set<String> result = new HashSet<>();
+        File file;
+        while ((file = manager.nextFile()) != null) {
+            assertTrue("not taken twice: " + file, result.add(file.getName()));
+        }
+        return result;
+    }
+
+    /**
+     * Tests that all files are served from a queue smaller than the number
+     * of files and that sub directories are skipped.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testStreaming() throws Exception {
+        LOG.info("testStreaming");
+        final File inDir = createFiles(100);
+        assertTrue(new File(inDir, "subdir").mkdir());
+
+        final TransferManager manager = new TransferManager(new File[0], null, null, null, null, false);
+        try (DirectoryIngester ingester = new DirectoryIngester(inDir, 5, null, false, 0)) {
+            manager.setIngester(ingester);
+            ingester.start();
+            final Set<String> result = takeAll(manager);
+            assertEquals("files", 100, result.size());
+            assertFalse("directory", result.contains("subdir"));
+            assertTrue("done", ingester.isDone());
+            assertNull("error", ingester.getError());
+        }
+    }
+
+    /**
+     * Tests that files recorded in the journal are skipped after a restart
+     * and that a modified file is processed again.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testCheckpointRestart() throws Exception {
+        LOG.info("testCheckpointRestart");
+        final File inDir = createFiles(10);
+        final File checkpoint = new File(inDir, "checkpoint");
+
+        // First run is interrupted after 4 files
+        try (CheckpointJournal journal = new CheckpointJournal(checkpoint)) {
+            final TransferManager manager = new TransferManager(new File[0], null, null, null, null, false);
+            manager.setJournal(journal);
+            try (DirectoryIngester ingester = new DirectoryIngester(inDir, 3, journal, false, 0)) {
+                manager.setIngester(ingester);
+                ingester.start();
+                for (int i = 0; i < 4; i++) {
+                    manager.registerCompleted(manager.nextFile());
+                }
+            }
+        }
+        assertEquals("journal size", 4 * Long.BYTES, checkpoint.length());
+
+        // Modify one of the files already signed, so its key changes
+        final File modified;
+        try (CheckpointJournal journal = new CheckpointJournal(checkpoint)) {
+            File completed = null;
+            for (File file : inDir.listFiles()) {
+                if (journal.isCompleted(file)) {
+                    completed = file;
+                }
+            }
+            assertNotNull("completed file", completed);
+            modified = completed;
+        }
+        Files.write(modified.toPath(), "new longer content".getBytes(StandardCharsets.UTF_8));
+
+        // Second run only gets the remaining and the modified files
+        try (CheckpointJournal journal = new CheckpointJournal(checkpoint)) {
+            assertEquals("recorded", 4, journal.size());
+            final TransferManager manager = new TransferManager(new File[0], null, null, null, null, false);
+            try (DirectoryIngester ingester = new DirectoryIngester(inDir, 3, journal, false, 0)) {
+                manager.setIngester(ingester);
+                ingester.start();
+                final Set<String> result = takeAll(manager);
+                assertEquals("remaining: " + result, 7, result.size());
+                assertTrue("modified", result.contains(modified.getName()));
+                assertFalse("checkpoint", result.contains(checkpoint.getName()));
+            }
+        }
+    }
+
+    /**
+     * Tests that the checkpoint journal in the input directory is not signed
+     * when given through another path than the one listed.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testCheckpointOtherPath() throws Exception {
+        LOG.info("testCheckpointOtherPath");
+        final File inDir = createFiles(2);
+        final File checkpoint = new File(new File(inDir, "."), "checkpoint");
+
+        try (CheckpointJournal journal = new CheckpointJournal(checkpoint)) {
+            final TransferManager manager = new TransferManager(new File[0], null, null, null, null, false);
+            try (DirectoryIngester ingester = new DirectoryIngester(inDir, 3, journal, false, 0)) {
+                manager.setIngester(ingester);
+                ingester.start();
+                final Set<String> result = takeAll(manager);
+                assertEquals("files: " + result, 2, result.size());
+                assertFalse("checkpoint", result.contains(checkpoint.getName()));
+            }
+        }
+    }
+
+    /**
+     * Tests that an incomplete last record, from a process killed while
+     * writing, is discarded.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testTornRecord() throws Exception {
+        LOG.info("testTornRecord");
+        final File inDir = createFiles(2);
+        final File first = new File(inDir, "file0");
+        final File second = new File(inDir, "file1");
+        final File checkpoint = folder.newFile("checkpoint");
+
+        try (CheckpointJournal journal = new CheckpointJournal(checkpoint)) {
+            journal.record(first);
+            journal.record(second);
+            journal.record(first);
+        }
+        assertEquals("no duplicates", 2 * Long.BYTES, checkpoint.length());
+        try (RandomAccessFile raf = new RandomAccessFile(checkpoint, "rw")) {
+            raf.setLength(2 * Long.BYTES - 3);
+        }
+
+        try (CheckpointJournal journal = new CheckpointJournal(checkpoint)) {
+            assertEquals("truncated", Long.BYTES, checkpoint.length());
+            assertTrue("first", journal.isCompleted(first));
+            assertFalse("second", journal.isCompleted(second));
+            journal.record(second);
+        }
+        try (CheckpointJournal journal = new CheckpointJournal(checkpoint)) {
+            assertTrue("second appended", journal.isCompleted(second));
+        }
+    }
+
+    /**
+     * Tests that files created after the listing are picked up in watch mode
+     * and that completed and removed files are forgotten.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testWatch() throws Exception {
+        LOG.info("testWatch");
+        final File inDir = createFiles(2);
+        try (DirectoryIngester ingester = new DirectoryIngester(inDir, 10, null, true, 100)) {
+            ingester.start();
+            final Set<String> result = new HashSet<>();
+            final long deadline = System.currentTimeMillis() + 30000;
+            boolean created = false;
+            while (result.size() < 3 && System.currentTimeMillis() < deadline) {
+                final File file = ingester.poll();
+                if (file != null) {
+                    result.add(file.getName());
+                } else if (result.size() == 2 && !created) {
+                    Files.write(new File(inDir, "new").toPath(), "new".getBytes(StandardCharsets.UTF_8));
+                    created = true;
+                } else {
+                    Thread.sleep(10);
+                }
+            }
+            assertTrue("new file: " + result, result.contains("new"));
+            assertEquals("files: " + result, 3, result.size());
+            assertFalse("still watching", ingester.isDone());
+            assertEquals("remembered", 3, ingester.getQueuedCount());
+
+            // Completed files are forgotten
+            ingester.completed(new File(inDir, "new"));
+            assertEquals("completed", 2, ingester.getQueuedCount());
+
+            // Removed files are forgotten
+            assertTrue(new File(inDir, "file0").delete());
+            while (ingester.getQueuedCount() > 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("removed", 1, ingester.getQueuedCount());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the FileDigester and HashingStage classes.
+ *
+ * @version $Id$
+ */
+public class FileDigesterUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(FileDigesterUnitTest.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUpClass() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private File createFile(final String name, final int size) throws IOException {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        final File file = folder.newFile(name);
+        FileUtils.writeByteArrayToFile(file, data);
+        return file;
+    }
+
+    private static byte[] streamDigest(final File file, final String algorithm) throws Exception {
+        try (InputStream in = new FileInputStream(file)) {
+            return InputSource.digest(in, MessageDigest.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME));
+        }
+    }
+
+    /**
+     * Tests that the memory-mapped digest equals the streamed one for files
+     * read directly, mapped in one window and mapped in several windows
+     * including a partial last window.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testDigestEqualsStreamed() throws Exception {
+        LOG.info("testDigestEqualsStreamed");
+        final int threshold = (int) FileDigester.MAP_THRESHOLD;
+        for (int size : new int[] {0, 1, threshold - 1, threshold, 3 * threshold + 17}) {
+            final File file = createFile("file-" + size, size);
+            final byte[] expected = streamDigest(file, "SHA-256");
+            final MessageDigest md = MessageDigest.getInstance("SHA-256", BouncyCastleProvider.PROVIDER_NAME);
+            assertArrayEquals("default window: " + size, expected, FileDigester.digest(file, md));
+            assertArrayEquals("small windows: " + size, expected, FileDigester.digest(file, md, 4096));
+        }
+    }
+
+    /**
+     * Tests that prefetched digests are handed out once or evicted and that
+     * digests not prefetched are computed directly.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testHashingStage() throws Exception {
+        LOG.info("testHashingStage");
+        final File file1 = createFile("file1", 2 * (int) FileDigester.MAP_THRESHOLD);
+        final File file2 = createFile("file2", 1000);
+        try (HashingStage instance = new HashingStage(2, Arrays.asList("SHA-256", "SHA-512"))) {
+            instance.prefetch(file1);
+            instance.prefetch(file2);
+            instance.prefetch(file1);
+            assertEquals("pending", 4, instance.getPending());
+
+            assertArrayEquals("file1", streamDigest(file1, "SHA-256"), instance.getDigest(file1, "SHA-256"));
+            assertArrayEquals("file2", streamDigest(file2, "SHA-512"), instance.getDigest(file2, "SHA-512"));
+            assertEquals("handed out", 2, instance.getPending());
+
+            // Digests not asked for are dropped when the file is done
+            instance.evict(file1);
+            instance.evict(file2);
+            assertEquals("evicted", 0, instance.getPending());
+
+            // Not prefetched
+            assertArrayEquals("again", streamDigest(file1, "SHA-256"), instance.getDigest(file1, "SHA-256"));
+            assertArrayEquals("other algorithm", streamDigest(file2, "SHA-1"), instance.getDigest(file2, "SHA-1"));
+
+            // Failure is reported to the consumer
+            final File missing = new File(folder.getRoot(), "missing");
+            instance.prefetch(missing);
+            try {
+                instance.getDigest(missing, "SHA-256");
+                fail("Should have thrown IOException");
+            } catch (IOException expected) { // NOPMD
+                // OK
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for HTTPTransport used by the HTTPDocumentSigner, using a local
+ * HTTP server.
+ *
+ * @version $Id$
+ */
+public class HTTPTransportUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(HTTPTransportUnitTest.class);
+
+    private static final byte[] RESPONSE = "signed".getBytes(StandardCharsets.US_ASCII);
+
+    private HttpServer server;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/signserver/process", exchange -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                try (InputStream in = exchange.getRequestBody()) {
+                    IOUtils.toByteArray(in);
+                }
+                Thread.sleep(20);
+                exchange.sendResponseHeaders(200, RESPONSE.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(RESPONSE);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(20));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private HTTPDocumentSigner createSigner(final HTTPTransport transport) {
+        final HostManager hostManager = new HostManager(Collections.singletonList("127.0.0.1"), false);
+        return new HTTPDocumentSigner(hostManager, server.getAddress().getPort(), "/signserver/process", false,
+                "Worker1", null, null, null, null, new HashMap<String, String>(), -1, transport);
+    }
+
+    /**
+     * Tests that the number of concurrent requests to a host is limited and
+     * that connections are re-used between requests.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testPerHostLimitAndReuse() throws Exception {
+        LOG.info("testPerHostLimitAndReuse");
+        final HTTPTransport transport = new HTTPTransport(2, null, -1);
+        final ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                results.add(executor.submit(() -> {
+                    final byte[] data = "document".getBytes(StandardCharsets.US_ASCII);
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    createSigner(transport).sign(new ByteArrayInputStream(data), data.length, out, new HashMap<String, Object>());
+                    return out.toString("US-ASCII");
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals("response", "signed", result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue("max concurrent: " + maxRunning.get(), maxRunning.get() <= 2);
+        assertTrue("connections: " + clientPorts, clientPorts.size() <= 2);
+    }
+
+    /**
+     * Tests the summary of a batch run.
+     */
+    @Test
+    public void testStatisticsReport() {
+        LOG.info("testStatisticsReport");
+        final TransferStatistics instance = new TransferStatistics(0);
+        for (int i = 1; i <= 100; i++) {
+            instance.recordSuccess(1024 * 1024, TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        instance.recordFailure();
+        assertEquals("files", 100, instance.getFiles());
+        assertEquals("failures", 1, instance.getFailures());
+
+        final String report = instance.getReport(TimeUnit.SECONDS.toNanos(10));
+        assertTrue(report, report.startsWith("Processed 100 files (1 failed) in 10.0 s: 10.0 files/s, 10.00 MB/s, latency p50: "));
+        assertTrue(report, report.endsWith(", max: 100 ms"));
+    }
+}
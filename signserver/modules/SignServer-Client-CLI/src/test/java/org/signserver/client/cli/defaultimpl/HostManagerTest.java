@@ -16,7 +16,9 @@ import java.util.ArrayList;
 import java.util.List;
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
 import org.junit.Test;
+import org.signserver.common.util.HostBalancer;
 
 /**
  * Unit tests for HostManager methods.
@@ -141,4 +143,34 @@ public class HostManagerTest {
         assertEquals("host4", hostManager.getNextHostForRequest());
     }
 
+    /**
+     * Test checking that HostManager with LEAST_LATENCY load balancing leaves
+     * out a host after connection failure instead of removing it.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void test05GetNextHostLeastLatencyWithConnectionFailure() throws Exception {
+        List<String> participantHosts = new ArrayList<>();
+        participantHosts.add("host1");
+        participantHosts.add("host2");
+
+        HostManager hostManager = new HostManager(new HostBalancer(participantHosts));
+
+        // failure
+        String host = hostManager.getNextHostForRequest();
+        hostManager.requestFailed(host, hostManager.requestStarted(host));
+        hostManager.removeHost(host);
+
+        String other = hostManager.getNextHostForRequestWhenFailure();
+        assertTrue("other host: " + other, !host.equals(other));
+        hostManager.requestCompleted(other, hostManager.requestStarted(other));
+        assertEquals(other, hostManager.getNextHostForRequest());
+        assertTrue("still has hosts", hostManager.hasHost());
+
+        // failure
+        hostManager.requestFailed(other, hostManager.requestStarted(other));
+        assertNull("No host available while backing off", hostManager.getNextHostForRequestWhenFailure());
+    }
+
 }
@@ -0,0 +1,92 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for splitting the concatenated SODs of a batch response.
+ *
+ * @version $Id$
+ */
+public class SODSignerUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(SODSignerUnitTest.class);
+
+    private static byte[] tlv(final int tag, final int length) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length < 0x100) {
+            out.write(0x81);
+            out.write(length);
+        } else {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        }
+        for (int i = 0; i < length; i++) {
+            out.write(i);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Tests splitting SODs with short and long form lengths.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSplitSODs() throws Exception {
+        LOG.info("testSplitSODs");
+        final byte[][] sods = new byte[][] {
+            tlv(0x77, 5), tlv(0x77, 200), tlv(0x77, 3000)
+        };
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] sod : sods) {
+            out.write(sod);
+        }
+
+        final List<byte[]> result = AbstractSODSigner.splitSODs(out.toByteArray());
+        assertEquals("count", sods.length, result.size());
+        for (int i = 0; i < sods.length; i++) {
+            assertArrayEquals("sod " + i, sods[i], result.get(i));
+        }
+        assertTrue("empty", AbstractSODSigner.splitSODs(new byte[0]).isEmpty());
+    }
+
+    /**
+     * Tests that a truncated SOD is detected.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSplitSODsTruncated() throws Exception {
+        LOG.info("testSplitSODsTruncated");
+        final byte[] sod = tlv(0x77, 200);
+        try {
+            AbstractSODSigner.splitSODs(Arrays.copyOf(sod, sod.length - 1));
+            fail("Should have thrown IOException");
+        } catch (IOException expected) { // NOPMD
+            // OK
+        }
+    }
+}
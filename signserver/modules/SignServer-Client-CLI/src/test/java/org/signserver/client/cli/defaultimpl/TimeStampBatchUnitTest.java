@@ -0,0 +1,268 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.client.cli.defaultimpl;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampResponse;
+import org.bouncycastle.tsp.TimeStampResponseGenerator;
+import org.bouncycastle.tsp.TimeStampTokenGenerator;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the batch mode of the TimeStampCommand, using a local HTTP
+ * server answering the time-stamp requests.
+ *
+ * @version $Id$
+ */
+public class TimeStampBatchUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(TimeStampBatchUnitTest.class);
+
+    private static KeyPair keyPair;
+    private static X509Certificate signerCert;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(2048);
+        keyPair = kpg.generateKeyPair();
+        final X500Name name = new X500Name("CN=TSA");
+        final JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.ONE,
+                new Date(System.currentTimeMillis() - 60000), new Date(System.currentTimeMillis() + 3600000),
+                name, keyPair.getPublic());
+        builder.addExtension(Extension.extendedKeyUsage, true, new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping));
+        signerCert = new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final TimeStampResponseGenerator generator = new TimeStampResponseGenerator(
+                new TimeStampTokenGenerator(
+                        new JcaSimpleSignerInfoGeneratorBuilder().build("SHA256withRSA", keyPair.getPrivate(), signerCert),
+                        new JcaDigestCalculatorProviderBuilder().build().get(new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1)),
+                        new ASN1ObjectIdentifier("1.2.3")),
+                TSPAlgorithms.ALLOWED);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/tsa", exchange -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                final byte[] request;
+                try (InputStream in = exchange.getRequestBody()) {
+                    request = IOUtils.toByteArray(in);
+                }
+                requests.incrementAndGet();
+                Thread.sleep(10);
+                final byte[] response;
+                synchronized (generator) {
+                    response = generator.generateGrantedResponse(new TimeStampRequest(request),
+                            BigInteger.valueOf(requests.get()), new Date()).getEncoded();
+                }
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            } catch (Exception ex) {
+                LOG.error("Failed to respond", ex);
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                running.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(10));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private TimeStampBatch createBatch(final X509Certificate verifyCert) throws Exception {
+        return new TimeStampBatch(new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/tsa"),
+                null, new HTTPTransport(4, null, -1), TSPAlgorithms.SHA256, true, null, verifyCert, 4);
+    }
+
+    private static void assertResponse(final File tsr, final byte[] data) throws Exception {
+        assertTrue("exists: " + tsr, tsr.exists());
+        final TimeStampResponse response = new TimeStampResponse(Files.readAllBytes(tsr.toPath()));
+        response.getTimeStampToken().validate(new JcaSimpleSignerInfoVerifierBuilder().build(signerCert));
+        assertArrayEquals("imprint", MessageDigest.getInstance("SHA-256").digest(data),
+                response.getTimeStampToken().getTimeStampInfo().getMessageImprintDigest());
+    }
+
+    /**
+     * Tests time-stamping the files in a directory with multiple requests in
+     * flight and that a second run only time-stamps the new files.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testDirectoryAndResume() throws Exception {
+        LOG.info("testDirectoryAndResume");
+        final File dir = folder.newFolder("logs");
+        for (int i = 0; i < 20; i++) {
+            Files.write(new File(dir, "segment" + i + ".log").toPath(), ("data " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        final File checkpoint = new File(dir, TimeStampBatch.CHECKPOINT_NAME);
+
+        TransferStatistics statistics;
+        try (TimeStampBatch.Items items = TimeStampBatch.listDirectory(dir)) {
+            statistics = createBatch(signerCert).run(items, checkpoint);
+        }
+        assertEquals("files", 20, statistics.getFiles());
+        assertEquals("failures", 0, statistics.getFailures());
+        assertEquals("requests", 20, requests.get());
+        assertTrue("in flight: " + maxRunning.get(), maxRunning.get() > 1);
+        for (int i = 0; i < 20; i++) {
+            assertResponse(new File(dir, "segment" + i + ".log.tsr"), ("data " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals("journal", 20, Files.readAllLines(checkpoint.toPath()).size());
+
+        // Resume with some more files
+        for (int i = 20; i < 25; i++) {
+            Files.write(new File(dir, "segment" + i + ".log").toPath(), ("data " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        try (TimeStampBatch.Items items = TimeStampBatch.listDirectory(dir)) {
+            statistics = createBatch(null).run(items, checkpoint);
+        }
+        assertEquals("new files", 5, statistics.getFiles());
+        assertEquals("requests", 25, requests.get());
+        assertResponse(new File(dir, "segment24.log.tsr"), "data 24".getBytes(StandardCharsets.UTF_8));
+        assertEquals("journal", 25, Files.readAllLines(checkpoint.toPath()).size());
+    }
+
+    /**
+     * Tests time-stamping a list of digests in the format of sha256sum.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testDigestList() throws Exception {
+        LOG.info("testDigestList");
+        final File dir = folder.newFolder("list");
+        final MessageDigest md = MessageDigest.getInstance("SHA-256");
+        final byte[] first = "first".getBytes(StandardCharsets.UTF_8);
+        final byte[] second = "second".getBytes(StandardCharsets.UTF_8);
+        final String secondHex = Hex.toHexString(md.digest(second));
+        final File list = new File(dir, "SHA256SUMS");
+        assertTrue("sub folder", new File(dir, "sub").mkdir());
+        Files.write(list.toPath(), Arrays.asList(
+                "# comment",
+                Hex.toHexString(md.digest(first)) + "  sub/first.log",
+                secondHex));
+        final List<TimeStampBatch.Item> items = TimeStampBatch.readDigestList(list, 32);
+        assertEquals("items", 2, items.size());
+
+        final TransferStatistics statistics = createBatch(signerCert).run(items.iterator(), new File(list.getPath() + ".checkpoint"));
+        assertEquals("files", 2, statistics.getFiles());
+        assertResponse(new File(dir, "sub/first.log.tsr"), first);
+        assertResponse(new File(dir, secondHex + ".tsr"), second);
+
+        // Wrong length
+        Files.write(list.toPath(), Arrays.asList("abcd"));
+        try {
+            TimeStampBatch.readDigestList(list, 32);
+            fail("Should have thrown IOException");
+        } catch (IOException expected) { // NOPMD
+            // OK
+        }
+    }
+
+    /**
+     * Tests that responses failing verification are not stored or recorded
+     * in the checkpoint journal.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testVerificationFailure() throws Exception {
+        LOG.info("testVerificationFailure");
+        final File dir = folder.newFolder("logs");
+        Files.write(new File(dir, "segment.log").toPath(), "data".getBytes(StandardCharsets.UTF_8));
+
+        // A certificate for a different key
+        final KeyPair other = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        final JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name("CN=TSA"), BigInteger.ONE,
+                new Date(System.currentTimeMillis() - 60000), new Date(System.currentTimeMillis() + 3600000),
+                new X500Name("CN=TSA"), other.getPublic());
+        builder.addExtension(Extension.extendedKeyUsage, true, new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping));
+        final X509Certificate otherCert = new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(other.getPrivate())));
+
+        final File checkpoint = new File(dir, TimeStampBatch.CHECKPOINT_NAME);
+        final TransferStatistics statistics;
+        try (TimeStampBatch.Items items = TimeStampBatch.listDirectory(dir)) {
+            statistics = createBatch(otherCert).run(items, checkpoint);
+        }
+        assertEquals("files", 0, statistics.getFiles());
+        assertEquals("failures", 1, statistics.getFailures());
+        assertFalse("no response", new File(dir, "segment.log.tsr").exists());
+        assertTrue("empty journal", Files.readAllLines(checkpoint.toPath()).isEmpty());
+    }
+}
@@ -0,0 +1,163 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.protocol.ws.client;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.net.ssl.SSLSocketFactory;
+import javax.xml.namespace.QName;
+import javax.xml.ws.BindingProvider;
+import org.apache.cxf.configuration.jsse.TLSClientParameters;
+import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.frontend.ClientProxy;
+import org.apache.cxf.transport.http.HTTPConduit;
+import org.apache.log4j.Logger;
+import org.signserver.common.util.HostBalancer;
+import org.signserver.protocol.ws.ProcessRequestWS;
+import org.signserver.protocol.ws.ProcessResponseWS;
+import org.signserver.protocol.ws.gen.CryptoTokenOfflineException_Exception;
+import org.signserver.protocol.ws.gen.IllegalRequestException_Exception;
+import org.signserver.protocol.ws.gen.InvalidWorkerIdException_Exception;
+import org.signserver.protocol.ws.gen.SignServerException_Exception;
+import org.signserver.protocol.ws.gen.SignServerWS;
+import org.signserver.protocol.ws.gen.SignServerWSService;
+
+/**
+ * Client sending each request directly to the host expected to respond the
+ * fastest, based on the latency of earlier requests and the number of
+ * requests in progress to each host.
+ *
+ * Unlike CallFirstNodeWithStatusOKWSClient no status requests are sent.
+ * Instead a host failing a request is left out for a back-off period and the
+ * request is tried on the next host. See HostBalancer for the details.
+ *
+ * The same instance can be used concurrently from multiple threads.
+ *
+ * @version $Id$
+ */
+public class LeastLatencyWSClient implements ISignServerWSClient {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(LeastLatencyWSClient.class);
+
+    private final Map<String, SignServerWS> serviceMap = new ConcurrentHashMap<>();
+    private HostBalancer balancer;
+    private int timeOut;
+    private String protocol = SignServerWSClientFactory.PROTOCOL;
+    private int port;
+    private String wSDLURL;
+    private IFaultCallback faultCallback;
+    private SSLSocketFactory socketFactory;
+
+    @Override
+    public void init(String[] hosts, int port, int timeOut,
+            String wSDLURL, boolean useHTTPS,
+            IFaultCallback faultCallback,
+            SSLSocketFactory sSLSocketFactory) {
+        this.balancer = new HostBalancer(Arrays.asList(hosts));
+        this.timeOut = timeOut;
+        if (useHTTPS) {
+            protocol = SignServerWSClientFactory.SECURE_PROTOCOL;
+        }
+        this.port = port;
+        this.wSDLURL = wSDLURL;
+        this.faultCallback = faultCallback;
+        this.socketFactory = sSLSocketFactory;
+    }
+
+    private SignServerWS connectToHost(String host) throws MalformedURLException {
+        SignServerWS retval = serviceMap.get(host);
+        if (retval == null) {
+            final URL u = new URL(protocol + host + ":" + port + wSDLURL);
+            final QName qname = new QName("gen.ws.protocol.signserver.org", "SignServerWSService");
+            final URL resource =
+                    getClass().getResource("/org/signserver/client/cli/SignServerWS.wsdl");
+
+            retval = new SignServerWSService(resource, qname).getSignServerWSPort();
+            if (retval instanceof BindingProvider) {
+                final BindingProvider bp = (BindingProvider) retval;
+                final Map<String, Object> requestContext = bp.getRequestContext();
+
+                requestContext.put("com.sun.xml.ws.connect.timeout", timeOut);
+                requestContext.put("com.sun.xml.ws.request.timeout", timeOut);
+                requestContext.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, u.toString());
+
+                if (socketFactory != null) {
+                    final Client client = ClientProxy.getClient(bp);
+                    final HTTPConduit http = (HTTPConduit) client.getConduit();
+                    final TLSClientParameters params = new TLSClientParameters();
+
+                    params.setSSLSocketFactory(socketFactory);
+                    http.setTlsClientParameters(params);
+                }
+            }
+            serviceMap.put(host, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Process a request using the host expected to be the fastest, trying
+     * the other hosts in case of communication errors.
+     *
+     * @param workerId name or id of worker
+     * @param requests to process
+     * @return List of responses or null in case of failure
+     */
+    @Override
+    public List<ProcessResponseWS> process(String workerId, List<ProcessRequestWS> requests) {
+        String host;
+        while ((host = balancer.select()) != null) {
+            final long startTime = balancer.requestStarted(host);
+            try {
+                final List<org.signserver.protocol.ws.gen.ProcessResponseWS> response =
+                        connectToHost(host).process(workerId, WSClientUtil.convertProcessRequestWS(requests));
+                balancer.requestCompleted(host, startTime);
+                if (response != null && response.size() != 0) {
+                    return WSClientUtil.convertProcessResponseWS(response);
+                }
+                return null;
+            } catch (IllegalRequestException_Exception e) {
+                balancer.requestCompleted(host, startTime);
+                faultCallback.addCommunicationError(new GenericCommunicationFault("IllegalRequestException : " + e.getMessage(), host, new org.signserver.common.IllegalRequestException(e.getMessage())));
+                return null;
+            } catch (InvalidWorkerIdException_Exception e) {
+                balancer.requestCompleted(host, startTime);
+                faultCallback.addCommunicationError(new GenericCommunicationFault("InvalidWorkerIdException : " + e.getMessage(), host, new org.signserver.common.InvalidWorkerIdException(e.getMessage())));
+                return null;
+            } catch (SignServerException_Exception e) {
+                balancer.requestCompleted(host, startTime);
+                faultCallback.addCommunicationError(new GenericCommunicationFault("SignServerException : " + e.getMessage(), host, new org.signserver.common.SignServerException(e.getMessage())));
+                return null;
+            } catch (CryptoTokenOfflineException_Exception e) {
+                // The worker might be available on an other host
+                balancer.requestFailed(host, startTime);
+                faultCallback.addCommunicationError(new GenericCommunicationFault("CryptoTokenOfflineException : " + e.getMessage(), host, new org.signserver.common.CryptoTokenOfflineException(e.getMessage())));
+            } catch (Throwable e) {
+                balancer.requestFailed(host, startTime);
+                serviceMap.remove(host);
+                faultCallback.addCommunicationError(new GenericCommunicationFault(e.getMessage(), host, e));
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Request to " + host + " failed, trying next host");
+            }
+        }
+        faultCallback.addCommunicationError(new GenericCommunicationFault("No host available", null,
+                new org.signserver.common.SignServerException("No more hosts to try")));
+        return null;
+    }
+}
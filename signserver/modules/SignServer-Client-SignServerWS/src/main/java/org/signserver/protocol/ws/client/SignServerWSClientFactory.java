@@ -31,6 +31,12 @@ public class SignServerWSClientFactory {
 
     private static Logger log = Logger.getLogger(SignServerWSClientFactory.class);
     public static final String CLIENTTYPE_CALLFIRSTNODEWITHSTATUSOK = "org.signserver.protocol.ws.client.CallFirstNodeWithStatusOKWSClient";
+
+    /**
+     * Sends each request to the host expected to be the fastest based on
+     * earlier requests, leaving out failing hosts for a while.
+     */
+    public static final String CLIENTTYPE_LEASTLATENCY = "org.signserver.protocol.ws.client.LeastLatencyWSClient";
     
     /** Default timeout in milliseconds */
     public static final int DEFAULT_TIMEOUT = 20000; // 10s
@@ -95,6 +95,21 @@ public class SigningAndValidationWSBalanced implements ISigningAndValidation {
         this(host, port, false);
     }
 
+    /**
+     * Creates an instance of SigningAndValidationWSBalanced sending each
+     * request to the host expected to respond the fastest, leaving out
+     * failing hosts for a while.
+     *
+     * @param hosts The remote hosts to connect to.
+     * @param port The remote port to connect to.
+     * @param useHTTPS True if SSL/TLS should be used.
+     * @see SignServerWSClientFactory#CLIENTTYPE_LEASTLATENCY
+     */
+    public SigningAndValidationWSBalanced(String[] hosts, int port, boolean useHTTPS) {
+        this();
+        this.signserver = new SignServerWSClientFactory().generateSignServerWSClient(SignServerWSClientFactory.CLIENTTYPE_LEASTLATENCY, hosts, useHTTPS, new LogErrorCallback(), port, SignServerWSClientFactory.DEFAULT_TIMEOUT, SignServerWSClientFactory.DEFAULT_WSDL_URL);
+    }
+
     /**
      * Creates an instance of SigningAndValidationWSBalanced using host and port
      * and default parameters.
@@ -0,0 +1,133 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.clientws;
+
+import java.util.List;
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * The response data returned by the processBatch operation, with one
+ * signature for each item in the request, in the same order.
+ *
+ * @version $Id$
+ * @see ClientWS#processBatch(java.lang.String, java.util.List, java.util.List)
+ */
+public class BatchResponse {
+
+    private int requestId;
+    private List<byte[]> signatures;
+    private String archiveId;
+    private byte[] signerCertificate;
+    private List<Metadata> metadata;
+
+    public BatchResponse() {
+    }
+
+    /**
+     * Constructs a new instance of BatchResponse.
+     * @param requestId Id of the worker that processed the request.
+     * @param signatures The signatures.
+     * @param archiveId The ID assigned to the archivable item(s).
+     * @param signerCertificate Certificate of the signer signing the data (if any).
+     * @param metadata Response metadata.
+     */
+    public BatchResponse(int requestId, List<byte[]> signatures, String archiveId, byte[] signerCertificate, List<Metadata> metadata) {
+        this.requestId = requestId;
+        this.signatures = signatures;
+        this.archiveId = archiveId;
+        this.signerCertificate = signerCertificate;
+        this.metadata = metadata;
+    }
+
+    /**
+     * Get the ID of the request.
+     *
+     * @return The id of the request
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @param requestId The id of the request
+     */
+    public void setRequestId(int requestId) {
+        this.requestId = requestId;
+    }
+
+    /**
+     * Get the signatures, one for each item in the request.
+     *
+     * @return The signatures
+     */
+    @XmlElement(name = "signature")
+    public List<byte[]> getSignatures() {
+        return signatures;
+    }
+
+    /**
+     * @param signatures The signatures
+     */
+    public void setSignatures(List<byte[]> signatures) {
+        this.signatures = signatures;
+    }
+
+    /**
+     * Get the archive ID for the response.
+     *
+     * @return The archive ID
+     */
+    public String getArchiveId() {
+        return archiveId;
+    }
+
+    /**
+     * @param archiveId The archive id
+     */
+    public void setArchiveId(String archiveId) {
+        this.archiveId = archiveId;
+    }
+
+    /**
+     * Get the signer certificate used.
+     *
+     * @return The signer certificate (if any)
+     */
+    public byte[] getSignerCertificate() {
+        return signerCertificate;
+    }
+
+    /**
+     * @param signerCertificate The signer certificate
+     */
+    public void setSignerCertificate(byte[] signerCertificate) {
+        this.signerCertificate = signerCertificate;
+    }
+
+    /**
+     * Get the response metadata.
+     *
+     * @return The response metadata (if any)
+     */
+    public List<Metadata> getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @param metadata The response metadata
+     */
+    public void setMetadata(List<Metadata> metadata) {
+        this.metadata = metadata;
+    }
+
+}
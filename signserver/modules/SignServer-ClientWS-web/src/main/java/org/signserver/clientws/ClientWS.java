@@ -13,12 +13,15 @@
 package org.signserver.clientws;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
 import javax.annotation.PostConstruct;
@@ -33,6 +36,7 @@ import javax.xml.ws.handler.MessageContext;
 
 import org.apache.commons.fileupload.FileUploadBase;
 import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.signserver.common.AccessDeniedException;
 import org.signserver.common.AuthorizationRequiredException;
@@ -44,8 +48,12 @@ import org.signserver.common.RequestContext;
 import org.signserver.common.RequestMetadata;
 import org.signserver.common.SignServerException;
 import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.data.BatchSignatureRequest;
+import org.signserver.common.data.BatchSignatureResponse;
 import org.signserver.common.data.Request;
 import org.signserver.common.data.Response;
+import org.signserver.common.data.SODBatchRequest;
+import org.signserver.common.data.SODBatchResponse;
 import org.signserver.common.data.SODRequest;
 import org.signserver.common.data.SODResponse;
 import org.signserver.common.data.SignatureRequest;
@@ -205,6 +213,108 @@ public class ClientWS {
         return result;
     }
 
+    /**
+     * Operation for request signing of a number of byte arrays at once, for
+     * instance hashes computed by the client.
+     *
+     * @param workerIdOrName Name or ID of worker to send the request to
+     * @param requestMetadata Additional request meta data
+     * @param data The items to sign, in some format understood by the worker
+     * @return The response data with the signatures in the same order as the items
+     * @throws RequestFailedException In case the request could not be processed typically because some error in the request data.
+     * @throws InternalServerException In case the request could not be processed by some error at the server side.
+     */
+    @WebMethod(operationName = "processBatch")
+    public BatchResponse processBatch(
+            @WebParam(name = "worker") final String workerIdOrName,
+            @WebParam(name = "metadata") final List<Metadata> requestMetadata,
+            @WebParam(name = "data") final List<byte[]> data
+    ) throws RequestFailedException, InternalServerException {
+        final BatchResponse result;
+        final UploadConfig uploadConfig = UploadConfig.create(globalSession);
+        try (CloseableWritableData responseData = new TemporarlyWritableData(false, uploadConfig.getRepository())) {
+            final RequestContext requestContext = handleRequestContext(requestMetadata);
+            final int requestId = ThreadLocalRandom.current().nextInt();
+
+            if (data == null || data.isEmpty()) {
+                throw new RequestFailedException("Missing data fields in request");
+            }
+            long length = 0;
+            for (byte[] item : data) {
+                length += item.length;
+            }
+            if (length > uploadConfig.getMaxUploadSize()) {
+                LOG.error("Maximum content length exceeded: " + length);
+                throw new RequestFailedException("Maximum content length exceeded");
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Received number of items: " + data.size());
+            }
+
+            final Response resp = getProcessSession().process(
+                    new AdminInfo("CLI user", null, null),
+                    WorkerIdentifier.createFromIdOrName(workerIdOrName),
+                    new BatchSignatureRequest(requestId, data, responseData), requestContext
+            );
+
+            if (resp instanceof BatchSignatureResponse) {
+                final BatchSignatureResponse signResponse = (BatchSignatureResponse) resp;
+                if (signResponse.getRequestID() != requestId) {
+                    LOG.error("Response ID " + signResponse.getRequestID() + " not matching request ID " + requestId);
+                    throw new SignServerException("Error in process operation, response id didn't match request id");
+                }
+
+                // Split the concatenated signatures
+                final List<byte[]> signatures = new ArrayList<>(signResponse.getSignatureLengths().length);
+                try (InputStream in = responseData.toReadableData().getAsInputStream()) {
+                    for (int signatureLength : signResponse.getSignatureLengths()) {
+                        final byte[] signature = new byte[signatureLength];
+                        IOUtils.readFully(in, signature);
+                        signatures.add(signature);
+                    }
+                }
+
+                result = new BatchResponse(
+                        requestId,
+                        signatures,
+                        signResponse.getArchiveId(),
+                        signResponse.getSignerCertificate() == null ? null : signResponse.getSignerCertificate().getEncoded(),
+                        getResponseMetadata(requestContext)
+                );
+            } else {
+                LOG.error("Unexpected return type: " + resp.getClass().getName());
+                throw new SignServerException("Unexpected return type");
+            }
+        } catch (CertificateEncodingException ex) {
+            LOG.error("Signer certificate could not be encoded", ex);
+            throw new InternalServerException("Signer certificate could not be encoded");
+        } catch (NoSuchWorkerException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Worker Not Found: " + ex.getWorkerIdOrName());
+            }
+            throw new RequestFailedException("Worker Not Found");
+        } catch (CryptoTokenOfflineException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Service unavailable", ex);
+            }
+            throw new InternalServerException("Service unavailable: " + ex.getMessage());
+        } catch (IllegalRequestException | AuthorizationRequiredException | AccessDeniedException ex) {
+            LOG.info("Request failed: " + ex.getMessage());
+            throw new RequestFailedException(ex.getMessage());
+        } catch (SignServerException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Internal server error", ex);
+            }
+            throw new InternalServerException("Internal server error: " + ex.getMessage());
+        } catch (IOException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Internal IO error", ex);
+            }
+            throw new InternalServerException("Internal IO error: " + ex.getMessage());
+        }
+        return result;
+    }
+
     /**
      * Operation for requesting signing and production of an MRTD SOD based on the supplied data groups / data group
      * hashes.
@@ -228,23 +338,7 @@ public class ClientWS {
 
             // Collect all [dataGroup1, dataGroup2, ..., dataGroupN]
             final List<DataGroup> dataGroups = data.getDataGroups();
-            final HashMap<Integer,byte[]> dataGroupsMap = new HashMap<>();
-            for (DataGroup dataGroup : dataGroups) {
-                final int dataGroupId = dataGroup.getId();
-                if ((dataGroupId > -1) && (dataGroupId < 17)) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Adding data group " + dataGroupId);
-                            if (LOG.isTraceEnabled()) {
-                                LOG.trace("with value " + Arrays.toString(dataGroup.getValue()));
-                            }
-                        }
-                        dataGroupsMap.put(dataGroup.getId(), dataGroup.getValue());
-                } else {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Ignoring data group " + dataGroupId);
-                    }
-                }
-            }
+            final Map<Integer,byte[]> dataGroupsMap = toDataGroupsMap(dataGroups);
             if (data.getDataGroups().isEmpty()) {
                 throw new RequestFailedException("Missing dataGroup fields in request");
             }
@@ -321,6 +415,142 @@ public class ClientWS {
         return result;
     }
 
+    /**
+     * Operation for requesting signing and production of one MRTD SOD for
+     * each of a number of documents, based on the supplied data groups /
+     * data group hashes. All SODs are signed in one request to the worker.
+     * @param workerIdOrName Name or ID of worker to send the request to
+     * @param requestMetadata Additional request meta data
+     * @param data A SODBatchRequest containing the data-groups/data-groups hashes of each document
+     * @return The response data with the SODs in the same order as the documents
+     * @throws RequestFailedException In case the request could not be processed typically because some error in the request data.
+     * @throws InternalServerException In case the request could not be processed by some error at the server side.
+     */
+    @WebMethod(operationName = "processSODBatch")
+    public org.signserver.clientws.SODBatchResponse processSODBatch(
+            @WebParam(name = "worker") final String workerIdOrName,
+            @WebParam(name = "metadata") final List<Metadata> requestMetadata,
+            @WebParam(name = "sodBatchData") final org.signserver.clientws.SODBatchRequest data
+    ) throws RequestFailedException, InternalServerException {
+        final org.signserver.clientws.SODBatchResponse result;
+        try (CloseableWritableData responseData = new TemporarlyWritableData(false, new UploadConfig().getRepository())) {
+            final RequestContext requestContext = handleRequestContext(requestMetadata);
+            final int requestId = ThreadLocalRandom.current().nextInt();
+
+            if (data.getDocuments() == null || data.getDocuments().isEmpty()) {
+                throw new RequestFailedException("Missing document fields in request");
+            }
+            final List<Map<Integer, byte[]>> documents = new ArrayList<>(data.getDocuments().size());
+            for (SODDocument document : data.getDocuments()) {
+                if (document.getDataGroups() == null || document.getDataGroups().isEmpty()) {
+                    throw new RequestFailedException("Missing dataGroup fields in document");
+                }
+                documents.add(toDataGroupsMap(document.getDataGroups()));
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Received number of documents: " + documents.size());
+            }
+
+            // LDS versioning
+            String ldsVersion = data.getLdsVersion();
+            String unicodeVersion = data.getUnicodeVersion();
+            if (ldsVersion != null && ldsVersion.trim().isEmpty()) {
+                ldsVersion = null;
+            }
+            if (unicodeVersion != null && unicodeVersion.trim().isEmpty()) {
+                unicodeVersion = null;
+            }
+
+            final SODBatchRequest req = new SODBatchRequest(requestId, documents, ldsVersion, unicodeVersion, responseData);
+            final Response resp = getProcessSession().process(
+                    new AdminInfo("CLI user", null, null),
+                    WorkerIdentifier.createFromIdOrName(workerIdOrName), req, requestContext
+            );
+
+            if (resp instanceof SODBatchResponse) {
+                final SODBatchResponse signResponse = (SODBatchResponse) resp;
+                if (signResponse.getRequestID() != requestId) {
+                    LOG.error("Response ID " + signResponse.getRequestID() + " not matching request ID " + requestId);
+                    throw new SignServerException("Error in process operation, response id didn't match request id");
+                }
+
+                // Split the concatenated SODs
+                final List<byte[]> sods = new ArrayList<>(signResponse.getSodLengths().length);
+                try (InputStream in = responseData.toReadableData().getAsInputStream()) {
+                    for (int length : signResponse.getSodLengths()) {
+                        final byte[] sod = new byte[length];
+                        IOUtils.readFully(in, sod);
+                        sods.add(sod);
+                    }
+                }
+
+                result = new org.signserver.clientws.SODBatchResponse(
+                        requestId,
+                        sods,
+                        signResponse.getArchiveId(),
+                        signResponse.getSignerCertificate() == null ? null : signResponse.getSignerCertificate().getEncoded(),
+                        getResponseMetadata(requestContext)
+                );
+            } else {
+                LOG.error("Unexpected return type: " + resp.getClass().getName());
+                throw new SignServerException("Unexpected return type");
+            }
+        } catch (CertificateEncodingException ex) {
+            LOG.error("Certificate encoding error", ex);
+            throw new InternalServerException("Internal server error");
+        } catch (NoSuchWorkerException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Worker Not Found: " + ex.getWorkerIdOrName());
+            }
+            throw new RequestFailedException("Worker Not Found");
+        } catch (CryptoTokenOfflineException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Service unavailable", ex);
+            }
+            throw new InternalServerException("Service unavailable: " + ex.getMessage());
+        } catch (IllegalRequestException | AuthorizationRequiredException | AccessDeniedException ex) {
+            LOG.info("Request failed: " + ex.getMessage());
+            throw new RequestFailedException(ex.getMessage());
+        } catch (SignServerException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Internal server error", ex);
+            }
+            throw new InternalServerException("Internal server error: " + ex.getMessage());
+        } catch (IOException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Internal IO error", ex);
+            }
+            throw new InternalServerException("Internal IO error: " + ex.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Collects the data groups with a valid ID in a map.
+     * @param dataGroups to collect
+     * @return map from data group ID to value
+     */
+    private Map<Integer, byte[]> toDataGroupsMap(final List<DataGroup> dataGroups) {
+        final HashMap<Integer,byte[]> dataGroupsMap = new HashMap<>();
+        for (DataGroup dataGroup : dataGroups) {
+            final int dataGroupId = dataGroup.getId();
+            if ((dataGroupId > -1) && (dataGroupId < 17)) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Adding data group " + dataGroupId);
+                        if (LOG.isTraceEnabled()) {
+                            LOG.trace("with value " + Arrays.toString(dataGroup.getValue()));
+                        }
+                    }
+                    dataGroupsMap.put(dataGroup.getId(), dataGroup.getValue());
+            } else {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Ignoring data group " + dataGroupId);
+                }
+            }
+        }
+        return dataGroupsMap;
+    }
+
     private HttpServletRequest getServletRequest() {
         MessageContext msgContext = wsContext.getMessageContext();
         return (HttpServletRequest) msgContext.get(MessageContext.SERVLET_REQUEST);
@@ -0,0 +1,102 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.clientws;
+
+import java.util.List;
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * Request for signing one SOD for each of a number of documents.
+ *
+ * @version $Id$
+ * @see ClientWS#processSODBatch(java.lang.String, java.util.List, org.signserver.clientws.SODBatchRequest)
+ */
+public class SODBatchRequest {
+
+    private List<SODDocument> documents;
+    private String ldsVersion;
+    private String unicodeVersion;
+
+    public SODBatchRequest() {
+    }
+
+    /**
+     * Creates an new instance of SODBatchRequest.
+     * @param documents List of documents with data groups or data group hashes
+     * @param ldsVersion Version of LDS to use
+     * @param unicodeVersion Version of Unicode to set
+     */
+    public SODBatchRequest(List<SODDocument> documents, String ldsVersion, String unicodeVersion) {
+        this.documents = documents;
+        this.ldsVersion = ldsVersion;
+        this.unicodeVersion = unicodeVersion;
+    }
+
+    /**
+     * Get the documents to create SODs for.
+     *
+     * @return List of documents
+     */
+    @XmlElement(name = "document", required = true, nillable = false)
+    public List<SODDocument> getDocuments() {
+        return documents;
+    }
+
+    /**
+     * Set the documents to create SODs for.
+     *
+     * @param documents List of documents
+     */
+    public void setDocuments(List<SODDocument> documents) {
+        this.documents = documents;
+    }
+
+    /**
+     * Get the version of the LDS.
+     *
+     * @return Version of LDS
+     */
+    @XmlElement(name = "ldsVersion", required=false)
+    public String getLdsVersion() {
+        return ldsVersion;
+    }
+
+    /**
+     * Set the version of the LDS.
+     *
+     * @param ldsVersion Version of LDS
+     */
+    public void setLdsVersion(String ldsVersion) {
+        this.ldsVersion = ldsVersion;
+    }
+
+    /**
+     * Get the unicode version used.
+     *
+     * @return Version of Unicode
+     */
+    @XmlElement(name = "unicodeVersion", required=false)
+    public String getUnicodeVersion() {
+        return unicodeVersion;
+    }
+
+    /**
+     * Set the unicode version used.
+     *
+     * @param unicodeVersion Version of Unicode
+     */
+    public void setUnicodeVersion(String unicodeVersion) {
+        this.unicodeVersion = unicodeVersion;
+    }
+
+}
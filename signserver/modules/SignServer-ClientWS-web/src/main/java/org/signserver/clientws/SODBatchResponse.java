@@ -0,0 +1,133 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.clientws;
+
+import java.util.List;
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * The response data returned by the processSODBatch operation, with one SOD
+ * for each document in the request, in the same order.
+ *
+ * @version $Id$
+ * @see ClientWS#processSODBatch(java.lang.String, java.util.List, org.signserver.clientws.SODBatchRequest)
+ */
+public class SODBatchResponse {
+
+    private int requestId;
+    private List<byte[]> sods;
+    private String archiveId;
+    private byte[] signerCertificate;
+    private List<Metadata> metadata;
+
+    public SODBatchResponse() {
+    }
+
+    /**
+     * Constructs a new instance of SODBatchResponse.
+     * @param requestId Id of the worker that processed the request.
+     * @param sods The signed SODs.
+     * @param archiveId The ID assigned to the archivable item(s).
+     * @param signerCertificate Certificate of the signer signing the data (if any).
+     * @param metadata Response metadata.
+     */
+    public SODBatchResponse(int requestId, List<byte[]> sods, String archiveId, byte[] signerCertificate, List<Metadata> metadata) {
+        this.requestId = requestId;
+        this.sods = sods;
+        this.archiveId = archiveId;
+        this.signerCertificate = signerCertificate;
+        this.metadata = metadata;
+    }
+
+    /**
+     * Get the ID of the request.
+     *
+     * @return The id of the request
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @param requestId The id of the request
+     */
+    public void setRequestId(int requestId) {
+        this.requestId = requestId;
+    }
+
+    /**
+     * Get the signed SODs, one for each document in the request.
+     *
+     * @return The SODs
+     */
+    @XmlElement(name = "sod")
+    public List<byte[]> getSods() {
+        return sods;
+    }
+
+    /**
+     * @param sods The SODs
+     */
+    public void setSods(List<byte[]> sods) {
+        this.sods = sods;
+    }
+
+    /**
+     * Get the archive ID for the response.
+     *
+     * @return The archive ID
+     */
+    public String getArchiveId() {
+        return archiveId;
+    }
+
+    /**
+     * @param archiveId The archive id
+     */
+    public void setArchiveId(String archiveId) {
+        this.archiveId = archiveId;
+    }
+
+    /**
+     * Get the signer certificate used.
+     *
+     * @return The signer certificate (if any)
+     */
+    public byte[] getSignerCertificate() {
+        return signerCertificate;
+    }
+
+    /**
+     * @param signerCertificate The signer certificate
+     */
+    public void setSignerCertificate(byte[] signerCertificate) {
+        this.signerCertificate = signerCertificate;
+    }
+
+    /**
+     * Get the response metadata.
+     *
+     * @return The response metadata (if any)
+     */
+    public List<Metadata> getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @param metadata The response metadata
+     */
+    public void setMetadata(List<Metadata> metadata) {
+        this.metadata = metadata;
+    }
+
+}
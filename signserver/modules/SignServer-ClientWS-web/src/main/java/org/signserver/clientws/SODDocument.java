@@ -0,0 +1,57 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.clientws;
+
+import java.util.List;
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * The data groups of one document in a SODBatchRequest.
+ *
+ * @version $Id$
+ */
+public class SODDocument {
+
+    private List<DataGroup> dataGroups;
+
+    public SODDocument() {
+    }
+
+    /**
+     * Creates an new instance of SODDocument.
+     * @param dataGroups List of datagroups or data group hashes
+     */
+    public SODDocument(List<DataGroup> dataGroups) {
+        this.dataGroups = dataGroups;
+    }
+
+    /**
+     * Get the list of data group values (data or hashes).
+     *
+     * @return List of datagroups
+     */
+    @XmlElement(name = "dataGroup", required = true, nillable = false)
+    public List<DataGroup> getDataGroups() {
+        return dataGroups;
+    }
+
+    /**
+     * Set the list of data group values (data or hashes).
+     *
+     * @param dataGroups List of datagroups
+     */
+    public void setDataGroups(List<DataGroup> dataGroups) {
+        this.dataGroups = dataGroups;
+    }
+
+}
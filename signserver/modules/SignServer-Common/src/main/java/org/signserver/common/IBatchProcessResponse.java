@@ -0,0 +1,32 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.common;
+
+/**
+ * Interface implemented by process responses containing the result for a
+ * number of items, for instance one signature for each of the hashes in a
+ * batch request.
+ *
+ * The number of items is used when charging the client and when updating
+ * the key usage counter, so that a batch counts the same as the
+ * corresponding number of single requests.
+ *
+ * @version $Id$
+ */
+public interface IBatchProcessResponse {
+
+    /**
+     * @return The number of items processed, at least 1
+     */
+    int getItemCount();
+}
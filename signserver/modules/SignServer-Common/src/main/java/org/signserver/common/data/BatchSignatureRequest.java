@@ -0,0 +1,53 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.common.data;
+
+import java.util.List;
+
+/**
+ * Data holder for a request to sign a number of items at once, typically
+ * hashes computed by the client.
+ *
+ * The signatures are written to the response data concatenated in the same
+ * order as the items in the request.
+ *
+ * @version $Id$
+ */
+public class BatchSignatureRequest extends Request {
+
+    private final int requestID;
+    private final List<byte[]> items;
+    private final WritableData responseData;
+
+    public BatchSignatureRequest(int requestID, List<byte[]> items, WritableData responseData) {
+        this.requestID = requestID;
+        this.items = items;
+        this.responseData = responseData;
+    }
+
+    public int getRequestID() {
+        return requestID;
+    }
+
+    /**
+     * @return the items to sign
+     */
+    public List<byte[]> getItems() {
+        return items;
+    }
+
+    public WritableData getResponseData() {
+        return responseData;
+    }
+
+}
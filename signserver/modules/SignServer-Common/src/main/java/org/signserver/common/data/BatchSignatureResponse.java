@@ -0,0 +1,50 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.common.data;
+
+import java.security.cert.Certificate;
+import java.util.Collection;
+import org.signserver.common.IBatchProcessResponse;
+import org.signserver.server.archive.Archivable;
+
+/**
+ * Data holder for the response to a BatchSignatureRequest.
+ *
+ * The response data contains the signatures concatenated, in the order of
+ * the items in the request, with their lengths available from
+ * getSignatureLengths().
+ *
+ * @version $Id$
+ */
+public class BatchSignatureResponse extends SignatureResponse implements IBatchProcessResponse {
+
+    private final int[] signatureLengths;
+
+    public BatchSignatureResponse(int requestID, WritableData responseData, int[] signatureLengths, Certificate signerCertificate, String archiveId, Collection<? extends Archivable> archivables, String contentType) {
+        super(requestID, responseData, signerCertificate, archiveId, archivables, contentType);
+        this.signatureLengths = signatureLengths;
+    }
+
+    /**
+     * @return the length of each signature in the response data
+     */
+    public int[] getSignatureLengths() {
+        return signatureLengths;
+    }
+
+    @Override
+    public int getItemCount() {
+        return signatureLengths.length;
+    }
+
+}
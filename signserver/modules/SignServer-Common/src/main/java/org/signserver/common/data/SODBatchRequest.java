@@ -0,0 +1,66 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.common.data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data holder for a request to sign many MRTD SODs at once, one for each
+ * map of data groups (or data group hashes).
+ *
+ * The SODs are written to the response data concatenated in the same order
+ * as the documents in the request.
+ *
+ * @version $Id$
+ */
+public class SODBatchRequest extends Request {
+
+    private final int requestID;
+    private final List<Map<Integer, byte[]>> documents;
+    private final String ldsVersion;
+    private final String unicodeVersion;
+    private final WritableData responseData;
+
+    public SODBatchRequest(int requestID, List<Map<Integer, byte[]>> documents, String ldsVersion, String unicodeVersion, WritableData responseData) {
+        this.requestID = requestID;
+        this.documents = documents;
+        this.ldsVersion = ldsVersion;
+        this.unicodeVersion = unicodeVersion;
+        this.responseData = responseData;
+    }
+
+    public int getRequestID() {
+        return requestID;
+    }
+
+    /**
+     * @return the data groups (or data group hashes) of each document
+     */
+    public List<Map<Integer, byte[]>> getDocuments() {
+        return documents;
+    }
+
+    public String getLdsVersion() {
+        return ldsVersion;
+    }
+
+    public String getUnicodeVersion() {
+        return unicodeVersion;
+    }
+
+    public WritableData getResponseData() {
+        return responseData;
+    }
+
+}
@@ -0,0 +1,50 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.common.data;
+
+import java.security.cert.Certificate;
+import java.util.Collection;
+import org.signserver.common.IBatchProcessResponse;
+import org.signserver.server.archive.Archivable;
+
+/**
+ * Data holder for the response to a SODBatchRequest.
+ *
+ * The response data contains the encoded SODs concatenated, in the order of
+ * the documents in the request, with their lengths available from
+ * getSodLengths().
+ *
+ * @version $Id$
+ */
+public class SODBatchResponse extends SODResponse implements IBatchProcessResponse {
+
+    private final int[] sodLengths;
+
+    public SODBatchResponse(int requestID, WritableData responseData, int[] sodLengths, Certificate signerCertificate, String archiveId, Collection<? extends Archivable> archivables, String contentType) {
+        super(requestID, responseData, signerCertificate, archiveId, archivables, contentType);
+        this.sodLengths = sodLengths;
+    }
+
+    /**
+     * @return the length of each SOD in the response data
+     */
+    public int[] getSodLengths() {
+        return sodLengths;
+    }
+
+    @Override
+    public int getItemCount() {
+        return sodLengths.length;
+    }
+
+}
@@ -0,0 +1,332 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.common.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import org.apache.log4j.Logger;
+
+/**
+ * Client-side load balancer preferring the fastest of a set of hosts.
+ *
+ * For each host an exponentially weighted moving average (EWMA) of the
+ * latency and the number of requests in flight is kept. A host is selected
+ * using the "power of two choices": two hosts are picked at random and the
+ * one with the lowest latency times (in-flight + 1) is used. This avoids the
+ * herding of always choosing the single best host while still steering
+ * most of the load away from slow or busy hosts.
+ *
+ * The health check is passive: a host failing a request is taken out of
+ * the selection for a back-off period which doubles for each consecutive
+ * failure, up to a maximum. When the period has passed a single request is
+ * let through to the host as a probe and a successful response puts it back.
+ *
+ * All methods are lock-free and can be called concurrently from any number
+ * of threads. The hosts given at construction are never removed.
+ *
+ * Usage:
+ * <pre>
+ * final String host = balancer.select();
+ * final long start = balancer.requestStarted(host);
+ * try {
+ *     ...
+ *     balancer.requestCompleted(host, start);
+ * } catch (ConnectException ex) {
+ *     balancer.requestFailed(host, start);
+ * }
+ * </pre>
+ *
+ * @version $Id$
+ */
+public class HostBalancer {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(HostBalancer.class);
+
+    /** Default weight of a new latency sample in the average. */
+    public static final double DEFAULT_ALPHA = 0.3;
+
+    /** Default back-off after the first failure in milliseconds. */
+    public static final long DEFAULT_INITIAL_BACKOFF = 1000;
+
+    /** Default maximum back-off in milliseconds. */
+    public static final long DEFAULT_MAX_BACKOFF = 60000;
+
+    private final List<Host> hosts;
+    private final double alpha;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final LongSupplier nanoClock;
+
+    /**
+     * Creates a balancer with the default settings.
+     *
+     * @param hosts to balance between
+     */
+    public HostBalancer(final List<String> hosts) {
+        this(hosts, DEFAULT_ALPHA, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF);
+    }
+
+    /**
+     * Creates a balancer.
+     *
+     * @param hosts to balance between
+     * @param alpha weight of a new latency sample, between 0 (exclusive) and 1
+     * @param initialBackoff back-off after the first failure in milliseconds
+     * @param maxBackoff maximum back-off in milliseconds
+     */
+    public HostBalancer(final List<String> hosts, final double alpha,
+            final long initialBackoff, final long maxBackoff) {
+        this(hosts, alpha, initialBackoff, maxBackoff, System::nanoTime);
+    }
+
+    /**
+     * Creates a balancer using the supplied clock, for tests.
+     */
+    HostBalancer(final List<String> hosts, final double alpha,
+            final long initialBackoff, final long maxBackoff,
+            final LongSupplier nanoClock) {
+        if (hosts.isEmpty()) {
+            throw new IllegalArgumentException("No hosts");
+        }
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("Alpha must be in (0, 1]: " + alpha);
+        }
+        if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("Illegal back-off: " + initialBackoff + ", " + maxBackoff);
+        }
+        final List<Host> list = new ArrayList<>(hosts.size());
+        for (String name : hosts) {
+            list.add(new Host(name));
+        }
+        this.hosts = Collections.unmodifiableList(list);
+        this.alpha = alpha;
+        this.initialBackoff = TimeUnit.MILLISECONDS.toNanos(initialBackoff);
+        this.maxBackoff = TimeUnit.MILLISECONDS.toNanos(maxBackoff);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Selects the host to send the next request to.
+     *
+     * @return the selected host or null if all hosts are backing off after
+     * failures
+     */
+    public String select() {
+        final int size = hosts.size();
+        for (int attempt = 0; attempt < size; attempt++) {
+            final long now = nanoClock.getAsLong();
+            final Host host = choose(now);
+            if (host == null) {
+                break;
+            }
+            // Only one request at a time gets to probe a host that failed
+            if (host.claim(now, backoff(host.failures.get()))) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Selected host " + host);
+                }
+                return host.name;
+            }
+        }
+        return null;
+    }
+
+    private Host choose(final long now) {
+        final int size = hosts.size();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int a = random.nextInt(size);
+        final Host first = hosts.get(a);
+        final boolean firstAvailable = first.isAvailable(now);
+        if (size == 1) {
+            return firstAvailable ? first : null;
+        }
+        int b = random.nextInt(size - 1);
+        if (b >= a) {
+            b++;
+        }
+        final Host second = hosts.get(b);
+        final boolean secondAvailable = second.isAvailable(now);
+
+        if (firstAvailable && secondAvailable) {
+            return first.score() <= second.score() ? first : second;
+        } else if (firstAvailable) {
+            return first;
+        } else if (secondAvailable) {
+            return second;
+        }
+
+        // Both choices are backing off so look for the best of the rest
+        Host best = null;
+        for (int i = 0; i < size; i++) {
+            final Host host = hosts.get((a + i) % size);
+            if (host.isAvailable(now) && (best == null || host.score() < best.score())) {
+                best = host;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Records that a request is about to be sent to the host.
+     *
+     * @param host the request is sent to
+     * @return start time to pass to requestCompleted or requestFailed
+     */
+    public long requestStarted(final String host) {
+        get(host).inFlight.incrementAndGet();
+        return nanoClock.getAsLong();
+    }
+
+    /**
+     * Records that the host responded to a request. This is also the case
+     * for error responses as long as the host handled the request.
+     *
+     * @param host the request was sent to
+     * @param startTime returned by requestStarted
+     */
+    public void requestCompleted(final String host, final long startTime) {
+        final Host state = get(host);
+        state.inFlight.decrementAndGet();
+        state.update(Math.max(0, nanoClock.getAsLong() - startTime), alpha);
+        if (state.failures.getAndSet(0) > 0) {
+            LOG.info("Host " + host + " is available again");
+        }
+    }
+
+    /**
+     * Records that a request to the host failed because the host could not
+     * be reached or did not handle it. The host will not be selected until
+     * the back-off period has passed.
+     *
+     * @param host the request was sent to
+     * @param startTime returned by requestStarted
+     */
+    public void requestFailed(final String host, final long startTime) {
+        final Host state = get(host);
+        state.inFlight.decrementAndGet();
+        final int failures = state.failures.incrementAndGet();
+        final long backoff = backoff(failures);
+        state.downUntil.set(nanoClock.getAsLong() + backoff);
+        LOG.warn("Host " + host + " failed " + failures + " time(s) in a row, not using it for "
+                + TimeUnit.NANOSECONDS.toMillis(backoff) + " ms");
+    }
+
+    private long backoff(final int failures) {
+        long result = initialBackoff;
+        for (int i = 1; i < failures && result < maxBackoff; i++) {
+            result *= 2;
+        }
+        return Math.min(result, maxBackoff);
+    }
+
+    /**
+     * @return the hosts balanced between
+     */
+    public List<String> getHosts() {
+        final List<String> result = new ArrayList<>(hosts.size());
+        for (Host host : hosts) {
+            result.add(host.name);
+        }
+        return result;
+    }
+
+    /**
+     * @param host to check
+     * @return true if the host is not backing off after a failure
+     */
+    public boolean isAvailable(final String host) {
+        return get(host).isAvailable(nanoClock.getAsLong());
+    }
+
+    /**
+     * @param host to get the estimate for
+     * @return average latency in nanoseconds or 0 if no requests completed
+     */
+    public long getLatencyEstimate(final String host) {
+        return (long) Double.longBitsToDouble(get(host).ewma.get());
+    }
+
+    /**
+     * @param host to get the number for
+     * @return number of requests currently sent to the host
+     */
+    public int getInFlight(final String host) {
+        return get(host).inFlight.get();
+    }
+
+    private Host get(final String host) {
+        for (Host state : hosts) {
+            if (state.name.equals(host)) {
+                return state;
+            }
+        }
+        throw new IllegalArgumentException("Unknown host: " + host);
+    }
+
+    /** State of one host. */
+    private static final class Host {
+        private final String name;
+        private final AtomicLong ewma = new AtomicLong(Double.doubleToLongBits(0));
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicLong downUntil = new AtomicLong();
+
+        Host(final String name) {
+            this.name = name;
+        }
+
+        boolean isAvailable(final long now) {
+            return failures.get() == 0 || now - downUntil.get() >= 0;
+        }
+
+        /**
+         * Claims the host for a request. A host with failures is pushed back
+         * by the back-off so that other requests keep avoiding it while the
+         * probe is in progress.
+         */
+        boolean claim(final long now, final long backoff) {
+            if (failures.get() == 0) {
+                return true;
+            }
+            final long until = downUntil.get();
+            return now - until >= 0 && downUntil.compareAndSet(until, now + backoff);
+        }
+
+        /** Hosts without any completed request get a score of 0 so that they are tried. */
+        double score() {
+            return Double.longBitsToDouble(ewma.get()) * (inFlight.get() + 1);
+        }
+
+        void update(final long latency, final double alpha) {
+            long current;
+            long next;
+            do {
+                current = ewma.get();
+                final double average = Double.longBitsToDouble(current);
+                next = Double.doubleToLongBits(average == 0 ? latency : average + alpha * (latency - average));
+            } while (!ewma.compareAndSet(current, next));
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + TimeUnit.NANOSECONDS.toMicros((long) Double.longBitsToDouble(ewma.get()))
+                    + " µs, " + inFlight.get() + " in flight)";
+        }
+    }
+}
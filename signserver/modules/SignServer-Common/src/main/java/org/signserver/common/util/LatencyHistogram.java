@@ -0,0 +1,239 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.common.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values, typically latencies.
+ *
+ * Values are counted in log-linear buckets in the same way as a
+ * HdrHistogram: values below 2^precisionBits are counted exactly and larger
+ * values in buckets with a relative width of at most 2^-(precisionBits-1).
+ * Recording is a couple of atomic increments and can be done concurrently
+ * from any number of threads. Reading percentiles while recording gives
+ * approximate results which is what is expected for monitoring purposes.
+ *
+ * The unit of the values is up to the caller.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogram {
+
+    /** Default number of bits of precision (about 3% relative error). */
+    public static final int DEFAULT_PRECISION_BITS = 6;
+
+    /** Default highest trackable value (about 19 hours in microseconds). */
+    public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = 1L << 36;
+
+    private final int precisionBits;
+    private final int subBucketCount;
+    private final int subBucketHalfCount;
+    private final long highestTrackableValue;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+    private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+
+    /**
+     * Creates a histogram with the default precision and range.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_PRECISION_BITS, DEFAULT_HIGHEST_TRACKABLE_VALUE);
+    }
+
+    /**
+     * Creates a histogram.
+     *
+     * @param precisionBits number of bits of precision (2-16)
+     * @param highestTrackableValue larger values are counted as this value
+     */
+    public LatencyHistogram(final int precisionBits, final long highestTrackableValue) {
+        if (precisionBits < 2 || precisionBits > 16) {
+            throw new IllegalArgumentException("Precision bits must be between 2 and 16");
+        }
+        if (highestTrackableValue < 1) {
+            throw new IllegalArgumentException("Highest trackable value must be positive");
+        }
+        this.precisionBits = precisionBits;
+        this.subBucketCount = 1 << precisionBits;
+        this.subBucketHalfCount = subBucketCount >> 1;
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+    }
+
+    private int indexOf(final long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = magnitude - precisionBits + 1;
+        return subBucketCount + (shift - 1) * subBucketHalfCount
+                + (int) ((value >>> shift) - subBucketHalfCount);
+    }
+
+    private long highestEquivalentValue(final int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        final int shift = (index - subBucketCount) / subBucketHalfCount + 1;
+        final long subBucket = (index - subBucketCount) % subBucketHalfCount + subBucketHalfCount;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Records one value.
+     *
+     * @param value to record, negative values are counted as 0
+     */
+    public void record(final long value) {
+        final long v = value < 0 ? 0 : Math.min(value, highestTrackableValue);
+        counts.incrementAndGet(indexOf(v));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(v);
+        long max;
+        while (v > (max = maxValue.get()) && !maxValue.compareAndSet(max, v)) {
+            // Retry
+        }
+        long min;
+        while (v < (min = minValue.get()) && !minValue.compareAndSet(min, v)) {
+            // Retry
+        }
+    }
+
+    /**
+     * Adds all values from an other histogram with the same configuration.
+     *
+     * @param other histogram to add values from
+     */
+    public void add(final LatencyHistogram other) {
+        if (other.precisionBits != precisionBits || other.counts.length() != counts.length()) {
+            throw new IllegalArgumentException("Histograms must have the same configuration");
+        }
+        for (int i = 0; i < counts.length(); i++) {
+            final long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        totalSum.addAndGet(other.totalSum.get());
+        long max;
+        final long otherMax = other.maxValue.get();
+        while (otherMax > (max = maxValue.get()) && !maxValue.compareAndSet(max, otherMax)) {
+            // Retry
+        }
+        long min;
+        final long otherMin = other.minValue.get();
+        while (otherMin < (min = minValue.get()) && !minValue.compareAndSet(min, otherMin)) {
+            // Retry
+        }
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently with a reset
+     * might be partially counted.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalSum.set(0);
+        maxValue.set(0);
+        minValue.set(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return sum of all recorded values
+     */
+    public long getSum() {
+        return totalSum.get();
+    }
+
+    /**
+     * @return largest recorded value or 0 if none
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * @return smallest recorded value or 0 if none
+     */
+    public long getMin() {
+        final long min = minValue.get();
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * @return mean of the recorded values or 0 if none
+     */
+    public double getMean() {
+        final long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalSum.get() / count;
+    }
+
+    /**
+     * Gets the value at the given percentile. The result is the highest
+     * value in the bucket the percentile falls in but never larger than the
+     * largest recorded value.
+     *
+     * @param percentile between 0 and 100
+     * @return value at the percentile or 0 if no values are recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        long total = 0;
+        final int length = counts.length();
+        final long[] snapshot = new long[length];
+        for (int i = 0; i < length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final double p = Math.min(Math.max(percentile, 0.0), 100.0);
+        final long countAtPercentile = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < length; i++) {
+            seen += snapshot[i];
+            if (seen >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+                + ", min=" + getMin()
+                + ", mean=" + Math.round(getMean())
+                + ", p50=" + getValueAtPercentile(50)
+                + ", p90=" + getValueAtPercentile(90)
+                + ", p99=" + getValueAtPercentile(99)
+                + ", p99.9=" + getValueAtPercentile(99.9)
+                + ", max=" + getMax();
+    }
+}
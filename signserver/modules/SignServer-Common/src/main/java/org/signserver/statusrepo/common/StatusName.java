@@ -61,4 +61,10 @@ public enum StatusName {
      */
     TIMEMONITOR_LOG,
 
+    /**
+     * Summary of the processing stage latencies of all workers.
+     * Set periodically if GLOB.PROCESSINGMETRICS_STATUS_INTERVAL is configured.
+     */
+    PROCESSING_LATENCIES,
+
 }
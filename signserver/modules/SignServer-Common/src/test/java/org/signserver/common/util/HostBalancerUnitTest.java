@@ -0,0 +1,184 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.common.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for the HostBalancer class.
+ *
+ * @version $Id$
+ */
+public class HostBalancerUnitTest {
+
+    private final AtomicLong clock = new AtomicLong(1000);
+
+    private HostBalancer create(final String... hosts) {
+        return new HostBalancer(Arrays.asList(hosts), 0.5, 1000, 4000, clock::get);
+    }
+
+    private void request(final HostBalancer instance, final String host, final long latencyMillis) {
+        final long start = instance.requestStarted(host);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        instance.requestCompleted(host, start);
+    }
+
+    private Map<String, Integer> selections(final HostBalancer instance, final int count) {
+        final Map<String, Integer> result = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            result.merge(instance.select(), 1, Integer::sum);
+        }
+        return result;
+    }
+
+    /**
+     * Tests that the latency average is updated and that the faster hosts
+     * are preferred.
+     */
+    @Test
+    public void testPrefersFastestHost() {
+        final HostBalancer instance = create("host1", "host2", "host3");
+        request(instance, "host1", 100);
+        request(instance, "host2", 10);
+        request(instance, "host3", 50);
+        assertEquals("initial estimate", TimeUnit.MILLISECONDS.toNanos(10), instance.getLatencyEstimate("host2"));
+        request(instance, "host2", 20);
+        assertEquals("average", TimeUnit.MILLISECONDS.toNanos(15), instance.getLatencyEstimate("host2"));
+
+        // With two random choices the slowest host is never selected and the
+        // fastest one is in two out of three pairs
+        final Map<String, Integer> result = selections(instance, 3000);
+        assertNull("slowest: " + result, result.get("host1"));
+        assertEquals("fastest: " + result, 2000, result.get("host2"), 200);
+        assertEquals("middle: " + result, 1000, result.get("host3"), 200);
+    }
+
+    /**
+     * Tests that requests in flight are taken into account.
+     */
+    @Test
+    public void testPrefersLeastLoadedHost() {
+        final HostBalancer instance = create("host1", "host2");
+        request(instance, "host1", 10);
+        request(instance, "host2", 30);
+        assertEquals("fast host", Collections.singletonMap("host1", 100), selections(instance, 100));
+
+        // 10 ms * 4 is worse than 30 ms * 1
+        for (int i = 0; i < 3; i++) {
+            instance.requestStarted("host1");
+        }
+        assertEquals("in flight", 3, instance.getInFlight("host1"));
+        assertEquals("idle host", Collections.singletonMap("host2", 100), selections(instance, 100));
+    }
+
+    /**
+     * Tests the back-off after failures and that only one probe is let
+     * through when it has passed.
+     */
+    @Test
+    public void testBackoffAndProbe() {
+        final HostBalancer instance = create("host1", "host2");
+        instance.requestFailed("host1", instance.requestStarted("host1"));
+        assertFalse("backing off", instance.isAvailable("host1"));
+        assertEquals("other host", Collections.singletonMap("host2", 100), selections(instance, 100));
+
+        // A second failure doubles the back-off
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertTrue("available for probe", instance.isAvailable("host1"));
+        instance.requestFailed("host1", instance.requestStarted("host1"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1999));
+        assertFalse("backing off 2 s", instance.isAvailable("host1"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue("available after 2 s", instance.isAvailable("host1"));
+
+        // Only one probe at a time
+        instance.requestFailed("host2", instance.requestStarted("host2"));
+        assertEquals("probe", "host1", instance.select());
+        assertNull("no more hosts", instance.select());
+
+        // Successful probe puts it back
+        final long start = instance.requestStarted("host1");
+        instance.requestCompleted("host1", start);
+        assertTrue("available", instance.isAvailable("host1"));
+        assertEquals("host1", instance.select());
+    }
+
+    /**
+     * Tests that the back-off is limited.
+     */
+    @Test
+    public void testMaxBackoff() {
+        final HostBalancer instance = create("host1");
+        for (int i = 0; i < 100; i++) {
+            instance.requestFailed("host1", instance.requestStarted("host1"));
+        }
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(3999));
+        assertNull("backing off", instance.select());
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals("after max back-off", "host1", instance.select());
+    }
+
+    /**
+     * Tests selecting from many threads concurrently.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testConcurrentSelection() throws Exception {
+        final HostBalancer instance = new HostBalancer(Arrays.asList("host1", "host2", "host3", "host4"));
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 10000; i++) {
+                executor.submit(() -> {
+                    final String host = instance.select();
+                    instance.requestCompleted(host, instance.requestStarted(host));
+                });
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue("terminated", executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        for (String host : instance.getHosts()) {
+            assertEquals(host, 0, instance.getInFlight(host));
+            assertTrue(host, instance.isAvailable(host));
+        }
+    }
+
+    /**
+     * Tests the argument checks.
+     */
+    @Test
+    public void testIllegalArguments() {
+        try {
+            new HostBalancer(Collections.<String>emptyList());
+            fail("Should have thrown IllegalArgumentException");
+        } catch (IllegalArgumentException expected) { // NOPMD
+            // OK
+        }
+        try {
+            create("host1").requestStarted("host2");
+            fail("Should have thrown IllegalArgumentException");
+        } catch (IllegalArgumentException expected) { // NOPMD
+            // OK
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.common.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for the LatencyHistogram class.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogramUnitTest {
+
+    /**
+     * Tests that percentiles are within the precision of the histogram.
+     */
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram instance = new LatencyHistogram();
+        for (long i = 1; i <= 100000; i++) {
+            instance.record(i);
+        }
+        assertEquals("count", 100000, instance.getCount());
+        assertEquals("min", 1, instance.getMin());
+        assertEquals("max", 100000, instance.getMax());
+        assertEquals("mean", 50000.5, instance.getMean(), 0.001);
+        assertEquals("p50", 50000, instance.getValueAtPercentile(50), 50000 * 0.04);
+        assertEquals("p99", 99000, instance.getValueAtPercentile(99), 99000 * 0.04);
+        assertEquals("p100", 100000, instance.getValueAtPercentile(100));
+
+        // Small values are exact
+        final LatencyHistogram small = new LatencyHistogram();
+        small.record(3);
+        small.record(7);
+        assertEquals("p50", 3, small.getValueAtPercentile(50));
+        assertEquals("p100", 7, small.getValueAtPercentile(100));
+    }
+
+    /**
+     * Tests values out of range, reset and adding histograms.
+     */
+    @Test
+    public void testRangeResetAndAdd() {
+        final LatencyHistogram instance = new LatencyHistogram(6, 1000);
+        instance.record(-5);
+        instance.record(5000);
+        assertEquals("min", 0, instance.getMin());
+        assertEquals("max clamped", 1000, instance.getMax());
+
+        final LatencyHistogram other = new LatencyHistogram(6, 1000);
+        other.record(10);
+        instance.add(other);
+        assertEquals("count", 3, instance.getCount());
+        assertEquals("p50", 10, instance.getValueAtPercentile(50));
+
+        instance.reset();
+        assertEquals("count", 0, instance.getCount());
+        assertEquals("p99", 0, instance.getValueAtPercentile(99));
+        assertEquals("max", 0, instance.getMax());
+    }
+
+    /**
+     * Tests recording from several threads.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram instance = new LatencyHistogram();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    instance.record(i);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals("count", 40000, instance.getCount());
+        assertEquals("max", 9999, instance.getMax());
+    }
+}
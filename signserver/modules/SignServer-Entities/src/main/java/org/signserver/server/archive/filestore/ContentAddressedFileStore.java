@@ -0,0 +1,225 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.archive.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.Hex;
+import org.signserver.common.CompileTimeSettings;
+
+/**
+ * Store of archived content in a directory, where each content is named by
+ * its SHA-256 digest.
+ *
+ * The files are sharded in two levels of sub directories named by the first
+ * two bytes of the digest, i.e. the content with digest "abcdef..." is
+ * stored as "ab/cd/abcdef...", to keep the number of files in each directory
+ * down. Storing content already present only returns its digest, so
+ * identical content is stored once.
+ *
+ * Content is first written to a temporary file in the store directory and
+ * then renamed to its final name, so a file with a digest name is always
+ * complete. The content is verified against its name when read.
+ *
+ * @version $Id$
+ */
+public class ContentAddressedFileStore {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ContentAddressedFileStore.class);
+
+    /** Deploy-time property with the location of the archive file store. */
+    public static final String LOCATION_PROPERTY = "archive.filestore.location";
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final Pattern DIGEST_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final String TEMP_DIRECTORY = "tmp";
+
+    private static ContentAddressedFileStore defaultInstance;
+
+    private final File directory;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param directory to store the content in
+     */
+    public ContentAddressedFileStore(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the store configured by the deploy-time property
+     * archive.filestore.location or null if none is configured
+     */
+    public static synchronized ContentAddressedFileStore getDefault() {
+        if (defaultInstance == null) {
+            final String location = CompileTimeSettings.getInstance().getProperty(LOCATION_PROPERTY);
+            if (StringUtils.isNotBlank(location) && !location.startsWith("${")) {
+                defaultInstance = new ContentAddressedFileStore(new File(location.trim()));
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * @return the directory the content is stored in
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stores the content.
+     *
+     * @param content to store
+     * @return the hex encoded SHA-256 digest of the content
+     * @throws IOException in case of failure writing the content
+     */
+    public String store(final byte[] content) throws IOException {
+        return store(new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Stores the content read from the stream. The stream is not closed.
+     *
+     * @param in to read the content from
+     * @return the hex encoded SHA-256 digest of the content
+     * @throws IOException in case of failure reading or writing the content
+     */
+    public String store(final InputStream in) throws IOException {
+        final File tempDirectory = new File(directory, TEMP_DIRECTORY);
+        Files.createDirectories(tempDirectory.toPath());
+        final Path temp = Files.createTempFile(tempDirectory.toPath(), "content", ".tmp");
+        try {
+            final MessageDigest md = createDigest();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final OutputStream out = Channels.newOutputStream(channel);
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    md.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+                channel.force(true);
+            }
+            final String digest = Hex.toHexString(md.digest());
+            final Path target = getFile(digest).toPath();
+            if (Files.exists(target)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Content already stored: " + digest);
+                }
+            } else {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException ex) { // NOPMD
+                    // Stored by someone else in the meantime
+                }
+            }
+            return digest;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Opens the content for reading. The digest of the content is not
+     * verified.
+     *
+     * @param digest hex encoded SHA-256 digest of the content
+     * @return stream to read the content from
+     * @throws FileNotFoundException if the content is not stored
+     * @throws IOException in case of failure opening the content
+     */
+    public InputStream open(final String digest) throws IOException {
+        try {
+            return Files.newInputStream(getFile(digest).toPath());
+        } catch (NoSuchFileException ex) {
+            throw new FileNotFoundException("No content stored with digest " + digest);
+        }
+    }
+
+    /**
+     * Reads the content and verifies that it matches its digest.
+     *
+     * @param digest hex encoded SHA-256 digest of the content
+     * @return the content
+     * @throws FileNotFoundException if the content is not stored
+     * @throws IOException in case of failure reading the content or if it
+     * does not match the digest
+     */
+    public byte[] read(final String digest) throws IOException {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        final MessageDigest md = createDigest();
+        try (InputStream in = new DigestInputStream(open(digest), md)) {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                result.write(buffer, 0, read);
+            }
+        }
+        if (!digest.equals(Hex.toHexString(md.digest()))) {
+            throw new IOException("Stored content does not match its digest " + digest);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * @param digest hex encoded SHA-256 digest of the content
+     * @return true if the content is stored
+     */
+    public boolean contains(final String digest) {
+        return getFile(digest).isFile();
+    }
+
+    /**
+     * @param digest hex encoded SHA-256 digest of the content
+     * @return the file the content is or would be stored in
+     * @throws IllegalArgumentException if the digest is not a lower case hex
+     * encoded SHA-256 digest
+     */
+    public File getFile(final String digest) {
+        if (digest == null || !DIGEST_PATTERN.matcher(digest).matches()) {
+            throw new IllegalArgumentException("Not a SHA-256 digest: " + digest);
+        }
+        return new File(new File(new File(directory, digest.substring(0, 2)), digest.substring(2, 4)), digest);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
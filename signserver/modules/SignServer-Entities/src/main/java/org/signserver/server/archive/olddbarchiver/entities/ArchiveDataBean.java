@@ -28,6 +28,7 @@ import org.cesecore.util.Base64GetHashMap;
 import org.cesecore.util.Base64PutHashMap;
 import org.signserver.common.ArchiveData;
 import org.signserver.common.ArchiveDataVO;
+import org.signserver.server.archive.filestore.ContentAddressedFileStore;
 import org.signserver.common.util.SecureXMLDecoder;
 
 /**
@@ -46,6 +47,10 @@ import org.signserver.common.util.SecureXMLDecoder;
  * dataEncoding             : int
  * </pre>
  *
+ * With the data encoding DATA_ENCODING_FILESTORE the archiveData column only
+ * holds the SHA-256 digest of the content, which is stored in the
+ * ContentAddressedFileStore.
+ *
  * @version $Id$
  *
  */
@@ -70,6 +75,7 @@ public class ArchiveDataBean implements Serializable {
     
     public static final int DATA_ENCODING_XML = 0;
     public static final int DATA_ENCODING_BASE64 = 1;
+    public static final int DATA_ENCODING_FILESTORE = 2;
 
     @Id
     private String uniqueId;
@@ -239,6 +245,8 @@ public class ArchiveDataBean implements Serializable {
 
         if (dataEncoding != null && dataEncoding == DATA_ENCODING_BASE64) {
             result = new ArchiveData(Base64.decode(getArchiveData().getBytes(StandardCharsets.UTF_8)));
+        } else if (dataEncoding != null && dataEncoding == DATA_ENCODING_FILESTORE) {
+            result = new ArchiveData(readFromFileStore());
         } else {
             SecureXMLDecoder decoder;
 
@@ -279,6 +287,19 @@ public class ArchiveDataBean implements Serializable {
         }
     }
 
+    /**
+     * @return the archived bytes from the file store
+     * @throws IOException if the file store is not configured or the content
+     * could not be read
+     */
+    private byte[] readFromFileStore() throws IOException {
+        final ContentAddressedFileStore store = ContentAddressedFileStore.getDefault();
+        if (store == null) {
+            throw new IOException("Archive file store not configured: " + ContentAddressedFileStore.LOCATION_PROPERTY);
+        }
+        return store.read(getArchiveData());
+    }
+
     /**
      * Method used to get the ArchiveDataVO representation of the data row.
      * 
@@ -292,6 +313,14 @@ public class ArchiveDataBean implements Serializable {
             return new ArchiveDataVO(getType(), getSignerid(), getArchiveid(), new Date(getTime()),
                 getRequestIssuerDN(), getRequestCertSerialnumber(), getRequestIP(),
                 Base64.decode(getArchiveData().getBytes(StandardCharsets.UTF_8)));
+        } else if (getDataEncoding() != null && getDataEncoding() == DATA_ENCODING_FILESTORE) {
+            try {
+                return new ArchiveDataVO(getType(), getSignerid(), getArchiveid(), new Date(getTime()),
+                    getRequestIssuerDN(), getRequestCertSerialnumber(), getRequestIP(),
+                    readFromFileStore());
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("Unable to read archive data", ex);
+            }
         } else {
             try {
                 return new ArchiveDataVO(getType(), getSignerid(), getArchiveid(), new Date(getTime()),
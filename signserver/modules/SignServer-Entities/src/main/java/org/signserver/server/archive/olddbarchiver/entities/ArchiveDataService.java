@@ -17,8 +17,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -26,8 +28,10 @@ import javax.persistence.Query;
 
 import org.apache.log4j.Logger;
 import org.cesecore.util.CertTools;
+import org.cesecore.util.query.Elem;
 import org.cesecore.util.query.QueryCriteria;
 import org.cesecore.util.query.QueryGenerator;
+import org.cesecore.util.query.clauses.Order;
 import org.signserver.common.ArchiveData;
 import org.signserver.common.ArchiveMetadata;
 
@@ -43,6 +47,10 @@ public class ArchiveDataService {
 
     /** Logger for this class. */
     private static final Logger LOG = Logger.getLogger(ArchiveDataService.class);
+
+    private static final String WHERE = "WHERE";
+    private static final String KEYSET_TIME = "keysetTime";
+    private static final String KEYSET_UNIQUE_ID = "keysetUniqueId";
     
     private final EntityManager em;
 
@@ -88,6 +96,29 @@ public class ArchiveDataService {
     
     public String create(int type, int signerId, String archiveid, X509Certificate clientCert,
             String requestIP, String archiveData) {
+        return create(type, signerId, archiveid, clientCert, requestIP, archiveData, ArchiveDataBean.DATA_ENCODING_BASE64);
+    }
+
+    /**
+     * Creates an archive entry for content stored in the
+     * ContentAddressedFileStore, with only the digest of the content in the
+     * database.
+     *
+     * @param type Archive type
+     * @param signerId Signer ID
+     * @param archiveid Archive ID
+     * @param clientCert Client certificate
+     * @param requestIP Request IP address
+     * @param contentDigest Hex encoded SHA-256 digest of the stored content
+     * @return Unique ID
+     */
+    public String createInFileStore(int type, int signerId, String archiveid, X509Certificate clientCert,
+            String requestIP, String contentDigest) {
+        return create(type, signerId, archiveid, clientCert, requestIP, contentDigest, ArchiveDataBean.DATA_ENCODING_FILESTORE);
+    }
+
+    private String create(int type, int signerId, String archiveid, X509Certificate clientCert,
+            String requestIP, String archiveData, int dataEncoding) {
         String uniqueId = type + ";" + signerId + ";" + archiveid;
         if (LOG.isDebugEnabled()) {
             LOG.debug("Creating archive data, uniqueId=" + uniqueId);
@@ -104,7 +135,7 @@ public class ArchiveDataService {
         }
         adb.setRequestIP(requestIP);
         adb.setArchiveData(archiveData);
-        adb.setDataEncoding(ArchiveDataBean.DATA_ENCODING_BASE64);
+        adb.setDataEncoding(dataEncoding);
  
         em.persist(adb);
         return uniqueId;
@@ -244,14 +275,87 @@ public class ArchiveDataService {
      * @param includeData If true, include archive data (could result in large result sets)
      * @return Collection of archive meta data entries
      */
-    @SuppressWarnings("unchecked")
     public List<ArchiveMetadata> findMatchingCriteria(int startIndex, int max,
             QueryCriteria criteria, boolean includeData) {
+        final QueryGenerator generator = QueryGenerator.generator(ArchiveDataBean.class, criteria, "a");
+        final String conditions = generator.generate();
+        final Map<String, Object> parameters = new HashMap<>();
+        for (final String key : generator.getParameterKeys()) {
+            parameters.put(key, generator.getParameterValue(key));
+        }
+        return findMatching(conditions, parameters, startIndex, max, includeData);
+    }
+
+    /**
+     * Find archive entries based on search query criterias, one page at a
+     * time using keyset pagination.
+     *
+     * Instead of skipping a number of entries, as with a start index, the
+     * query seeks past the time and unique ID of the last entry from the
+     * previous page. The cost of getting a page thereby does not grow with
+     * the number of entries before it, and entries added while paging do not
+     * shift the pages.
+     *
+     * The entries are always ordered by time and unique ID, any ordering in
+     * the criteria is ignored.
+     *
+     * @param afterTime Time of the last entry of the previous page or null
+     * to get the first page
+     * @param afterUniqueId Unique ID of the last entry of the previous page,
+     * required if afterTime is given
+     * @param max Maximum number of entries returned (0 means no limit)
+     * @param criteria Query criteria
+     * @param descending If true, the newest entries are returned first
+     * @param includeData If true, include archive data (could result in large result sets)
+     * @return Collection of archive meta data entries
+     */
+    public List<ArchiveMetadata> findMatchingCriteriaAfter(final Long afterTime,
+            final String afterUniqueId, final int max, final QueryCriteria criteria,
+            final boolean descending, final boolean includeData) {
+        if (afterTime != null && afterUniqueId == null) {
+            throw new IllegalArgumentException("Unique ID required together with time");
+        }
+
+        // Orderings are replaced and the terms are put within parenthesis
+        // as the generator does not add any around OR operations
+        final QueryCriteria terms = QueryCriteria.create();
+        for (final Elem elem : criteria.getElements()) {
+            if (!(elem instanceof Order)) {
+                terms.add(elem);
+            }
+        }
+        final QueryGenerator generator = QueryGenerator.generator(ArchiveDataBean.class, terms, "a");
+        final String generated = generator.generate().trim();
+        final Map<String, Object> parameters = new HashMap<>();
+        for (final String key : generator.getParameterKeys()) {
+            parameters.put(key, generator.getParameterValue(key));
+        }
+
+        final StringBuilder conditions = new StringBuilder();
+        if (!generated.isEmpty()) {
+            conditions.append(" WHERE (").append(generated.substring(WHERE.length()).trim()).append(")");
+        }
+        final String direction = descending ? " DESC" : " ASC";
+        if (afterTime != null) {
+            final String operator = descending ? " < " : " > ";
+            conditions.append(conditions.length() == 0 ? " WHERE " : " AND ")
+                    .append("(a.time").append(operator).append(":").append(KEYSET_TIME)
+                    .append(" OR (a.time = :").append(KEYSET_TIME)
+                    .append(" AND a.uniqueId").append(operator).append(":").append(KEYSET_UNIQUE_ID).append("))");
+            parameters.put(KEYSET_TIME, afterTime);
+            parameters.put(KEYSET_UNIQUE_ID, afterUniqueId);
+        }
+        conditions.append(" ORDER BY a.time").append(direction).append(", a.uniqueId").append(direction);
+
+        return findMatching(conditions.toString(), parameters, 0, max, includeData);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ArchiveMetadata> findMatching(final String conditions,
+            final Map<String, Object> parameters, final int startIndex,
+            final int max, final boolean includeData) {
         
         try {
-            final QueryGenerator generator = QueryGenerator.generator(ArchiveDataBean.class, criteria, "a");
-            final String conditions = generator.generate();
-            
             // TODO: couldn't get lazy fetching working for archiveData
             // so for now using a hand-written query and assemble ArchiveMetadataS
             // picking out the columns "by hand" in the includeData == false case
@@ -259,9 +363,8 @@ public class ArchiveDataService {
                     em.createQuery("SELECT a FROM ArchiveDataBean a " + conditions) :
                     em.createQuery("SELECT a.type, a.signerid, a.uniqueId, a.archiveid, a.time, a.requestIssuerDN, a.requestCertSerialnumber, a.requestIP FROM ArchiveDataBean a " + conditions);
             
-            for (final String key : generator.getParameterKeys()) {
-                final Object param = generator.getParameterValue(key);
-                query.setParameter(key, param);
+            for (final Map.Entry<String, Object> param : parameters.entrySet()) {
+                query.setParameter(param.getKey(), param.getValue());
             }
             
             if (startIndex > 0) {
@@ -43,6 +43,18 @@ public interface IKeyUsageCounterDataService {
      */
     boolean incrementIfWithinLimit(String keyHash, long limit);
 
+    /**
+     * Increase the value of the key usage counter by the given number of
+     * operations but only if the limit is not exceeded by doing so, in which
+     * case it instead just returns false and leaves the counter unchanged.
+     * @param keyHash Hash of the key
+     * @param limit The maximum number of operations
+     * @param count The number of operations to add
+     * @return True if the counter was increased or false if the limit would
+     * be exceeded or the counter not initialized
+     */
+    boolean incrementIfWithinLimit(String keyHash, long limit, long count);
+
     /**
      * Checks if the counter for the given key is within the given limit.
      * @param keyHash Hash of the key
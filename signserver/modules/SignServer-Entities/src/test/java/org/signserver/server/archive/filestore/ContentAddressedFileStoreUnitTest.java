@@ -0,0 +1,128 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.archive.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.Hex;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the ContentAddressedFileStore.
+ *
+ * @version $Id$
+ */
+public class ContentAddressedFileStoreUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ContentAddressedFileStoreUnitTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests storing and reading content and where it is stored.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testStoreAndRead() throws Exception {
+        LOG.info("testStoreAndRead");
+        final ContentAddressedFileStore instance = new ContentAddressedFileStore(folder.getRoot());
+        final byte[] content = "abc".getBytes(StandardCharsets.US_ASCII);
+
+        final String digest = instance.store(content);
+
+        assertEquals("SHA-256", "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", digest);
+        assertEquals("sharded", new File(folder.getRoot(), "ba/78/" + digest), instance.getFile(digest));
+        assertTrue("stored", instance.contains(digest));
+        assertArrayEquals("content", content, instance.read(digest));
+        assertEquals("no temporary files left", 0, new File(folder.getRoot(), "tmp").list().length);
+    }
+
+    /**
+     * Tests that identical content, also stored concurrently, is only
+     * stored once.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testDeduplication() throws Exception {
+        LOG.info("testDeduplication");
+        final ContentAddressedFileStore instance = new ContentAddressedFileStore(folder.getRoot());
+        final byte[] content = new byte[100000];
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(executor.submit(() -> instance.store(new ByteArrayInputStream(content))));
+            }
+            final String digest = instance.store(content);
+            for (Future<String> future : futures) {
+                assertEquals("same digest", digest, future.get());
+            }
+            assertEquals("one file", 1, instance.getFile(digest).getParentFile().list().length);
+            assertArrayEquals("content", content, instance.read(digest));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("no temporary files left", 0, new File(folder.getRoot(), "tmp").list().length);
+    }
+
+    /**
+     * Tests that modified or missing content and invalid digests are
+     * detected.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testInvalid() throws Exception {
+        LOG.info("testInvalid");
+        final ContentAddressedFileStore instance = new ContentAddressedFileStore(folder.getRoot());
+        final String digest = instance.store("original".getBytes(StandardCharsets.US_ASCII));
+        Files.write(instance.getFile(digest).toPath(), "modified".getBytes(StandardCharsets.US_ASCII));
+        try {
+            instance.read(digest);
+            fail("Should have detected modified content");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("does not match"));
+        }
+
+        try {
+            instance.read(Hex.toHexString(new byte[32]));
+            fail("Should not have found content");
+        } catch (FileNotFoundException expected) { // NOPMD
+            // OK
+        }
+
+        try {
+            instance.getFile("../../etc/passwd");
+            fail("Should not accept path");
+        } catch (IllegalArgumentException expected) { // NOPMD
+            // OK
+        }
+    }
+}
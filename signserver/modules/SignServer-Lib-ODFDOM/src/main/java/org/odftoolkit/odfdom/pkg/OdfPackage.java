@@ -39,6 +39,8 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -70,6 +72,7 @@ import org.odftoolkit.odfdom.pkg.manifest.Algorithm;
 import org.odftoolkit.odfdom.pkg.manifest.EncryptionData;
 import org.odftoolkit.odfdom.pkg.manifest.KeyDerivation;
 import org.odftoolkit.odfdom.pkg.manifest.OdfFileEntry;
+import org.openxml4j.util.RawCopyZipOutputStream;
 import org.w3c.dom.Document;
 import org.w3c.dom.ls.DOMImplementationLS;
 import org.w3c.dom.ls.LSOutput;
@@ -87,6 +90,11 @@ import org.xml.sax.XMLReader;
  * The OdfPackage will be created from an ODF document and represents a copy of 
  * the loaded document, where files can be inserted and deleted.
  * The changes take effect, when the OdfPackage is being made persistend by save().
+ *
+ * <p>A package loaded in lazy mode does not keep the entries read from the
+ * ODF document in memory. Only the changed entries are kept and when saving,
+ * the unchanged entries are copied with their compressed data from the
+ * loaded document instead of being inflated and deflated again.</p>
  */
 public class OdfPackage {
 
@@ -154,6 +162,7 @@ public class OdfPackage {
 
     private String mBaseURI;
     private Resolver mResolver;
+    private boolean mLazy;
 
     /**
      * This basically creates the ODFPackage as an empty Package.
@@ -212,6 +221,20 @@ public class OdfPackage {
         initialize(odfFile);
     }
 
+    /**
+     * Creates an OdfPackage from the OpenDocument provided by a File.
+     *
+     * @param odfFile - a file representing the ODF document
+     * @param lazy - true if entries should only be read from the file when
+     * needed and not be kept in memory
+     * @throws java.lang.Exception - if the package could not be created
+     */
+    private OdfPackage(File odfFile, boolean lazy) throws Exception {
+        this();
+        mLazy = lazy;
+        initialize(odfFile);
+    }
+
     /**
      * Creates an OdfPackage from the OpenDocument provided by a InputStream.
      *
@@ -265,6 +288,31 @@ public class OdfPackage {
         return new OdfPackage(odfFile);
     }
 
+    /**
+     * Loads an OdfPackage from the OpenDocument provided by a File,
+     * optionally in lazy mode.
+     *
+     * <p>In lazy mode entries are read from the file when needed and only
+     * changed entries are kept in memory. When saving, the unchanged entries
+     * are copied with their compressed data from the file. The file must be
+     * available for read access over the whole lifecycle of OdfPackage.</p>
+     *
+     * @param odfFile - a File to loadPackage content from
+     * @param lazy - true to load the package in lazy mode
+     * @return the OpenDocument document represented as an OdfPackage
+     * @throws java.lang.Exception - if the package could not be loaded
+     */
+    public static OdfPackage loadPackage(File odfFile, boolean lazy) throws Exception {
+        return new OdfPackage(odfFile, lazy);
+    }
+
+    /**
+     * @return true if the package was loaded in lazy mode
+     */
+    public boolean isLazy() {
+        return mLazy;
+    }
+
     /**
      * Creates an OdfPackage from the OpenDocument provided by a InputStream.
      *
@@ -446,6 +494,27 @@ public class OdfPackage {
         if (File.separatorChar == '\\') {
             baseURI = baseURI.replaceAll("\\\\", SLASH);
         }
+        if (mLazy && mZipFile != null && baseURI.equals(mBaseURI)) {
+            // save to the same file: write to a new file and replace the
+            // original one with it, so nothing has to be cached
+            File tempFile = File.createTempFile(odfFile.getName(), ".tmp", odfFile.getCanonicalFile().getParentFile());
+            try {
+                FileOutputStream tempStream = new FileOutputStream(tempFile);
+                try {
+                    save(tempStream, baseURI);
+                } finally {
+                    tempStream.close();
+                }
+                mZipFile.close();
+                Files.move(tempFile.toPath(), odfFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tempFile.delete();
+            }
+            mZipEntries.clear();
+            mPackageEntries.clear();
+            this.initialize(odfFile);
+            return;
+        }
         if (baseURI.equals(mBaseURI)) {
             // save to the same file: cache everything first
             // TODO: maybe it's better to write to a new file and copy that
@@ -497,7 +566,6 @@ public class OdfPackage {
             rootEntry.setMediaType(mMediaType);
         }
 
-        ZipOutputStream zos = new ZipOutputStream(odfStream);
         long modTime = (new java.util.Date()).getTime();
 
         // move manifest to first place to ensure it is written first
@@ -507,6 +575,13 @@ public class OdfPackage {
             mPackageEntries.add(0, OdfFile.MEDIA_TYPE.getPath());
         }
 
+        if (mLazy && mZipFile != null && saveLazy(odfStream, modTime)) {
+            odfStream.flush();
+            return;
+        }
+
+        ZipOutputStream zos = new ZipOutputStream(odfStream);
+
         Iterator<String> it = mPackageEntries.iterator();
         while (it.hasNext()) {
             String key = it.next();
@@ -546,6 +621,65 @@ public class OdfPackage {
         odfStream.flush();
     }
 
+    /**
+     * Save a package loaded in lazy mode. Unchanged entries are copied with
+     * their compressed data from the loaded file and only the changed
+     * entries are compressed.
+     *
+     * @return false if the loaded file can not be copied this way (ZIP64)
+     */
+    private boolean saveLazy(OutputStream odfStream, long modTime) throws Exception {
+        RawCopyZipOutputStream zos = RawCopyZipOutputStream.create(odfStream, new File(mZipFile.getName()));
+        if (zos == null) {
+            mLog.fine("Package uses ZIP64, saving without copying compressed data");
+            return false;
+        }
+        try {
+            for (String key : mPackageEntries) {
+                if (!isChanged(key) && zos.copyRawEntry(key)) {
+                    continue;
+                }
+                byte[] data = getBytes(key);
+                ZipEntry ze = new ZipEntry(key);
+                ze.setTime(modTime);
+                // 2DO Svante: No dependency to layer above!
+                if (data == null || key.equals(OdfPackage.OdfFile.MEDIA_TYPE.getPath()) || key.equals(OdfDocument.OdfXMLFile.META.getFileName())) {
+                    ze.setMethod(ZipEntry.STORED);
+                } else {
+                    ze.setMethod(ZipEntry.DEFLATED);
+                }
+                zos.putNextEntry(ze);
+                if (data != null) {
+                    zos.write(data, 0, data.length);
+                }
+                zos.closeEntry();
+            }
+            zos.close();
+        } catch (Exception e) {
+            zos.abort();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Check if an entry could differ from the one in the loaded file.
+     *
+     * @param packagePath of the entry
+     * @return true if the entry has been inserted, parsed or is generated
+     */
+    private boolean isChanged(String packagePath) {
+        return packagePath.equals(OdfPackage.OdfFile.MEDIA_TYPE.getPath())
+                || packagePath.equals(OdfPackage.OdfFile.MANIFEST.getPath())
+                || hasContent(packagePath);
+    }
+
+    private boolean hasContent(String packagePath) {
+        return mContentDoms.get(packagePath) != null
+                || mContentStreams.get(packagePath) != null
+                || mTempFiles.get(packagePath) != null;
+    }
+
     /**
      * If this file is saved to itself, we have to cache it. It is not possible
      * to read and write from the same zip file at the same time, so the content
@@ -1277,7 +1411,10 @@ public class OdfPackage {
                     StreamHelper.stream(inputStream, out);
                     data = out.toByteArray();
                     // store for further usage; do not care about manifest: that is handled exclusively
-                    mContentStreams.put(packagePath, data);
+                    // (in lazy mode it is read again from the file when needed)
+                    if (!mLazy) {
+                        mContentStreams.put(packagePath, data);
+                    }
                     if (!mPackageEntries.contains(packagePath))
                         mPackageEntries.add(packagePath);
                 }
@@ -1298,7 +1435,8 @@ public class OdfPackage {
 
         packagePath = ensureValidPackagePath(packagePath);
         ZipEntry entry = null;
-        if ((entry = mZipEntries.get(packagePath)) != null) {
+        // in lazy mode inserted content replaces the one in the loaded file
+        if ((entry = mZipEntries.get(packagePath)) != null && !(mLazy && hasContent(packagePath))) {
             return mZipFile.getInputStream(entry);
         }
         if (mPackageEntries.contains(packagePath) && mTempFiles.get(packagePath) != null) {
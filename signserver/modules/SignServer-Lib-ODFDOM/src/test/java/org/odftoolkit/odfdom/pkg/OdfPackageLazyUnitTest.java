@@ -0,0 +1,186 @@
+/************************************************************************
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * Copyright 2008 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2009 IBM. All rights reserved.
+ * 
+ * Use is subject to license terms.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0. You can also
+ * obtain a copy of the License at http://odftoolkit.org/docs/license.txt
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ************************************************************************/
+package org.odftoolkit.odfdom.pkg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.apache.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for saving an OdfPackage loaded in lazy mode.
+ *
+ * @version $Id$
+ */
+public class OdfPackageLazyUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(OdfPackageLazyUnitTest.class);
+
+    private static final String MEDIA_TYPE = "application/vnd.oasis.opendocument.text";
+    private static final String IMAGE = "Pictures/image.png";
+    private static final String SIGNATURES = "META-INF/documentsignatures.xml";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] image = new byte[300000];
+
+    private File createDocument() throws Exception {
+        // Partly compressible content
+        final Random random = new Random(4711);
+        for (int i = 0; i < image.length; i += 2) {
+            image[i] = (byte) random.nextInt(16);
+        }
+        final File file = folder.newFile("document.odt");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            final byte[] mimetype = MEDIA_TYPE.getBytes(StandardCharsets.US_ASCII);
+            final ZipEntry mimetypeEntry = new ZipEntry("mimetype");
+            mimetypeEntry.setMethod(ZipEntry.STORED);
+            mimetypeEntry.setSize(mimetype.length);
+            final CRC32 crc = new CRC32();
+            crc.update(mimetype);
+            mimetypeEntry.setCrc(crc.getValue());
+            out.putNextEntry(mimetypeEntry);
+            out.write(mimetype);
+
+            out.putNextEntry(new ZipEntry("content.xml"));
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><office:document-content xmlns:office=\"urn:oasis:names:tc:opendocument:xmlns:office:1.0\"/>".getBytes(StandardCharsets.UTF_8));
+
+            // Not the default level, so deflating again would give other data
+            out.setLevel(Deflater.BEST_SPEED);
+            out.putNextEntry(new ZipEntry(IMAGE));
+            out.write(image);
+            out.setLevel(Deflater.DEFAULT_COMPRESSION);
+
+            out.putNextEntry(new ZipEntry("META-INF/manifest.xml"));
+            out.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<manifest:manifest xmlns:manifest=\"urn:oasis:names:tc:opendocument:xmlns:manifest:1.0\">\n"
+                    + " <manifest:file-entry manifest:media-type=\"" + MEDIA_TYPE + "\" manifest:full-path=\"/\"/>\n"
+                    + " <manifest:file-entry manifest:media-type=\"text/xml\" manifest:full-path=\"content.xml\"/>\n"
+                    + " <manifest:file-entry manifest:media-type=\"image/png\" manifest:full-path=\"" + IMAGE + "\"/>\n"
+                    + "</manifest:manifest>").getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            StreamHelper.stream(in, out);
+        }
+        return out.toByteArray();
+    }
+
+    private void assertSaved(File saved, long imageCompressedSize) throws Exception {
+        try (ZipFile zip = new ZipFile(saved)) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            final ZipEntry first = entries.nextElement();
+            assertEquals("first entry", "mimetype", first.getName());
+            assertEquals("mimetype stored", ZipEntry.STORED, first.getMethod());
+            assertEquals("mimetype", MEDIA_TYPE, new String(read(zip, "mimetype"), StandardCharsets.US_ASCII));
+
+            final ZipEntry imageEntry = zip.getEntry(IMAGE);
+            assertEquals("copied as is", imageCompressedSize, imageEntry.getCompressedSize());
+            assertArrayEquals("image", image, read(zip, IMAGE));
+            assertEquals("inserted", "<signatures/>", new String(read(zip, SIGNATURES), StandardCharsets.UTF_8));
+            assertTrue("manifest", new String(read(zip, "META-INF/manifest.xml"), StandardCharsets.UTF_8).contains(SIGNATURES));
+        }
+    }
+
+    /**
+     * Tests that unchanged entries are copied with their compressed data and
+     * that inserted entries are included when saving to another file.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSaveLazy() throws Exception {
+        LOG.info("testSaveLazy");
+        final File file = createDocument();
+        final long imageCompressedSize;
+        try (ZipFile zip = new ZipFile(file)) {
+            imageCompressedSize = zip.getEntry(IMAGE).getCompressedSize();
+        }
+
+        final OdfPackage pkg = OdfPackage.loadPackage(file, true);
+        try {
+            assertTrue("lazy", pkg.isLazy());
+            assertArrayEquals("read from file", image, pkg.getBytes(IMAGE));
+            pkg.insert("<signatures/>".getBytes(StandardCharsets.UTF_8), SIGNATURES, "text/xml");
+            try (InputStream in = pkg.getInputStream(SIGNATURES)) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                StreamHelper.stream(in, out);
+                assertEquals("inserted content", "<signatures/>", new String(out.toByteArray(), StandardCharsets.UTF_8));
+            }
+
+            final File saved = folder.newFile("saved.odt");
+            try (FileOutputStream out = new FileOutputStream(saved)) {
+                pkg.save(out);
+            }
+            assertSaved(saved, imageCompressedSize);
+        } finally {
+            pkg.close();
+        }
+    }
+
+    /**
+     * Tests saving a package loaded in lazy mode to the file it was loaded
+     * from.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSaveLazyToSameFile() throws Exception {
+        LOG.info("testSaveLazyToSameFile");
+        final File file = createDocument();
+        final long imageCompressedSize;
+        try (ZipFile zip = new ZipFile(file)) {
+            imageCompressedSize = zip.getEntry(IMAGE).getCompressedSize();
+        }
+
+        final OdfPackage pkg = OdfPackage.loadPackage(file, true);
+        try {
+            pkg.insert("<signatures/>".getBytes(StandardCharsets.UTF_8), SIGNATURES, "text/xml");
+            pkg.save(file);
+            assertSaved(file, imageCompressedSize);
+            assertArrayEquals("still readable", image, pkg.getBytes(IMAGE));
+        } finally {
+            pkg.close();
+        }
+        assertEquals("no temporary files left", 1, folder.getRoot().list().length);
+    }
+}
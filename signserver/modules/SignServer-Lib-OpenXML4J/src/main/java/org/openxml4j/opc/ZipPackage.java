@@ -69,6 +69,7 @@ import org.openxml4j.opc.internal.marshallers.ZipPartMarshaller;
 import org.openxml4j.util.ZipEntrySource;
 import org.openxml4j.util.ZipFileZipEntrySource;
 import org.openxml4j.util.ZipInputStreamZipEntrySource;
+import org.openxml4j.util.RawCopyZipOutputStream;
 
 /**
  * Physical zip package.
@@ -394,21 +395,33 @@ public final class ZipPackage extends Package {
 	 * 
 	 * @param outputStream
 	 *            The stream use to save this package.
+	 * @throws IOException
+	 *             If unmodified parts could not be copied from the source
+	 *             file, as the output is then incomplete.
 	 * 
 	 * @see #save(OutputStream)
 	 * @see #saveInZip(ZipOutputStream)
 	 */
 	@Override
-	public void saveImpl(OutputStream outputStream) {
+	public void saveImpl(OutputStream outputStream) throws IOException {
 		// Check that the document was open in write mode
 		throwExceptionIfReadOnly();
 		ZipOutputStream zos = null;
 
 		try {
-			if (!(outputStream instanceof ZipOutputStream))
-				zos = new ZipOutputStream(outputStream);
-			else
+			if (outputStream instanceof ZipOutputStream) {
 				zos = (ZipOutputStream) outputStream;
+			} else if (this.zipArchive instanceof ZipFileZipEntrySource) {
+				// Unmodified parts are copied from the file without
+				// recompressing them
+				zos = RawCopyZipOutputStream.create(outputStream,
+						((ZipFileZipEntrySource) this.zipArchive).getFile());
+				if (zos == null) {
+					zos = new ZipOutputStream(outputStream);
+				}
+			} else {
+				zos = new ZipOutputStream(outputStream);
+			}
 
 			// If the core properties part does not exist in the part list,
 			// we save it as well
@@ -476,9 +489,34 @@ public final class ZipPackage extends Package {
 			logger
 					.error("Fail to save: an error occurs while saving the package : "
 							+ e.getMessage());
+			if (zos instanceof RawCopyZipOutputStream) {
+				try {
+					((RawCopyZipOutputStream) zos).abort();
+				} catch (IOException ioe) {
+					// Do nothing, the failure has been logged
+				}
+				// The output is incomplete, so the caller must know
+				final Throwable cause = e instanceof OpenXML4JException
+						&& e.getCause() != null ? e.getCause() : e;
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				throw new IOException("Fail to save the package: "
+						+ e.getMessage(), e);
+			}
 		}
 	}
 
+	/**
+	 * Check if the package was opened from a file, in which case its parts
+	 * are read from the file when needed instead of being held in memory.
+	 * 
+	 * @return <b>true</b> if the package is backed by a file.
+	 */
+	public boolean isFileBacked() {
+		return this.zipArchive instanceof ZipFileZipEntrySource;
+	}
+
 	/**
 	 * Get the zip archive
 	 * 
@@ -68,8 +68,10 @@ import org.openxml4j.opc.PackageRelationshipCollection;
 import org.openxml4j.opc.PackagingURIHelper;
 import org.openxml4j.opc.StreamHelper;
 import org.openxml4j.opc.TargetMode;
+import org.openxml4j.opc.ZipPackagePart;
 import org.openxml4j.opc.internal.PartMarshaller;
 import org.openxml4j.opc.internal.ZipHelper;
+import org.openxml4j.util.RawCopyZipOutputStream;
 
 /**
  * Zip part marshaller. This marshaller is use to save any part in a zip stream.
@@ -100,6 +102,14 @@ public class ZipPartMarshaller implements PartMarshaller {
 				.getZipItemNameFromOPCName(part.getPartName().getURI()
 						.getPath()));
 		try {
+			// An unmodified part is copied with its compressed data as is
+			if (part instanceof ZipPackagePart
+					&& zos instanceof RawCopyZipOutputStream
+					&& ((RawCopyZipOutputStream) zos).copyRawEntry(partEntry
+							.getName())) {
+				return marshallRelationships(part, zos);
+			}
+
 			// Create next zip entry
 			zos.putNextEntry(partEntry);
 
@@ -117,11 +127,21 @@ public class ZipPartMarshaller implements PartMarshaller {
 			}
 			zos.closeEntry();
 		} catch (IOException ioe) {
+			if (zos instanceof RawCopyZipOutputStream) {
+				// Failures copying from the source file are not recoverable
+				throw new OpenXML4JException("Cannot write: "
+						+ part.getPartName() + ": in ZIP", ioe);
+			}
 			logger.error("Cannot write: " + part.getPartName() + ": in ZIP",
 					ioe);
 			return false;
 		}
 
+		return marshallRelationships(part, zos);
+	}
+
+	private static boolean marshallRelationships(PackagePart part,
+			ZipOutputStream zos) throws OpenXML4JException {
 		// Saving relationship part
 		if (part.hasRelationships()) {
 			PackagePartName relationshipPartName = PackagingURIHelper
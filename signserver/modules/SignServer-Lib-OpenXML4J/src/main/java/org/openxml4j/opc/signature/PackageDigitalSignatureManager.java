@@ -45,7 +45,10 @@ package org.openxml4j.opc.signature;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.KeyException;
@@ -110,6 +113,7 @@ import org.openxml4j.opc.PackageRelationshipCollection;
 import org.openxml4j.opc.PackageRelationshipTypes;
 import org.openxml4j.opc.PackagingURIHelper;
 import org.openxml4j.opc.TargetMode;
+import org.openxml4j.opc.ZipPackage;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
@@ -134,6 +138,12 @@ public final class PackageDigitalSignatureManager {
 
 	private Package _container;
 
+	/**
+	 * Temporary file holding the normalized package when signing a package
+	 * backed by a file, or null.
+	 */
+	private File normalizedFile;
+
 	/**
 	 * Flag that indicates if the search for the origin has already be done for
 	 * speed up matter.
@@ -887,20 +897,11 @@ public final class PackageDigitalSignatureManager {
 		return signature.getSignedInfo().getReferences();
 	}
 
-	private void SignDocumentAllSignableItems(PrivateKey pSigningPrivateKey,
-			X509Certificate pSigningCertificate) throws OpenXML4JException {
-
-		if (this._container.getPackageAccess() != PackageAccess.READ_WRITE) {
-			throw new OpenXML4JException(
-					"To sign a document package must be open with read write package access");
-		}
-
-		// openxml4j formats document when writing parts to zip, which affects
-		// the signature (breaks it).
-		// TODO : talk to Julien why
-		// First "normalize" document by opening and saving, then reopen the
-		// saved document to sign.
-
+	/**
+	 * Normalize the container by saving it to memory and opening the saved
+	 * package.
+	 */
+	private void normalizeInMemory() throws OpenXML4JException {
 		// save output to package
 		ByteArrayOutputStream boutTemp = new ByteArrayOutputStream();
 		try {
@@ -923,6 +924,88 @@ public final class PackageDigitalSignatureManager {
 		} catch (IOException e) {
 			throw new OpenXML4JException("Error opening pre-formatted data", e);
 		}
+	}
+
+	/**
+	 * Normalize the container by saving it to a temporary file and opening
+	 * the saved package from the file. The file is removed by close().
+	 */
+	private void normalizeToFile() throws OpenXML4JException {
+		final File tempFile;
+		try {
+			tempFile = File.createTempFile("OpenXML4J", ".tmp");
+		} catch (IOException e) {
+			throw new OpenXML4JException(
+					"Error creating file for pre-formatted data", e);
+		}
+		try {
+			OutputStream out = new FileOutputStream(tempFile);
+			try {
+				_container.save(out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			tempFile.delete();
+			throw new OpenXML4JException(
+					"Error saving pre-formatted data to output", e);
+		}
+
+		// open saved docxpackage and sign
+		final Package previous = _container;
+		try {
+			_container = Package.open(tempFile.getAbsolutePath(),
+					PackageAccess.READ_WRITE);
+		} catch (InvalidFormatException e) {
+			tempFile.delete();
+			throw new OpenXML4JException(
+					"Pre-formatted data is not in valid openxml package format",
+					e);
+		}
+
+		// the container could already be a normalized one when signing again
+		if (normalizedFile != null) {
+			previous.revert();
+			normalizedFile.delete();
+		}
+		normalizedFile = tempFile;
+	}
+
+	/**
+	 * Release the temporary file used when signing a package backed by a
+	 * file. Should be called when done with the container, after it has been
+	 * saved.
+	 */
+	public void close() {
+		if (normalizedFile != null) {
+			_container.revert();
+			normalizedFile.delete();
+			normalizedFile = null;
+		}
+	}
+
+	private void SignDocumentAllSignableItems(PrivateKey pSigningPrivateKey,
+			X509Certificate pSigningCertificate) throws OpenXML4JException {
+
+		if (this._container.getPackageAccess() != PackageAccess.READ_WRITE) {
+			throw new OpenXML4JException(
+					"To sign a document package must be open with read write package access");
+		}
+
+		// openxml4j formats document when writing parts to zip, which affects
+		// the signature (breaks it).
+		// TODO : talk to Julien why
+		// First "normalize" document by opening and saving, then reopen the
+		// saved document to sign.
+
+		// A package backed by a file is normalized through a temporary file,
+		// so the parts don't have to be held in memory
+		if (_container instanceof ZipPackage
+				&& ((ZipPackage) _container).isFileBacked()) {
+			normalizeToFile();
+		} else {
+			normalizeInMemory();
+		}
 
 		// ensure origin part exists
 		ensureOriginPart();
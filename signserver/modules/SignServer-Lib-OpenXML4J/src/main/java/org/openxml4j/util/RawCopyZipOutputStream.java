@@ -0,0 +1,472 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== 
+
+ * Copyright (c) 2006, Wygwam
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met: 
+ * 
+ * - Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * - Neither the name of Wygwam nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES 
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, 
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openxml4j.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A ZipOutputStream that can copy entries of a source ZIP file with their
+ *  compressed data as is, without inflating and deflating them again.
+ * 
+ * Entries written the normal way with putNextEntry() are buffered in memory
+ *  until closeEntry(), so only small (modified) entries should be written
+ *  that way. ZIP64 is not supported: create() returns null for a source
+ *  file using it and writing fails if the result would need it.
+ */
+public class RawCopyZipOutputStream extends ZipOutputStream {
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+	private static final int MAX_ENTRIES = 0xFFFF;
+	private static final long MAX_SIZE = 0xFFFFFFFFL;
+	private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+	private static final int FLAG_UTF8 = 0x800;
+	private static final int VERSION_STORED = 10;
+	private static final int VERSION_DEFLATED = 20;
+	private static final int BUFFER_SIZE = 65536;
+
+	/**
+	 * Entry of the central directory of the source file.
+	 */
+	private static final class RawEntry {
+		private final byte[] name;
+		private final int version;
+		private final int flags;
+		private final int method;
+		private final long crc;
+		private final long compressedSize;
+		private final long size;
+		private final long localHeaderOffset;
+
+		private RawEntry(byte[] name, int version, int flags, int method,
+				long crc, long compressedSize, long size, long localHeaderOffset) {
+			this.name = name;
+			this.version = version;
+			this.flags = flags;
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+
+	private final FileChannel source;
+	private final Map<String, RawEntry> sourceEntries;
+	private final ByteArrayOutputStream central = new ByteArrayOutputStream();
+	private final ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE)
+			.order(ByteOrder.LITTLE_ENDIAN);
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private long offset;
+	private int count;
+	private int level = Deflater.DEFAULT_COMPRESSION;
+	private int defaultMethod = DEFLATED;
+	private boolean closed;
+
+	private ZipEntry current;
+	private final ByteArrayOutputStream currentData = new ByteArrayOutputStream();
+
+	private RawCopyZipOutputStream(OutputStream out, FileChannel source,
+			Map<String, RawEntry> sourceEntries) {
+		super(out);
+		this.source = source;
+		this.sourceEntries = sourceEntries;
+	}
+
+	/**
+	 * Creates a stream able to copy the entries of the given source file.
+	 * 
+	 * @param out
+	 *            The stream to write the ZIP file to.
+	 * @param sourceFile
+	 *            The ZIP file to copy entries from, kept open until this
+	 *            stream is closed.
+	 * @return The new stream, or <b>null</b> if the source file uses ZIP64.
+	 * @throws IOException
+	 *             If the source file could not be read or is not a ZIP file.
+	 */
+	public static RawCopyZipOutputStream create(OutputStream out,
+			File sourceFile) throws IOException {
+		FileChannel source = FileChannel.open(sourceFile.toPath(),
+				StandardOpenOption.READ);
+		try {
+			Map<String, RawEntry> entries = readEntries(source);
+			if (entries != null) {
+				return new RawCopyZipOutputStream(out, source, entries);
+			}
+		} catch (IOException e) {
+			source.close();
+			throw e;
+		}
+		source.close();
+		return null;
+	}
+
+	/**
+	 * Reads the central directory of a ZIP file.
+	 * 
+	 * @return The entries by name, or <b>null</b> if the file uses ZIP64.
+	 */
+	private static Map<String, RawEntry> readEntries(FileChannel source)
+			throws IOException {
+		final long fileSize = source.size();
+		final int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+		final ByteBuffer tail = read(source, fileSize - tailSize, tailSize);
+		int end = -1;
+		for (int i = tailSize - END_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new ZipException("End of central directory not found");
+		}
+		final int entries = tail.getShort(end + 10) & 0xFFFF;
+		final long centralSize = tail.getInt(end + 12) & MAX_SIZE;
+		final long centralOffset = tail.getInt(end + 16) & MAX_SIZE;
+		if (entries == MAX_ENTRIES || centralSize == MAX_SIZE
+				|| centralOffset == MAX_SIZE) {
+			return null;
+		}
+		if (centralOffset + centralSize > fileSize) {
+			throw new ZipException("Invalid central directory");
+		}
+
+		final ByteBuffer dir = read(source, centralOffset, (int) centralSize);
+		final Map<String, RawEntry> result = new HashMap<String, RawEntry>();
+		int pos = 0;
+		for (int i = 0; i < entries; i++) {
+			if (pos + CENTRAL_HEADER_SIZE > centralSize
+					|| dir.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid central directory entry");
+			}
+			final int nameLength = dir.getShort(pos + 28) & 0xFFFF;
+			final int extraLength = dir.getShort(pos + 30) & 0xFFFF;
+			final int commentLength = dir.getShort(pos + 32) & 0xFFFF;
+			final long compressedSize = dir.getInt(pos + 20) & MAX_SIZE;
+			final long size = dir.getInt(pos + 24) & MAX_SIZE;
+			final long localHeaderOffset = dir.getInt(pos + 42) & MAX_SIZE;
+			if (compressedSize == MAX_SIZE || size == MAX_SIZE
+					|| localHeaderOffset == MAX_SIZE) {
+				return null;
+			}
+			final byte[] name = new byte[nameLength];
+			dir.position(pos + CENTRAL_HEADER_SIZE);
+			dir.get(name);
+			result.put(new String(name, StandardCharsets.UTF_8), new RawEntry(
+					name, dir.getShort(pos + 6) & 0xFFFF,
+					dir.getShort(pos + 8) & 0xFFFF,
+					dir.getShort(pos + 10) & 0xFFFF,
+					dir.getInt(pos + 16) & MAX_SIZE, compressedSize, size,
+					localHeaderOffset));
+			pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+		return result;
+	}
+
+	/**
+	 * Copy an entry of the source file with its compressed data.
+	 * 
+	 * @param name
+	 *            The name of the entry in the source file.
+	 * @return <b>false</b> if the source file has no such entry.
+	 * @throws IOException
+	 *             If the entry could not be copied.
+	 */
+	public boolean copyRawEntry(String name) throws IOException {
+		final RawEntry entry = sourceEntries.get(name);
+		if (entry == null) {
+			return false;
+		}
+		closeEntry();
+
+		final ByteBuffer local = read(source, entry.localHeaderOffset,
+				LOCAL_HEADER_SIZE);
+		if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new ZipException("Invalid local header for entry " + name);
+		}
+		long position = entry.localHeaderOffset + LOCAL_HEADER_SIZE
+				+ (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+
+		// Sizes and CRC are known so the data descriptor is not used
+		final int flags = entry.flags & ~FLAG_DATA_DESCRIPTOR;
+		final int time = toDosTime(System.currentTimeMillis());
+		final long entryOffset = writeLocalHeader(entry.name, entry.version,
+				flags, entry.method, time, entry.crc, entry.compressedSize,
+				entry.size);
+
+		long remaining = entry.compressedSize;
+		final ByteBuffer buf = ByteBuffer.wrap(buffer);
+		while (remaining > 0) {
+			buf.clear();
+			buf.limit((int) Math.min(remaining, buffer.length));
+			final int read = source.read(buf, position);
+			if (read < 0) {
+				throw new ZipException("Unexpected end of entry " + name);
+			}
+			out.write(buffer, 0, read);
+			position += read;
+			remaining -= read;
+		}
+		offset += entry.compressedSize;
+
+		writeCentralHeader(entry.name, entry.version, flags, entry.method,
+				time, entry.crc, entry.compressedSize, entry.size, entryOffset);
+		return true;
+	}
+
+	@Override
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	@Override
+	public void setMethod(int method) {
+		this.defaultMethod = method;
+	}
+
+	@Override
+	public void putNextEntry(ZipEntry e) throws IOException {
+		closeEntry();
+		current = e;
+		currentData.reset();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (current == null) {
+			throw new ZipException("No current ZIP entry");
+		}
+		currentData.write(b, off, len);
+	}
+
+	@Override
+	public void closeEntry() throws IOException {
+		if (current == null) {
+			return;
+		}
+		final ZipEntry entry = current;
+		current = null;
+
+		final byte[] content = currentData.toByteArray();
+		currentData.reset();
+		final CRC32 crc = new CRC32();
+		crc.update(content);
+
+		final int method = entry.getMethod() == -1 ? defaultMethod : entry.getMethod();
+		byte[] data = content;
+		int version = VERSION_STORED;
+		if (method == DEFLATED) {
+			final Deflater deflater = new Deflater(level, true);
+			try {
+				final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+				final DeflaterOutputStream dout = new DeflaterOutputStream(bout, deflater);
+				dout.write(content);
+				dout.finish();
+				data = bout.toByteArray();
+			} finally {
+				deflater.end();
+			}
+			version = VERSION_DEFLATED;
+		}
+
+		final byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+		final long time = entry.getTime() == -1 ? System.currentTimeMillis() : entry.getTime();
+		final int dosTime = toDosTime(time);
+		final long entryOffset = writeLocalHeader(name, version, FLAG_UTF8,
+				method, dosTime, crc.getValue(), data.length, content.length);
+		out.write(data);
+		offset += data.length;
+		writeCentralHeader(name, version, FLAG_UTF8, method, dosTime,
+				crc.getValue(), data.length, content.length, entryOffset);
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (closed) {
+			return;
+		}
+		closeEntry();
+		closed = true;
+
+		final long centralOffset = offset;
+		final long centralSize = central.size();
+		if (count > MAX_ENTRIES || centralOffset + centralSize > MAX_SIZE) {
+			throw new ZipException("Package too large to be written without ZIP64");
+		}
+		central.writeTo(out);
+
+		final ByteBuffer end = ByteBuffer.allocate(END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		end.putInt(END_SIGNATURE);
+		end.putShort((short) 0);
+		end.putShort((short) 0);
+		end.putShort((short) count);
+		end.putShort((short) count);
+		end.putInt((int) centralSize);
+		end.putInt((int) centralOffset);
+		end.putShort((short) 0);
+		out.write(end.array());
+	}
+
+	/**
+	 * Release the source file after a failure, without finishing the ZIP
+	 *  file or closing the output stream.
+	 */
+	public void abort() throws IOException {
+		closed = true;
+		def.end();
+		source.close();
+	}
+
+	/**
+	 * Finish the ZIP file, close the output stream and the source file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+			out.close();
+		} finally {
+			def.end();
+			source.close();
+		}
+	}
+
+	private long writeLocalHeader(byte[] name, int version, int flags,
+			int method, int time, long crc, long compressedSize, long size)
+			throws IOException {
+		final long entryOffset = offset;
+		if (entryOffset + LOCAL_HEADER_SIZE + name.length + compressedSize > MAX_SIZE) {
+			throw new ZipException("Package too large to be written without ZIP64");
+		}
+		header.clear();
+		header.putInt(LOCAL_HEADER_SIGNATURE);
+		header.putShort((short) version);
+		header.putShort((short) flags);
+		header.putShort((short) method);
+		header.putInt(time);
+		header.putInt((int) crc);
+		header.putInt((int) compressedSize);
+		header.putInt((int) size);
+		header.putShort((short) name.length);
+		header.putShort((short) 0);
+		out.write(header.array(), 0, LOCAL_HEADER_SIZE);
+		out.write(name);
+		offset += LOCAL_HEADER_SIZE + name.length;
+		return entryOffset;
+	}
+
+	private void writeCentralHeader(byte[] name, int version, int flags,
+			int method, int time, long crc, long compressedSize, long size,
+			long entryOffset) throws IOException {
+		header.clear();
+		header.putInt(CENTRAL_HEADER_SIGNATURE);
+		header.putShort((short) version);
+		header.putShort((short) version);
+		header.putShort((short) flags);
+		header.putShort((short) method);
+		header.putInt(time);
+		header.putInt((int) crc);
+		header.putInt((int) compressedSize);
+		header.putInt((int) size);
+		header.putShort((short) name.length);
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putInt(0);
+		header.putInt((int) entryOffset);
+		central.write(header.array(), 0, CENTRAL_HEADER_SIZE);
+		central.write(name);
+		count++;
+	}
+
+	private static ByteBuffer read(FileChannel source, long position,
+			int length) throws IOException {
+		final ByteBuffer result = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (result.hasRemaining()) {
+			if (source.read(result, position + result.position()) < 0) {
+				throw new ZipException("Unexpected end of file");
+			}
+		}
+		result.flip();
+		return result;
+	}
+
+	private static int toDosTime(long time) {
+		final Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		final int year = c.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21
+				| c.get(Calendar.DAY_OF_MONTH) << 16
+				| c.get(Calendar.HOUR_OF_DAY) << 11
+				| c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+	}
+}
@@ -42,6 +42,7 @@
  */
 package org.openxml4j.util;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Enumeration;
@@ -71,4 +72,11 @@ public class ZipFileZipEntrySource implements ZipEntrySource {
 	public InputStream getInputStream(ZipEntry entry) throws IOException {
 		return zipArchive.getInputStream(entry);
 	}
+
+	/**
+	 * Returns the file on disk the ZipFile was opened from
+	 */
+	public File getFile() {
+		return new File(zipArchive.getName());
+	}
 }
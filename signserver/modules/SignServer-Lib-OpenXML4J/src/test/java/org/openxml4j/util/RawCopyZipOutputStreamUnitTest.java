@@ -0,0 +1,207 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== 
+
+ * Copyright (c) 2006, Wygwam
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met: 
+ * 
+ * - Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * - Neither the name of Wygwam nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES 
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, 
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.openxml4j.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.log4j.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openxml4j.opc.Package;
+import org.openxml4j.opc.PackageAccess;
+import org.openxml4j.opc.PackagingURIHelper;
+import org.openxml4j.opc.ZipPackage;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for saving a file backed package with the unmodified parts
+ * copied by RawCopyZipOutputStream.
+ *
+ * @version $Id$
+ */
+public class RawCopyZipOutputStreamUnitTest {
+
+	/** Logger for this class. */
+	private static final Logger LOG = Logger
+			.getLogger(RawCopyZipOutputStreamUnitTest.class);
+
+	private static final String IMAGE = "word/media/image1.bin";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static void put(ZipOutputStream zos, String name, byte[] data)
+			throws Exception {
+		zos.putNextEntry(new ZipEntry(name));
+		zos.write(data);
+		zos.closeEntry();
+	}
+
+	private File createPackage(byte[] image) throws Exception {
+		final File file = folder.newFile("in.docx");
+		try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(
+				file))) {
+			put(zos, "[Content_Types].xml", ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+					+ "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+					+ "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+					+ "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+					+ "<Default Extension=\"bin\" ContentType=\"application/octet-stream\"/>"
+					+ "<Override PartName=\"/docProps/core.xml\" ContentType=\"application/vnd.openxmlformats-package.core-properties+xml\"/>"
+					+ "</Types>").getBytes(StandardCharsets.UTF_8));
+			put(zos, "_rels/.rels", ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+					+ "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+					+ "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"word/document.xml\"/>"
+					+ "<Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/package/2006/relationships/metadata/core-properties\" Target=\"docProps/core.xml\"/>"
+					+ "</Relationships>").getBytes(StandardCharsets.UTF_8));
+			put(zos, "docProps/core.xml", ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+					+ "<cp:coreProperties xmlns:cp=\"http://schemas.openxmlformats.org/package/2006/metadata/core-properties\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+					+ "<dc:creator>test</dc:creator></cp:coreProperties>").getBytes(StandardCharsets.UTF_8));
+			put(zos, "word/document.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?><document/>"
+					.getBytes(StandardCharsets.UTF_8));
+			// Compressed with another level than used when saving, so that a
+			// recompressed entry would get another size
+			zos.setLevel(Deflater.BEST_SPEED);
+			put(zos, IMAGE, image);
+		}
+		return file;
+	}
+
+	private static byte[] read(ZipFile zip, String name) throws Exception {
+		try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+			final byte[] result = new byte[(int) zip.getEntry(name).getSize()];
+			int off = 0;
+			int n;
+			while (off < result.length
+					&& (n = in.read(result, off, result.length - off)) > 0) {
+				off += n;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Tests that an unmodified part keeps its compressed data and that the
+	 * saved package can be opened again.
+	 *
+	 * @throws Exception in case of error
+	 */
+	@Test
+	public void testSaveCopiesRaw() throws Exception {
+		LOG.info("testSaveCopiesRaw");
+		final byte[] image = new byte[200000];
+		final Random random = new Random(4711);
+		for (int i = 0; i < image.length; i++) {
+			image[i] = (byte) (random.nextInt(16) + 'a');
+		}
+		final File in = createPackage(image);
+		final File out = new File(folder.getRoot(), "out.docx");
+
+		final Package pkg = Package.open(in.getAbsolutePath(),
+				PackageAccess.READ_WRITE);
+		try {
+			assertTrue("file backed", ((ZipPackage) pkg).isFileBacked());
+			try (FileOutputStream fout = new FileOutputStream(out)) {
+				pkg.save(fout);
+			}
+		} finally {
+			pkg.revert();
+		}
+
+		try (ZipFile before = new ZipFile(in); ZipFile after = new ZipFile(out)) {
+			assertEquals("compressed size", before.getEntry(IMAGE)
+					.getCompressedSize(), after.getEntry(IMAGE)
+					.getCompressedSize());
+			assertEquals("crc", before.getEntry(IMAGE).getCrc(), after
+					.getEntry(IMAGE).getCrc());
+			assertArrayEquals("content", image, read(after, IMAGE));
+			assertNotNull("content types", after.getEntry("[Content_Types].xml"));
+		}
+
+		final Package reopened = Package.open(out.getAbsolutePath(),
+				PackageAccess.READ);
+		try {
+			assertNotNull("image part", reopened.getPart(PackagingURIHelper
+					.createPartName("/" + IMAGE)));
+		} finally {
+			reopened.revert();
+		}
+	}
+
+	/**
+	 * Tests that a package not backed by a file can still be saved.
+	 *
+	 * @throws Exception in case of error
+	 */
+	@Test
+	public void testSaveFromStream() throws Exception {
+		LOG.info("testSaveFromStream");
+		final byte[] image = "not compressible much".getBytes(StandardCharsets.UTF_8);
+		final File in = createPackage(image);
+		final File out = new File(folder.getRoot(), "out.docx");
+
+		final Package pkg;
+		try (InputStream fin = new FileInputStream(in)) {
+			pkg = Package.open(fin, PackageAccess.READ_WRITE);
+		}
+		assertFalse("file backed", ((ZipPackage) pkg).isFileBacked());
+		try (FileOutputStream fout = new FileOutputStream(out)) {
+			pkg.save(fout);
+		}
+
+		try (ZipFile after = new ZipFile(out)) {
+			assertArrayEquals("content", image, read(after, IMAGE));
+		}
+	}
+}
@@ -31,6 +31,7 @@ import java.security.interfaces.DSAPublicKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.PSSParameterSpec;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -47,6 +48,8 @@ import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.bouncycastle.util.encoders.Base64;
 import org.bouncycastle.util.encoders.Hex;
 import org.signserver.common.*;
+import org.signserver.common.data.BatchSignatureRequest;
+import org.signserver.common.data.BatchSignatureResponse;
 import org.signserver.common.data.ReadableData;
 import org.signserver.common.data.Request;
 import org.signserver.common.data.Response;
@@ -56,9 +59,12 @@ import org.signserver.common.data.WritableData;
 import org.signserver.server.IServices;
 import org.signserver.server.WorkerContext;
 import org.signserver.server.archive.Archivable;
+import org.signserver.server.archive.ByteArrayArchivable;
 import org.signserver.server.archive.DefaultArchivable;
 import org.signserver.server.cryptotokens.ICryptoInstance;
 import org.signserver.server.cryptotokens.ICryptoTokenV4;
+import org.signserver.server.data.impl.ByteArrayReadableData;
+import org.signserver.server.data.impl.CloseableReadableData;
 import org.signserver.server.data.impl.UploadUtil;
 import org.signserver.server.log.IWorkerLogger;
 import org.signserver.server.log.LogMap;
@@ -172,6 +178,10 @@ public class PlainSigner extends BaseSigner {
             final RequestContext requestContext) throws IllegalRequestException,
             CryptoTokenOfflineException, SignServerException {
 
+        if (signRequest instanceof BatchSignatureRequest) {
+            return processBatch((BatchSignatureRequest) signRequest, requestContext);
+        }
+
         // Log values
         final LogMap logMap = LogMap.getInstance(requestContext);
 
@@ -231,146 +241,146 @@ public class PlainSigner extends BaseSigner {
         ICryptoInstance crypto = null;
         try (OutputStream out = responseData.getAsInMemoryOutputStream()) {
             crypto = acquireCryptoInstance(ICryptoTokenV4.PURPOSE_SIGN, signRequest, requestContext);
-            // Get certificate chain and signer certificate
-            final List<Certificate> certs = this.getSigningCertificateChain(crypto);
-            if (certs == null) {
-                throw new IllegalArgumentException(
-                        "Null certificate chain. This signer needs a certificate.");
-            }
-
-            final Certificate cert = this.getSigningCertificate(crypto);
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("SigningCert: " + ((X509Certificate) cert).getSubjectDN());
-            }
-
-            // Private key
-            final PrivateKey privKey = crypto.getPrivateKey();
+            final Certificate cert = getCertificateForSigning(crypto);
 
             final String sigAlg = signatureAlgorithm == null ? getDefaultSignatureAlgorithm(cert.getPublicKey()) : signatureAlgorithm;
-            final String sigAlgUpperCase = sigAlg.toUpperCase(Locale.ENGLISH);
-            final byte[] signedbytes;
-
-            if (clientSideHelper.shouldUseClientSideHashing(requestContext)) {
-                String clientSideHashAlgorithm = clientSideHelper.getClientSideHashAlgorithmName(requestContext);
+            final String clientSideHashAlgorithm = clientSideHelper.shouldUseClientSideHashing(requestContext)
+                    ? clientSideHelper.getClientSideHashAlgorithmName(requestContext) : null;
 
-                // Special case as BC (ContentSignerBuilder) does not handle NONEwithRSA
-                final Signature signature = Signature.getInstance(sigAlg, crypto.getProvider());
+            final byte[] signedbytes = sign(requestData, crypto, sigAlg, clientSideHashAlgorithm);
 
-                final byte[] data = requestData.getAsByteArray();
-                final byte[] dataToSign;
-
-                // check that the digest is of the expected length
-                if (!HashDigestUtils.isSuppliedHashDigestLengthValid(clientSideHashAlgorithm,
-                                                                     data.length)) {
-                    throw new IllegalRequestException("Input length doesn't match hash digest algorithm specified through request metadata");
-                }
+            out.write(signedbytes);
 
-                if (sigAlgUpperCase.endsWith("ANDMGF1") || sigAlgUpperCase.endsWith("SSA-PSS")) {
-                    final Integer saltLength = HASH_ALGORITHM_AND_SALT_MAP.get(clientSideHashAlgorithm);
-                    if(saltLength == null) {
-                        throw new InvalidKeyException("Unsupported digest for PSS parameters: " + clientSideHashAlgorithm);
-                    }
-                    PSSParameterSpec params = new PSSParameterSpec(clientSideHashAlgorithm, "MGF1", new MGF1ParameterSpec(clientSideHashAlgorithm), saltLength, 1);
-                    signature.setParameter(params);
+            logMap.put(IWorkerLogger.LOG_RESPONSE_ENCODED, new Loggable() {
+                @Override
+                public String toString() {
+                    return Base64.toBase64String(signedbytes);
                 }
+            });
 
-                if (sigAlgUpperCase.equals("NONEWITHRSA")) {
-                    final byte[] modifierBytes =
-                            getModifierBytes(clientSideHashAlgorithm);
+            final Collection<? extends Archivable> archivables = Arrays.asList(
+                    new DefaultArchivable(Archivable.TYPE_REQUEST, CONTENT_TYPE, requestData, archiveId),
+                    new DefaultArchivable(Archivable.TYPE_RESPONSE, CONTENT_TYPE, responseData.toReadableData(), archiveId));
 
-                    if (modifierBytes == null) {
-                        throw new IllegalArgumentException("RSA padding unknown for hash algorithm: " +
-                                                           clientSideHashAlgorithm);
-                    }
+            // Suggest new file name
+            if (fileNameOriginal != null) {
+                requestContext.put(RequestContext.RESPONSE_FILENAME, fileNameOriginal + ".sig");
+            }
 
-                    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            // The client can be charged for the request
+            requestContext.setRequestFulfilledByWorker(true);
 
-                    baos.write(modifierBytes);
-                    baos.write(data);
+            return new SignatureResponse(sReq.getRequestID(),
+                        responseData, cert, archiveId,
+                        archivables,
+                        CONTENT_TYPE);
+        } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException | OperatorCreationException | InvalidAlgorithmParameterException ex) {
+            LOG.error("Error initializing signer", ex);
+            throw new SignServerException("Error initializing signer", ex);
+        } catch (IOException ex) {
+            throw new SignServerException("IO error", ex);
+        } finally {
+            releaseCryptoInstance(crypto, requestContext);
+        }
+    }
 
-                    dataToSign = baos.toByteArray();
-                } else {
-                    dataToSign = data;
-                }
-                
-                signature.initSign(privKey);
-                signature.update(dataToSign);
-                signedbytes = signature.sign();
-            } else {
-                try (final InputStream in = requestData.getAsInputStream()) {
-                    // Special case as BC (ContentSignerBuilder) does not handle NONEwithRSA
-                    if (sigAlgUpperCase.startsWith("NONEWITH")) { 
-                        // We need PSS params for this
-                        if (sigAlgUpperCase.endsWith("ANDMGF1") || sigAlgUpperCase.endsWith("SSA-PSS")) {
-                            throw new IllegalRequestException("NONEwithRSAandMGF1 is not supported without the request metadata properties for client-side hashing");
-                        }
+    /**
+     * Signs each item of the batch request in the same way as the request
+     * data of a single request, using one crypto instance for all items.
+     *
+     * The request digest and response are logged for each item, separated
+     * by ';', and each item is archived separately with an archive ID also
+     * including its index, so that identical items get different IDs.
+     *
+     * @param sReq the batch request
+     * @param requestContext of the request
+     * @return the response with one signature per item
+     * @throws IllegalRequestException in case of an invalid item
+     * @throws CryptoTokenOfflineException if the crypto token is offline
+     * @throws SignServerException in case of other errors
+     */
+    private Response processBatch(final BatchSignatureRequest sReq,
+            final RequestContext requestContext) throws IllegalRequestException,
+            CryptoTokenOfflineException, SignServerException {
+        final LogMap logMap = LogMap.getInstance(requestContext);
 
+        if (!configErrors.isEmpty()) {
+            throw new SignServerException("Worker is misconfigured");
+        }
 
-                        final Signature signature = Signature.getInstance(sigAlg, crypto.getProvider());
-                        signature.initSign(privKey);
+        final List<byte[]> items = sReq.getItems();
+        if (items == null || items.isEmpty()) {
+            throw new IllegalRequestException("No items in request");
+        }
 
-                        final byte[] buffer = new byte[4096];
-                        int n;
-                        while (-1 != (n = in.read(buffer))) {
-                            signature.update(buffer, 0, n);
-                        }
+        logMap.put(IWorkerLogger.LOG_REQUEST_DIGEST_ALGORITHM, new Loggable() {
+            @Override
+            public String toString() {
+                return logRequestDigestAlgorithm;
+            }
+        });
+        if (doLogRequestDigest) {
+            try {
+                final MessageDigest md = MessageDigest.getInstance(logRequestDigestAlgorithm, BouncyCastleProvider.PROVIDER_NAME);
+                final List<byte[]> requestDigests = new ArrayList<>(items.size());
+                for (byte[] item : items) {
+                    requestDigests.add(md.digest(item));
+                }
+                logMap.put(IWorkerLogger.LOG_REQUEST_DIGEST, new Loggable() {
+                    @Override
+                    public String toString() {
+                        return encodeAll(requestDigests, false);
+                    }
+                });
+            } catch (NoSuchAlgorithmException | NoSuchProviderException ex) {
+                LOG.error("Log digest algorithm not supported", ex);
+                throw new SignServerException("Log digest algorithm not supported", ex);
+            }
+        }
 
-                        signedbytes = signature.sign();
-                    } else {
-                        // Special handling to support the new Java names not handled by BC
-                        Map<String, String> algorithmNames = new HashMap<>();
-                        algorithmNames.put("SHA1withRSASSA-PSS".toUpperCase(Locale.ENGLISH), "SHA1withRSAandMGF1");
-                        algorithmNames.put("SHA224withRSASSA-PSS".toUpperCase(Locale.ENGLISH), "SHA224withRSAandMGF1");
-                        algorithmNames.put("SHA256withRSASSA-PSS".toUpperCase(Locale.ENGLISH), "SHA256withRSAandMGF1");
-                        algorithmNames.put("SHA384withRSASSA-PSS".toUpperCase(Locale.ENGLISH), "SHA384withRSAandMGF1");
-                        algorithmNames.put("SHA512withRSASSA-PSS".toUpperCase(Locale.ENGLISH), "SHA512withRSAandMGF1");
-
-                        String effectiveSigAlgName = algorithmNames.get(sigAlgUpperCase);
-                        if (effectiveSigAlgName == null) {
-                            effectiveSigAlgName = sigAlg;
-                        }
+        final String transactionId = (String) requestContext.get(RequestContext.TRANSACTION_ID);
+        final WritableData responseData = sReq.getResponseData();
+        final int[] lengths = new int[items.size()];
+        final List<byte[]> signatures = new ArrayList<>(items.size());
+        final List<Archivable> archivables = new ArrayList<>(2 * items.size());
 
-                        // Use BC for this as it supports the old algorithm names etc
-                        JcaContentSignerBuilder signerBuilder = new JcaContentSignerBuilder(effectiveSigAlgName);
-                        signerBuilder.setProvider(crypto.getProvider());
-                        ContentSigner signer = signerBuilder.build(privKey);
-
-                        try (OutputStream signerOut = signer.getOutputStream()) {
-                            final byte[] buffer = new byte[4096];
-                            int n;
-                            while (-1 != (n = in.read(buffer))) {
-                                signerOut.write(buffer, 0, n);
-                            }
-                        }
+        ICryptoInstance crypto = null;
+        try (OutputStream out = responseData.getAsInMemoryOutputStream()) {
+            crypto = acquireCryptoInstance(ICryptoTokenV4.PURPOSE_SIGN, sReq, requestContext);
+            final Certificate cert = getCertificateForSigning(crypto);
 
-                        signedbytes = signer.getSignature();
-                    }
+            final String sigAlg = signatureAlgorithm == null ? getDefaultSignatureAlgorithm(cert.getPublicKey()) : signatureAlgorithm;
+            final String clientSideHashAlgorithm = clientSideHelper.shouldUseClientSideHashing(requestContext)
+                    ? clientSideHelper.getClientSideHashAlgorithmName(requestContext) : null;
+
+            for (int i = 0; i < items.size(); i++) {
+                final byte[] item = items.get(i);
+                final byte[] signedbytes;
+                try (CloseableReadableData itemData = new ByteArrayReadableData(item, null)) {
+                    signedbytes = sign(itemData, crypto, sigAlg, clientSideHashAlgorithm);
                 }
-            }
+                out.write(signedbytes);
+                lengths[i] = signedbytes.length;
+                signatures.add(signedbytes);
 
-            out.write(signedbytes);
+                final String archiveId = createArchiveId(item, transactionId + ";" + i);
+                archivables.add(new ByteArrayArchivable(Archivable.TYPE_REQUEST, CONTENT_TYPE, item, archiveId));
+                archivables.add(new ByteArrayArchivable(Archivable.TYPE_RESPONSE, CONTENT_TYPE, signedbytes, archiveId));
+            }
 
             logMap.put(IWorkerLogger.LOG_RESPONSE_ENCODED, new Loggable() {
                 @Override
                 public String toString() {
-                    return Base64.toBase64String(signedbytes);
+                    return encodeAll(signatures, true);
                 }
             });
 
-            final Collection<? extends Archivable> archivables = Arrays.asList(
-                    new DefaultArchivable(Archivable.TYPE_REQUEST, CONTENT_TYPE, requestData, archiveId),
-                    new DefaultArchivable(Archivable.TYPE_RESPONSE, CONTENT_TYPE, responseData.toReadableData(), archiveId));
-
-            // Suggest new file name
-            if (fileNameOriginal != null) {
-                requestContext.put(RequestContext.RESPONSE_FILENAME, fileNameOriginal + ".sig");
-            }
-
             // The client can be charged for the request
             requestContext.setRequestFulfilledByWorker(true);
 
-            return new SignatureResponse(sReq.getRequestID(),
-                        responseData, cert, archiveId,
+            return new BatchSignatureResponse(sReq.getRequestID(),
+                        responseData, lengths, cert,
+                        createArchiveId(new byte[0], transactionId),
                         archivables,
                         CONTENT_TYPE);
         } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException | OperatorCreationException | InvalidAlgorithmParameterException ex) {
@@ -383,6 +393,166 @@ public class PlainSigner extends BaseSigner {
         }
     }
 
+    /**
+     * Gets the signer certificate after checking that there is a certificate
+     * chain.
+     *
+     * @param crypto instance to get the certificate for
+     * @return the signer certificate
+     * @throws CryptoTokenOfflineException if the crypto token is offline
+     */
+    private Certificate getCertificateForSigning(final ICryptoInstance crypto)
+            throws CryptoTokenOfflineException {
+        // Get certificate chain and signer certificate
+        final List<Certificate> certs = this.getSigningCertificateChain(crypto);
+        if (certs == null) {
+            throw new IllegalArgumentException(
+                    "Null certificate chain. This signer needs a certificate.");
+        }
+
+        final Certificate cert = this.getSigningCertificate(crypto);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("SigningCert: " + ((X509Certificate) cert).getSubjectDN());
+        }
+        return cert;
+    }
+
+    /**
+     * Creates the plain signature of the data.
+     *
+     * @param requestData data to sign, or the hash of it in case of
+     * client-side hashing
+     * @param crypto instance with the private key
+     * @param sigAlg signature algorithm
+     * @param clientSideHashAlgorithm hash algorithm used by the client or
+     * null if not using client-side hashing
+     * @return the signature
+     */
+    private byte[] sign(final ReadableData requestData, final ICryptoInstance crypto,
+            final String sigAlg, final String clientSideHashAlgorithm)
+            throws IllegalRequestException, NoSuchAlgorithmException,
+                InvalidKeyException, SignatureException, OperatorCreationException,
+                InvalidAlgorithmParameterException, IOException {
+        // Private key
+        final PrivateKey privKey = crypto.getPrivateKey();
+
+        final String sigAlgUpperCase = sigAlg.toUpperCase(Locale.ENGLISH);
+        final byte[] signedbytes;
+
+        if (clientSideHashAlgorithm != null) {
+            // Special case as BC (ContentSignerBuilder) does not handle NONEwithRSA
+            final Signature signature = Signature.getInstance(sigAlg, crypto.getProvider());
+
+            final byte[] data = requestData.getAsByteArray();
+            final byte[] dataToSign;
+
+            // check that the digest is of the expected length
+            if (!HashDigestUtils.isSuppliedHashDigestLengthValid(clientSideHashAlgorithm,
+                                                                 data.length)) {
+                throw new IllegalRequestException("Input length doesn't match hash digest algorithm specified through request metadata");
+            }
+
+            if (sigAlgUpperCase.endsWith("ANDMGF1") || sigAlgUpperCase.endsWith("SSA-PSS")) {
+                final Integer saltLength = HASH_ALGORITHM_AND_SALT_MAP.get(clientSideHashAlgorithm);
+                if(saltLength == null) {
+                    throw new InvalidKeyException("Unsupported digest for PSS parameters: " + clientSideHashAlgorithm);
+                }
+                PSSParameterSpec params = new PSSParameterSpec(clientSideHashAlgorithm, "MGF1", new MGF1ParameterSpec(clientSideHashAlgorithm), saltLength, 1);
+                signature.setParameter(params);
+            }
+
+            if (sigAlgUpperCase.equals("NONEWITHRSA")) {
+                final byte[] modifierBytes =
+                        getModifierBytes(clientSideHashAlgorithm);
+
+                if (modifierBytes == null) {
+                    throw new IllegalArgumentException("RSA padding unknown for hash algorithm: " +
+                                                       clientSideHashAlgorithm);
+                }
+
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+                baos.write(modifierBytes);
+                baos.write(data);
+
+                dataToSign = baos.toByteArray();
+            } else {
+                dataToSign = data;
+            }
+            
+            signature.initSign(privKey);
+            signature.update(dataToSign);
+            signedbytes = signature.sign();
+        } else {
+            try (final InputStream in = requestData.getAsInputStream()) {
+                // Special case as BC (ContentSignerBuilder) does not handle NONEwithRSA
+                if (sigAlgUpperCase.startsWith("NONEWITH")) { 
+                    // We need PSS params for this
+                    if (sigAlgUpperCase.endsWith("ANDMGF1") || sigAlgUpperCase.endsWith("SSA-PSS")) {
+                        throw new IllegalRequestException("NONEwithRSAandMGF1 is not supported without the request metadata properties for client-side hashing");
+                    }
+
+
+                    final Signature signature = Signature.getInstance(sigAlg, crypto.getProvider());
+                    signature.initSign(privKey);
+
+                    final byte[] buffer = new byte[4096];
+                    int n;
+                    while (-1 != (n = in.read(buffer))) {
+                        signature.update(buffer, 0, n);
+                    }
+
+                    signedbytes = signature.sign();
+                } else {
+                    // Special handling to support the new Java names not handled by BC
+                    Map<String, String> algorithmNames = new HashMap<>();
+                    algorithmNames.put("SHA1withRSASSA-PSS".toUpperCase(Locale.ENGLISH), "SHA1withRSAandMGF1");
+                    algorithmNames.put("SHA224withRSASSA-PSS".toUpperCase(Locale.ENGLISH), "SHA224withRSAandMGF1");
+                    algorithmNames.put("SHA256withRSASSA-PSS".toUpperCase(Locale.ENGLISH), "SHA256withRSAandMGF1");
+                    algorithmNames.put("SHA384withRSASSA-PSS".toUpperCase(Locale.ENGLISH), "SHA384withRSAandMGF1");
+                    algorithmNames.put("SHA512withRSASSA-PSS".toUpperCase(Locale.ENGLISH), "SHA512withRSAandMGF1");
+
+                    String effectiveSigAlgName = algorithmNames.get(sigAlgUpperCase);
+                    if (effectiveSigAlgName == null) {
+                        effectiveSigAlgName = sigAlg;
+                    }
+
+                    // Use BC for this as it supports the old algorithm names etc
+                    JcaContentSignerBuilder signerBuilder = new JcaContentSignerBuilder(effectiveSigAlgName);
+                    signerBuilder.setProvider(crypto.getProvider());
+                    ContentSigner signer = signerBuilder.build(privKey);
+
+                    try (OutputStream signerOut = signer.getOutputStream()) {
+                        final byte[] buffer = new byte[4096];
+                        int n;
+                        while (-1 != (n = in.read(buffer))) {
+                            signerOut.write(buffer, 0, n);
+                        }
+                    }
+
+                    signedbytes = signer.getSignature();
+                }
+            }
+        }
+        return signedbytes;
+    }
+
+    /**
+     * @param values to encode
+     * @param base64 true for Base64, false for hex encoding
+     * @return the encoded values separated by ';'
+     */
+    private static String encodeAll(final List<byte[]> values, final boolean base64) {
+        final StringBuilder sb = new StringBuilder();
+        for (byte[] value : values) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(base64 ? Base64.toBase64String(value) : Hex.toHexString(value));
+        }
+        return sb.toString();
+    }
+
     /**
      * Get PKCS1 v1.5 padding bytes for RSA
      *
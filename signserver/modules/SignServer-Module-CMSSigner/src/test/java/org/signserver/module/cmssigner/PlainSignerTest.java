@@ -24,8 +24,12 @@ import java.security.Signature;
 import java.security.SignatureException;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import static junit.framework.TestCase.assertTrue;
 import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
@@ -47,6 +51,9 @@ import org.signserver.common.RequestContext;
 import org.signserver.common.RequestMetadata;
 import org.signserver.common.WorkerConfig;
 import org.signserver.common.WorkerType;
+import org.signserver.common.data.BatchSignatureRequest;
+import org.signserver.common.data.BatchSignatureResponse;
+import org.signserver.server.archive.Archivable;
 import org.signserver.common.data.SignatureRequest;
 import org.signserver.common.data.SignatureResponse;
 import org.signserver.server.SignServerContext;
@@ -911,5 +918,110 @@ public class PlainSignerTest {
         SimplifiedResponse resp = sign(hash, tokenRSA, config, context);
         assertSignedAndVerifiable(plainText, "SHA384withRSAandMGF1", tokenRSA, resp);
     }
+
+    /**
+     * Tests that each hash in a batch request is signed, in order, with
+     * one signature per hash and that each item is archived and logged.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatchSigning_clientSide() throws Exception {
+        LOG.info("testBatchSigning_clientSide");
+        final List<byte[]> plainTexts = new ArrayList<>();
+        final List<byte[]> hashes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final byte[] plainText = ("some-data-" + i).getBytes("ASCII");
+            plainTexts.add(plainText);
+            hashes.add(MessageDigest.getInstance("SHA-256").digest(plainText));
+        }
+
+        final RequestContext context = new RequestContext();
+        RequestMetadata.getInstance(context).put("USING_CLIENTSUPPLIED_HASH", "true");
+        RequestMetadata.getInstance(context).put("CLIENTSIDE_HASHDIGESTALGORITHM", "SHA-256");
+        context.put(RequestContext.TRANSACTION_ID, "0000-100-1");
+
+        final MockedPlainSigner instance = new MockedPlainSigner(tokenRSA);
+        instance.init(1, createConfig("NONEwithRSA", null, null, true, "SHA-256"), new SignServerContext(), null);
+
+        try (CloseableWritableData responseData = ModulesTestCase.createResponseData(false)) {
+            final BatchSignatureResponse response = (BatchSignatureResponse) instance.processData(
+                    new BatchSignatureRequest(100, hashes, responseData), context);
+            assertEquals("items", 10, response.getItemCount());
+            assertEquals("archivables", 20, response.getArchivables().size());
+
+            final byte[] all = responseData.toReadableData().getAsByteArray();
+            int offset = 0;
+            for (int i = 0; i < hashes.size(); i++) {
+                final int length = response.getSignatureLengths()[i];
+                final SimplifiedResponse resp = new SimplifiedResponse(
+                        Arrays.copyOfRange(all, offset, offset + length), response.getSignerCertificate());
+                assertSignedAndVerifiable(plainTexts.get(i), "SHA256withRSA", tokenRSA, resp);
+                offset += length;
+            }
+            assertEquals("all data used", all.length, offset);
+        }
+        assertEquals("logged digests", 10,
+                String.valueOf(LogMap.getInstance(context).get("REQUEST_DIGEST")).split(";").length);
+    }
+
+    /**
+     * Tests that identical items in a batch request are archived with
+     * different archive IDs.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatchSigning_identicalItems() throws Exception {
+        LOG.info("testBatchSigning_identicalItems");
+        final byte[] hash = MessageDigest.getInstance("SHA-256").digest("some-data".getBytes("ASCII"));
+        final List<byte[]> hashes = Arrays.asList(hash, hash.clone());
+
+        final RequestContext context = new RequestContext();
+        RequestMetadata.getInstance(context).put("USING_CLIENTSUPPLIED_HASH", "true");
+        RequestMetadata.getInstance(context).put("CLIENTSIDE_HASHDIGESTALGORITHM", "SHA-256");
+        context.put(RequestContext.TRANSACTION_ID, "0000-101-1");
+
+        final MockedPlainSigner instance = new MockedPlainSigner(tokenRSA);
+        instance.init(1, createConfig("NONEwithRSA", null, null, true, "SHA-256"), new SignServerContext(), null);
+
+        try (CloseableWritableData responseData = ModulesTestCase.createResponseData(false)) {
+            final BatchSignatureResponse response = (BatchSignatureResponse) instance.processData(
+                    new BatchSignatureRequest(101, hashes, responseData), context);
+            final Set<String> archiveIds = new HashSet<>();
+            for (Archivable archivable : response.getArchivables()) {
+                if (Archivable.TYPE_REQUEST.equals(archivable.getType())) {
+                    archiveIds.add(archivable.getArchiveId());
+                }
+            }
+            assertEquals("archive IDs: " + archiveIds, 2, archiveIds.size());
+        }
+    }
+
+    /**
+     * Tests that a batch request with a hash of wrong length fails.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatchSigning_wrongHashLength() throws Exception {
+        LOG.info("testBatchSigning_wrongHashLength");
+        final List<byte[]> hashes = Arrays.asList(new byte[32], new byte[20]);
+
+        final RequestContext context = new RequestContext();
+        RequestMetadata.getInstance(context).put("USING_CLIENTSUPPLIED_HASH", "true");
+        RequestMetadata.getInstance(context).put("CLIENTSIDE_HASHDIGESTALGORITHM", "SHA-256");
+        context.put(RequestContext.TRANSACTION_ID, "0000-100-1");
+
+        final MockedPlainSigner instance = new MockedPlainSigner(tokenRSA);
+        instance.init(1, createConfig("NONEwithRSA", null, null, true, "SHA-256"), new SignServerContext(), null);
+
+        try (CloseableWritableData responseData = ModulesTestCase.createResponseData(false)) {
+            instance.processData(new BatchSignatureRequest(100, hashes, responseData), context);
+            fail("Should have thrown IllegalRequestException");
+        } catch (IllegalRequestException expected) { // NOPMD
+            // OK
+        }
+    }
     
 }
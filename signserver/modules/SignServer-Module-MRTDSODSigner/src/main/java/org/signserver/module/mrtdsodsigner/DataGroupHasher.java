@@ -0,0 +1,196 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.module.mrtdsodsigner;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.log4j.Logger;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.signserver.common.SignServerException;
+
+/**
+ * Computes the hashes of the data groups of one or more documents.
+ *
+ * The MessageDigest instances are re-used by each thread instead of created
+ * for every data group. When an executor service is given and there is
+ * enough data the data groups of all documents are split between up to one
+ * task per processor, with the calling thread hashing its share as well.
+ *
+ * Instances are thread-safe.
+ *
+ * @version $Id$
+ */
+class DataGroupHasher {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(DataGroupHasher.class);
+
+    /** Least number of bytes to hash before using more than one thread. */
+    static final long MIN_PARALLEL_BYTES = 256 * 1024;
+
+    /** Maximum number of threads hashing the data groups of one call. */
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private final String algorithm;
+    private final ThreadLocal<MessageDigest> digests;
+
+    /**
+     * Creates an instance for the given algorithm.
+     *
+     * @param algorithm digest algorithm to use
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     * @throws NoSuchProviderException if BC is not installed
+     */
+    DataGroupHasher(final String algorithm) throws NoSuchAlgorithmException, NoSuchProviderException {
+        this.algorithm = algorithm;
+
+        // Fail early if not supported
+        final MessageDigest first = MessageDigest.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME);
+        this.digests = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME);
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        this.digests.set(first);
+    }
+
+    /**
+     * @return the digest algorithm
+     */
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Hashes the data groups of one document. Data groups without a value
+     * are left out.
+     *
+     * @param dataGroups values of the data groups
+     * @return the hashes of the data groups
+     * @throws SignServerException if the hashing failed or was interrupted
+     */
+    Map<Integer, byte[]> hash(final Map<Integer, byte[]> dataGroups) throws SignServerException {
+        final List<Map<Integer, byte[]>> documents = new ArrayList<>(1);
+        documents.add(dataGroups);
+        return hashAll(documents, null).get(0);
+    }
+
+    /**
+     * Hashes the data groups of a number of documents. Data groups without a
+     * value are left out.
+     *
+     * @param documents values of the data groups for each document
+     * @param executor to hash in parallel with or null to only use the
+     * calling thread
+     * @return the hashes of the data groups for each document, in the same
+     * order
+     * @throws SignServerException if the hashing failed or was interrupted
+     */
+    List<Map<Integer, byte[]>> hashAll(final List<Map<Integer, byte[]>> documents,
+            final ExecutorService executor) throws SignServerException {
+        final List<byte[]> values = new ArrayList<>();
+        final List<Integer> ids = new ArrayList<>();
+        final int[] counts = new int[documents.size()];
+        long total = 0;
+        for (int d = 0; d < counts.length; d++) {
+            for (Map.Entry<Integer, byte[]> entry : documents.get(d).entrySet()) {
+                final byte[] value = entry.getValue();
+                if (value != null && value.length > 0) {
+                    values.add(value);
+                    ids.add(entry.getKey());
+                    counts[d]++;
+                    total += value.length;
+                }
+            }
+        }
+
+        final byte[][] hashes = new byte[values.size()][];
+        final int tasks = executor == null || total < MIN_PARALLEL_BYTES
+                ? 1 : Math.max(1, Math.min(PARALLELISM, hashes.length));
+        final List<Future<?>> futures = new ArrayList<>(tasks - 1);
+        boolean done = false;
+        try {
+            for (int t = 1; t < tasks; t++) {
+                final int first = t;
+                try {
+                    futures.add(executor.submit(() -> hashEvery(values, hashes, first, tasks)));
+                } catch (RejectedExecutionException ex) {
+                    LOG.debug("Hashing in the calling thread as no more tasks accepted");
+                    hashEvery(values, hashes, first, tasks);
+                }
+            }
+            hashEvery(values, hashes, 0, tasks);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            done = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SignServerException("Interrupted while hashing data groups", ex);
+        } catch (ExecutionException ex) {
+            throw new SignServerException("Hashing of data groups failed", ex.getCause());
+        } finally {
+            if (!done) {
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Hashed " + hashes.length + " data groups of " + counts.length
+                    + " documents, " + total + " bytes, using " + algorithm
+                    + " in " + tasks + " threads");
+        }
+
+        final List<Map<Integer, byte[]>> result = new ArrayList<>(counts.length);
+        int next = 0;
+        for (int count : counts) {
+            final Map<Integer, byte[]> document = new HashMap<>(16);
+            for (int i = 0; i < count; i++, next++) {
+                document.put(ids.get(next), hashes[next]);
+            }
+            result.add(document);
+        }
+        return result;
+    }
+
+    /**
+     * Hashes every n:th value starting with the given one, using the digest
+     * of the current thread.
+     *
+     * @param values to hash
+     * @param hashes to put the result in, at the same index as the value
+     * @param first index of the first value to hash
+     * @param step number of values to skip to the next one
+     */
+    private void hashEvery(final List<byte[]> values, final byte[][] hashes,
+            final int first, final int step) {
+        final MessageDigest md = digests.get();
+        for (int i = first; i < hashes.length; i += step) {
+            hashes[i] = md.digest(values.get(i));
+        }
+    }
+}
@@ -23,13 +23,17 @@ import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.persistence.EntityManager;
 
 import org.apache.commons.lang.StringUtils;
@@ -41,6 +45,8 @@ import org.cesecore.util.CertTools;
 import org.signserver.common.*;
 import org.signserver.common.data.Request;
 import org.signserver.common.data.Response;
+import org.signserver.common.data.SODBatchRequest;
+import org.signserver.common.data.SODBatchResponse;
 import org.signserver.common.data.SODRequest;
 import org.signserver.common.data.SODResponse;
 import org.signserver.common.data.WritableData;
@@ -105,9 +111,18 @@ public class MRTDSODSigner extends BaseSigner {
     private static final String PROPERTY_UNICODEVERSION = "UNICODEVERSION";
     
     private static final Object syncObj = new Object();
+
+    /** JNDI name of the executor service used for hashing in parallel. */
+    private static final String EXECUTOR_SERVICE_NAME = "java:comp/DefaultManagedExecutorService";
     
     private List<String> configErrors;
 
+    /** Hasher for the data groups, kept to re-use its digest instances. */
+    private volatile DataGroupHasher hasher;
+
+    private volatile ExecutorService executorService;
+    private volatile boolean executorServiceUnavailable;
+
     @Override
     public void init(int workerId, WorkerConfig config,
             WorkerContext workerContext, EntityManager workerEM) {
@@ -127,15 +142,40 @@ public class MRTDSODSigner extends BaseSigner {
         }
 
         // Check that the request contains a valid SODSignRequest object.
-        if (!(signRequest instanceof SODRequest)) {
+        if (!(signRequest instanceof SODRequest) && !(signRequest instanceof SODBatchRequest)) {
             throw new IllegalRequestException("Received request wasn't an expected SODSignRequest.");
         }
         
          if (!configErrors.isEmpty()) {
             throw new SignServerException("Worker is misconfigured");
         }
-        
-        final SODRequest sodRequest = (SODRequest) signRequest;
+
+        final int requestId;
+        final List<Map<Integer, byte[]>> documents;
+        final String ldsVersionRequest;
+        final String unicodeVersionRequest;
+        final WritableData responseData;
+        if (signRequest instanceof SODBatchRequest) {
+            final SODBatchRequest batchRequest = (SODBatchRequest) signRequest;
+            requestId = batchRequest.getRequestID();
+            documents = batchRequest.getDocuments();
+            ldsVersionRequest = batchRequest.getLdsVersion();
+            unicodeVersionRequest = batchRequest.getUnicodeVersion();
+            responseData = batchRequest.getResponseData();
+            if (documents == null || documents.isEmpty()) {
+                throw new IllegalRequestException("No documents in request");
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Batch request with " + documents.size() + " documents");
+            }
+        } else {
+            final SODRequest sodRequest = (SODRequest) signRequest;
+            requestId = sodRequest.getRequestID();
+            documents = Collections.singletonList(sodRequest.getDataGroupHashes());
+            ldsVersionRequest = sodRequest.getLdsVersion();
+            unicodeVersionRequest = sodRequest.getUnicodeVersion();
+            responseData = sodRequest.getResponseData();
+        }
 
         final IServices services = requestContext.getServices();
         final ICryptoTokenV4 token = getCryptoToken(services);
@@ -166,9 +206,8 @@ public class MRTDSODSigner extends BaseSigner {
             }
         }
 
-        // Construct SOD
-        final WritableData responseData = sodRequest.getResponseData();
-        final SODFile sod;
+        // Construct SODs
+        final List<SODFile> sods = new ArrayList<>(documents.size());
         final X509Certificate cert;
         final List<Certificate> certChain;
         ICryptoInstance crypto = null;
@@ -196,39 +235,23 @@ public class MRTDSODSigner extends BaseSigner {
                 log.debug("Using algorithms " + digestAlgorithm + ", " + digestEncryptionAlgorithm);
             }
             final String doHashing = config.getProperty(PROPERTY_DODATAGROUPHASHING, DEFAULT_DODATAGROUPHASHING);
-            final Map<Integer, byte[]> dgvalues = sodRequest.getDataGroupHashes();
-            Map<Integer, byte[]> dghashes = dgvalues;
+            List<Map<Integer, byte[]>> dghashes = documents;
             if (StringUtils.equalsIgnoreCase(doHashing, "true")) {
                 if (log.isDebugEnabled()) {
                     log.debug("Converting data group values to hashes using algorithm " + digestAlgorithm);
                 }
                 // If true here the "data group hashes" are not really hashes but values that we must hash.
                 // The input is already decoded (if needed) and nice, so we just need to hash it
-                dghashes = new HashMap<>(16);
-                for (Map.Entry<Integer, byte[]> dgId : dgvalues.entrySet()) {
-                    final byte[] value = dgId.getValue();
-                    if (log.isDebugEnabled()) {
-                        log.debug("Hashing data group " + dgId + ", value is of length: " + value.length);
-                    }
-                    if ((value != null) && (value.length > 0)) {
-                        MessageDigest digest = MessageDigest.getInstance(digestAlgorithm, BouncyCastleProvider.PROVIDER_NAME);
-                        byte[] result = digest.digest(value);
-                        if (log.isDebugEnabled()) {
-                            log.debug("Resulting hash is of length: " + result.length);
-                        }
-                        dghashes.put(dgId.getKey(), result);
-                    }
-                }
+                dghashes = getHasher(digestAlgorithm).hashAll(documents, getExecutorService());
             } else {
-                for (Map.Entry<Integer, byte[]> dgId : dgvalues.entrySet()) {
-                    final byte[] value = dgId.getValue();
-                    if (log.isDebugEnabled()) {
-                        log.debug("Hashing data group " + dgId + ", value is of length: " + value.length);
-                    }
-                    if ((value != null) && (value.length > 0)) {
-                        boolean isSuppliedHashDigestLengthOk = HashDigestUtils.isSuppliedHashDigestLengthValid(digestAlgorithm, value.length);
-                        if (!isSuppliedHashDigestLengthOk) {
-                            throw new IllegalRequestException("Client-side hashing data length must match with the length of client specified digest algorithm");
+                for (Map<Integer, byte[]> dgvalues : documents) {
+                    for (Map.Entry<Integer, byte[]> dgId : dgvalues.entrySet()) {
+                        final byte[] value = dgId.getValue();
+                        if ((value != null) && (value.length > 0)) {
+                            boolean isSuppliedHashDigestLengthOk = HashDigestUtils.isSuppliedHashDigestLengthValid(digestAlgorithm, value.length);
+                            if (!isSuppliedHashDigestLengthOk) {
+                                throw new IllegalRequestException("Client-side hashing data length must match with the length of client specified digest algorithm");
+                            }
                         }
                     }
                 }
@@ -240,11 +263,9 @@ public class MRTDSODSigner extends BaseSigner {
             String unicodeVersion = config.getProperty(PROPERTY_UNICODEVERSION, DEFAULT_NULL);
 
             // Version values in request overrides configuration
-            final String ldsVersionRequest = sodRequest.getLdsVersion();
             if (ldsVersionRequest != null) {
                 ldsVersion = ldsVersionRequest;
             }
-            final String unicodeVersionRequest = sodRequest.getUnicodeVersion();
             if (unicodeVersionRequest != null) {
                 unicodeVersion = unicodeVersionRequest;
             }
@@ -269,13 +290,16 @@ public class MRTDSODSigner extends BaseSigner {
                         + ", unicodeVerison: " + unicodeVersion);
             }
 
-            final SODFile constructedSod
-                    = new SODFile(digestAlgorithm, digestEncryptionAlgorithm,
-                    dghashes, crypto.getPrivateKey(), cert, crypto.getProvider().getName(),
-                    ldsVersion, unicodeVersion);
+            // All SODs are signed using the same crypto instance
+            for (Map<Integer, byte[]> hashes : dghashes) {
+                final SODFile constructedSod
+                        = new SODFile(digestAlgorithm, digestEncryptionAlgorithm,
+                        hashes, crypto.getPrivateKey(), cert, crypto.getProvider().getName(),
+                        ldsVersion, unicodeVersion);
 
-            // Reconstruct the sod
-            sod = new SODFile(new ByteArrayInputStream(constructedSod.getEncoded()));
+                // Reconstruct the sod
+                sods.add(new SODFile(new ByteArrayInputStream(constructedSod.getEncoded())));
+            }
 
         } catch (NoSuchAlgorithmException | NoSuchProviderException ex) {
             throw new SignServerException("Problem constructing SOD as configured algorithm not supported", ex);
@@ -289,21 +313,35 @@ public class MRTDSODSigner extends BaseSigner {
 
         // Verify the Signature before returning
         try (OutputStream out = responseData.getAsOutputStream()) {
-            verifySignatureAndChain(sod, certChain);
+            final int[] sodLengths = new int[sods.size()];
+            final MessageDigest batchDigest = MessageDigest.getInstance("SHA1");
+            byte[] signedbytes = null;
+            for (int i = 0; i < sodLengths.length; i++) {
+                final SODFile sod = sods.get(i);
+                verifySignatureAndChain(sod, certChain);
 
+                signedbytes = sod.getEncoded();
+                out.write(signedbytes);
+                batchDigest.update(signedbytes);
+                sodLengths[i] = signedbytes.length;
+            }
             if (log.isDebugEnabled()) {
-                log.debug("SOD verified correctly, returning SOD.");
+                log.debug("SOD verified correctly, returning " + sodLengths.length + " SOD.");
             }
+
             // Return response
-            final byte[] signedbytes = sod.getEncoded();
-            out.write(signedbytes);
-            final String archiveId = createArchiveId(signedbytes, (String) requestContext.get(RequestContext.TRANSACTION_ID));
+            final String archiveId = createArchiveId(sodLengths.length == 1 ? signedbytes : batchDigest.digest(),
+                    (String) requestContext.get(RequestContext.TRANSACTION_ID));
             final Collection<? extends Archivable> archivables = Arrays.asList(new DefaultArchivable(Archivable.TYPE_RESPONSE, responseData.toReadableData(), archiveId));
 
             // The client can be charged for the request
             requestContext.setRequestFulfilledByWorker(true);
-            
-            return new SODResponse(sodRequest.getRequestID(), responseData, cert,
+
+            if (signRequest instanceof SODBatchRequest) {
+                return new SODBatchResponse(requestId, responseData, sodLengths, cert,
+                        archiveId, archivables, "application/octet-stream");
+            }
+            return new SODResponse(requestId, responseData, cert,
                     archiveId, archivables, "application/octet-stream");
         } catch (GeneralSecurityException e) {
             log.error("Error verifying the SOD we signed ourselves. ", e);
@@ -314,6 +352,39 @@ public class MRTDSODSigner extends BaseSigner {
         }
     }
 
+    /**
+     * @param digestAlgorithm algorithm to hash with
+     * @return hasher for the algorithm, re-used between requests
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     * @throws NoSuchProviderException if BC is not installed
+     */
+    private DataGroupHasher getHasher(final String digestAlgorithm) throws NoSuchAlgorithmException, NoSuchProviderException {
+        DataGroupHasher result = hasher;
+        if (result == null || !result.getAlgorithm().equals(digestAlgorithm)) {
+            result = new DataGroupHasher(digestAlgorithm);
+            hasher = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the container managed executor service to hash the data groups
+     * with or null if not available
+     */
+    protected ExecutorService getExecutorService() {
+        ExecutorService result = executorService;
+        if (result == null && !executorServiceUnavailable) {
+            try {
+                result = (ExecutorService) new InitialContext().lookup(EXECUTOR_SERVICE_NAME);
+                executorService = result;
+            } catch (NamingException | ClassCastException ex) {
+                log.warn("No managed executor service available, data groups will be hashed in the request thread: " + ex.getMessage());
+                executorServiceUnavailable = true;
+            }
+        }
+        return result;
+    }
+
     private X509Certificate findIssuerCert(Collection<Certificate> chain, X509Certificate sodCert) {
         X509Certificate result = null;
         final X500Name issuer = JcaX500NameUtil.getIssuer(sodCert);
@@ -22,6 +22,8 @@ import java.security.PublicKey;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import junit.framework.TestCase;
 import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.ASN1InputStream;
@@ -39,6 +41,8 @@ import org.signserver.common.SignServerException;
 import org.signserver.common.SignServerUtil;
 import org.signserver.common.WorkerConfig;
 import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.data.SODBatchRequest;
+import org.signserver.common.data.SODBatchResponse;
 import org.signserver.common.data.SODRequest;
 import org.signserver.common.data.SODResponse;
 import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
@@ -76,6 +80,9 @@ public class MRTDSODSignerUnitTest extends TestCase {
     private static final String NAME = "NAME";
 
     /** Worker7897: Default algorithms, default hashing setting. */
+    /** Executor service used instead of the managed one. */
+    private static final ExecutorService EXECUTOR_SERVICE = Executors.newCachedThreadPool();
+
     private static final int WORKER1 = 7897;
 
     /** Worker7898: SHA512, default hashing setting. */
@@ -706,6 +713,86 @@ public class MRTDSODSignerUnitTest extends TestCase {
         }
     }
 
+    /**
+     * Tests signing a batch of documents, with the signer doing the hashing,
+     * and that the SODs are returned in the order of the documents.
+     * @throws Exception
+     */
+    public void test12SignBatch() throws Exception {
+        final List<Map<Integer, byte[]>> documents = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final Map<Integer, byte[]> dataGroups = new LinkedHashMap<>();
+            dataGroups.put(1, ("Document " + i + " DG1").getBytes());
+            // Large enough to be hashed in parallel
+            final byte[] dg2 = new byte[16384];
+            Arrays.fill(dg2, (byte) i);
+            dataGroups.put(2, dg2);
+            documents.add(dataGroups);
+        }
+        final List<SODFile> sods = signBatchHelper(WORKER3, 18, documents);
+        for (int i = 0; i < documents.size(); i++) {
+            final Map<Integer, byte[]> actual = sods.get(i).getDataGroupHashes();
+            assertEquals("document " + i, 2, actual.size());
+            for (Map.Entry<Integer, byte[]> entry : documents.get(i).entrySet()) {
+                assertTrue("document " + i + " DG" + entry.getKey(),
+                        Arrays.equals(digestHelper(entry.getValue(), "SHA256"), actual.get(entry.getKey())));
+            }
+        }
+    }
+
+    /**
+     * Tests signing a batch of data group hashes and that a single invalid
+     * hash fails the whole request.
+     * @throws Exception
+     */
+    public void test13SignBatchHashes() throws Exception {
+        final List<Map<Integer, byte[]>> documents = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final Map<Integer, byte[]> dataGroups = new LinkedHashMap<>();
+            dataGroups.put(1, digestHelper(("Value " + i).getBytes(), "SHA256"));
+            dataGroups.put(2, digestHelper(("Other value " + i).getBytes(), "SHA256"));
+            documents.add(dataGroups);
+        }
+        final List<SODFile> sods = signBatchHelper(WORKER1, 19, documents);
+        for (int i = 0; i < documents.size(); i++) {
+            assertTrue("document " + i, Arrays.equals(documents.get(i).get(1), sods.get(i).getDataGroupHashes().get(1)));
+        }
+
+        documents.get(1).put(3, "too short".getBytes());
+        try {
+            signBatchHelper(WORKER1, 20, documents);
+            fail("Should have thrown IllegalRequestException");
+        } catch (IllegalRequestException expected) { // NOPMD
+            // OK
+        }
+    }
+
+    private List<SODFile> signBatchHelper(int workerId, int requestId, List<Map<Integer, byte[]>> documents) throws Exception {
+        RequestContext context = new RequestContext();
+        context.setServices(services);
+
+        try (CloseableWritableData responseData = ModulesTestCase.createResponseData(false)) {
+            SODBatchResponse res = (SODBatchResponse) processSession.process(new AdminInfo("Client user", null, null), new WorkerIdentifier(workerId),
+                    new SODBatchRequest(requestId, documents, null, null, responseData),
+                    context);
+            assertEquals(requestId, res.getRequestID());
+            assertEquals("number of SODs", documents.size(), res.getSodLengths().length);
+            Certificate signercert = res.getSignerCertificate();
+
+            final byte[] data = responseData.toReadableData().getAsByteArray();
+            final List<SODFile> result = new ArrayList<>();
+            int offset = 0;
+            for (int length : res.getSodLengths()) {
+                final SODFile sod = new SODFile(new ByteArrayInputStream(data, offset, length));
+                assertTrue("Signature verification", sod.checkDocSignature(signercert));
+                result.add(sod);
+                offset += length;
+            }
+            assertEquals("all data used", data.length, offset);
+            return result;
+        }
+    }
+
     private void setupWorkers() {
 
         final GlobalConfigurationSessionMock globalMock
@@ -755,7 +842,12 @@ public class MRTDSODSignerUnitTest extends TestCase {
             config.setProperty(AUTHTYPE, "NOAUTH");
             config.setProperty("DODATAGROUPHASHING", "true");
             config.setProperty(DEFAULTKEY, keystore1DefaultKey);
-            workerMock.setupWorker(workerId, CRYPTOTOKEN_CLASSNAME, config, new MRTDSODSigner());
+            workerMock.setupWorker(workerId, CRYPTOTOKEN_CLASSNAME, config, new MRTDSODSigner() {
+                @Override
+                protected ExecutorService getExecutorService() {
+                    return EXECUTOR_SERVICE;
+                }
+            });
             workerSession.reloadConfiguration(workerId);
         }
 
@@ -32,6 +32,8 @@ import javax.persistence.EntityManager;
 
 import org.apache.log4j.Logger;
 import org.signserver.common.*;
+import org.signserver.common.data.BatchSignatureRequest;
+import org.signserver.common.data.BatchSignatureResponse;
 import org.signserver.common.data.ReadableData;
 import org.signserver.common.data.LegacyRequest;
 import org.signserver.common.data.LegacyResponse;
@@ -43,6 +45,7 @@ import org.signserver.common.data.WritableData;
 import org.signserver.server.IServices;
 import org.signserver.server.WorkerContext;
 import org.signserver.server.archive.Archivable;
+import org.signserver.server.archive.ByteArrayArchivable;
 import org.signserver.server.archive.DefaultArchivable;
 import org.signserver.server.cryptotokens.ICryptoInstance;
 import org.signserver.server.cryptotokens.ICryptoTokenV4;
@@ -83,9 +86,10 @@ public class MRTDSigner extends BaseSigner {
      * specified for MRTD Security Objects.
      * 
      * 
-     * @param signRequest must be of the class MRTDSignRequest
+     * @param signRequest must be of the class MRTDSignRequest, SignatureRequest
+     * or BatchSignatureRequest
      * @param requestContext
-     * @return returns a MRTDSignResponse with the same number of signatures as requested.
+     * @return returns a response with the same number of signatures as requested.
      * @throws IllegalRequestException
      * @throws CryptoTokenOfflineException
      * @throws SignServerException
@@ -107,6 +111,7 @@ public class MRTDSigner extends BaseSigner {
         ICryptoInstance crypto = null;
         try {
             crypto = acquireCryptoInstance(ICryptoTokenV4.PURPOSE_SIGN, signRequest, requestContext);
+            final Cipher cipher = createCipher(crypto);
 
             if (signRequest instanceof LegacyRequest) {
                 MRTDSignRequest req = (MRTDSignRequest) ((LegacyRequest) signRequest).getLegacyRequest();
@@ -123,7 +128,7 @@ public class MRTDSigner extends BaseSigner {
                         throw new IllegalRequestException("Signature request data must be an ArrayList of byte[]");
                     }
 
-                    genSignatures.add(encrypt(data, signRequest, requestContext, crypto));
+                    genSignatures.add(encrypt(cipher, data));
                 }
 
                 ret = new LegacyResponse(new MRTDSignResponse(req.getRequestID(), genSignatures,
@@ -138,7 +143,7 @@ public class MRTDSigner extends BaseSigner {
                     byte[] bytes = requestData.getAsByteArray();
                     final String archiveId = createArchiveId(bytes, (String) requestContext.get(RequestContext.TRANSACTION_ID));
 
-                    byte[] signedbytes = encrypt(bytes, signRequest, requestContext, crypto);
+                    byte[] signedbytes = encrypt(cipher, bytes);
                     out.write(signedbytes);
 
                     final Collection<? extends Archivable> archivables = Arrays.asList(new DefaultArchivable(Archivable.TYPE_RESPONSE, CONTENT_TYPE, responseData.toReadableData(), archiveId));
@@ -152,6 +157,36 @@ public class MRTDSigner extends BaseSigner {
                 } catch (IOException ex) {
                     throw new SignServerException("IO error", ex);
                 }
+            } else if (signRequest instanceof BatchSignatureRequest) {
+                final BatchSignatureRequest req = (BatchSignatureRequest) signRequest;
+                final List<byte[]> items = req.getItems();
+                if (items == null || items.isEmpty()) {
+                    throw new IllegalRequestException("No items in request");
+                }
+                final String transactionId = (String) requestContext.get(RequestContext.TRANSACTION_ID);
+                final WritableData responseData = req.getResponseData();
+                final int[] lengths = new int[items.size()];
+                final List<Archivable> archivables = new ArrayList<>(items.size());
+
+                try (OutputStream out = responseData.getAsInMemoryOutputStream()) {
+                    for (int i = 0; i < items.size(); i++) {
+                        final byte[] signedbytes = encrypt(cipher, items.get(i));
+                        out.write(signedbytes);
+                        lengths[i] = signedbytes.length;
+                        archivables.add(new ByteArrayArchivable(Archivable.TYPE_RESPONSE, CONTENT_TYPE, signedbytes,
+                                createArchiveId(items.get(i), transactionId + ";" + i)));
+                    }
+                } catch (IOException ex) {
+                    throw new SignServerException("IO error", ex);
+                }
+
+                // The client can be charged for the request
+                requestContext.setRequestFulfilledByWorker(true);
+
+                return new BatchSignatureResponse(req.getRequestID(), responseData, lengths,
+                                                  getSigningCertificate(crypto),
+                                                  createArchiveId(new byte[0], transactionId),
+                                                  archivables, CONTENT_TYPE);
             } else {
                 throw new IllegalRequestException("Unexpected request type: " + signRequest.getClass().getName());
             }
@@ -164,9 +199,7 @@ public class MRTDSigner extends BaseSigner {
         return ret;
     }
 
-    private byte[] encrypt(final byte[] data, final Request request,
-                           final RequestContext context, final ICryptoInstance crypto)
-            throws CryptoTokenOfflineException, SignServerException, IllegalRequestException {
+    private Cipher createCipher(final ICryptoInstance crypto) {
         Cipher c;
         try {
             // Using a PKCS#11 HSM plain RSA Cipher does not work, but we have to use RSA/ECB/PKCS1Padding
@@ -183,7 +216,10 @@ public class MRTDSigner extends BaseSigner {
         } catch (InvalidKeyException e) {
             throw new EJBException(e);
         }
+        return c;
+    }
 
+    private byte[] encrypt(final Cipher c, final byte[] data) {
         byte[] result;
         try {
             result = c.doFinal(data);
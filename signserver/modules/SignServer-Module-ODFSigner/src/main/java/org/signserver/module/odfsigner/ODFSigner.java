@@ -22,6 +22,7 @@ import java.util.List;
 import javax.persistence.EntityManager;
 
 import org.odftoolkit.odfdom.doc.OdfDocument;
+import org.odftoolkit.odfdom.pkg.OdfPackage;
 import org.odftoolkit.odfdom.pkg.signature.DocumentSignatureManager;
 import org.odftoolkit.odfdom.pkg.signature.SignatureCreationMode;
 import org.signserver.common.*;
@@ -97,7 +98,9 @@ public class ODFSigner extends BaseSigner {
 
         OdfDocument odfDoc;
         try {
-            odfDoc = OdfDocument.loadDocument(data.getAsFile());
+            // lazy mode: entries are streamed from the file and the unchanged
+            // ones are copied to the output without being recompressed
+            odfDoc = OdfDocument.loadDocument(OdfPackage.loadPackage(data.getAsFile(), true));
         } catch (Exception e) {
             throw new SignServerException(
                     "Data received is not in valid odf format", e);
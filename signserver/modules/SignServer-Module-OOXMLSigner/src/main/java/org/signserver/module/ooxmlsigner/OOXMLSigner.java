@@ -39,6 +39,7 @@ import org.signserver.server.archive.DefaultArchivable;
 import org.signserver.server.cryptotokens.ICryptoInstance;
 import org.signserver.server.cryptotokens.ICryptoTokenV4;
 import org.signserver.common.data.SignatureRequest;
+import org.signserver.common.data.ReadableData;
 import org.signserver.common.data.SignatureResponse;
 import org.signserver.common.data.WritableData;
 import org.signserver.server.signers.BaseSigner;
@@ -109,43 +110,39 @@ public class OOXMLSigner extends BaseSigner {
 
         X509Certificate cert = null;
         final WritableData responseData = sReq.getResponseData();
-        try (
-                InputStream in = sReq.getRequestData().getAsInputStream();
-                OutputStream out = responseData.getAsOutputStream()
-            ) {
-            Package docxPackage;
-            try {
-                docxPackage = Package.open(in, PackageAccess.READ_WRITE);
-            } catch (InvalidFormatException e) {
-                throw new SignServerException(
-                        "Data received is not in valid openxml package format", e);
-            } catch (IOException e) {
-                throw new SignServerException("Error opening received data", e);
-            }
+        try (OutputStream out = responseData.getAsOutputStream()) {
+            final Package docxPackage = openPackage(sReq.getRequestData());
 
             // create digital signature manager object
             PackageDigitalSignatureManager dsm = new PackageDigitalSignatureManager(
                     docxPackage);
 
-            ICryptoInstance crypto = null;
             try {
-                crypto = acquireCryptoInstance(ICryptoTokenV4.PURPOSE_SIGN, signRequest, requestContext);
-                cert = (X509Certificate) getSigningCertificate(crypto);
-
-                // sign document
-                dsm.SignDocument(crypto.getPrivateKey(), cert);
-            } catch (OpenXML4JException e1) {
-                throw new SignServerException("Problem signing document", e1);
+                ICryptoInstance crypto = null;
+                try {
+                    crypto = acquireCryptoInstance(ICryptoTokenV4.PURPOSE_SIGN, signRequest, requestContext);
+                    cert = (X509Certificate) getSigningCertificate(crypto);
+
+                    // sign document
+                    dsm.SignDocument(crypto.getPrivateKey(), cert);
+                } catch (OpenXML4JException e1) {
+                    throw new SignServerException("Problem signing document", e1);
+                } finally {
+                    releaseCryptoInstance(crypto, requestContext);
+                }
+
+                // save output to package
+                try {
+                    dsm.getContainer().save(out);
+                } catch (IOException e) {
+                    throw new SignServerException(
+                            "Error saving final output data to output", e);
+                }
             } finally {
-                releaseCryptoInstance(crypto, requestContext);
-            }
-
-            // save output to package
-            try {
-                dsm.getContainer().save(out);
-            } catch (IOException e) {
-                throw new SignServerException(
-                        "Error saving final output data to output", e);
+                // Releases the temporary files and the open zip files. The
+                // packages are not closed as that would write them back.
+                dsm.close();
+                docxPackage.revert();
             }
         } catch (IOException ex) {
             throw new SignServerException("Error reading data", ex);
@@ -162,6 +159,34 @@ public class OOXMLSigner extends BaseSigner {
                     archiveId, archivables, CONTENT_TYPE);
     }
 
+    /**
+     * Opens the package from the request data. When the data is backed by a
+     * file the package is read from the file directly, so that the parts are
+     * not loaded into memory and the unmodified ones can be copied to the
+     * output without being recompressed.
+     *
+     * @param requestData to open the package from
+     * @return the opened package
+     * @throws SignServerException if the data could not be read or is not
+     * a valid package
+     */
+    private Package openPackage(final ReadableData requestData) throws SignServerException {
+        try {
+            if (requestData.isFile()) {
+                return Package.open(requestData.getAsFile().getAbsolutePath(), PackageAccess.READ_WRITE);
+            } else {
+                try (InputStream in = requestData.getAsInputStream()) {
+                    return Package.open(in, PackageAccess.READ_WRITE);
+                }
+            }
+        } catch (InvalidFormatException e) {
+            throw new SignServerException(
+                    "Data received is not in valid openxml package format", e);
+        } catch (IOException e) {
+            throw new SignServerException("Error opening received data", e);
+        }
+    }
+
     @Override
     protected List<String> getFatalErrors(IServices services) {
         final List<String> errors = super.getFatalErrors(services);
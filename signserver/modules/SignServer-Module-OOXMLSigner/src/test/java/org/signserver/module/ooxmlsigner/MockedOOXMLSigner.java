@@ -12,11 +12,7 @@
  *************************************************************************/
 package org.signserver.module.ooxmlsigner;
 
-import java.security.cert.Certificate;
-import java.util.List;
-import org.signserver.common.CryptoTokenOfflineException;
-import org.signserver.common.ProcessRequest;
-import org.signserver.common.RequestContext;
+import org.signserver.server.IServices;
 import org.signserver.server.cryptotokens.ICryptoTokenV4;
 import org.signserver.test.utils.mock.MockedCryptoToken;
 
@@ -24,7 +20,7 @@ import org.signserver.test.utils.mock.MockedCryptoToken;
  * Mocked version of the OOXMLSigner using a MockedCryptoToken.
  *
  * @author Markus Kilås
- * @version $Id: MockedXAdESSigner.java 4704 2014-05-16 12:38:10Z netmackan $
+ * @version $Id$
  */
 public class MockedOOXMLSigner extends OOXMLSigner {
     private final MockedCryptoToken mockedToken;
@@ -34,21 +30,7 @@ public class MockedOOXMLSigner extends OOXMLSigner {
     }
 
     @Override
-    public Certificate getSigningCertificate(final Request request,
-                                             final RequestContext context)
-            throws CryptoTokenOfflineException {
-        return mockedToken.getCertificate(ICryptoTokenV4.PURPOSE_SIGN);
-    }
-
-    @Override
-    public List<Certificate> getSigningCertificateChain(final Request request,
-                                                        final RequestContext context)
-            throws CryptoTokenOfflineException {
-        return mockedToken.getCertificateChain(ICryptoTokenV4.PURPOSE_SIGN);
-    }
-
-    @Override
-    public ICryptoToken getCryptoToken(services) {
+    public ICryptoTokenV4 getCryptoToken(IServices services) {
         return mockedToken;
     }
 
@@ -12,26 +12,41 @@
  *************************************************************************/
 package org.signserver.module.ooxmlsigner;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.KeyPair;
 import java.security.Security;
 import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
 import java.util.Arrays;
-import static junit.framework.TestCase.assertNotNull;
 import org.apache.log4j.Logger;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.util.encoders.Base64;
 import static org.junit.Assert.*;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
-import org.signserver.common.GenericSignRequest;
-import org.signserver.common.GenericSignResponse;
+import org.junit.rules.TemporaryFolder;
+import org.openxml4j.opc.Package;
+import org.openxml4j.opc.PackageAccess;
+import org.openxml4j.opc.signature.PackageDigitalSignatureManager;
+import org.openxml4j.opc.signature.VerifyResult;
 import org.signserver.common.RequestContext;
 import org.signserver.common.SignServerException;
 import org.signserver.common.WorkerConfig;
+import org.signserver.common.data.ReadableData;
+import org.signserver.common.data.SignatureRequest;
+import org.signserver.common.data.SignatureResponse;
+import org.signserver.server.cryptotokens.ICryptoTokenV4;
+import org.signserver.server.data.impl.CloseableReadableData;
+import org.signserver.server.data.impl.CloseableWritableData;
 import org.signserver.test.utils.builders.CertBuilder;
 import org.signserver.test.utils.builders.CryptoUtils;
 import org.signserver.test.utils.mock.MockedCryptoToken;
+import org.signserver.testutils.ModulesTestCase;
 
 /**
  * Unit tests for the ODFSigner class.
@@ -48,6 +63,9 @@ public class OOXMLSignerUnitTest {
 
     private static MockedCryptoToken tokenRSA;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     /**
      * predefined docx file in base64 format.
      */
@@ -528,7 +546,42 @@ public class OOXMLSignerUnitTest {
         }
     }
 
+    /**
+     * Tests signing a document read from a file, for which the unmodified
+     * parts are copied as is, and that the signature of the result verifies.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSignDocxFromFile() throws Exception {
+        LOG.info("testSignDocxFromFile");
+        final File file = folder.newFile("document.docx");
+        Files.write(file.toPath(), Base64.decode(TEST_OOXML_DOC.getBytes(StandardCharsets.UTF_8)));
+
+        try (CloseableReadableData requestData = ModulesTestCase.createRequestDataKeepingFile(file)) {
+            assertTrue("file backed", requestData.isFile());
+            final byte[] signed = sign(requestData);
+
+            final Package signedPackage = Package.open(new ByteArrayInputStream(signed), PackageAccess.READ);
+            final PackageDigitalSignatureManager dsm = new PackageDigitalSignatureManager(signedPackage);
+            try {
+                assertTrue("signed", dsm.getIsSigned());
+                assertEquals("verified", VerifyResult.Success,
+                        dsm.VerifySignatures((X509Certificate) tokenRSA.getCertificate(ICryptoTokenV4.PURPOSE_SIGN)));
+            } finally {
+                dsm.close();
+                signedPackage.revert();
+            }
+        }
+    }
+
     private void testBasicOOXMLSign(final String document) throws Exception {
+        try (CloseableReadableData requestData = ModulesTestCase.createRequestData(Base64.decode(document.getBytes(StandardCharsets.UTF_8)))) {
+            sign(requestData);
+        }
+    }
+
+    private byte[] sign(final ReadableData requestData) throws Exception {
         WorkerConfig config = new WorkerConfig();
 
         OOXMLSigner instance = new MockedOOXMLSigner(tokenRSA);
@@ -536,12 +589,15 @@ public class OOXMLSignerUnitTest {
         final RequestContext requestContext = new RequestContext();
         requestContext.put(RequestContext.TRANSACTION_ID, "0000-100-1");
 
-        GenericSignRequest request = new GenericSignRequest(100, Base64.decode(document.getBytes(StandardCharsets.UTF_8)));
-        GenericSignResponse res = (GenericSignResponse) instance.processData(request, requestContext);
+        try (CloseableWritableData responseData = ModulesTestCase.createResponseData(false)) {
+            SignatureRequest request = new SignatureRequest(100, requestData, responseData);
+            SignatureResponse res = (SignatureResponse) instance.processData(request, requestContext);
 
-        // Check certificate
-        final Certificate signercert = res.getSignerCertificate();
-        assertNotNull("Signer certificate", signercert);
+            // Check certificate
+            final Certificate signercert = res.getSignerCertificate();
+            assertNotNull("Signer certificate", signercert);
+            return responseData.toReadableData().getAsByteArray();
+        }
     }
 
 }
@@ -12,14 +12,13 @@
  ************************************************************************ */
 package org.signserver.module.openpgp.signer;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
-import java.security.SignatureException;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Date;
@@ -59,7 +58,7 @@ import org.signserver.common.SignServerException;
 import org.signserver.common.UnsupportedCryptoTokenParameter;
 import org.signserver.common.WorkerConfig;
 import org.signserver.common.WorkerStatusInfo;
-import org.signserver.openpgp.utils.ClearSignedFileProcessorUtils;
+import org.signserver.openpgp.utils.ClearTextScanner;
 import org.signserver.server.IServices;
 import org.signserver.server.ServicesImpl;
 import org.signserver.server.WorkerContext;
@@ -471,27 +470,16 @@ public abstract class BaseOpenPGPSigner extends BaseSigner {
                 generator.setHashedSubpackets(spGen.generate());
             }
 
-            try (InputStream fIn = new BufferedInputStream(in);
-                    ArmoredOutputStream aOut = new ArmoredOutputStream(out)) {
+            // The armored output stream writes one byte at a time
+            final OutputStream bufOut = new BufferedOutputStream(out, ClearTextScanner.DEFAULT_BUFFER_SIZE);
+            try (ArmoredOutputStream aOut = new ArmoredOutputStream(bufOut)) {
                 aOut.setHeader(ArmoredOutputStream.VERSION_HDR, CompileTimeSettings.getInstance().getProperty(CompileTimeSettings.SIGNSERVER_VERSION));
                 aOut.beginClearText(digestAlgorithm);
-                ByteArrayOutputStream lineOut = new ByteArrayOutputStream();
-                int lookAhead = ClearSignedFileProcessorUtils.readInputLine(lineOut, fIn);
-                ClearSignedFileProcessorUtils.processLine(aOut, generator, lineOut.toByteArray());
-                if (lookAhead != -1) {
-                    do {
-                        lookAhead = ClearSignedFileProcessorUtils.readInputLine(lineOut, lookAhead, fIn);
-
-                        generator.update((byte) '\r');
-                        generator.update((byte) '\n');
-
-                        ClearSignedFileProcessorUtils.processLine(aOut, generator, lineOut.toByteArray());
-                    } while (lookAhead != -1);
-                }
+                final ClearTextScanner scanner = new ClearTextScanner(generator, bufOut);
+                scanner.scan(in);
 
                 // Add new line before signature if needed
-                byte[] lastBytes = lineOut.toByteArray();
-                if (lastBytes.length > 0 && (lastBytes[lastBytes.length - 1] != '\r' && lastBytes[lastBytes.length - 1] != '\n')) {
+                if (scanner.isLineEndingMissing()) {
                     aOut.write("\r\n".getBytes(StandardCharsets.US_ASCII));
                 }
 
@@ -500,8 +488,6 @@ public abstract class BaseOpenPGPSigner extends BaseSigner {
                 generator.generate().encode(bOut);
             } catch (IOException ex) {
                 throw new SignServerException("Encoding error", ex);
-            } catch (SignatureException ex) {
-                throw new SignServerException("SignatureException", ex);
             }
         } catch (PGPException ex) {
             throw new SignServerException("PGP exception", ex);
@@ -0,0 +1,200 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.openpgp.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.apache.log4j.Logger;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Unit tests for the ClearTextScanner class, comparing it with the line based
+ * processing using ClearSignedFileProcessorUtils.
+ *
+ * @version $Id$
+ */
+public class ClearTextScannerUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ClearTextScannerUnitTest.class);
+
+    /** Generator only recording the data it is updated with. */
+    private static class RecordingGenerator extends PGPSignatureGenerator {
+
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        RecordingGenerator() {
+            super(new JcaPGPContentSignerBuilder(PublicKeyAlgorithmTags.RSA_GENERAL, HashAlgorithmTags.SHA256));
+        }
+
+        @Override
+        public void update(byte b) {
+            data.write(b);
+        }
+
+        @Override
+        public void update(byte[] b) {
+            data.write(b, 0, b.length);
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            data.write(b, off, len);
+        }
+    }
+
+    /** Output and signed data of one run. */
+    private static class Result {
+        private final byte[] output;
+        private final byte[] signed;
+
+        Result(final byte[] output, final byte[] signed) {
+            this.output = output;
+            this.signed = signed;
+        }
+    }
+
+    private static Result processLines(final byte[] text) throws Exception {
+        final RecordingGenerator generator = new RecordingGenerator();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream fIn = new ByteArrayInputStream(text);
+                ArmoredOutputStream aOut = new ArmoredOutputStream(out)) {
+            aOut.beginClearText(HashAlgorithmTags.SHA256);
+            final ByteArrayOutputStream lineOut = new ByteArrayOutputStream();
+            int lookAhead = ClearSignedFileProcessorUtils.readInputLine(lineOut, fIn);
+            ClearSignedFileProcessorUtils.processLine(aOut, generator, lineOut.toByteArray());
+            if (lookAhead != -1) {
+                do {
+                    lookAhead = ClearSignedFileProcessorUtils.readInputLine(lineOut, lookAhead, fIn);
+                    generator.update((byte) '\r');
+                    generator.update((byte) '\n');
+                    ClearSignedFileProcessorUtils.processLine(aOut, generator, lineOut.toByteArray());
+                } while (lookAhead != -1);
+            }
+            final byte[] lastBytes = lineOut.toByteArray();
+            if (lastBytes.length > 0 && lastBytes[lastBytes.length - 1] != '\r' && lastBytes[lastBytes.length - 1] != '\n') {
+                aOut.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+            aOut.endClearText();
+        }
+        return new Result(out.toByteArray(), generator.data.toByteArray());
+    }
+
+    private static Result scan(final byte[] text, final int bufferSize) throws Exception {
+        final RecordingGenerator generator = new RecordingGenerator();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ArmoredOutputStream aOut = new ArmoredOutputStream(out)) {
+            aOut.beginClearText(HashAlgorithmTags.SHA256);
+            final ClearTextScanner scanner = new ClearTextScanner(generator, out, bufferSize);
+            scanner.scan(new ByteArrayInputStream(text));
+            if (scanner.isLineEndingMissing()) {
+                aOut.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+            aOut.endClearText();
+        }
+        return new Result(out.toByteArray(), generator.data.toByteArray());
+    }
+
+    private static void assertSame(final String text, final int bufferSize) throws Exception {
+        assertSame(text.getBytes(StandardCharsets.US_ASCII), bufferSize);
+    }
+
+    private static void assertSame(final byte[] text, final int bufferSize) throws Exception {
+        final Result expected = processLines(text);
+        final Result actual = scan(text, bufferSize);
+        final String message = "buffer " + bufferSize + ", text \""
+                + new String(text, StandardCharsets.US_ASCII).replace("\r", "\\r").replace("\n", "\\n").replace("\t", "\\t") + "\"";
+        assertArrayEquals("signed: " + message, expected.signed, actual.signed);
+        assertArrayEquals("output: " + message, expected.output, actual.output);
+    }
+
+    /**
+     * Tests texts with the different line endings, trailing white space and
+     * dashes, with lines spanning several buffers.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSameAsLines() throws Exception {
+        LOG.info("testSameAsLines");
+        final String[] texts = new String[] {
+            "",
+            "a",
+            "\n",
+            "\r",
+            "\r\n",
+            "\n\r",
+            "\r\r\n\n",
+            "line 1\nline 2\n",
+            "line 1\r\nline 2\r\n",
+            "line 1\rline 2",
+            "trailing \t \nwhite space\t\r\n  \n",
+            "in the  middle \t of the line \t",
+            "- dash\n-- more\r\n-\r-",
+            "   \t  ",
+            "\n\n\nlast"
+        };
+        for (String text : texts) {
+            for (int bufferSize : new int[] {1, 2, 3, 5, 1024}) {
+                assertSame(text, bufferSize);
+            }
+        }
+    }
+
+    /**
+     * Tests random texts made of the characters that need special handling.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSameAsLinesRandom() throws Exception {
+        LOG.info("testSameAsLinesRandom");
+        final byte[] alphabet = "ab- \t\r\n".getBytes(StandardCharsets.US_ASCII);
+        final Random random = new Random(4711);
+        for (int i = 0; i < 2000; i++) {
+            final byte[] text = new byte[random.nextInt(100)];
+            for (int j = 0; j < text.length; j++) {
+                text[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            assertSame(text, 1 + random.nextInt(16));
+        }
+    }
+
+    /**
+     * Tests that the line ending is reported as missing only for non-empty
+     * texts not ending with one.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testLineEndingMissing() throws Exception {
+        LOG.info("testLineEndingMissing");
+        final String[] texts = new String[] {"", "a", "a\n", "a\r", "a\r\n", "a \t"};
+        final boolean[] expected = new boolean[] {false, true, false, false, false, true};
+        for (int i = 0; i < texts.length; i++) {
+            final ClearTextScanner scanner = new ClearTextScanner(new RecordingGenerator(), new ByteArrayOutputStream(), 2);
+            scanner.scan(new ByteArrayInputStream(texts[i].getBytes(StandardCharsets.US_ASCII)));
+            assertEquals(texts[i], expected[i], scanner.isLineEndingMissing());
+        }
+    }
+}
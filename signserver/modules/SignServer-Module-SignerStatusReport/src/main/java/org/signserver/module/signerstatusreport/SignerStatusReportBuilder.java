@@ -22,6 +22,7 @@ import org.signserver.server.KeyUsageCounterHash;
 import org.signserver.server.entities.IKeyUsageCounterDataService;
 import org.signserver.server.entities.KeyUsageCounter;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 
 /**
  * Builds a signer's status report for the choosen signers in a special format.
@@ -47,11 +48,27 @@ public class SignerStatusReportBuilder implements ReportBuilder {
     private final List<String> workers;
     
     private final WorkerSessionLocal workerSession;
+    private final WorkerStatusSnapshotSessionLocal statusSnapshotSession;
     private final IKeyUsageCounterDataService keyUsageCounterDataService;
     
     public SignerStatusReportBuilder(List<String> workers, WorkerSessionLocal workerSession, IKeyUsageCounterDataService keyUsageCounterDataService) {
+        this(workers, workerSession, null, keyUsageCounterDataService);
+    }
+
+    /**
+     * Creates a report builder reading the worker statuses from the status
+     * snapshot, if available.
+     *
+     * @param workers names of the workers to include
+     * @param workerSession worker session
+     * @param statusSnapshotSession status snapshot session or null to always
+     * get the status from the worker session
+     * @param keyUsageCounterDataService key usage counter service
+     */
+    public SignerStatusReportBuilder(List<String> workers, WorkerSessionLocal workerSession, WorkerStatusSnapshotSessionLocal statusSnapshotSession, IKeyUsageCounterDataService keyUsageCounterDataService) {
         this.workers = workers;
         this.workerSession = workerSession;
+        this.statusSnapshotSession = statusSnapshotSession;
         this.keyUsageCounterDataService = keyUsageCounterDataService;
     }
     
@@ -72,7 +89,9 @@ public class SignerStatusReportBuilder implements ReportBuilder {
 
                     WorkerStatus status = null;
                     try {
-                        status = workerSession.getStatus(new WorkerIdentifier(workerId));
+                        status = statusSnapshotSession == null
+                                ? workerSession.getStatus(new WorkerIdentifier(workerId))
+                                : statusSnapshotSession.getStatus(new WorkerIdentifier(workerId), false);
                     } catch (InvalidWorkerIdException ex) {
                         LOG.error("Invalid worker id: " + workerId, ex);
                     }
@@ -27,6 +27,7 @@ import org.signserver.server.ServiceExecutionFailedException;
 import org.signserver.server.WorkerContext;
 import org.signserver.server.timedservices.BaseTimedService;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 import org.signserver.server.IServices;
 import org.signserver.server.entities.IKeyUsageCounterDataService;
 
@@ -103,7 +104,7 @@ public class SignerStatusReportTimedService extends BaseTimedService {
 
         PrintWriter out = null;
         try {
-            final SignerStatusReportBuilder reportBuilder = new SignerStatusReportBuilder(workers, context.getServices().get(WorkerSessionLocal.class), context.getServices().get(IKeyUsageCounterDataService.class));
+            final SignerStatusReportBuilder reportBuilder = new SignerStatusReportBuilder(workers, context.getServices().get(WorkerSessionLocal.class), context.getServices().get(WorkerStatusSnapshotSessionLocal.class), context.getServices().get(IKeyUsageCounterDataService.class));
             final CharSequence report = reportBuilder.buildReport();
             out = new PrintWriter(new FileOutputStream(outputFile));
             out.print(report);
@@ -35,6 +35,7 @@ import org.signserver.server.WorkerContext;
 import org.signserver.server.cryptotokens.NullCryptoToken;
 import org.signserver.server.signers.BaseSigner;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 import org.signserver.server.IServices;
 import org.signserver.server.cryptotokens.ICryptoTokenV4;
 import org.signserver.server.entities.IKeyUsageCounterDataService;
@@ -94,7 +95,7 @@ public class SignerStatusReportWorker extends BaseSigner {
         
         // Process the request
         WritableData responseData = ((SignatureRequest) request).getResponseData();
-        SignerStatusReportBuilder reportBuilder = new SignerStatusReportBuilder(workers, requestContext.getServices().get(WorkerSessionLocal.class), requestContext.getServices().get(IKeyUsageCounterDataService.class));
+        SignerStatusReportBuilder reportBuilder = new SignerStatusReportBuilder(workers, requestContext.getServices().get(WorkerSessionLocal.class), requestContext.getServices().get(WorkerStatusSnapshotSessionLocal.class), requestContext.getServices().get(IKeyUsageCounterDataService.class));
         
         try (PrintWriter out = new PrintWriter(responseData.getAsOutputStream())) {
             out.append(reportBuilder.buildReport());
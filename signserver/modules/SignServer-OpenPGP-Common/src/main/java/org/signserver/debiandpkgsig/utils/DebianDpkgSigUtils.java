@@ -12,6 +12,8 @@
  *************************************************************************/
 package org.signserver.debiandpkgsig.utils;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -28,6 +30,13 @@ import org.signserver.debiandpkgsig.ar.ParsedArFile;
  * @version $Id$
  */
 public class DebianDpkgSigUtils {
+
+    /** Name of the AR entry holding the signed manifest. */
+    public static final String GPG_BUILDER_ENTRY = "_gpgbuilder";
+
+    /** File mode of the signature entry, as written by dpkg-sig. */
+    private static final int SIGNATURE_ENTRY_MODE = 100644;
+
     /**
      * Create a dpkg-sig manifest.
      * 
@@ -93,4 +102,34 @@ public class DebianDpkgSigUtils {
         
         return sb.toString();
     }
+
+    /**
+     * Write the AR entry with the signed manifest, to be appended after the
+     * entries of the package.
+     *
+     * The package does not need to be available: only the signed manifest is
+     * needed, so the package can be copied, hashed and signed at different
+     * places and still give the same result.
+     *
+     * @param out to write the entry to, after the entries of the package
+     * @param signedManifest clear-text signed manifest
+     * @param date of signature creation, used as modification time
+     * @throws IOException in case of failure writing the entry
+     */
+    public static void writeSignatureEntry(final OutputStream out,
+                                           final byte[] signedManifest,
+                                           final Date date)
+            throws IOException {
+        final ArFileHeader header =
+                new ArFileHeader(GPG_BUILDER_ENTRY, date.getTime() / 1000,
+                                 0, 0, SIGNATURE_ENTRY_MODE,
+                                 signedManifest.length);
+        out.write(header.getEncoded());
+        out.write(signedManifest);
+
+        // Entries are 2 byte aligned
+        if (signedManifest.length % 2 != 0) {
+            out.write('\n');
+        }
+    }
 }
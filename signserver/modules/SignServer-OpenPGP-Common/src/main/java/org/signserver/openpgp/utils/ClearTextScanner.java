@@ -0,0 +1,190 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.openpgp.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+
+/**
+ * Scanner of the text to be signed with a clear text signature, working on
+ * blocks of the input instead of reading it byte by byte and line by line.
+ *
+ * The text is dash-escaped and written to the output stream of an
+ * ArmoredOutputStream, after beginClearText() has been called on it and
+ * before endClearText(). The ArmoredOutputStream is bypassed as it writes one
+ * byte at a time, nothing should be written to it in between except for a
+ * missing final line ending. The signature generator is updated with the
+ * canonical text as described in RFC 4880 section 7.1: trailing white space
+ * is removed from each line and the lines are separated by CR LF. A line ends
+ * with CR, LF or CR LF.
+ *
+ * The result is the same as reading the input with
+ * ClearSignedFileProcessorUtils.readInputLine() and processLine() and writing
+ * it to the ArmoredOutputStream, but the line endings are found by scanning
+ * the buffer and both the output and the generator get slices of it, so that
+ * no line is copied.
+ *
+ * @version $Id$
+ */
+public class ClearTextScanner {
+
+    /** Default size of the read buffer. */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] CRLF = new byte[] {'\r', '\n'};
+
+    /** Written before a line starting with a dash, which is then written. */
+    private static final byte[] DASH_ESCAPE = new byte[] {'-', ' '};
+
+    private final PGPSignatureGenerator generator;
+    private final OutputStream out;
+    private final byte[] buffer;
+
+    /**
+     * White space at the end of the previous block, only to be included if
+     * the line continues with something else than white space.
+     */
+    private byte[] pending = new byte[16];
+    private int pendingLength;
+
+    private boolean started;
+    private boolean lineEnded;
+    private boolean afterCR;
+    private boolean atLineStart = true;
+
+    /**
+     * Creates a new instance using the default buffer size.
+     *
+     * @param generator to update with the canonical text
+     * @param out the stream wrapped by the ArmoredOutputStream
+     */
+    public ClearTextScanner(final PGPSignatureGenerator generator, final OutputStream out) {
+        this(generator, out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param generator to update with the canonical text
+     * @param out the stream wrapped by the ArmoredOutputStream
+     * @param bufferSize size of the read buffer
+     */
+    public ClearTextScanner(final PGPSignatureGenerator generator, final OutputStream out, final int bufferSize) {
+        this.generator = generator;
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Reads all of the input, writes it to the output and updates the
+     * generator.
+     *
+     * @param in to read the text from
+     * @throws IOException in case of failure reading or writing
+     */
+    public void scan(final InputStream in) throws IOException {
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            update(buffer, 0, n);
+        }
+    }
+
+    /**
+     * Processes and writes the next block of the text.
+     *
+     * @param b buffer containing the text
+     * @param off offset of the text in the buffer
+     * @param len number of bytes to process
+     * @throws IOException in case of failure writing
+     */
+    public void update(final byte[] b, final int off, final int len) throws IOException {
+        if (len <= 0) {
+            return;
+        }
+        started = true;
+
+        final int limit = off + len;
+        int pos = off;
+        int written = off;
+        while (pos < limit) {
+            if (afterCR) {
+                afterCR = false;
+                if (b[pos] == '\n') {
+                    pos++;
+                    continue;
+                }
+            }
+            if (lineEnded) {
+                // Something follows the line ending so there is a new line
+                generator.update(CRLF, 0, CRLF.length);
+                lineEnded = false;
+            }
+            if (atLineStart && b[pos] == '-') {
+                out.write(b, written, pos - written);
+                out.write(DASH_ESCAPE);
+                written = pos;
+            }
+
+            int eol = pos;
+            while (eol < limit && b[eol] != '\r' && b[eol] != '\n') {
+                eol++;
+            }
+            int end = eol;
+            while (end > pos && (b[end - 1] == ' ' || b[end - 1] == '\t')) {
+                end--;
+            }
+            if (end > pos) {
+                if (pendingLength > 0) {
+                    generator.update(pending, 0, pendingLength);
+                    pendingLength = 0;
+                }
+                generator.update(b, pos, end - pos);
+            }
+
+            if (eol < limit) {
+                // Trailing white space of the line is not included
+                pendingLength = 0;
+                lineEnded = true;
+                afterCR = b[eol] == '\r';
+                atLineStart = true;
+                pos = eol + 1;
+            } else {
+                // The line continues in the next block
+                addPending(b, end, eol - end);
+                atLineStart = false;
+                pos = eol;
+            }
+        }
+        out.write(b, written, limit - written);
+    }
+
+    /**
+     * @return true if the text was not empty and did not end with a line
+     * ending, in which case one needs to be added before the signature
+     */
+    public boolean isLineEndingMissing() {
+        return started && !lineEnded;
+    }
+
+    private void addPending(final byte[] b, final int off, final int len) {
+        if (pendingLength + len > pending.length) {
+            final byte[] larger = new byte[Math.max(pending.length * 2, pendingLength + len)];
+            System.arraycopy(pending, 0, larger, 0, pendingLength);
+            pending = larger;
+        }
+        System.arraycopy(b, off, pending, pendingLength, len);
+        pendingLength += len;
+    }
+}
@@ -35,6 +35,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
@@ -42,6 +47,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -51,8 +57,12 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.protocol.HTTP;
 import org.apache.log4j.Logger;
 import org.bouncycastle.jcajce.provider.asymmetric.util.EC5Util;
 import org.bouncycastle.jce.ECNamedCurveTable;
@@ -88,19 +98,41 @@ public class AzureCryptoToken extends BaseCryptoToken {
      * It is possible to have multiple crypto tokens configured to multiple key vaults (with different names), because this is
      * local to this instance of CryptoToken. 
      */
-    private String authorizationHeader;
+    private volatile String authorizationHeader;
     /** The same but for client secret */
-    private String clientSecret;
+    private volatile String clientSecret;
     /** The same but for client ID */
     private String clientID;
     /** Fail fast status flag, of token is on- or off-line */
-    private int status = STATUS_OFFLINE;
+    private volatile int status = STATUS_OFFLINE;
+
+    /** Authorization URI and resource from the last WWW-Authenticate challenge, needed to refresh the authorizationHeader without a 401 first */
+    private volatile String oauthServiceURL;
+    private volatile String oauthResource;
+    /** Time in milliseconds when the authorizationHeader expires, or 0 if not known */
+    private volatile long authorizationExpiry;
+    /** Time in milliseconds when the authorizationHeader was fetched and when it was last used, a token not used since the last fetch is not refreshed in the background */
+    private volatile long authorizationFetched;
+    private volatile long authorizationLastUsed;
+    /** Only one thread at a time fetches a new authorizationHeader */
+    private final transient Object authorizationLock = new Object();
+    private transient ScheduledFuture<?> refreshTask;
+    /** Seconds before expiry the authorizationHeader is refreshed */
+    private long tokenRefreshAhead = DEFAULT_TOKEN_REFRESH_AHEAD;
 
     /** We can make two types of requests, to different hosts/URLs, one is for the REST API requests 
-     * and the other for the authorization URL we need to go to if we don't have a valid authorizationHeader
+     * and the other for the authorization URL we need to go to if we don't have a valid authorizationHeader.
+     * The clients are pooled, as every signature is a blocking REST call, and are created in init.
      */
-    private CloseableHttpClient httpClient = HttpClientBuilder.create().build();
-    private CloseableHttpClient authHttpClient = HttpClientBuilder.create().build();
+    private transient CloseableHttpClient httpClient;
+    private transient CloseableHttpClient authHttpClient;
+
+    /** Shared by all instances, for refreshing authorizationHeaders in the background.
+     * Only exists while some instance has a refresh scheduled, see refreshUsers. */
+    private static ScheduledExecutorService refreshExecutor;
+
+    /** Number of instances with a refresh scheduled in the refreshExecutor */
+    private static int refreshUsers;
 
     /** Property for storing the key vault type in the crypto token properties.
      * Key Vault Type is the "pricing tier" as it says when creating an Azure Key Vault, it is also called SKU_TYPE somewhere else.
@@ -127,12 +159,47 @@ public class AzureCryptoToken extends BaseCryptoToken {
      * It is recommended by MS that we should use client certificate authentication instead of id/secret. You get the id/secret or client certificate from AD.
      */ 
     public static final String KEY_VAULT_CLIENTID = "keyVaultClientID";    
+
+    /** Property for the maximum number of pooled connections to the key vault, default 64. */
+    public static final String KEY_VAULT_MAX_CONNECTIONS = "keyVaultMaxConnections";
+
+    /** Property for how long, in seconds, an idle connection to the key vault is kept alive, default 60.
+     * A shorter time sent by the server in a Keep-Alive header takes precedence.
+     */
+    public static final String KEY_VAULT_KEEP_ALIVE = "keyVaultKeepAlive";
+
+    /** Property for how many seconds before it expires the authorization token is refreshed in the background, default 300.
+     * The token is only refreshed if it has been used since it was fetched, so an idle crypto token authorizes again on the next request instead.
+     */
+    public static final String KEY_VAULT_TOKEN_REFRESH_AHEAD = "keyVaultTokenRefreshAhead";
+
+    /** Property for how long, in seconds, public keys are cached per alias, default 600. A value of 0 or less disables the cache.
+     * The cache entry is removed when the key is deleted or generated through this crypto token.
+     */
+    public static final String KEY_VAULT_PUBLIC_KEY_CACHE_TIME = "keyVaultPublicKeyCacheTime";
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 64;
+    private static final long DEFAULT_KEEP_ALIVE = 60;
+    private static final long DEFAULT_TOKEN_REFRESH_AHEAD = 300;
+    private static final long DEFAULT_PUBLIC_KEY_CACHE_TIME = 600;
+    /** Connections to the authorization server are only used for the occasional token request */
+    private static final int AUTH_MAX_CONNECTIONS = 2;
+    /** Margin in milliseconds for clock differences when deciding if the authorizationHeader has expired */
+    private static final long EXPIRY_MARGIN = 30000;
     
     /** Cache for key aliases, to speed things up so we don't have to make multiple REST calls all the time to list aliases and public keys
      * We cache for a short time, 30 seconds to speed up GUI operations, but still allow for key generation on different nodes in a cluster, just leaving the 
      * other node not knowing of the new key for 30 seconds 
      */
     private KeyAliasesCache aliasCache = new KeyAliasesCache();
+
+    /** Cache of public keys per alias. Separate from the aliasCache, which is flushed every time the aliases are listed, as
+     * the public key is needed for every signature and a key with a given name only changes if it is generated again.
+     */
+    private final transient Map<String, CachedPublicKey> publicKeyCache = new ConcurrentHashMap<>();
+    private final transient Map<String, Object> publicKeyLocks = new ConcurrentHashMap<>();
+    /** Milliseconds to cache public keys for */
+    private long publicKeyCacheTime = DEFAULT_PUBLIC_KEY_CACHE_TIME * 1000;
     
     private static volatile PublicKey ecPublicDummyKey = null;
     private static final byte[] ecPublicKeyBytes = Base64.decode(("MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAEAnXBeTH4xcl2c8VBZqtfgCTa+5sc" + 
@@ -207,6 +274,21 @@ public class AzureCryptoToken extends BaseCryptoToken {
         clientID = properties.getProperty(AzureCryptoToken.KEY_VAULT_CLIENTID);
         log.info("Initializing Azure Key Vault: Type=" + properties.getProperty(AzureCryptoToken.KEY_VAULT_TYPE) + 
                 ", Name=" + keyVaultName + ", clientID=" + clientID);
+
+        final int maxConnections = (int) getLongProperty(properties, KEY_VAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+        if (maxConnections < 1) {
+            throw new NumberFormatException("Value for " + KEY_VAULT_MAX_CONNECTIONS + " must be at least 1: " + maxConnections);
+        }
+        final long keepAlive = getLongProperty(properties, KEY_VAULT_KEEP_ALIVE, DEFAULT_KEEP_ALIVE);
+        tokenRefreshAhead = getLongProperty(properties, KEY_VAULT_TOKEN_REFRESH_AHEAD, DEFAULT_TOKEN_REFRESH_AHEAD);
+        publicKeyCacheTime = getLongProperty(properties, KEY_VAULT_PUBLIC_KEY_CACHE_TIME, DEFAULT_PUBLIC_KEY_CACHE_TIME) * 1000;
+        if (log.isDebugEnabled()) {
+            log.debug("Azure Key Vault maxConnections=" + maxConnections + ", keepAlive=" + keepAlive + ", tokenRefreshAhead=" + tokenRefreshAhead
+                    + ", publicKeyCacheTime=" + publicKeyCacheTime);
+        }
+        closeHttpClients();
+        httpClient = createHttpClient(maxConnections, keepAlive);
+        authHttpClient = createHttpClient(AUTH_MAX_CONNECTIONS, keepAlive);
         
         // Install the Azure key vault signature provider for this crypto token
         Provider sigProvider = Security.getProvider(getAzureProviderName(id));
@@ -228,6 +310,67 @@ public class AzureCryptoToken extends BaseCryptoToken {
         }
     }
 
+    /**
+     * @param properties to read from
+     * @param name of the property
+     * @param defaultValue to use if the property is not set
+     * @return the property value
+     * @throws NumberFormatException in case the value is not a number
+     */
+    private static long getLongProperty(final Properties properties, final String name, final long defaultValue) throws NumberFormatException {
+        final String value = properties.getProperty(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Illegal value for " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Creates an HTTP client with a pool of connections, all to the same route in practice, kept alive for reuse.
+     *
+     * @param maxConnections maximum number of connections
+     * @param keepAlive maximum number of seconds to keep an idle connection
+     * @return the new client
+     */
+    static CloseableHttpClient createHttpClient(final int maxConnections, final long keepAlive) {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(keepAlive, TimeUnit.SECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        // Connections closed by the server while idle in the pool are detected before being used
+        connectionManager.setValidateAfterInactivity(2000);
+        final ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            // Use the time from the server, if any, but never longer than configured
+            final HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                final HeaderElement element = it.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && NumberUtils.isDigits(element.getValue())) {
+                    return Math.min(Long.parseLong(element.getValue()), keepAlive) * 1000;
+                }
+            }
+            return keepAlive * 1000;
+        };
+        return HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .build();
+    }
+
+    private void closeHttpClients() {
+        for (CloseableHttpClient client : new CloseableHttpClient[] {httpClient, authHttpClient}) {
+            if (client != null) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    log.debug("Failed to close HTTP client: " + e.getMessage());
+                }
+            }
+        }
+    }
+
     @Override
     public int getTokenStatus() {
         // Keep status in memory. As this method is called very often we don't want to make REST calls every time
@@ -313,7 +456,7 @@ public class AzureCryptoToken extends BaseCryptoToken {
     }
 
     private CloseableHttpResponse listKeysRESTCall() throws CryptoTokenAuthenticationFailedException, CryptoTokenOfflineException {
-        HttpGet request = new HttpGet(createFullKeyURL(null, getKeyVaultName()) + "?api-version=7.0");
+        HttpGet request = new HttpGet(createKeyURL(null) + "?api-version=7.0");
         return performRequest(request);
     }
 
@@ -324,6 +467,9 @@ public class AzureCryptoToken extends BaseCryptoToken {
      * 2. Authorization request - response is an authorizationToken
      * 3. "First" request again, this time with the newly fetched authorizationToken
      * 
+     * Once the authorization URL is known, an authorizationToken about to expire is refreshed in the background, or before
+     * the request if that did not happen, so the first request does not have to fail.
+     * 
      * @param request
      * @return CloseableHttpResponse with the response, the caller is responsible for closing it
      * @throws CryptoTokenAuthenticationFailedException
@@ -335,7 +481,13 @@ public class AzureCryptoToken extends BaseCryptoToken {
             throw new CryptoTokenOfflineException("Crypto token is not active, there is no client secret available: " + request.toString());
         }
         try {
-            CloseableHttpResponse response = performRESTAPIRequest(request);
+            authorizationLastUsed = System.currentTimeMillis();
+            String usedAuthorizationHeader = authorizationHeader;
+            if (usedAuthorizationHeader != null && isAuthorizationExpired()) {
+                log.debug("Authorization token has expired, fetching a new one before the request");
+                usedAuthorizationHeader = fetchAuthorizationHeader(usedAuthorizationHeader);
+            }
+            CloseableHttpResponse response = performRESTAPIRequest(request, usedAuthorizationHeader);
             final int requestStatusCode = response.getStatusLine().getStatusCode();
             if (requestStatusCode == 401) {
                 log.debug("Got access denied calling key vault, try to get authentication URI and fetch auth token");
@@ -343,84 +495,230 @@ public class AzureCryptoToken extends BaseCryptoToken {
                 final Header lastHeader = response.getLastHeader("WWW-Authenticate");
                 // Close as soon as possible, we don't need this response, it's an "Error Response" for invalid_token 
                 response.close();
-                final HeaderElement[] elements = lastHeader.getElements();
-                String oauthServiceURL = null;
-                String oauthResource = null;
-                for (HeaderElement element : elements) {
-                    final String elementName = element.getName();
-                    if (log.isDebugEnabled()) {
-                        log.debug("Investigating WWW-Authenticate HeaderElement: " + elementName);
-                    }
-                    // "Bearer authorization_uri", see https://docs.microsoft.com/en-us/azure/active-directory/develop/v1-protocols-oauth-code.
-                    // The actual response does not seem to match the documentation at the URL above though, as it returns for example:
-                    // Bearer authorization="https://login.windows.net/8375a5cc-74ce-45e8-abc1-00a87441a554"
-                    // resource="https://vault.azure.net"
-                    // We play it safe and look for both values, the doc and the actual return
-                    if (elementName.equals("Bearer authorization") || elementName.equals("Bearer authorization_uri")) {
-                        oauthServiceURL = element.getValue();
-                        if (log.isDebugEnabled()) {
-                            log.debug("Found a Bearer authorization uri: " + oauthServiceURL);
-                        }
-                    } else if (elementName.equals("resource") || elementName.equals("resource_id")) {
-                        // "resource_id" to be used as resource in request, see https://docs.microsoft.com/en-us/azure/active-directory/develop/v1-protocols-oauth-code.
-                        oauthResource = element.getValue();
-                        if (log.isDebugEnabled()) {
-                            log.debug("Found a resource ID: " + oauthResource);
-                        }
-                    }
+                parseAuthenticateHeader(lastHeader);
+                usedAuthorizationHeader = fetchAuthorizationHeader(usedAuthorizationHeader);
+                // Now we are authorized, make the request we came to this method for again
+                response = performRESTAPIRequest(request, usedAuthorizationHeader);
+            }
+            return response;
+        } catch (IOException | ParseException e) {
+            throw new CryptoTokenOfflineException(e);
+        }
+    }
+
+    /**
+     * Parses the authorization URI and resource from a WWW-Authenticate header.
+     *
+     * @param lastHeader WWW-Authenticate header of a 401 response
+     * @throws CryptoTokenAuthenticationFailedException in case there is no authorization URI
+     */
+    private void parseAuthenticateHeader(final Header lastHeader) throws CryptoTokenAuthenticationFailedException {
+        if (lastHeader == null) {
+            throw new CryptoTokenAuthenticationFailedException("We did not find a WWW-Authenticate header for a 401 response");
+        }
+        final HeaderElement[] elements = lastHeader.getElements();
+        String serviceURL = null;
+        String resource = null;
+        for (HeaderElement element : elements) {
+            final String elementName = element.getName();
+            if (log.isDebugEnabled()) {
+                log.debug("Investigating WWW-Authenticate HeaderElement: " + elementName);
+            }
+            // "Bearer authorization_uri", see https://docs.microsoft.com/en-us/azure/active-directory/develop/v1-protocols-oauth-code.
+            // The actual response does not seem to match the documentation at the URL above though, as it returns for example:
+            // Bearer authorization="https://login.windows.net/8375a5cc-74ce-45e8-abc1-00a87441a554"
+            // resource="https://vault.azure.net"
+            // We play it safe and look for both values, the doc and the actual return
+            if (elementName.equals("Bearer authorization") || elementName.equals("Bearer authorization_uri")) {
+                serviceURL = element.getValue();
+                if (log.isDebugEnabled()) {
+                    log.debug("Found a Bearer authorization uri: " + serviceURL);
                 }
-                if (oauthServiceURL == null) {
-                    throw new CryptoTokenAuthenticationFailedException("We did not find a 'Bearer authorization' uri in the WWW-Authenticate for a 401 response");
+            } else if (elementName.equals("resource") || elementName.equals("resource_id")) {
+                // "resource_id" to be used as resource in request, see https://docs.microsoft.com/en-us/azure/active-directory/develop/v1-protocols-oauth-code.
+                resource = element.getValue();
+                if (log.isDebugEnabled()) {
+                    log.debug("Found a resource ID: " + resource);
                 }
-                final HttpPost request1 = new HttpPost(oauthServiceURL + "/oauth2/token");
-                final ArrayList<NameValuePair> parameters = new ArrayList<>();
-                parameters.add(new BasicNameValuePair("grant_type", "client_credentials"));                
-                // ECA-8473: We only support client_secret for authentication right now. A more recommended way is to use certificate to authenticate.
-                parameters.add(new BasicNameValuePair("client_id", clientID));
-                parameters.add(new BasicNameValuePair("client_secret", clientSecret));
+            }
+        }
+        if (serviceURL == null) {
+            throw new CryptoTokenAuthenticationFailedException("We did not find a 'Bearer authorization' uri in the WWW-Authenticate for a 401 response");
+        }
+        oauthServiceURL = serviceURL;
+        oauthResource = resource;
+    }
+
+    /**
+     * @return true if the authorizationHeader is known to have expired, or is about to
+     */
+    private boolean isAuthorizationExpired() {
+        final long expiry = authorizationExpiry;
+        return expiry != 0 && oauthServiceURL != null && System.currentTimeMillis() + EXPIRY_MARGIN >= expiry;
+    }
+
+    /**
+     * Fetches a new authorizationHeader from the authorization URI, unless another thread already replaced the stale one
+     * while waiting, so that concurrent requests failing at the same time only cause one authorization request.
+     *
+     * @param staleAuthorizationHeader the authorizationHeader that was rejected or expired, or null
+     * @return the authorizationHeader to use
+     * @throws CryptoTokenAuthenticationFailedException in case the authorization was denied or failed
+     * @throws IOException in case of communication failure
+     * @throws ParseException in case the response could not be parsed
+     */
+    private String fetchAuthorizationHeader(final String staleAuthorizationHeader) throws CryptoTokenAuthenticationFailedException, IOException, ParseException {
+        synchronized (authorizationLock) {
+            final String current = authorizationHeader;
+            if (current != null && !current.equals(staleAuthorizationHeader)) {
+                log.debug("Authorization header already refreshed by another thread");
+                return current;
+            }
+            final HttpPost request1 = new HttpPost(oauthServiceURL + "/oauth2/token");
+            final ArrayList<NameValuePair> parameters = new ArrayList<>();
+            parameters.add(new BasicNameValuePair("grant_type", "client_credentials"));                
+            // ECA-8473: We only support client_secret for authentication right now. A more recommended way is to use certificate to authenticate.
+            parameters.add(new BasicNameValuePair("client_id", clientID));
+            parameters.add(new BasicNameValuePair("client_secret", clientSecret));
+            if (log.isDebugEnabled()) {
+                log.debug("Using client_id and client_secret: '" + clientID + (StringUtils.isNotEmpty(clientSecret) ? ":<nologgingcleartextpasswords>'" : ":<empty pwd>"));
+            }
+            parameters.add(new BasicNameValuePair("resource", oauthResource));
+            request1.setEntity(new UrlEncodedFormEntity(parameters));
+            if (log.isDebugEnabled()) {
+                log.debug("Authorization request: " + request1.toString());
+            }
+            try (final CloseableHttpResponse authResponse = authHttpClient.execute(request1)) {
+                final int authStatusCode = authResponse.getStatusLine().getStatusCode();
                 if (log.isDebugEnabled()) {
-                    log.debug("Using client_id and client_secret: '" + clientID + (StringUtils.isNotEmpty(clientSecret) ? ":<nologgingcleartextpasswords>'" : ":<empty pwd>"));
+                    log.debug("Status code for authorization request is: " + authStatusCode);
+                    log.debug("Response.toString: " + authResponse.toString());
                 }
-                parameters.add(new BasicNameValuePair("resource", oauthResource));
-                request1.setEntity(new UrlEncodedFormEntity(parameters));
+                final String s = IOUtils.toString(authResponse.getEntity().getContent(), StandardCharsets.UTF_8);
                 if (log.isDebugEnabled()) {
-                    log.debug("Authorization request: " + request1.toString());
+                    log.debug("Authorization JSON response: " + s);
                 }
-                try (final CloseableHttpResponse authResponse = authHttpClient.execute(request1)) {
-                    final int authStatusCode = authResponse.getStatusLine().getStatusCode();
-                    if (log.isDebugEnabled()) {
-                        log.debug("Status code for authorization request is: " + authStatusCode);
-                        log.debug("Response.toString: " + authResponse.toString());
+                final JSONParser jsonParser = new JSONParser();
+                final JSONObject parse = (JSONObject) jsonParser.parse(s);
+                if (authStatusCode == 401 || authStatusCode == 400) { // 401 expected for no secret or wrong secret, 400 expected for wrong client_id
+                    authorizationHeader = null;
+                    authorizationExpiry = 0;
+                    log.info("Authorization denied with statusCode " + authStatusCode + " for Azure Crypto Token authentication call to URI " + request1.getURI() + ", for client_id " + clientID);
+                    throw new CryptoTokenAuthenticationFailedException("Azure Crypto Token authorization denied, JSON response: " + s);
+                } else if (authStatusCode == 200) {
+                    final String access_token = (String) parse.get("access_token");
+                    final long now = System.currentTimeMillis();
+                    authorizationHeader = "Bearer " + access_token;
+                    authorizationFetched = now;
+                    // expires_in is a number of seconds, sent as a string by the v1 endpoint
+                    final Object expiresIn = parse.get("expires_in");
+                    if (expiresIn != null && NumberUtils.isDigits(expiresIn.toString())) {
+                        authorizationExpiry = now + Long.parseLong(expiresIn.toString()) * 1000;
+                        scheduleAuthorizationRefresh();
+                    } else {
+                        authorizationExpiry = 0;
                     }
-                    final String s = IOUtils.toString(authResponse.getEntity().getContent(), StandardCharsets.UTF_8);
                     if (log.isDebugEnabled()) {
-                        log.debug("Authorization JSON response: " + s);
-                    }
-                    final JSONParser jsonParser = new JSONParser();
-                    final JSONObject parse = (JSONObject) jsonParser.parse(s);
-                    if (authStatusCode == 401 || authStatusCode == 400) { // 401 expected for no secret or wrong secret, 400 expected for wrong client_id
-                        authorizationHeader = null;
-                        log.info("Authorization denied with statusCode " + authStatusCode + " for Azure Crypto Token authentication call to URI " + request1.getURI() + ", for client_id " + clientID);
-                        throw new CryptoTokenAuthenticationFailedException("Azure Crypto Token authorization denied, JSON response: " + s);
-                    } else if (authStatusCode == 200) {
-                        final String access_token = (String) parse.get("access_token");
-                        authorizationHeader = "Bearer " + access_token;
-                        if (log.isDebugEnabled()) {
-                            log.debug("Authorization header from authentication response: " + authorizationHeader);
-                        }
-                        // Now we are authorized, make the request we came to this method for again
-                        response = performRESTAPIRequest(request);
-                    } else {
-                        throw new CryptoTokenAuthenticationFailedException("Azure Crypto Token authorization failed with unknown response code " + authStatusCode + ", JSON response: " + s);
+                        log.debug("Authorization header from authentication response: " + authorizationHeader + ", expires in: " + expiresIn);
                     }
+                    return authorizationHeader;
+                } else {
+                    throw new CryptoTokenAuthenticationFailedException("Azure Crypto Token authorization failed with unknown response code " + authStatusCode + ", JSON response: " + s);
                 }
             }
-            return response;
-        } catch (IOException | ParseException e) {
-            throw new CryptoTokenOfflineException(e);
         }
     }
 
+    /**
+     * Schedules the task in the shared refreshExecutor, creating the executor
+     * if this is the first instance with a refresh scheduled.
+     * @param previous the task this instance already had scheduled or null
+     * @return the scheduled task
+     */
+    private static synchronized ScheduledFuture<?> scheduleRefresh(final ScheduledFuture<?> previous, final Runnable task, final long delay) {
+        if (previous == null) {
+            if (refreshUsers++ == 0) {
+                refreshExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    final Thread thread = new Thread(r, "AzureCryptoToken-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        } else {
+            previous.cancel(false);
+        }
+        return refreshExecutor.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the task and shuts down the shared refreshExecutor if no other
+     * instance has a refresh scheduled, i.e. after the last token has been
+     * deactivated or has been replaced at reload.
+     * @param task the task this instance has scheduled
+     */
+    private static synchronized void releaseRefresh(final ScheduledFuture<?> task) {
+        task.cancel(false);
+        if (--refreshUsers == 0) {
+            refreshExecutor.shutdown();
+            refreshExecutor = null;
+        }
+    }
+
+    /** Schedules a refresh of the authorizationHeader tokenRefreshAhead seconds before it expires, or half way if the token lives shorter. */
+    private void scheduleAuthorizationRefresh() {
+        final long now = System.currentTimeMillis();
+        long delay = authorizationExpiry - now - tokenRefreshAhead * 1000;
+        if (delay <= 0) {
+            delay = (authorizationExpiry - now) / 2;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Scheduling refresh of authorization token in " + delay + " ms");
+        }
+        refreshTask = scheduleRefresh(refreshTask, this::refreshAuthorization, delay);
+    }
+
+    private void cancelAuthorizationRefresh() {
+        final ScheduledFuture<?> task = refreshTask;
+        if (task != null) {
+            refreshTask = null;
+            releaseRefresh(task);
+        }
+    }
+
+    /** Refreshes the authorizationHeader in the background, if it is in use. */
+    private void refreshAuthorization() {
+        final String current = authorizationHeader;
+        if (current == null || StringUtils.isEmpty(clientSecret)) {
+            return;
+        }
+        if (authorizationLastUsed < authorizationFetched) {
+            log.debug("Authorization token not used since it was fetched, not refreshing it");
+            // Not used anymore, i.e. idle or replaced at reload, so no longer keep the executor
+            synchronized (authorizationLock) {
+                if (authorizationHeader == current) {
+                    cancelAuthorizationRefresh();
+                }
+            }
+            return;
+        }
+        try {
+            fetchAuthorizationHeader(current);
+        } catch (CryptoTokenAuthenticationFailedException | IOException | ParseException | RuntimeException e) {
+            // The next request will try again
+            log.info("Failed to refresh authorization token in the background: " + e.getMessage());
+        }
+    }
+
+    /** @return true if the shared refreshExecutor exists, for tests */
+    static synchronized boolean isRefreshExecutorRunning() {
+        return refreshExecutor != null;
+    }
+
+    /** @return the current authorizationHeader or null, for tests */
+    String getAuthorizationHeader() {
+        return authorizationHeader;
+    }
+
     /** 
      * @param alias the key alias you want to access, or null if the key alias should be left out of the returned URL
      * @return a URL to access a key (without trailing /), i.e. https://vaultname.vault.azure.net/keys/alias, or if alias is null https://vaultname.vault.azure.net/keys
@@ -439,7 +737,16 @@ public class AzureCryptoToken extends BaseCryptoToken {
         }
      }
 
-    private CloseableHttpResponse performRESTAPIRequest(HttpRequestBase request) throws IOException {
+    /**
+     * @param alias the key alias you want to access, or null
+     * @return a URL to access a key in this key vault
+     * @see #createFullKeyURL(String, String)
+     */
+    protected String createKeyURL(final String alias) {
+        return createFullKeyURL(alias, getKeyVaultName());
+    }
+
+    private CloseableHttpResponse performRESTAPIRequest(HttpRequestBase request, String authorizationHeader) throws IOException {
         // Set the cached authorization token if we have any. If the token has expired, or we don't have a cached token, it will return http 401 and we can get a new one
         request.setHeader("Authorization", authorizationHeader);
         if (log.isDebugEnabled()) {
@@ -464,8 +771,9 @@ public class AzureCryptoToken extends BaseCryptoToken {
     public void deactivate() {
         log.debug(">deactivate");
         clientSecret = null;
-        authorizationHeader = null;
+        clearAuthorization();
         aliasCache.flush();
+        publicKeyCache.clear();
         status = STATUS_OFFLINE;        
     }
 
@@ -473,8 +781,17 @@ public class AzureCryptoToken extends BaseCryptoToken {
     public void reset() {
         log.debug(">reset");
         clientSecret = null;
-        authorizationHeader = null;
+        clearAuthorization();
         aliasCache.flush();
+        publicKeyCache.clear();
+    }
+
+    private void clearAuthorization() {
+        synchronized (authorizationLock) {
+            cancelAuthorizationRefresh();
+            authorizationHeader = null;
+            authorizationExpiry = 0;
+        }
     }
 
     @Override
@@ -490,7 +807,7 @@ public class AzureCryptoToken extends BaseCryptoToken {
             // remove the key from azure
             // https://docs.microsoft.com/en-us/rest/api/keyvault/deletekey/deletekey
             // DELETE {vaultBaseUrl}/keys/{key-name}?api-version=7.0
-            HttpDelete request = new HttpDelete(createFullKeyURL(alias, getKeyVaultName()) + "?api-version=7.0");
+            HttpDelete request = new HttpDelete(createKeyURL(alias) + "?api-version=7.0");
             try (CloseableHttpResponse response = performRequest(request)) {
                 if (response.getStatusLine().getStatusCode() != 200) {
                     final InputStream content = response.getEntity().getContent();
@@ -507,6 +824,7 @@ public class AzureCryptoToken extends BaseCryptoToken {
                     }
                     // Remove the entry from our cache
                     aliasCache.removeEntry(id);
+                    publicKeyCache.remove(alias);
                 }
             } catch (CryptoTokenAuthenticationFailedException e) {
                 throw new CryptoTokenOfflineException(e);
@@ -572,7 +890,7 @@ public class AzureCryptoToken extends BaseCryptoToken {
             }
             str.append(", \"attributes\": {\"enabled\": true}}");
             //  generate key in our previously created key vault.
-            final HttpPost request = new HttpPost(createFullKeyURL(alias, getKeyVaultName()) + "/create?api-version=7.0");
+            final HttpPost request = new HttpPost(createKeyURL(alias) + "/create?api-version=7.0");
             request.setHeader("Content-Type", "application/json");
             try {
                 request.setEntity(new StringEntity(str.toString()));
@@ -600,6 +918,7 @@ public class AzureCryptoToken extends BaseCryptoToken {
                 // Update client key aliases next time we want to use one, could be done without having to update the whole cache, 
                 // but might as well as we don't cache for too long anyhow
                 aliasCache.flush();
+                publicKeyCache.remove(alias);
             } catch (CryptoTokenAuthenticationFailedException | IOException e) {
                 throw new CryptoTokenOfflineException(e);
             }
@@ -673,7 +992,7 @@ public class AzureCryptoToken extends BaseCryptoToken {
             final String msg = intres.getLocalizedMessage("token.errornosuchkey", alias);
             throw new CryptoTokenOfflineException(msg);
         }
-        final String keyurl = createFullKeyURL(alias, getKeyVaultName());
+        final String keyurl = createKeyURL(alias);
         if (log.isDebugEnabled()) {
             // This is a URI for Key Vault
             log.debug("getPrivateKey: " + keyurl);
@@ -683,18 +1002,33 @@ public class AzureCryptoToken extends BaseCryptoToken {
 
     @Override
     public PublicKey getPublicKey(String alias) throws CryptoTokenOfflineException {
-        PublicKey publicKey = null;
         if (StringUtils.isEmpty(alias)) {
             return null;
         }
         checkAliasName(alias);
+        CachedPublicKey cached = publicKeyCache.get(alias);
+        if (cached != null && cached.expiry > System.currentTimeMillis()) {
+            return cached.publicKey;
+        }
+        // Only one thread fetches a missing public key, the others wait for it
+        synchronized (publicKeyLocks.computeIfAbsent(alias, a -> new Object())) {
+            cached = publicKeyCache.get(alias);
+            if (cached != null && cached.expiry > System.currentTimeMillis()) {
+                return cached.publicKey;
+            }
+            return fetchPublicKey(alias);
+        }
+    }
+
+    private PublicKey fetchPublicKey(final String alias) throws CryptoTokenOfflineException {
+        PublicKey publicKey = null;
         if (aliasCache.shouldCheckForUpdates(alias.hashCode()) || aliasCache.getEntry(alias.hashCode()).equals(AzureCryptoToken.getDummyCacheKey()) ) {
             if (log.isDebugEnabled()) {
                 log.debug("Looking for public key with alias " + alias + ", and cache is expired or filled with dummyCacheKey. Will try to read it form Key Vault.");
             }
             try {
                 // connect to Azure and retrieve public key, use empty version string to get last version (don't check for existing key versions to save a round trip)
-                HttpGet request2 = new HttpGet(createFullKeyURL(alias, getKeyVaultName()) + "/?api-version=7.0");
+                HttpGet request2 = new HttpGet(createKeyURL(alias) + "/?api-version=7.0");
                 try (CloseableHttpResponse response = performRequest(request2)) {
                     final InputStream content = response.getEntity().getContent();
                     String s = null;
@@ -759,6 +1093,9 @@ public class AzureCryptoToken extends BaseCryptoToken {
                     }
                     aliasCache.removeEntry(alias.hashCode()); // Remove any dummy entry if it is there
                     aliasCache.updateWith(alias.hashCode(), alias.hashCode(), alias, publicKey);
+                    if (publicKeyCacheTime > 0) {
+                        publicKeyCache.put(alias, new CachedPublicKey(publicKey, System.currentTimeMillis() + publicKeyCacheTime));
+                    }
                 }
                 return publicKey;
             } catch (CryptoTokenAuthenticationFailedException | IOException | ParseException | NoSuchAlgorithmException | InvalidKeySpecException | NoSuchProviderException e) {
@@ -805,6 +1142,17 @@ public class AzureCryptoToken extends BaseCryptoToken {
     }
     */
 
+    /** Entry in the publicKeyCache */
+    private static class CachedPublicKey {
+        private final PublicKey publicKey;
+        private final long expiry;
+
+        CachedPublicKey(final PublicKey publicKey, final long expiry) {
+            this.publicKey = publicKey;
+            this.expiry = expiry;
+        }
+    }
+
     public class KeyVaultPrivateKey implements PrivateKey {
         private static final long serialVersionUID = 1L;
         private String keyURI;
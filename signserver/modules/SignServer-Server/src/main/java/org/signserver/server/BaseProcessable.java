@@ -42,6 +42,7 @@ import org.signserver.server.aliasselectors.AliasSelector;
 import org.signserver.server.aliasselectors.DefaultAliasSelector;
 import org.signserver.server.cryptotokens.CryptoInstances;
 import org.signserver.server.cryptotokens.CryptoTokenHelper;
+import org.signserver.server.cryptotokens.CryptoTokenActivity;
 import org.signserver.common.DuplicateAliasException;
 import org.signserver.server.cryptotokens.ICryptoInstance;
 import org.signserver.common.NoSuchAliasException;
@@ -376,6 +377,7 @@ public abstract class BaseProcessable extends BaseWorker implements IProcessable
                         properties.putAll(config.getProperties());
                         token.init(workerId, properties, services);
                         cryptoToken = token;
+                        CryptoTokenActivity.getInstance().register(workerId, config.getProperty("NAME"), token);
                     }
                 } catch (CryptoTokenInitializationFailureException e) {
                     final StringBuilder sb = new StringBuilder();
@@ -893,10 +895,16 @@ public abstract class BaseProcessable extends BaseWorker implements IProcessable
             // Request caching for the default key only
             newParams.put(ICryptoTokenV4.PARAM_CACHEPRIVATEKEY, worker.cachePrivateKey && alias != null && alias.equals(worker.config.getProperty(CryptoTokenHelper.PROPERTY_DEFAULTKEY)));
 
-            result = token.acquireCryptoInstance(alias, newParams, context);
+            final long start = System.nanoTime();
+            try {
+                result = token.acquireCryptoInstance(alias, newParams, context);
+            } finally {
+                CryptoInstances.getInstance(context).addAcquireTime(System.nanoTime() - start);
+            }
         } catch (NoSuchAliasException ex) {
             throw new CryptoTokenOfflineException("Key not available: " + ex.getMessage());
         }
+        CryptoTokenActivity.getInstance().recordUse(token);
 
         // Register the new instance
         CryptoInstances.getInstance(context).add(result);
@@ -1023,10 +1031,16 @@ public abstract class BaseProcessable extends BaseWorker implements IProcessable
             throw new CryptoTokenOfflineException("Crypto token not available");
         }
         try {
-            result = token.acquireCryptoInstance(alias, params, context);
+            final long start = System.nanoTime();
+            try {
+                result = token.acquireCryptoInstance(alias, params, context);
+            } finally {
+                CryptoInstances.getInstance(context).addAcquireTime(System.nanoTime() - start);
+            }
         } catch (NoSuchAliasException ex) {
             throw new CryptoTokenOfflineException("Key not available: " + ex.getMessage());
         }
+        CryptoTokenActivity.getInstance().recordUse(token);
 
         // Register the new instance
         CryptoInstances.getInstance(context).add(result);
@@ -19,6 +19,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 import javax.persistence.EntityManager;
+import javax.security.auth.x500.X500Principal;
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.util.DNFieldExtractor;
 import org.cesecore.util.CertTools;
@@ -45,6 +46,12 @@ public class ClientCertAuthorizer implements IAuthorizer {
     private static final Logger LOG = Logger.getLogger(ClientCertAuthorizer.class);
 
     private static final Pattern SERIAL_PATTERN = Pattern.compile("\\bSERIALNUMBER=", Pattern.CASE_INSENSITIVE);
+
+    /** Names in BC style from X500Principal.getName(), shared by all instances. */
+    private static final DNCache PRINCIPAL_DN_CACHE = new DNCache(DNCache.DEFAULT_MAX_ENTRIES);
+
+    /** Subject DNs as given by CertTools.getSubjectDN, shared by all instances. */
+    private static final DNCache SUBJECT_DN_CACHE = new DNCache(DNCache.DEFAULT_MAX_ENTRIES);
     
     private int workerId;
 
@@ -96,9 +103,9 @@ public class ClientCertAuthorizer implements IAuthorizer {
             if (!authorizedToRequestSignature(clientCert)) {
                 throw new IllegalRequestException("Worker " + workerId + ": "
                         + "Client is not authorized: "
-                        + "\"" + CertTools.stringToBCDNString(clientCert.getSubjectX500Principal().getName()) + "\", "
+                        + "\"" + toBCDNString(clientCert.getSubjectX500Principal()) + "\", "
                         + "\"" + clientCert.getSerialNumber().toString(16)
-                        + ", " + CertTools.stringToBCDNString(clientCert.getIssuerX500Principal().getName()) + "\"");
+                        + ", " + toBCDNString(clientCert.getIssuerX500Principal()) + "\"");
             }
         }
     }
@@ -137,7 +144,7 @@ public class ClientCertAuthorizer implements IAuthorizer {
 
         // Only one MatchIssuerType is supported now
         MatchIssuerWithType matchIssuerWithType = MatchIssuerWithType.ISSUER_DN_BCSTYLE;
-        final String clientIssuerDN = CertTools.stringToBCDNString(clientCert.getIssuerX500Principal().getName());
+        final String clientIssuerDN = toBCDNString(clientCert.getIssuerX500Principal());
         
         for (final AuthorizedClientEntry authClient : authorizedClients) {
             MatchSubjectWithType matchSubjectWithType = authClient.getMatchSubjectWithType();
@@ -153,7 +160,8 @@ public class ClientCertAuthorizer implements IAuthorizer {
                 }
             } else {
                 // See X509CertificateAuthenticationToken in EJBCA/CESeCore
-                String certstring = CertTools.getSubjectDN(clientCert);
+                String certstring = SUBJECT_DN_CACHE.get(clientCert.getSubjectX500Principal(),
+                        () -> CertTools.getSubjectDN(clientCert));
                 certstring = SERIAL_PATTERN.matcher(certstring).replaceAll("SN=");
                 final String altNameString = CertTools.getSubjectAlternativeName(clientCert);
                 final DNFieldExtractor dnExtractor = new DNFieldExtractor(certstring, DNFieldExtractor.TYPE_SUBJECTDN);
@@ -225,4 +233,12 @@ public class ClientCertAuthorizer implements IAuthorizer {
 
         return ruleMatched;
     }
+
+    /**
+     * @param name to get the DN for
+     * @return the name in BC style, from the cache if available
+     */
+    private static String toBCDNString(final X500Principal name) {
+        return PRINCIPAL_DN_CACHE.get(name, () -> CertTools.stringToBCDNString(name.getName()));
+    }
 }
@@ -0,0 +1,180 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Bounded cache of normalized distinguished names.
+ *
+ * Normalizing a DN, i.e. parsing it and producing the BouncyCastle style
+ * string, is done for every request on the authorization and logging paths
+ * even though the same few client and signer certificates are seen over and
+ * over again. This cache keeps the normalized form keyed either by the raw
+ * DN string or by the DER encoding of the name, so that equal names from
+ * different certificate instances share the entry.
+ *
+ * The normalized strings are interned so that names from the different
+ * paths refer to the same instance and equals comparisons between them
+ * return directly.
+ *
+ * When the maximum number of entries is reached an arbitrary entry is
+ * evicted for each new one. As the number of distinct names is normally
+ * small compared to the size this is only to protect against a client
+ * presenting an unbounded number of different names.
+ *
+ * All methods are thread-safe. The normalizer might be invoked more than
+ * once for the same name by concurrent callers, so it should not have side
+ * effects.
+ *
+ * @version $Id$
+ */
+public class DNCache {
+
+    /** Default maximum number of entries. */
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<Object, String> entries;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxEntries maximum number of names to keep
+     */
+    public DNCache(final int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Max entries must be at least 1");
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new ConcurrentHashMap<>(Math.min(maxEntries, 256));
+    }
+
+    /**
+     * Gets the normalized form of a DN string.
+     *
+     * @param dn raw DN to look up, null gives null
+     * @param normalizer computing the normalized form if not cached
+     * @return the normalized DN or null if the normalizer returned null
+     */
+    public String get(final String dn, final Supplier<String> normalizer) {
+        if (dn == null) {
+            return null;
+        }
+        return lookup(dn, normalizer);
+    }
+
+    /**
+     * Gets the normalized form of a name, using the DER encoding as key.
+     *
+     * @param name to look up, null gives null
+     * @param normalizer computing the normalized form if not cached
+     * @return the normalized DN or null if the normalizer returned null
+     */
+    public String get(final X500Principal name, final Supplier<String> normalizer) {
+        return get(name, null, normalizer);
+    }
+
+    /**
+     * Gets the normalized form of a name, using the DER encoding together
+     * with a qualifier as key.
+     *
+     * The qualifier is for when the normalized form does not only depend on
+     * the encoding, i.e. the name of the certificate implementation class
+     * when the string representation of that class is cached.
+     *
+     * @param name to look up, null gives null
+     * @param qualifier to distinguish the entry with or null
+     * @param normalizer computing the normalized form if not cached
+     * @return the normalized DN or null if the normalizer returned null
+     */
+    public String get(final X500Principal name, final String qualifier, final Supplier<String> normalizer) {
+        if (name == null) {
+            return null;
+        }
+        return lookup(new EncodedName(name.getEncoded(), qualifier), normalizer);
+    }
+
+    private String lookup(final Object key, final Supplier<String> normalizer) {
+        String result = entries.get(key);
+        if (result == null) {
+            result = normalizer.get();
+            if (result != null) {
+                result = result.intern();
+                if (entries.size() >= maxEntries) {
+                    evict();
+                }
+                entries.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    private void evict() {
+        final Iterator<Object> it = entries.keySet().iterator();
+        if (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return current number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Key wrapping the DER encoding of a name.
+     */
+    private static final class EncodedName {
+        private final byte[] encoded;
+        private final String qualifier;
+        private final int hash;
+
+        EncodedName(final byte[] encoded, final String qualifier) {
+            this.encoded = encoded;
+            this.qualifier = qualifier;
+            this.hash = 31 * Arrays.hashCode(encoded) + Objects.hashCode(qualifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof EncodedName)) {
+                return false;
+            }
+            final EncodedName other = (EncodedName) o;
+            return hash == other.hash
+                    && Objects.equals(qualifier, other.qualifier)
+                    && Arrays.equals(encoded, other.encoded);
+        }
+    }
+}
@@ -72,6 +72,13 @@ public class GlobalConfigSampleAccounter implements IAccounter {
     public boolean purchase(final IClientCredential credential,
             final Request request, final Response response,
             final RequestContext context) throws AccounterException {
+        return purchase(credential, request, response, context, 1);
+    }
+
+    @Override
+    public boolean purchase(final IClientCredential credential,
+            final Request request, final Response response,
+            final RequestContext context, final int items) throws AccounterException {
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("purchase called for "
@@ -139,7 +146,7 @@ public class GlobalConfigSampleAccounter implements IAccounter {
         }
 
         // Purchase
-        balance -= 1;
+        balance -= items;
         accountsTable.put(accountNo, balance);
 
         // No funds
@@ -51,4 +51,34 @@ public interface IAccounter {
             Response response, RequestContext context)
                 throws AccounterException;
 
+    /**
+     * Call this method to charge the client for a response covering a number
+     * of items, such as a batch of signatures.
+     *
+     * The default implementation charges each item by calling
+     * purchase(IClientCredential, Request, Response, RequestContext) once per
+     * item and stops at the first one not granted. Implementations able to
+     * charge for all items at once should override this method.
+     *
+     * @param credential Credentials identifying the client
+     * @param request The request the client made
+     * @param response The response the worker put together
+     * @param context Various information such as transaction id as well as
+     * runtime dependencies such as an EntityManager.
+     * @param items Number of items to charge for
+     * @return True if the purchase was granted and performed for all items
+     * @throws AccounterException in case of error other than that the purchase
+     * was not granted
+     */
+    default boolean purchase(IClientCredential credential, Request request,
+            Response response, RequestContext context, int items)
+                throws AccounterException {
+        for (int i = 0; i < items; i++) {
+            if (!purchase(credential, request, response, context)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 }
@@ -170,6 +170,7 @@ import org.ejbca.cvc.CertificateParser;
 import org.ejbca.cvc.ReferenceField;
 import org.ejbca.cvc.exception.ConstructionException;
 import org.ejbca.cvc.exception.ParseException;
+import org.signserver.server.DNCache;
 
 /**
  * Tools to handle common certificate operations.
@@ -181,6 +182,9 @@ public abstract class CertTools {
 
     private static final InternalResources intres = InternalResources.getInstance();
 
+    /** Normalized DNs, keyed by the raw string or by the encoded certificate name. */
+    private static final DNCache DN_CACHE = new DNCache(DNCache.DEFAULT_MAX_ENTRIES);
+
     // Initialize dnComponents
     static {
         DnComponents.getDnObjects(true);
@@ -497,7 +501,11 @@ public abstract class CertTools {
      * 
      * @return String containing DN, or empty string if dn does not contain any real DN components, or null if input is null
      */
-    public static String stringToBCDNString(String dn) {
+    public static String stringToBCDNString(final String dn) {
+        return DN_CACHE.get(dn, () -> stringToBCDNStringUncached(dn));
+    }
+
+    private static String stringToBCDNStringUncached(String dn) {
         // BC now seem to handle multi-valued RDNs, but we keep escaping this for now to keep the behavior until support is required
         //dn = handleUnescapedPlus(dn); // Log warning if dn contains unescaped '+'
         if (isDNReversed(dn)) {
@@ -876,6 +884,16 @@ public abstract class CertTools {
      * @return String containing the DN, or null if cert is null.
      */
     private static String getDN(final Certificate cert, final int which) {
+        if (cert instanceof X509Certificate) {
+            // The DN only depends on the encoded name so parsing the certificate can be skipped when it has been seen before
+            final X509Certificate x509cert = (X509Certificate) cert;
+            return DN_CACHE.get(which == 1 ? x509cert.getSubjectX500Principal() : x509cert.getIssuerX500Principal(),
+                    () -> getDNUncached(cert, which));
+        }
+        return getDNUncached(cert, which);
+    }
+
+    private static String getDNUncached(final Certificate cert, final int which) {
         String ret = null;
         if (cert == null) {
             return null;
@@ -30,6 +30,8 @@ public class CryptoInstances {
     private static final String REQUESTCONTEXT_KEY = "CRYPTO_INSTANCES";
     
     private final Set<ICryptoInstance> instances = new HashSet<>();
+
+    private long acquireTime;
     
     /**
      * Get the CryptoInstances from the RequestContext or create and put a new 
@@ -67,6 +69,22 @@ public class CryptoInstances {
         return instances.remove(instance);
     }
     
+    /**
+     * Add to the time spent acquiring crypto instances in this transaction.
+     * @param nanos time in nanoseconds
+     */
+    public void addAcquireTime(final long nanos) {
+        acquireTime += nanos;
+    }
+
+    /**
+     * @return Total time in nanoseconds spent acquiring crypto instances in
+     * this transaction
+     */
+    public long getAcquireTime() {
+        return acquireTime;
+    }
+
     /**
      * @return An unmodifiable view of all the instances in this holder
      */
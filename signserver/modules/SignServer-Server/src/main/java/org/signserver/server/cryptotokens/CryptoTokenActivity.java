@@ -0,0 +1,105 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.cryptotokens;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.signserver.common.WorkerIdentifier;
+
+/**
+ * Keeps track of when crypto tokens were last used for a crypto operation,
+ * so that keep-alive probing can skip tokens that are already in use.
+ *
+ * A crypto token is registered by the worker it is configured in and its
+ * use is recorded each time a crypto instance is acquired from it, also when
+ * acquired by an other worker referencing the crypto worker. When a worker
+ * is reloaded the new token replaces the old one.
+ *
+ * @version $Id$
+ */
+public final class CryptoTokenActivity {
+
+    private static final CryptoTokenActivity INSTANCE = new CryptoTokenActivity();
+
+    private final Map<ICryptoTokenV4, Activity> byToken = new ConcurrentHashMap<>();
+    private final Map<Integer, Activity> byId = new ConcurrentHashMap<>();
+    /** Worker names are matched case-insensitively. */
+    private final Map<String, Activity> byName = new ConcurrentHashMap<>();
+
+    /** Last use of one crypto token. */
+    private static class Activity {
+        private final ICryptoTokenV4 token;
+        private volatile long lastUse;
+
+        Activity(final ICryptoTokenV4 token) {
+            this.token = token;
+        }
+    }
+
+    private CryptoTokenActivity() {
+    }
+
+    /**
+     * @return the instance for this JVM
+     */
+    public static CryptoTokenActivity getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the crypto token of a worker, replacing any token previously
+     * registered for the same worker.
+     *
+     * @param workerId ID of the worker the token is configured in
+     * @param workerName name of the worker or null
+     * @param token the crypto token
+     */
+    public void register(final int workerId, final String workerName, final ICryptoTokenV4 token) {
+        final Activity activity = new Activity(token);
+        byToken.put(token, activity);
+        remove(byId.put(workerId, activity));
+        if (workerName != null) {
+            remove(byName.put(workerName.toUpperCase(Locale.ENGLISH), activity));
+        }
+    }
+
+    private void remove(final Activity old) {
+        if (old != null) {
+            byToken.remove(old.token, old);
+        }
+    }
+
+    /**
+     * Records that the token was used now. Does nothing for tokens not
+     * registered.
+     *
+     * @param token the crypto token used
+     */
+    public void recordUse(final ICryptoTokenV4 token) {
+        final Activity activity = byToken.get(token);
+        if (activity != null) {
+            activity.lastUse = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param wi ID or name of the worker the token is configured in
+     * @return time in milliseconds the token was last used or 0 if it has not
+     * been used since it was registered or is not registered
+     */
+    public long getLastUse(final WorkerIdentifier wi) {
+        final Activity activity = wi.hasId() ? byId.get(wi.getId()) : byName.get(wi.getName().toUpperCase(Locale.ENGLISH));
+        return activity == null ? 0 : activity.lastUse;
+    }
+}
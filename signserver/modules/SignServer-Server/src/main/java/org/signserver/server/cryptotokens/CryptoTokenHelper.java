@@ -60,6 +60,7 @@ import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.bouncycastle.pkcs.PKCS10CertificationRequest;
 import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
 import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.keys.token.AzureCryptoToken;
 import org.cesecore.keys.token.p11.Pkcs11SlotLabelType;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.QueryParameterException;
@@ -146,6 +147,10 @@ public class CryptoTokenHelper {
     public static final String PROPERTY_KEY_VAULT_NAME = "KEY_VAULT_NAME";
     public static final String PROPERTY_KEY_VAULT_TYPE = "KEY_VAULT_TYPE";
     public static final String PROPERTY_KEY_VAULT_CLIENT_ID = "KEY_VAULT_CLIENT_ID";
+    public static final String PROPERTY_KEY_VAULT_MAX_CONNECTIONS = "KEY_VAULT_MAX_CONNECTIONS";
+    public static final String PROPERTY_KEY_VAULT_KEEP_ALIVE = "KEY_VAULT_KEEP_ALIVE";
+    public static final String PROPERTY_KEY_VAULT_TOKEN_REFRESH_AHEAD = "KEY_VAULT_TOKEN_REFRESH_AHEAD";
+    public static final String PROPERTY_KEY_VAULT_PUBLIC_KEY_CACHE_TIME = "KEY_VAULT_PUBLIC_KEY_CACHE_TIME";
 
     public enum TokenEntryFields {
         /** Key alias of entry. */
@@ -253,6 +258,26 @@ public class CryptoTokenHelper {
             props.setProperty("keyVaultClientID", prop);
         }
 
+        prop = props.getProperty(PROPERTY_KEY_VAULT_MAX_CONNECTIONS);
+        if (prop != null) {
+            props.setProperty(AzureCryptoToken.KEY_VAULT_MAX_CONNECTIONS, prop);
+        }
+
+        prop = props.getProperty(PROPERTY_KEY_VAULT_KEEP_ALIVE);
+        if (prop != null) {
+            props.setProperty(AzureCryptoToken.KEY_VAULT_KEEP_ALIVE, prop);
+        }
+
+        prop = props.getProperty(PROPERTY_KEY_VAULT_TOKEN_REFRESH_AHEAD);
+        if (prop != null) {
+            props.setProperty(AzureCryptoToken.KEY_VAULT_TOKEN_REFRESH_AHEAD, prop);
+        }
+
+        prop = props.getProperty(PROPERTY_KEY_VAULT_PUBLIC_KEY_CACHE_TIME);
+        if (prop != null) {
+            props.setProperty(AzureCryptoToken.KEY_VAULT_PUBLIC_KEY_CACHE_TIME, prop);
+        }
+
         prop = props.getProperty(PROPERTY_PIN);
         if (prop != null) {
             props.setProperty("pin", prop);
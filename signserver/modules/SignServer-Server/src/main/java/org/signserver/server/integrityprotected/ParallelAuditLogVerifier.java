@@ -0,0 +1,397 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.integrityprotected;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.cesecore.audit.audit.AuditLogReportElem;
+import org.cesecore.audit.audit.AuditLogValidationReport;
+import org.cesecore.audit.audit.AuditLogValidatorException;
+
+/**
+ * Verifies the sequence continuity and integrity protection of the audit log
+ * using a number of threads in parallel.
+ *
+ * The log of each node is split in ranges of sequence numbers which are
+ * verified independently of each other, at most the given number at a time,
+ * in the container's managed executor service as the rows are read through
+ * a local EJB. Each range is read one page at a
+ * time, starting after the last sequence number of the previous page, so
+ * only the pages currently being verified and the problems found are kept in
+ * memory. Gaps inside a range are reported directly, while gaps between two
+ * ranges are reported once both of them are done.
+ *
+ * The problems are reported as warnings in the same way as by the CESeCore
+ * IntegrityProtectedAuditorSessionBean. If a checkpoint file is given, the
+ * last sequence number up to which each node has been completely verified
+ * is written to it as the verification proceeds and a new verification
+ * using the same file continues from there. Problems found before the
+ * checkpoint was written are only reported by the earlier run.
+ *
+ * @version $Id$
+ */
+public class ParallelAuditLogVerifier {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ParallelAuditLogVerifier.class);
+
+    /** Default number of sequence numbers in each range. */
+    public static final long DEFAULT_RANGE_SIZE = 100000;
+
+    /** Default number of rows to load at a time. */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    /** Minimum time between two progress messages. */
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    private final SequencialIntegrityProtectedAuditorSessionLocal source;
+    private final ExecutorService executor;
+    private final int threads;
+    private final long rangeSize;
+    private final int fetchSize;
+    private final File checkpoint;
+
+    private final AtomicLong rows = new AtomicLong();
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private Properties previous;
+    private long startTime;
+    private long endTime;
+    private long lastProgress;
+
+    /** Set when a range failed so that the other ranges stop. */
+    private volatile boolean aborted;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param source to read the rows from
+     * @param executor managed executor service to verify the ranges in or
+     * null to verify them one at a time in the calling thread
+     * @param threads number of ranges to verify in parallel
+     * @param rangeSize number of sequence numbers in each range
+     * @param fetchSize number of rows to load at a time
+     * @param checkpoint file to write the progress to or null
+     */
+    public ParallelAuditLogVerifier(final SequencialIntegrityProtectedAuditorSessionLocal source,
+            final ExecutorService executor, final int threads, final long rangeSize, final int fetchSize, final File checkpoint) {
+        if (threads < 1 || rangeSize < 1 || fetchSize < 1) {
+            throw new IllegalArgumentException("Threads, range size and fetch size must be at least 1");
+        }
+        this.source = source;
+        this.executor = executor;
+        this.threads = threads;
+        this.rangeSize = rangeSize;
+        this.fetchSize = fetchSize;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Verifies all rows logged up to the given time.
+     *
+     * @param date to verify rows up to
+     * @param report to add the problems found to
+     * @throws AuditLogValidatorException in case the rows could not be read
+     * or the checkpoint could not be read or written
+     */
+    public void verify(final Date date, final AuditLogValidationReport report) throws AuditLogValidatorException {
+        final long maxTimeStamp = date.getTime();
+        previous = loadCheckpoint();
+        // Bounds the number of ranges verified at the same time
+        final Semaphore permits = new Semaphore(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        aborted = false;
+        startTime = System.currentTimeMillis();
+        lastProgress = startTime;
+        try {
+            for (String nodeId : source.getNodeIds()) {
+                final Long max = source.getMaxSequenceNumber(nodeId, maxTimeStamp);
+                final long after = Long.parseLong(previous.getProperty(nodeId, "-1"));
+                if (max == null || max <= after) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Nothing to verify for nodeId " + nodeId);
+                    }
+                    continue;
+                }
+                final Node node = new Node(nodeId, after);
+                synchronized (this) {
+                    nodes.put(nodeId, node);
+                }
+                for (long start = after; start < max; start += rangeSize) {
+                    final Range range = new Range(start, Math.min(max, start + rangeSize));
+                    node.ranges.add(range);
+                }
+                for (final Range range : node.ranges) {
+                    if (executor == null) {
+                        verifyRange(node, range, maxTimeStamp, report);
+                        continue;
+                    }
+                    permits.acquire();
+                    if (aborted) {
+                        permits.release();
+                        break;
+                    }
+                    try {
+                        futures.add(executor.submit(() -> {
+                            try {
+                                verifyRange(node, range, maxTimeStamp, report);
+                                return null;
+                            } catch (AuditLogValidatorException | RuntimeException ex) {
+                                aborted = true;
+                                throw ex;
+                            } finally {
+                                permits.release();
+                            }
+                        }));
+                    } catch (RejectedExecutionException ex) {
+                        permits.release();
+                        throw new AuditLogValidatorException("Failed to verify audit log: " + ex.getMessage(), ex);
+                    }
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AuditLogValidatorException("Interrupted while verifying audit log", ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof AuditLogValidatorException) {
+                throw (AuditLogValidatorException) cause;
+            }
+            throw new AuditLogValidatorException("Failed to verify audit log: " + cause.getMessage(), cause);
+        } finally {
+            // Stop the ranges still being verified after a failure and wait
+            // for them, so that they do not update the checkpoint after returning
+            aborted = true;
+            permits.acquireUninterruptibly(threads);
+            endTime = System.currentTimeMillis();
+        }
+        LOG.info("Verified " + rows.get() + " audit log rows in " + (endTime - startTime) + " ms ("
+                + getRowsPerSecond() + " rows/s) with " + report.warnings().size() + " warnings");
+    }
+
+    /**
+     * Verifies one range of rows.
+     */
+    private void verifyRange(final Node node, final Range range, final long maxTimeStamp,
+            final AuditLogValidationReport report) throws AuditLogValidatorException {
+        long previous = range.after;
+        long limit = range.end;
+        Long failed = null;
+        while (true) {
+            if (aborted) {
+                return;
+            }
+            final List<Long> page;
+            try {
+                page = previous >= limit ? Collections.<Long>emptyList()
+                        : source.verifyRange(node.nodeId, previous, limit, maxTimeStamp, fetchSize);
+            } catch (AuditRecordVerificationException ex) {
+                // The rows before the failed one in the page were not
+                // returned so get them first
+                failed = ex.getSequenceNumber();
+                limit = failed - 1;
+                continue;
+            }
+            if (page.isEmpty()) {
+                if (failed == null) {
+                    break;
+                }
+                seen(node, range, previous, failed, report);
+                warn(report, new AuditLogReportElem(previous, failed,
+                        "log with sequence number after " + previous + " on nodeId " + node.nodeId + " could not be verified"));
+                rows.incrementAndGet();
+                previous = failed;
+                failed = null;
+                limit = range.end;
+                continue;
+            }
+            for (Long sequenceNumber : page) {
+                seen(node, range, previous, sequenceNumber, report);
+                previous = sequenceNumber;
+            }
+            rows.addAndGet(page.size());
+        }
+        range.done = true;
+        completed(node, report);
+    }
+
+    /**
+     * Checks that the sequence number follows the previous one in the range.
+     */
+    private void seen(final Node node, final Range range, final long previous,
+            final long sequenceNumber, final AuditLogValidationReport report) {
+        if (range.first == null) {
+            range.first = sequenceNumber;
+        } else if (sequenceNumber != previous + 1) {
+            missing(node.nodeId, previous, sequenceNumber, report);
+        }
+        range.last = sequenceNumber;
+    }
+
+    /**
+     * Checks the continuity between the ranges of the node done so far and
+     * writes the checkpoint.
+     */
+    private void completed(final Node node, final AuditLogValidationReport report)
+            throws AuditLogValidatorException {
+        synchronized (node) {
+            while (node.next < node.ranges.size() && node.ranges.get(node.next).done) {
+                final Range range = node.ranges.get(node.next);
+                if (range.first != null) {
+                    if (range.first != node.verified + 1) {
+                        missing(node.nodeId, node.verified, range.first, report);
+                    }
+                    node.verified = range.last;
+                }
+                node.next++;
+            }
+        }
+        synchronized (this) {
+            if (checkpoint != null) {
+                storeCheckpoint();
+            }
+            final long now = System.currentTimeMillis();
+            if (now - lastProgress >= PROGRESS_INTERVAL) {
+                lastProgress = now;
+                LOG.info("Verified " + rows.get() + " audit log rows (" + rate(rows.get(), now - startTime) + " rows/s)");
+            }
+        }
+    }
+
+    private static void missing(final String nodeId, final long previous, final long sequenceNumber,
+            final AuditLogValidationReport report) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Log verification failure for log on node " + nodeId + ". Missing entry. Last sequenceNumber was "
+                    + previous + " and current is " + sequenceNumber);
+        }
+        warn(report, new AuditLogReportElem(previous + 1, sequenceNumber,
+                "missing log with sequence number " + (previous + 1) + " on nodeId " + nodeId));
+    }
+
+    private static void warn(final AuditLogValidationReport report, final AuditLogReportElem elem) {
+        synchronized (report) {
+            report.warn(elem);
+        }
+    }
+
+    private Properties loadCheckpoint() throws AuditLogValidatorException {
+        final Properties result = new Properties();
+        if (checkpoint != null && checkpoint.exists()) {
+            try (InputStream in = new FileInputStream(checkpoint)) {
+                result.load(in);
+            } catch (IOException ex) {
+                throw new AuditLogValidatorException("Failed to read checkpoint " + checkpoint + ": " + ex.getMessage(), ex);
+            }
+            LOG.info("Continuing audit log verification from checkpoint " + checkpoint + ": " + result);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file which then replaces the old
+     * one so that an interrupted write does not leave a broken checkpoint.
+     */
+    private void storeCheckpoint() throws AuditLogValidatorException {
+        // Keep the nodes not verified in this run
+        final Properties properties = new Properties();
+        properties.putAll(previous);
+        for (Node node : nodes.values()) {
+            synchronized (node) {
+                properties.setProperty(node.nodeId, String.valueOf(node.verified));
+            }
+        }
+        final File tmp = new File(checkpoint.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                properties.store(out, "Last verified sequence number for each nodeId");
+            }
+            Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new AuditLogValidatorException("Failed to write checkpoint " + checkpoint + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    private static long rate(final long count, final long millis) {
+        return millis == 0 ? count * 1000 : count * 1000 / millis;
+    }
+
+    /**
+     * @return number of rows verified
+     */
+    public long getRows() {
+        return rows.get();
+    }
+
+    /**
+     * @return number of rows verified per second by the last verification
+     */
+    public long getRowsPerSecond() {
+        return rate(rows.get(), endTime - startTime);
+    }
+
+    /** Ranges of one node. */
+    private static class Node {
+        private final String nodeId;
+        private final List<Range> ranges = new ArrayList<>();
+
+        /** Index of the first range not yet checked against the previous ones. */
+        private int next;
+
+        /** Last sequence number up to which all ranges have been checked. */
+        private long verified;
+
+        Node(final String nodeId, final long verified) {
+            this.nodeId = nodeId;
+            this.verified = verified;
+        }
+    }
+
+    /** Range of sequence numbers, from after the first one up to the end. */
+    private static class Range {
+        private final long after;
+        private final long end;
+
+        /** First and last sequence number found, last only valid if first is set. */
+        private volatile Long first;
+        private volatile long last;
+        private volatile boolean done;
+
+        Range(final long after, final long end) {
+            this.after = after;
+            this.end = end;
+        }
+    }
+}
@@ -12,11 +12,14 @@
  *************************************************************************/
 package org.signserver.server.integrityprotected;
 
+import java.io.File;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.locks.ReentrantLock;
+import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
 import org.cesecore.audit.AuditLogDevice;
@@ -86,6 +89,21 @@ public class SequencialIntegrityProtectedDevice implements AuditLogDevice {
         /** Global lock for updating the sequence number. */
         private static final ReentrantLock LOCK = new ReentrantLock(true);
 
+	/** Device property with the number of threads for verifying the log in parallel. */
+	public static final String VERIFY_THREADS = "verify.threads";
+
+	/** Device property with the number of sequence numbers verified by a thread at a time. */
+	public static final String VERIFY_RANGESIZE = "verify.rangesize";
+
+	/** Device property with the number of rows to load at a time. */
+	public static final String VERIFY_FETCHSIZE = "verify.fetchsize";
+
+	/** Device property with the file to write the verification progress to. */
+	public static final String VERIFY_CHECKPOINT = "verify.checkpoint";
+
+	/** JNDI name of the container's default executor service. */
+	private static final String EXECUTOR_SERVICE_NAME = "java:comp/DefaultManagedExecutorService";
+
 	private Map<Class<?>, ?> ejbs;
         
         private long sequenceNumber;
@@ -110,9 +128,54 @@ public class SequencialIntegrityProtectedDevice implements AuditLogDevice {
 		return getEjb(IntegrityProtectedAuditorSessionLocal.class).selectAuditLogs(token, startIndex, max, criteria, properties);
 	}
 
+	/**
+	 * Verifies the log using the ParallelAuditLogVerifier if the device property
+	 * verify.threads is set to a positive number, otherwise using the
+	 * CESeCore IntegrityProtectedAuditorSessionBean.
+	 *
+	 * The ParallelAuditLogVerifier is further configured using the device
+	 * properties verify.rangesize, verify.fetchsize and verify.checkpoint.
+	 * It verifies the ranges in the container's managed executor service, or
+	 * one at a time if there is none.
+	 */
 	@Override
 	public AuditLogValidationReport verifyLogsIntegrity(AuthenticationToken token, Date date, Properties properties) throws AuditLogValidatorException {
-		return getEjb(IntegrityProtectedAuditorSessionLocal.class).verifyLogsIntegrity(token, date, properties);
+		final int threads = getIntProperty(properties, VERIFY_THREADS, 0);
+		if (threads <= 0) {
+			return getEjb(IntegrityProtectedAuditorSessionLocal.class).verifyLogsIntegrity(token, date, properties);
+		}
+		final String checkpoint = properties == null ? null : properties.getProperty(VERIFY_CHECKPOINT);
+		final SequencialIntegrityProtectedAuditorSessionLocal auditor;
+		try {
+			auditor = ServiceLocator.getInstance().lookupLocal(SequencialIntegrityProtectedAuditorSessionLocal.class);
+		} catch (NamingException ex) {
+			throw new AuditLogValidatorException("Failed to lookup SequencialIntegrityProtectedAuditorSessionLocal EJB implementation: " + ex.getExplanation(), ex);
+		}
+		ExecutorService executor;
+		try {
+			executor = (ExecutorService) new InitialContext().lookup(EXECUTOR_SERVICE_NAME);
+		} catch (NamingException | ClassCastException ex) {
+			log.warn("No managed executor service available, the audit log will be verified by a single thread: " + ex.getMessage());
+			executor = null;
+		}
+		final AuditLogValidationReport report = new AuditLogValidationReport();
+		new ParallelAuditLogVerifier(auditor, executor, threads,
+				getIntProperty(properties, VERIFY_RANGESIZE, (int) ParallelAuditLogVerifier.DEFAULT_RANGE_SIZE),
+				getIntProperty(properties, VERIFY_FETCHSIZE, ParallelAuditLogVerifier.DEFAULT_FETCH_SIZE),
+				checkpoint == null || checkpoint.trim().isEmpty() ? null : new File(checkpoint.trim())).verify(date, report);
+		return report;
+	}
+
+	private static int getIntProperty(Properties properties, String name, int defaultValue) throws AuditLogValidatorException {
+		final String value = properties == null ? null : properties.getProperty(name);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException ex) {
+			throw new AuditLogValidatorException("Incorrect value for device property " + name + ": " + value, ex);
+		}
 	}
 
 	@Override
@@ -72,6 +72,9 @@ public interface IWorkerLogger {
     String LOG_PURCHASED = "PURCHASED";
 
     String LOG_PDF_PASSWORD_SUPPLIED = "PDF_PASSWORD_SUPPLIED";
+
+    /** Number of items processed, for a batch request. */
+    String LOG_BATCH_SIZE = "BATCH_SIZE";
     
     String LOG_ARCHIVE_IDS = "ARCHIVE_IDS";
 
@@ -14,8 +14,23 @@ package org.signserver.server.timedservices.hsmkeepalive;
 
 import java.security.KeyStoreException;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.persistence.EntityManager;
 import org.apache.log4j.Logger;
 import org.signserver.common.CryptoTokenOfflineException;
@@ -23,15 +38,37 @@ import org.signserver.common.InvalidWorkerIdException;
 import org.signserver.common.ServiceContext;
 import org.signserver.common.WorkerConfig;
 import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.WorkerStatusInfo;
 import org.signserver.server.ServiceExecutionFailedException;
 import org.signserver.server.WorkerContext;
+import org.signserver.server.cryptotokens.CryptoTokenActivity;
 import org.signserver.server.timedservices.BaseTimedService;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
 import org.signserver.server.IServices;
 
 /**
  * Timed service calling testKey() on selected (crypto)workers.
- * 
+ *
+ * The crypto workers are probed concurrently in the container's managed
+ * executor service, at most PROBE_PARALLELISM at a time, so that a hung token
+ * does not delay the others. A probe not finished within PROBE_TIMEOUT is
+ * abandoned, without interrupting the call to the token, and counted as a
+ * timeout. The abandoned probe still counts against PROBE_PARALLELISM, also
+ * after a reload of the service, and the token is not probed again until it
+ * has returned. If no managed executor service is available the tokens are
+ * probed one at a time without timeout.
+ * Tokens used for a crypto operation within SKIP_IF_USED_WITHIN are already
+ * kept alive by the use and are not probed.
+ *
+ * Properties:<br/>
+ * CRYPTOTOKENS = Comma separated list of worker names or IDs to probe<br/>
+ * PROBE_PARALLELISM = Maximum number of concurrent probes (default: 4)<br/>
+ * PROBE_TIMEOUT = Milliseconds to wait for each probe (default: 30000)<br/>
+ * SKIP_IF_USED_WITHIN = Milliseconds since last use of a token within which
+ * it is not probed, 0 to always probe (default: 0)
+ *
+ * Probe counters and latencies per token are included in the worker status.
+ *
  * @author Marcus Lundblad
  * @version $Id$
  */
@@ -40,12 +77,43 @@ public class HSMKeepAliveTimedService extends BaseTimedService {
     private static final Logger LOG = Logger.getLogger(HSMKeepAliveTimedService.class);
     
     public static String CRYPTOTOKENS = "CRYPTOTOKENS";
+    public static final String PROBE_PARALLELISM = "PROBE_PARALLELISM";
+    public static final String PROBE_TIMEOUT = "PROBE_TIMEOUT";
+    public static final String SKIP_IF_USED_WITHIN = "SKIP_IF_USED_WITHIN";
     
     static String TESTKEY = "TESTKEY";
     static String DEFAULTKEY = "DEFAULTKEY";
 
+    private static final long DEFAULT_PROBE_PARALLELISM = 4;
+    private static final long DEFAULT_PROBE_TIMEOUT = 30000;
+    private static final long DEFAULT_SKIP_IF_USED_WITHIN = 0;
+
+    /** JNDI name of the container's default executor service. */
+    private static final String EXECUTOR_SERVICE_NAME = "java:comp/DefaultManagedExecutorService";
+
+    /**
+     * Tokens with a probe still running per worker ID, possibly from an
+     * earlier run or from the instance before a reload.
+     */
+    private static final ConcurrentMap<Integer, Set<String>> IN_PROGRESS = new ConcurrentHashMap<>();
+
     private List<WorkerIdentifier> cryptoTokens;
 
+    private int probeParallelism;
+    private long probeTimeout;
+    private long skipIfUsedWithin;
+
+    private volatile ExecutorService executorService;
+    private volatile boolean executorServiceUnavailable;
+
+    /** Tokens with a probe still running for this worker ID. */
+    private Set<String> inProgress;
+
+    /** Statistics per token, in configured order. */
+    private final Map<String, ProbeStatistics> statistics = new LinkedHashMap<>();
+
+    /** Configuration errors. */
+    private final List<String> configErrors = new LinkedList<>();
 
     @Override
     public void init(int workerId, WorkerConfig config, WorkerContext workerContext, EntityManager workerEM) {
@@ -56,31 +124,296 @@ public class HSMKeepAliveTimedService extends BaseTimedService {
         if (cryptoTokensValue != null) {
             cryptoTokens = new LinkedList<>();
             for (String token : Arrays.asList(cryptoTokensValue.split(","))) {
-                cryptoTokens.add(WorkerIdentifier.createFromIdOrName(token.trim()));
+                if (!token.trim().isEmpty()) {
+                    final WorkerIdentifier wi = WorkerIdentifier.createFromIdOrName(token.trim());
+                    cryptoTokens.add(wi);
+                    statistics.put(wi.toString(), new ProbeStatistics());
+                }
+            }
+        }
+
+        probeParallelism = (int) parseLong(config, PROBE_PARALLELISM, DEFAULT_PROBE_PARALLELISM, 1);
+        probeTimeout = parseLong(config, PROBE_TIMEOUT, DEFAULT_PROBE_TIMEOUT, 1);
+        skipIfUsedWithin = parseLong(config, SKIP_IF_USED_WITHIN, DEFAULT_SKIP_IF_USED_WITHIN, 0);
+
+        inProgress = IN_PROGRESS.computeIfAbsent(workerId, id -> ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * @return the container's managed executor service or null if not available
+     */
+    protected ExecutorService getExecutorService() {
+        ExecutorService result = executorService;
+        if (result == null && !executorServiceUnavailable) {
+            try {
+                result = (ExecutorService) new InitialContext().lookup(EXECUTOR_SERVICE_NAME);
+                executorService = result;
+            } catch (NamingException | ClassCastException ex) {
+                LOG.warn("No managed executor service available, crypto tokens will be probed one at a time: " + ex.getMessage());
+                executorServiceUnavailable = true;
+            }
+        }
+        return result;
+    }
+
+    private long parseLong(final WorkerConfig config, final String property, final long defaultValue, final long minValue) {
+        final String value = config.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final long result = Long.parseLong(value.trim());
+            if (result < minValue) {
+                configErrors.add("Property " + property + " must be at least " + minValue);
+                return defaultValue;
             }
+            return result;
+        } catch (NumberFormatException ex) {
+            configErrors.add("Illegal value for property " + property + ": " + value);
+            return defaultValue;
         }
     }
     
     @Override
     public void work(final ServiceContext context) throws ServiceExecutionFailedException {
+        if (cryptoTokens == null || cryptoTokens.isEmpty()) {
+            return;
+        }
         final WorkerSessionLocal session = context.getServices().get(WorkerSessionLocal.class);
-        if (cryptoTokens != null) {
-            for (final WorkerIdentifier wi : cryptoTokens) {
-                try {
-                    session.testKey(wi, null, null);
-                } catch (CryptoTokenOfflineException e) {
-                    LOG.warn("Crypto token offline for worker " + wi +
-                            ": " + e.getMessage());
-                } catch (InvalidWorkerIdException e) {
-                    LOG.error("Invalid worker ID: " + e.getMessage());
-                } catch (KeyStoreException e) {
-                    LOG.error("Keystore exception for worker " + wi +
-                            ": " + e.getMessage());
+        final long now = System.currentTimeMillis();
+
+        final LinkedList<Probe> pending = new LinkedList<>();
+        for (final WorkerIdentifier wi : cryptoTokens) {
+            final ProbeStatistics stats = statistics.get(wi.toString());
+            if (skipIfUsedWithin > 0 && now - CryptoTokenActivity.getInstance().getLastUse(wi) < skipIfUsedWithin) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Not probing recently used crypto token for worker " + wi);
+                }
+                stats.skipped();
+            } else if (inProgress.contains(wi.toString())) {
+                LOG.warn("Previous probe still running for worker " + wi);
+                stats.busy();
+            } else {
+                pending.add(new Probe(session, wi, stats));
+            }
+        }
+
+        final ExecutorService executor = getExecutorService();
+        if (executor == null) {
+            for (Probe probe : pending) {
+                inProgress.add(probe.wi.toString());
+                probe.start = System.nanoTime();
+                probe.run();
+            }
+            return;
+        }
+
+        final CompletionService<Probe> completion = new ExecutorCompletionService<>(executor);
+        final Map<Future<Probe>, Probe> running = new LinkedHashMap<>();
+        try {
+            while (!pending.isEmpty() || !running.isEmpty()) {
+                // Abandoned probes still running also count against the parallelism
+                while (inProgress.size() < probeParallelism && !pending.isEmpty()) {
+                    final Probe probe = pending.removeFirst();
+                    if (!inProgress.add(probe.wi.toString())) {
+                        probe.stats.busy();
+                        continue;
+                    }
+                    probe.start = System.nanoTime();
+                    try {
+                        running.put(completion.submit(probe, probe), probe);
+                    } catch (RejectedExecutionException ex) {
+                        LOG.warn("Probe rejected for worker " + probe.wi + ": " + ex.getMessage());
+                        inProgress.remove(probe.wi.toString());
+                        probe.stats.busy();
+                    }
+                }
+                if (running.isEmpty()) {
+                    // All probe slots are taken by abandoned probes
+                    for (Probe probe : pending) {
+                        LOG.warn("No probe slot free for worker " + probe.wi + " as " + inProgress.size() + " probes are still running");
+                        probe.stats.busy();
+                    }
+                    break;
+                }
+
+                // Wait until a probe finishes or the first deadline is reached
+                long earliest = Long.MAX_VALUE;
+                for (Probe probe : running.values()) {
+                    earliest = Math.min(earliest, probe.start + TimeUnit.MILLISECONDS.toNanos(probeTimeout));
+                }
+                final Future<Probe> done = completion.poll(Math.max(0, earliest - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (done != null) {
+                    running.remove(done);
+                }
+
+                final long time = System.nanoTime();
+                final Iterator<Map.Entry<Future<Probe>, Probe>> it = running.entrySet().iterator();
+                while (it.hasNext()) {
+                    final Probe probe = it.next().getValue();
+                    if (time - probe.start >= TimeUnit.MILLISECONDS.toNanos(probeTimeout)) {
+                        // Abandoned without interrupting the call to the token
+                        it.remove();
+                        if (probe.finish()) {
+                            LOG.warn("Probe timed out after " + probeTimeout + " ms for worker " + probe.wi);
+                            probe.stats.timedOut(time - probe.start);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            // The running probes are left to finish on their own
+            LOG.warn("Interrupted while probing crypto tokens");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Probe of one crypto token. */
+    private class Probe implements Runnable {
+        private final WorkerSessionLocal session;
+        private final WorkerIdentifier wi;
+        private final ProbeStatistics stats;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile long start;
+
+        Probe(final WorkerSessionLocal session, final WorkerIdentifier wi, final ProbeStatistics stats) {
+            this.session = session;
+            this.wi = wi;
+            this.stats = stats;
+        }
+
+        /** @return true the first time called, so the result is only counted once */
+        boolean finish() {
+            return finished.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            boolean success = false;
+            try {
+                session.testKey(wi, null, null);
+                success = true;
+            } catch (CryptoTokenOfflineException e) {
+                LOG.warn("Crypto token offline for worker " + wi +
+                        ": " + e.getMessage());
+            } catch (InvalidWorkerIdException e) {
+                LOG.error("Invalid worker ID: " + e.getMessage());
+            } catch (KeyStoreException e) {
+                LOG.error("Keystore exception for worker " + wi +
+                        ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                LOG.error("Probe failed for worker " + wi + ": " + e.getMessage(), e);
+            } finally {
+                inProgress.remove(wi.toString());
+                if (finish()) {
+                    stats.completed(success, System.nanoTime() - start);
                 }
             }
         }
     }
 
+    /** Counters and latencies for the probes of one token. */
+    static class ProbeStatistics {
+        private long probes;
+        private long failures;
+        private long timeouts;
+        private long skipped;
+        private long busy;
+        private long measured;
+        private long lastLatency;
+        private long maxLatency;
+        private long totalLatency;
+
+        synchronized void completed(final boolean success, final long nanos) {
+            probes++;
+            if (!success) {
+                failures++;
+            }
+            latency(nanos);
+        }
+
+        synchronized void timedOut(final long nanos) {
+            probes++;
+            failures++;
+            timeouts++;
+            latency(nanos);
+        }
+
+        synchronized void skipped() {
+            skipped++;
+        }
+
+        /** Not probed as a previous probe is still running. */
+        synchronized void busy() {
+            busy++;
+        }
+
+        private void latency(final long nanos) {
+            final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            measured++;
+            lastLatency = millis;
+            maxLatency = Math.max(maxLatency, millis);
+            totalLatency += millis;
+        }
+
+        synchronized long getProbes() {
+            return probes;
+        }
+
+        synchronized long getFailures() {
+            return failures;
+        }
+
+        synchronized long getTimeouts() {
+            return timeouts;
+        }
+
+        synchronized long getSkipped() {
+            return skipped;
+        }
+
+        synchronized long getBusy() {
+            return busy;
+        }
+
+        @Override
+        public synchronized String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("probes: ").append(probes)
+              .append(", failures: ").append(failures)
+              .append(", timeouts: ").append(timeouts)
+              .append(", skipped: ").append(skipped)
+              .append(", still running: ").append(busy);
+            if (measured > 0) {
+                sb.append(", last latency: ").append(lastLatency).append(" ms")
+                  .append(", average latency: ").append(totalLatency / measured).append(" ms")
+                  .append(", max latency: ").append(maxLatency).append(" ms");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @param wi worker identifier as configured in CRYPTOTOKENS
+     * @return statistics for the worker or null if not configured
+     */
+    ProbeStatistics getStatistics(final WorkerIdentifier wi) {
+        return statistics.get(wi.toString());
+    }
+
+    @Override
+    public WorkerStatusInfo getStatus(final List<String> additionalFatalErrors, final IServices services) {
+        final WorkerStatusInfo status = super.getStatus(additionalFatalErrors, services);
+        if (!statistics.isEmpty()) {
+            final StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, ProbeStatistics> entry : statistics.entrySet()) {
+                sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+            }
+            status.getCompleteEntries().add(new WorkerStatusInfo.Entry("Crypto token probes", sb.toString()));
+        }
+        return status;
+    }
+
     @Override
     protected List<String> getFatalErrors(IServices services) {
         final List<String> errors = new LinkedList<>(super.getFatalErrors(services));
@@ -88,6 +421,7 @@ public class HSMKeepAliveTimedService extends BaseTimedService {
         if (cryptoTokens == null) {
             errors.add("Must specify " + CRYPTOTOKENS);
         }
+        errors.addAll(configErrors);
         
         errors.addAll(getCryptoworkerErrors(services));
         return errors;
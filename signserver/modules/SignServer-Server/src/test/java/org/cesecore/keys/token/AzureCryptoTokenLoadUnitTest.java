@@ -0,0 +1,337 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.keys.token;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.Cipher;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.DigestInfo;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Load test of the AzureCryptoToken against a local HTTP stub of the Key
+ * Vault REST API, checking that connections are pooled and reused, that
+ * the authorization token is refreshed ahead of expiry and that public
+ * keys are cached.
+ *
+ * @version $Id$
+ */
+public class AzureCryptoTokenLoadUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(AzureCryptoTokenLoadUnitTest.class);
+
+    private static final int THREADS = 16;
+    private static final int SIGNINGS_PER_THREAD = 50;
+    private static final int MAX_CONNECTIONS = 8;
+
+    private static KeyPair keyPair;
+
+    private KeyVaultStub stub;
+    private AzureCryptoToken token;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(2048);
+        keyPair = kpg.generateKeyPair();
+    }
+
+    @After
+    public void tearDown() {
+        if (token != null) {
+            token.deactivate();
+        }
+        if (stub != null) {
+            stub.stop();
+        }
+    }
+
+    private void startToken(final String expiresIn, final long refreshAhead) throws Exception {
+        stub = new KeyVaultStub(expiresIn);
+        token = new AzureCryptoToken() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected String createKeyURL(final String alias) {
+                return stub.getBaseURL() + (alias == null ? "/keys" : "/keys/" + alias);
+            }
+        };
+        final Properties properties = new Properties();
+        properties.setProperty(AzureCryptoToken.KEY_VAULT_NAME, "localhost");
+        properties.setProperty(AzureCryptoToken.KEY_VAULT_TYPE, "standard");
+        properties.setProperty(AzureCryptoToken.KEY_VAULT_CLIENTID, "client");
+        properties.setProperty(AzureCryptoToken.KEY_VAULT_MAX_CONNECTIONS, String.valueOf(MAX_CONNECTIONS));
+        properties.setProperty(AzureCryptoToken.KEY_VAULT_TOKEN_REFRESH_AHEAD, String.valueOf(refreshAhead));
+        token.init(properties, null, 4711);
+        token.activate("secret".toCharArray());
+    }
+
+    private byte[] sign(final byte[] data) throws Exception {
+        final Signature signature = Signature.getInstance("SHA256WithRSA", token.getSignProviderName());
+        signature.initSign(token.getPrivateKey("key1"));
+        signature.update(data);
+        return signature.sign();
+    }
+
+    private void verify(final byte[] data, final byte[] signature) throws Exception {
+        final Signature verifier = Signature.getInstance("SHA256WithRSA");
+        verifier.initVerify(token.getPublicKey("key1"));
+        verifier.update(data);
+        assertTrue("signature verifies", verifier.verify(signature));
+    }
+
+    /**
+     * Signs concurrently from more threads than there are connections and
+     * checks that all signatures are correct, that the connections are
+     * reused and that the token and public key are only fetched once.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testConcurrentSigning() throws Exception {
+        LOG.info("testConcurrentSigning");
+        startToken("3600", 300);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final long start = System.nanoTime();
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < SIGNINGS_PER_THREAD; i++) {
+                        final byte[] data = ("data " + thread + " " + i).getBytes(StandardCharsets.UTF_8);
+                        verify(data, sign(data));
+                    }
+                    return SIGNINGS_PER_THREAD;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get();
+            }
+            final long millis = (System.nanoTime() - start) / 1000000;
+            LOG.info("Signed " + total + " in " + millis + " ms using " + stub.connections.size() + " connections");
+
+            assertEquals("signings", THREADS * SIGNINGS_PER_THREAD, stub.signings.get());
+            assertTrue("connections reused: " + stub.connections.size(), stub.connections.size() <= MAX_CONNECTIONS + 1);
+            assertEquals("token requests", 1, stub.tokenRequests.get());
+            assertEquals("unauthorized", 1, stub.unauthorized.get());
+            assertEquals("public key requests", 1, stub.publicKeyRequests.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that a token in use is refreshed in the background before it
+     * expires, so no request is rejected.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testRefreshAhead() throws Exception {
+        LOG.info("testRefreshAhead");
+        // Refreshed 1 second after it was fetched
+        startToken("40", 39);
+        final byte[] data = "data".getBytes(StandardCharsets.UTF_8);
+        verify(data, sign(data));
+        assertEquals("token requests", 1, stub.tokenRequests.get());
+
+        final long deadline = System.currentTimeMillis() + 30000;
+        // Wait until the new token has been stored, not only requested
+        while (!"Bearer token2".equals(token.getAuthorizationHeader()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals("refreshed", 2, stub.tokenRequests.get());
+
+        verify(data, sign(data));
+        assertEquals("unauthorized", 1, stub.unauthorized.get());
+        assertEquals("current token used", "token2", stub.lastToken);
+
+        // The executor is shut down when no token has a refresh scheduled
+        assertTrue("executor running", AzureCryptoToken.isRefreshExecutorRunning());
+        token.deactivate();
+        assertFalse("executor shut down", AzureCryptoToken.isRefreshExecutorRunning());
+    }
+
+    /**
+     * Tests that an expired token is fetched before each request instead of
+     * after the request is rejected.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testExpiredTokenFetchedBeforeRequest() throws Exception {
+        LOG.info("testExpiredTokenFetchedBeforeRequest");
+        // Shorter than the margin so it is always considered expired
+        startToken("20", 300);
+        final byte[] data = "data".getBytes(StandardCharsets.UTF_8);
+        verify(data, sign(data));
+
+        // Listing aliases at activation, then getting the public key and signing
+        assertEquals("token requests", 3, stub.tokenRequests.get());
+        assertEquals("unauthorized", 1, stub.unauthorized.get());
+    }
+
+    /**
+     * Tests that the public key cache survives listing the aliases and is
+     * cleared when the token is deactivated.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testPublicKeyCache() throws Exception {
+        LOG.info("testPublicKeyCache");
+        startToken("3600", 300);
+        assertEquals("key", keyPair.getPublic(), token.getPublicKey("key1"));
+        token.getAliases();
+        assertEquals("key", keyPair.getPublic(), token.getPublicKey("key1"));
+        assertEquals("public key requests", 1, stub.publicKeyRequests.get());
+
+        token.deactivate();
+        token.activate("secret".toCharArray());
+        assertEquals("key", keyPair.getPublic(), token.getPublicKey("key1"));
+        assertEquals("public key requests after deactivate", 2, stub.publicKeyRequests.get());
+    }
+
+    /** Minimal stub of the Key Vault REST API and the authorization server, with one RSA key named key1. */
+    private static class KeyVaultStub {
+        private final HttpServer server;
+        private final String expiresIn;
+        private final AtomicInteger tokenRequests = new AtomicInteger();
+        private final AtomicInteger unauthorized = new AtomicInteger();
+        private final AtomicInteger publicKeyRequests = new AtomicInteger();
+        private final AtomicInteger signings = new AtomicInteger();
+        private final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+        private volatile String lastToken;
+
+        KeyVaultStub(final String expiresIn) throws IOException {
+            this.expiresIn = expiresIn;
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newFixedThreadPool(THREADS * 2));
+            server.createContext("/tenant/oauth2/token", this::handleToken);
+            server.createContext("/keys", this::handleKeys);
+            server.start();
+        }
+
+        String getBaseURL() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private void handleToken(final HttpExchange exchange) throws IOException {
+            final String body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+            if (!body.contains("client_secret=secret")) {
+                send(exchange, 401, "{\"error\":\"invalid_client\"}");
+                return;
+            }
+            final JSONObject response = new JSONObject();
+            response.put("access_token", "token" + tokenRequests.incrementAndGet());
+            response.put("expires_in", expiresIn);
+            send(exchange, 200, response.toJSONString());
+        }
+
+        private void handleKeys(final HttpExchange exchange) throws IOException {
+            connections.add(exchange.getRemoteAddress().getPort());
+            final String current = "Bearer token" + tokenRequests.get();
+            if (!current.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+                unauthorized.incrementAndGet();
+                exchange.getResponseHeaders().add("WWW-Authenticate", "Bearer authorization=\"" + getBaseURL() + "/tenant\", resource=\"https://vault.azure.net\"");
+                send(exchange, 401, "{\"error\":{\"code\":\"Unauthorized\"}}");
+                return;
+            }
+            lastToken = current.substring("Bearer ".length());
+            final String path = exchange.getRequestURI().getPath();
+            try {
+                if (path.equals("/keys")) {
+                    send(exchange, 200, "{\"value\":[{\"kid\":\"" + getBaseURL() + "/keys/key1\"}]}");
+                } else if (path.equals("/keys/key1/sign")) {
+                    final JSONObject request = (JSONObject) new JSONParser().parse(IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                    final byte[] digest = Base64.getDecoder().decode((String) request.get("value"));
+                    final Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+                    cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPrivate());
+                    final byte[] signature = cipher.doFinal(new DigestInfo(new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256, DERNull.INSTANCE), digest).getEncoded());
+                    signings.incrementAndGet();
+                    send(exchange, 200, "{\"value\":\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(signature) + "\"}");
+                } else if (path.startsWith("/keys/key1")) {
+                    publicKeyRequests.incrementAndGet();
+                    final RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+                    send(exchange, 200, "{\"key\":{\"kty\":\"RSA\",\"n\":\"" + encodeUnsigned(publicKey.getModulus())
+                            + "\",\"e\":\"" + encodeUnsigned(publicKey.getPublicExponent()) + "\"}}");
+                } else {
+                    send(exchange, 404, "{\"error\":{\"code\":\"KeyNotFound\"}}");
+                }
+            } catch (Exception e) {
+                LOG.error("Stub failure", e);
+                send(exchange, 500, "{\"error\":{\"code\":\"" + e.getClass().getSimpleName() + "\"}}");
+            }
+        }
+
+        private static String encodeUnsigned(final BigInteger value) {
+            byte[] bytes = value.toByteArray();
+            if (bytes[0] == 0) {
+                final byte[] unsigned = new byte[bytes.length - 1];
+                System.arraycopy(bytes, 1, unsigned, 0, unsigned.length);
+                bytes = unsigned;
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        }
+
+        private static void send(final HttpExchange exchange, final int status, final String body) throws IOException {
+            final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
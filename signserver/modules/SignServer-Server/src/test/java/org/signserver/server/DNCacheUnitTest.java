@@ -0,0 +1,113 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.security.auth.x500.X500Principal;
+import org.apache.log4j.Logger;
+import org.cesecore.util.CertTools;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for the DNCache class.
+ *
+ * @version $Id$
+ */
+public class DNCacheUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(DNCacheUnitTest.class);
+
+    private static final String DN = "CN=Client 1, OU=Testing, O=SignServer, C=SE";
+
+    /**
+     * Tests that the normalized value is computed once, cached and interned.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testStringCached() throws Exception {
+        LOG.info("testStringCached");
+        final DNCache instance = new DNCache(10);
+        final AtomicInteger calls = new AtomicInteger();
+
+        final String first = instance.get(new String(DN), () -> {
+            calls.incrementAndGet();
+            return CertTools.stringToBCDNString(DN);
+        });
+        final String second = instance.get(new String(DN), () -> {
+            calls.incrementAndGet();
+            return CertTools.stringToBCDNString(DN);
+        });
+
+        assertEquals("normalized", "CN=Client 1,OU=Testing,O=SignServer,C=SE", first);
+        assertSame("same instance", first, second);
+        assertSame("interned", first.intern(), first);
+        assertEquals("calls", 1, calls.get());
+        assertNull("null", instance.get((String) null, () -> "unused"));
+    }
+
+    /**
+     * Tests that equal encoded names from different instances share the
+     * entry and that the qualifier gives separate entries.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testEncodedNameCached() throws Exception {
+        LOG.info("testEncodedNameCached");
+        final DNCache instance = new DNCache(10);
+        final AtomicInteger calls = new AtomicInteger();
+
+        assertEquals("first", "a", instance.get(new X500Principal(DN), () -> {
+            calls.incrementAndGet();
+            return "a";
+        }));
+        assertEquals("other instance", "a", instance.get(new X500Principal(DN), () -> {
+            calls.incrementAndGet();
+            return "b";
+        }));
+        assertEquals("qualified", "c", instance.get(new X500Principal(DN), "Other", () -> {
+            calls.incrementAndGet();
+            return "c";
+        }));
+        assertEquals("other name", "d", instance.get(new X500Principal("CN=Client 2"), () -> {
+            calls.incrementAndGet();
+            return "d";
+        }));
+        assertEquals("calls", 3, calls.get());
+    }
+
+    /**
+     * Tests that the number of entries is bounded and that null values are
+     * not cached.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testBounded() throws Exception {
+        LOG.info("testBounded");
+        final DNCache instance = new DNCache(5);
+        for (int i = 0; i < 100; i++) {
+            final String dn = "CN=Client " + i;
+            assertEquals(dn, instance.get(dn, () -> dn));
+            assertTrue("size: " + instance.size(), instance.size() <= 5);
+        }
+        assertNull(instance.get("CN=Null", () -> null));
+        instance.clear();
+        assertEquals("cleared", 0, instance.size());
+        assertNull(instance.get("CN=Null", () -> null));
+        assertEquals("null not cached", 0, instance.size());
+    }
+}
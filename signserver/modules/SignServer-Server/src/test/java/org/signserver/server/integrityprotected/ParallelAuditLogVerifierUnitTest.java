@@ -0,0 +1,265 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.integrityprotected;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.cesecore.audit.audit.AuditLogReportElem;
+import org.cesecore.audit.audit.AuditLogValidationReport;
+import org.cesecore.audit.audit.AuditLogValidatorException;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the ParallelAuditLogVerifier.
+ *
+ * @version $Id$
+ */
+public class ParallelAuditLogVerifierUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ParallelAuditLogVerifierUnitTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Stands in for the container's managed executor service. */
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * In memory log where the time stamp of each row is its sequence number.
+     */
+    private static class MockAuditor implements SequencialIntegrityProtectedAuditorSessionLocal {
+
+        private final Map<String, TreeMap<Long, Boolean>> nodes = new TreeMap<>();
+        private final Set<Long> failAfter = ConcurrentHashMap.newKeySet();
+        private final AtomicLong loaded = new AtomicLong();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        void add(final String nodeId, final long from, final long to) {
+            final TreeMap<Long, Boolean> rows = nodes.computeIfAbsent(nodeId, k -> new TreeMap<>());
+            for (long i = from; i <= to; i++) {
+                rows.put(i, true);
+            }
+        }
+
+        void remove(final String nodeId, final long from, final long to) {
+            nodes.get(nodeId).subMap(from, true, to, true).clear();
+        }
+
+        void tamper(final String nodeId, final long sequenceNumber) {
+            nodes.get(nodeId).put(sequenceNumber, false);
+        }
+
+        @Override
+        public List<String> getNodeIds() {
+            return new ArrayList<>(nodes.keySet());
+        }
+
+        @Override
+        public Long getMaxSequenceNumber(final String nodeId, final long maxTimeStamp) {
+            return nodes.get(nodeId).floorKey(maxTimeStamp);
+        }
+
+        @Override
+        public List<Long> verifyRange(final String nodeId, final long afterSequenceNumber, final long lastSequenceNumber,
+                final long maxTimeStamp, final int max) throws AuditRecordVerificationException {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                return load(nodeId, afterSequenceNumber, lastSequenceNumber, maxTimeStamp, max);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+
+        private List<Long> load(final String nodeId, final long afterSequenceNumber, final long lastSequenceNumber,
+                final long maxTimeStamp, final int max) throws AuditRecordVerificationException {
+            if (failAfter.contains(afterSequenceNumber)) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            final List<Long> result = new ArrayList<>();
+            final long last = Math.min(lastSequenceNumber, maxTimeStamp);
+            if (last <= afterSequenceNumber) {
+                return result;
+            }
+            for (Map.Entry<Long, Boolean> row : nodes.get(nodeId).subMap(afterSequenceNumber, false, last, true).entrySet()) {
+                if (result.size() == max) {
+                    break;
+                }
+                loaded.incrementAndGet();
+                if (!row.getValue()) {
+                    throw new AuditRecordVerificationException(row.getKey(), "Row protection mismatch", null);
+                }
+                result.add(row.getKey());
+            }
+            return result;
+        }
+    }
+
+    private static Set<String> reasons(final AuditLogValidationReport report) {
+        final Set<String> result = new HashSet<>();
+        for (AuditLogReportElem elem : report.warnings()) {
+            result.addAll(elem.getReasons());
+        }
+        return result;
+    }
+
+    /**
+     * Tests that a complete log of multiple nodes gives no warnings and that
+     * rows logged after the given time are not verified.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testComplete() throws Exception {
+        LOG.info("testComplete");
+        final MockAuditor auditor = new MockAuditor();
+        auditor.add("node1", 0, 9999);
+        auditor.add("node2", 0, 4567);
+        final AuditLogValidationReport report = new AuditLogValidationReport();
+        final ParallelAuditLogVerifier instance = new ParallelAuditLogVerifier(auditor, executor, 4, 333, 50, null);
+
+        instance.verify(new Date(8999), report);
+
+        assertEquals("warnings: " + reasons(report), 0, report.warnings().size());
+        assertEquals("errors", 0, report.errors().size());
+        assertEquals("rows", 9000 + 4568, instance.getRows());
+        assertTrue("concurrent: " + auditor.maxConcurrent.get(), auditor.maxConcurrent.get() <= 4);
+    }
+
+    /**
+     * Tests that the ranges are verified one at a time in the calling thread
+     * without an executor.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testWithoutExecutor() throws Exception {
+        LOG.info("testWithoutExecutor");
+        final MockAuditor auditor = new MockAuditor();
+        auditor.add("node1", 0, 2000);
+        auditor.remove("node1", 330, 700);
+        final AuditLogValidationReport report = new AuditLogValidationReport();
+        final ParallelAuditLogVerifier instance = new ParallelAuditLogVerifier(auditor, null, 4, 333, 50, null);
+
+        instance.verify(new Date(Long.MAX_VALUE), report);
+
+        final Set<String> reasons = reasons(report);
+        assertEquals("warnings: " + reasons, 1, report.warnings().size());
+        assertTrue(reasons.toString(), reasons.contains("missing log with sequence number 330 on nodeId node1"));
+        assertEquals("rows", 2001 - 371, instance.getRows());
+        assertEquals("concurrent", 1, auditor.maxConcurrent.get());
+    }
+
+    /**
+     * Tests that missing rows, inside and between ranges, and rows failing
+     * verification are reported once each.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testMissingAndTampered() throws Exception {
+        LOG.info("testMissingAndTampered");
+        final MockAuditor auditor = new MockAuditor();
+        auditor.add("node1", 0, 2000);
+        auditor.remove("node1", 0, 4);
+        auditor.remove("node1", 100, 100);
+        auditor.remove("node1", 330, 700); // Spans a complete range
+        auditor.tamper("node1", 1234);
+        final AuditLogValidationReport report = new AuditLogValidationReport();
+        final ParallelAuditLogVerifier instance = new ParallelAuditLogVerifier(auditor, executor, 3, 333, 50, null);
+
+        instance.verify(new Date(Long.MAX_VALUE), report);
+
+        final Set<String> reasons = reasons(report);
+        assertEquals("warnings: " + reasons, 4, report.warnings().size());
+        assertTrue(reasons.toString(), reasons.contains("missing log with sequence number 0 on nodeId node1"));
+        assertTrue(reasons.toString(), reasons.contains("missing log with sequence number 100 on nodeId node1"));
+        assertTrue(reasons.toString(), reasons.contains("missing log with sequence number 330 on nodeId node1"));
+        assertTrue(reasons.toString(), reasons.contains("log with sequence number after 1233 on nodeId node1 could not be verified"));
+        assertEquals("rows", 2001 - 5 - 1 - 371, instance.getRows());
+    }
+
+    /**
+     * Tests that a verification failing part way continues from the
+     * checkpoint when run again.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testCheckpoint() throws Exception {
+        LOG.info("testCheckpoint");
+        final File checkpoint = new File(folder.getRoot(), "checkpoint.properties");
+        final MockAuditor auditor = new MockAuditor();
+        auditor.add("node1", 0, 9999);
+        auditor.failAfter.add(5999L);
+
+        try {
+            new ParallelAuditLogVerifier(auditor, executor, 1, 1000, 100, checkpoint)
+                    .verify(new Date(Long.MAX_VALUE), new AuditLogValidationReport());
+            fail("Should have failed");
+        } catch (AuditLogValidatorException expected) { // NOPMD
+            // OK
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(checkpoint)) {
+            properties.load(in);
+        }
+        assertEquals("checkpoint", "5999", properties.getProperty("node1"));
+
+        auditor.failAfter.clear();
+        auditor.loaded.set(0);
+        final AuditLogValidationReport report = new AuditLogValidationReport();
+        final ParallelAuditLogVerifier instance = new ParallelAuditLogVerifier(auditor, executor, 2, 1000, 100, checkpoint);
+        instance.verify(new Date(Long.MAX_VALUE), report);
+
+        assertEquals("warnings: " + reasons(report), 0, report.warnings().size());
+        assertEquals("rows", 4000, instance.getRows());
+        assertEquals("loaded", 4000, auditor.loaded.get());
+        properties.clear();
+        try (InputStream in = new FileInputStream(checkpoint)) {
+            properties.load(in);
+        }
+        assertEquals("checkpoint", "9999", properties.getProperty("node1"));
+    }
+}
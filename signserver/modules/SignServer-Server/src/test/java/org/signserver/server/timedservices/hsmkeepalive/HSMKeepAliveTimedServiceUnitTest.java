@@ -12,13 +12,26 @@
  *************************************************************************/
 package org.signserver.server.timedservices.hsmkeepalive;
 
+import java.lang.reflect.Proxy;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestCase;
+import org.signserver.common.ServiceContext;
 import org.signserver.common.WorkerConfig;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.WorkerStatus;
 import org.signserver.common.WorkerType;
 import org.signserver.server.ServicesImpl;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.server.cryptotokens.CryptoTokenActivity;
+import org.signserver.server.cryptotokens.NullCryptoToken;
 
 /**
  * Unit test for the HSM keep alive timed service.
@@ -29,6 +42,13 @@ import org.signserver.ejb.interfaces.WorkerSessionLocal;
 public class HSMKeepAliveTimedServiceUnitTest extends TestCase {
     
     private static final int DUMMY_WORKERID = 42;
+
+    /** Stands in for the container's managed executor service. */
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r);
+        thread.setDaemon(true);
+        return thread;
+    });
     
     /**
      * Test that omitting the CRYPTOTOKENS property results in a configuration
@@ -68,4 +88,191 @@ public class HSMKeepAliveTimedServiceUnitTest extends TestCase {
 
         assertTrue("Should not contain errors", fatalErrors.isEmpty());
     }
+
+    /**
+     * Test that the crypto tokens are probed concurrently.
+     *
+     * @throws Exception
+     */
+    public void test03parallelProbes() throws Exception {
+        final HSMKeepAliveTimedService instance = createInstance("TOKEN1, TOKEN2, TOKEN3, TOKEN4", "4", "5000", null);
+        final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+        final long start = System.nanoTime();
+        instance.work(createContext(calls, 500, null));
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("concurrent: " + millis + " ms", millis < 4 * 500);
+        for (String token : new String[] {"TOKEN1", "TOKEN2", "TOKEN3", "TOKEN4"}) {
+            assertEquals("calls for " + token, 1, calls.get(token).get());
+            final HSMKeepAliveTimedService.ProbeStatistics stats = instance.getStatistics(new WorkerIdentifier(token));
+            assertEquals("probes for " + token, 1, stats.getProbes());
+            assertEquals("failures for " + token, 0, stats.getFailures());
+        }
+    }
+
+    /**
+     * Test that a hung token is abandoned after the timeout without delaying
+     * the others, and not probed again until the hung probe has returned.
+     *
+     * @throws Exception
+     */
+    public void test04probeTimeout() throws Exception {
+        final HSMKeepAliveTimedService instance = createInstance("HUNG, TOKEN1, TOKEN2", "2", "200", null);
+        final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        final CountDownLatch hung = new CountDownLatch(1);
+        try {
+            final long start = System.nanoTime();
+            instance.work(createContext(calls, 0, hung));
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("not waiting for hung token: " + millis + " ms", millis < 5000);
+
+            final HSMKeepAliveTimedService.ProbeStatistics hungStats = instance.getStatistics(new WorkerIdentifier("HUNG"));
+            assertEquals("timeouts", 1, hungStats.getTimeouts());
+            assertEquals("probes", 1, instance.getStatistics(new WorkerIdentifier("TOKEN1")).getProbes());
+            assertEquals("probes", 1, instance.getStatistics(new WorkerIdentifier("TOKEN2")).getProbes());
+
+            // Second run does not start an other probe of the hung token
+            instance.work(createContext(calls, 0, hung));
+            assertEquals("calls to hung token", 1, calls.get("HUNG").get());
+            assertEquals("timeouts", 1, hungStats.getTimeouts());
+            assertEquals("still running", 1, hungStats.getBusy());
+            assertEquals("probes", 2, instance.getStatistics(new WorkerIdentifier("TOKEN1")).getProbes());
+        } finally {
+            hung.countDown();
+        }
+    }
+
+    /**
+     * Test that abandoned probes count against the parallelism, also for the
+     * instance created at reload, and that the hung call is not interrupted.
+     *
+     * @throws Exception
+     */
+    public void test07abandonedProbesCountAgainstParallelism() throws Exception {
+        final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        final CountDownLatch hung = new CountDownLatch(1);
+        try {
+            final HSMKeepAliveTimedService instance = createInstance(4712, "HUNG, TOKEN1", "1", "200", null);
+            instance.work(createContext(calls, 0, hung));
+            assertEquals("timeouts", 1, instance.getStatistics(new WorkerIdentifier("HUNG")).getTimeouts());
+            assertEquals("no slot for token", 1, instance.getStatistics(new WorkerIdentifier("TOKEN1")).getBusy());
+            assertNull("not probed", calls.get("TOKEN1"));
+
+            // Reloaded instance still sees the hung probe
+            final HSMKeepAliveTimedService reloaded = createInstance(4712, "HUNG, TOKEN1", "1", "200", null);
+            reloaded.work(createContext(calls, 0, hung));
+            assertEquals("still running", 1, reloaded.getStatistics(new WorkerIdentifier("HUNG")).getBusy());
+            assertEquals("no slot for token", 1, reloaded.getStatistics(new WorkerIdentifier("TOKEN1")).getBusy());
+            assertEquals("calls to hung token", 1, calls.get("HUNG").get());
+            assertNull("not probed", calls.get("TOKEN1"));
+            assertNull("not interrupted", calls.get("INTERRUPTED"));
+
+            // Probed once the hung call has returned
+            hung.countDown();
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (calls.get("TOKEN1") == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                reloaded.work(createContext(calls, 0, hung));
+            }
+            assertNotNull("probed", calls.get("TOKEN1"));
+        } finally {
+            hung.countDown();
+        }
+    }
+
+    /**
+     * Test that a crypto token used recently is not probed.
+     *
+     * @throws Exception
+     */
+    public void test05skipRecentlyUsed() throws Exception {
+        final NullCryptoToken token = new NullCryptoToken(WorkerStatus.STATUS_ACTIVE);
+        CryptoTokenActivity.getInstance().register(4711, "UsedToken", token);
+        CryptoTokenActivity.getInstance().recordUse(token);
+
+        final HSMKeepAliveTimedService instance = createInstance("USEDTOKEN, TOKEN1", null, null, "60000");
+        final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        instance.work(createContext(calls, 0, null));
+
+        assertNull("not probed", calls.get("USEDTOKEN"));
+        assertEquals("skipped", 1, instance.getStatistics(new WorkerIdentifier("USEDTOKEN")).getSkipped());
+        assertEquals("probed", 1, calls.get("TOKEN1").get());
+    }
+
+    /**
+     * Test that an invalid parallelism results in a configuration error.
+     *
+     * @throws Exception
+     */
+    public void test06invalidParallelism() throws Exception {
+        final HSMKeepAliveTimedService instance = createInstance("TOKEN1", "0", null, null);
+
+        final List<String> fatalErrors =
+            instance.getStatus(Collections.<String>emptyList(), new ServicesImpl()).getFatalErrors();
+
+        assertTrue("Should contain error: " + fatalErrors, fatalErrors.contains("Property PROBE_PARALLELISM must be at least 1"));
+
+        // The default is used instead of the invalid value
+        final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        instance.work(createContext(calls, 0, null));
+        assertEquals("probed", 1, calls.get("TOKEN1").get());
+    }
+
+    private HSMKeepAliveTimedService createInstance(final String cryptoTokens, final String parallelism, final String timeout, final String skipIfUsedWithin) {
+        return createInstance(DUMMY_WORKERID, cryptoTokens, parallelism, timeout, skipIfUsedWithin);
+    }
+
+    private HSMKeepAliveTimedService createInstance(final int workerId, final String cryptoTokens, final String parallelism, final String timeout, final String skipIfUsedWithin) {
+        final HSMKeepAliveTimedService instance = new HSMKeepAliveTimedService() {
+            @Override
+            protected ExecutorService getExecutorService() {
+                return EXECUTOR;
+            }
+        };
+        final WorkerConfig config = new WorkerConfig();
+        config.setProperty(WorkerConfig.TYPE, WorkerType.TIMED_SERVICE.name());
+        config.setProperty(HSMKeepAliveTimedService.CRYPTOTOKENS, cryptoTokens);
+        if (parallelism != null) {
+            config.setProperty(HSMKeepAliveTimedService.PROBE_PARALLELISM, parallelism);
+        }
+        if (timeout != null) {
+            config.setProperty(HSMKeepAliveTimedService.PROBE_TIMEOUT, timeout);
+        }
+        if (skipIfUsedWithin != null) {
+            config.setProperty(HSMKeepAliveTimedService.SKIP_IF_USED_WITHIN, skipIfUsedWithin);
+        }
+        instance.init(workerId, config, null, null);
+        return instance;
+    }
+
+    /**
+     * Creates a service context with a worker session where testKey counts
+     * the calls per worker and sleeps for the given time, or blocks on the
+     * latch for the worker named HUNG.
+     */
+    private ServiceContext createContext(final Map<String, AtomicInteger> calls, final long sleep, final CountDownLatch hung) {
+        final WorkerSessionLocal session = (WorkerSessionLocal) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {WorkerSessionLocal.class}, (proxy, method, args) -> {
+                    if (!"testKey".equals(method.getName())) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    final String name = ((WorkerIdentifier) args[0]).getName();
+                    calls.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+                    if ("HUNG".equals(name)) {
+                        try {
+                            hung.await();
+                        } catch (InterruptedException ex) {
+                            calls.computeIfAbsent("INTERRUPTED", n -> new AtomicInteger()).incrementAndGet();
+                            throw ex;
+                        }
+                    } else if (sleep > 0) {
+                        Thread.sleep(sleep);
+                    }
+                    return Collections.emptyList();
+                });
+        final ServicesImpl services = new ServicesImpl();
+        services.put(WorkerSessionLocal.class, session);
+        return new ServiceContext(services);
+    }
 }
@@ -35,6 +35,7 @@ import javax.xml.ws.handler.MessageContext;
 import org.apache.commons.fileupload.FileUploadBase;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.Base64;
 import org.signserver.common.CompileTimeSettings;
 import org.signserver.common.CryptoTokenOfflineException;
 import org.signserver.common.GenericSignRequest;
@@ -67,6 +68,7 @@ import org.signserver.common.data.SignatureResponse;
 import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
 import org.signserver.ejb.interfaces.ProcessSessionLocal;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 import org.signserver.healthcheck.HealthCheckUtils;
 import org.signserver.protocol.ws.Certificate;
 import org.signserver.protocol.ws.ProcessRequestWS;
@@ -114,6 +116,9 @@ public class SignServerWS {
     @EJB
     private ProcessSessionLocal processSession;
 
+    @EJB
+    private WorkerStatusSnapshotSessionLocal statusSnapshotSession;
+
     /** EntityManager is conditionally injected from web.xml. */
     private EntityManager em;
 
@@ -180,7 +185,7 @@ public class SignServerWS {
 
     private List<String> checkSigner(WorkerIdentifier wi) throws InvalidWorkerIdException {
         final LinkedList<String> result = new LinkedList<>();
-        final WorkerStatus status = getWorkerSession().getStatus(wi);
+        final WorkerStatus status = statusSnapshotSession.getStatus(wi, false);
         for (String error : status.getFatalErrors()) {
             result.add("Worker " + status.getWorkerId() + ": " + error + "\n");
         }
@@ -431,20 +436,17 @@ public class SignServerWS {
     }
 
     private ArrayList<Certificate> getSignerCertificateChain(WorkerIdentifier wi) throws InvalidWorkerIdException {
-        try {
-            WorkerStatus ws = getWorkerSession().getStatus(wi);
-            Collection<java.security.cert.Certificate> signerCertificateChain =
-                    ws.getActiveSignerConfig().getSignerCertificateChain();
-
-            if (signerCertificateChain != null) {
-                final ArrayList<Certificate> returnValues = new ArrayList<>();
-                for (java.security.cert.Certificate certificate : signerCertificateChain) {
-                    returnValues.add(new Certificate(certificate));
-                }
-                return returnValues;
+        final List<byte[]> signerCertificateChain =
+                getWorkerSession().getCachedSignerCertificateChain(wi);
+
+        if (signerCertificateChain != null) {
+            final ArrayList<Certificate> returnValues = new ArrayList<>(signerCertificateChain.size());
+            for (byte[] certificate : signerCertificateChain) {
+                final Certificate wsCertificate = new Certificate();
+                wsCertificate.setCertificateBase64(Base64.toBase64String(certificate));
+                returnValues.add(wsCertificate);
             }
-        } catch (CertificateEncodingException e) {
-            LOG.error(e);
+            return returnValues;
         }
         return null;
     }
@@ -0,0 +1,208 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.signserver.openpgp.utils.ClearSignedFileProcessorUtils;
+import org.signserver.openpgp.utils.ClearTextScanner;
+
+/**
+ * JMH benchmark of the clear text signing throughput, comparing the
+ * previous line by line reading using ClearSignedFileProcessorUtils with the
+ * ClearTextScanner.
+ *
+ * Both variants read a file similar to a Debian Packages index and write the
+ * signed result to a file, like the OpenPGPSigner does for large requests.
+ * One operation signs the whole file, so the time is measured for single
+ * operations. The files are created in the temporary directory and removed
+ * afterwards. Divide sizeMB by the reported time for the throughput.
+ *
+ * Usage:
+ * <pre>
+ * mvn install -Pprofile-benchmark -DskipTests -pl modules/SignServer-Test-Benchmark -am
+ * java -jar modules/SignServer-Test-Benchmark/target/benchmarks.jar ClearTextScannerBenchmark
+ * java -jar modules/SignServer-Test-Benchmark/target/benchmarks.jar ClearTextScannerBenchmark -p sizeMB=256
+ * </pre>
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ClearTextScannerBenchmark {
+
+    @Param({"32"})
+    public int sizeMB;
+
+    private PGPPrivateKey privateKey;
+    private File in;
+    private File out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", BouncyCastleProvider.PROVIDER_NAME);
+        kpg.initialize(2048);
+        final KeyPair keyPair = kpg.generateKeyPair();
+        privateKey = new JcaPGPKeyPair(PublicKeyAlgorithmTags.RSA_GENERAL, keyPair, new Date()).getPrivateKey();
+        in = createFile(sizeMB * 1024L * 1024L);
+        out = File.createTempFile("cleartext-benchmark-", ".asc");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : new File[] {in, out}) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * @return the size of the signed file, consumed by JMH
+     * @throws Exception in case of failure signing
+     */
+    @Benchmark
+    public long lines() throws Exception {
+        signLines(privateKey, in, out);
+        return out.length();
+    }
+
+    /**
+     * @return the size of the signed file, consumed by JMH
+     * @throws Exception in case of failure signing
+     */
+    @Benchmark
+    public long scanner() throws Exception {
+        signScanner(privateKey, in, out);
+        return out.length();
+    }
+
+    private static PGPSignatureGenerator createGenerator(final PGPPrivateKey privateKey) throws Exception {
+        final PGPSignatureGenerator generator = new PGPSignatureGenerator(
+                new JcaPGPContentSignerBuilder(PublicKeyAlgorithmTags.RSA_GENERAL, HashAlgorithmTags.SHA256)
+                        .setProvider(BouncyCastleProvider.PROVIDER_NAME));
+        generator.init(PGPSignature.CANONICAL_TEXT_DOCUMENT, privateKey);
+        return generator;
+    }
+
+    /** The processing as done before the ClearTextScanner. */
+    private static void signLines(final PGPPrivateKey privateKey, final File file, final File result) throws Exception {
+        final PGPSignatureGenerator generator = createGenerator(privateKey);
+        try (InputStream fIn = new BufferedInputStream(new FileInputStream(file));
+                OutputStream out = new FileOutputStream(result);
+                ArmoredOutputStream aOut = new ArmoredOutputStream(out)) {
+            aOut.beginClearText(HashAlgorithmTags.SHA256);
+            final ByteArrayOutputStream lineOut = new ByteArrayOutputStream();
+            int lookAhead = ClearSignedFileProcessorUtils.readInputLine(lineOut, fIn);
+            ClearSignedFileProcessorUtils.processLine(aOut, generator, lineOut.toByteArray());
+            if (lookAhead != -1) {
+                do {
+                    lookAhead = ClearSignedFileProcessorUtils.readInputLine(lineOut, lookAhead, fIn);
+                    generator.update((byte) '\r');
+                    generator.update((byte) '\n');
+                    ClearSignedFileProcessorUtils.processLine(aOut, generator, lineOut.toByteArray());
+                } while (lookAhead != -1);
+            }
+            aOut.endClearText();
+            generator.generate().encode(new BCPGOutputStream(aOut));
+        }
+    }
+
+    private static void signScanner(final PGPPrivateKey privateKey, final File file, final File result) throws Exception {
+        final PGPSignatureGenerator generator = createGenerator(privateKey);
+        try (InputStream in = new FileInputStream(file);
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(result), ClearTextScanner.DEFAULT_BUFFER_SIZE);
+                ArmoredOutputStream aOut = new ArmoredOutputStream(out)) {
+            aOut.beginClearText(HashAlgorithmTags.SHA256);
+            new ClearTextScanner(generator, out).scan(in);
+            aOut.endClearText();
+            generator.generate().encode(new BCPGOutputStream(aOut));
+        }
+    }
+
+    /** Creates a file with stanzas looking like the ones in a Packages file. */
+    private static File createFile(final long size) throws IOException {
+        final File file = File.createTempFile("cleartext-benchmark-", ".txt");
+        final Random random = new Random(4711);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            long written = 0;
+            int i = 0;
+            while (written < size) {
+                final String stanza = String.format(Locale.ENGLISH,
+                        "Package: package-%d\n"
+                        + "Version: %d.%d-%d\n"
+                        + "Architecture: amd64\n"
+                        + "Installed-Size: %d\n"
+                        + "Depends: libc6 (>= 2.%d), libpackage-%d \n"
+                        + "Filename: pool/main/p/package-%d/package-%d_%d.%d_amd64.deb\n"
+                        + "Size: %d\n"
+                        + "SHA256: %064x\n"
+                        + "Description: Package number %d\n"
+                        + " Longer description of the package, with a line\n"
+                        + " .\n"
+                        + " - and a line starting with a dash\n"
+                        + "\n",
+                        i, i % 10, i % 7, i % 3, random.nextInt(100000), random.nextInt(40), i + 1,
+                        i, i, i % 10, i % 7, random.nextInt(10000000), random.nextLong(), i);
+                final byte[] bytes = stanza.getBytes(StandardCharsets.US_ASCII);
+                out.write(bytes);
+                written += bytes.length;
+                i++;
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,85 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import javax.security.auth.x500.X500Principal;
+import org.cesecore.util.CertTools;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.signserver.server.DNCache;
+
+/**
+ * JMH benchmark of normalizing the DN of a client certificate name as done
+ * by ClientCertAuthorizer, on each call or looked up in the DNCache.
+ *
+ * The cached benchmark includes getting the DER encoding of the name used
+ * as key. Run with several threads (-t option) to include the contention
+ * on the cache.
+ *
+ * Usage:
+ * <pre>
+ * mvn install -Pprofile-benchmark -DskipTests -pl modules/SignServer-Test-Benchmark -am
+ * java -jar modules/SignServer-Test-Benchmark/target/benchmarks.jar DNCacheBenchmark
+ * java -jar modules/SignServer-Test-Benchmark/target/benchmarks.jar DNCacheBenchmark -t 8
+ * </pre>
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DNCacheBenchmark {
+
+    @Param({"CN=Client 1, OU=Testing, O=SignServer, C=SE",
+            "CN=Client 1, SERIALNUMBER=4711, OU=Signing, OU=Testing, O=SignServer, L=Stockholm, ST=Stockholm, C=SE"})
+    public String dn;
+
+    private X500Principal name;
+    private DNCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        name = new X500Principal(dn);
+        cache = new DNCache(DNCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @return the normalized DN, consumed by JMH
+     */
+    @Benchmark
+    public String uncached() {
+        return CertTools.stringToBCDNString(name.getName());
+    }
+
+    /**
+     * @return the normalized DN, consumed by JMH
+     */
+    @Benchmark
+    public String cached() {
+        return cache.get(name, () -> CertTools.stringToBCDNString(name.getName()));
+    }
+}
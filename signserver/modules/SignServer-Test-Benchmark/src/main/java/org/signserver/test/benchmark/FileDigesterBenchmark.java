@@ -0,0 +1,160 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.signserver.client.cli.defaultimpl.FileDigester;
+import org.signserver.client.cli.defaultimpl.HashingStage;
+import org.signserver.client.cli.defaultimpl.InputSource;
+
+/**
+ * JMH benchmark of the hashing of input files in the client, comparing the
+ * previous buffered stream reading with the memory-mapped FileDigester and
+ * the HashingStage hashing several files in parallel.
+ *
+ * One operation hashes all files. The files are created in the temporary
+ * directory and removed afterwards. The warmup iterations populate the page
+ * cache so that hashing rather than disk throughput is measured. Divide the
+ * total size (fileSizeMB x files) by the reported time for the throughput.
+ *
+ * Usage:
+ * <pre>
+ * mvn install -Pprofile-benchmark -DskipTests -pl modules/SignServer-Test-Benchmark -am
+ * java -jar modules/SignServer-Test-Benchmark/target/benchmarks.jar FileDigesterBenchmark
+ * java -jar modules/SignServer-Test-Benchmark/target/benchmarks.jar FileDigesterBenchmark -p fileSizeMB=2048 -p hashThreads=8
+ * </pre>
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class FileDigesterBenchmark {
+
+    @Param({"256"})
+    public int fileSizeMB;
+
+    @Param({"4"})
+    public int files;
+
+    @Param({"SHA-256"})
+    public String algorithm;
+
+    @Param({"4"})
+    public int hashThreads;
+
+    private final List<File> inputs = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Security.addProvider(new BouncyCastleProvider());
+        for (int i = 0; i < files; i++) {
+            inputs.add(createFile(fileSizeMB * 1024L * 1024L, i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : inputs) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+        inputs.clear();
+    }
+
+    /**
+     * @param blackhole to consume the digests
+     * @throws Exception in case of failure hashing
+     */
+    @Benchmark
+    public void stream(final Blackhole blackhole) throws Exception {
+        for (File file : inputs) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                blackhole.consume(InputSource.digest(in, MessageDigest.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME)));
+            }
+        }
+    }
+
+    /**
+     * @param blackhole to consume the digests
+     * @throws Exception in case of failure hashing
+     */
+    @Benchmark
+    public void mapped(final Blackhole blackhole) throws Exception {
+        for (File file : inputs) {
+            blackhole.consume(FileDigester.digest(file, algorithm));
+        }
+    }
+
+    /**
+     * @param blackhole to consume the digests
+     * @throws Exception in case of failure hashing
+     */
+    @Benchmark
+    public void stage(final Blackhole blackhole) throws Exception {
+        try (HashingStage stage = new HashingStage(hashThreads, Collections.singletonList(algorithm))) {
+            for (File file : inputs) {
+                stage.prefetch(file);
+            }
+            for (File file : inputs) {
+                blackhole.consume(stage.getDigest(file, algorithm));
+            }
+        }
+    }
+
+    private static File createFile(final long size, final int seed) throws IOException {
+        final File file = File.createTempFile("digest-benchmark-", ".bin");
+        final byte[] block = new byte[8 * 1024 * 1024];
+        new Random(seed).nextBytes(block);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long remaining = size;
+            while (remaining > 0) {
+                final int length = (int) Math.min(block.length, remaining);
+                raf.write(block, 0, length);
+                remaining -= length;
+            }
+        }
+        return file;
+    }
+}
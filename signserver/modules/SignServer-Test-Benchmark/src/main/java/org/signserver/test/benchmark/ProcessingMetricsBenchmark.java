@@ -0,0 +1,152 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.signserver.ejb.worker.impl.ProcessingStageMetrics;
+import org.signserver.ejb.worker.impl.ProcessingStageMetrics.Stage;
+import org.signserver.server.BaseProcessable;
+
+/**
+ * JMH benchmark of the overhead of recording the per-stage latency
+ * histograms of the worker processing.
+ *
+ * The processData benchmark is the signing itself and processDataRecorded
+ * is the same signing timed and recorded as done by WorkerProcessImpl, i.e.
+ * with the same number of System.nanoTime() calls and one histogram record
+ * per stage. The recordOnly benchmark gives the cost of the recording
+ * alone. The overhead is expected to stay below 1% of processData, also
+ * with several threads recording into the same histograms (-t option).
+ *
+ * Usage:
+ * <pre>
+ * mvn install -Pprofile-benchmark -DskipTests -pl modules/SignServer-Test-Benchmark -am
+ * java -jar modules/SignServer-Test-Benchmark/target/benchmarks.jar ProcessingMetricsBenchmark
+ * java -jar modules/SignServer-Test-Benchmark/target/benchmarks.jar ProcessingMetricsBenchmark -t 8
+ * </pre>
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ProcessingMetricsBenchmark {
+
+    @Param({"PlainSigner", "CMSSigner"})
+    public SignerFixture.SignerType signer;
+
+    @Param({"1024"})
+    public int payloadSize;
+
+    private SignerFixture fixture;
+    private BaseProcessable worker;
+    private byte[] payload;
+    private ProcessingStageMetrics.WorkerStages stages;
+    private final AtomicInteger requestId = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new SignerFixture();
+        worker = fixture.createWorker(signer);
+        payload = fixture.createPayload(signer, payloadSize, 4711);
+        stages = new ProcessingStageMetrics().getWorker(1, signer.name());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    /**
+     * @return the size of the response, consumed by JMH
+     * @throws Exception in case of failure processing
+     */
+    @Benchmark
+    public long processData() throws Exception {
+        return fixture.process(worker, signer, payload, requestId.incrementAndGet());
+    }
+
+    /**
+     * @return the size of the response, consumed by JMH
+     * @throws Exception in case of failure processing
+     */
+    @Benchmark
+    public long processDataRecorded() throws Exception {
+        long stageStart = System.nanoTime();
+        stageStart = recordStage(Stage.LOOKUP, stageStart);
+        recordStage(Stage.AUTHORIZATION, stageStart);
+
+        stageStart = System.nanoTime();
+        final long result = fixture.process(worker, signer, payload, requestId.incrementAndGet());
+        final long processTime = System.nanoTime() - stageStart;
+        stages.record(Stage.CRYPTO_INSTANCE, 0);
+        stages.record(Stage.PROCESS_DATA, processTime);
+
+        recordTail();
+        return result;
+    }
+
+    /**
+     * @return last stage start, consumed by JMH
+     */
+    @Benchmark
+    public long recordOnly() {
+        long stageStart = System.nanoTime();
+        stageStart = recordStage(Stage.LOOKUP, stageStart);
+        recordStage(Stage.AUTHORIZATION, stageStart);
+
+        stageStart = System.nanoTime();
+        final long processTime = System.nanoTime() - stageStart;
+        stages.record(Stage.CRYPTO_INSTANCE, 0);
+        stages.record(Stage.PROCESS_DATA, processTime);
+
+        return recordTail();
+    }
+
+    /** Records the stages after processData as WorkerProcessImpl does. */
+    private long recordTail() {
+        long stageStart = System.nanoTime();
+        long keyUsageTime = System.nanoTime() - stageStart;
+        stageStart = System.nanoTime();
+        stageStart = recordStage(Stage.ACCOUNTING, stageStart);
+        stageStart = recordStage(Stage.ARCHIVING, stageStart);
+        keyUsageTime += System.nanoTime() - stageStart;
+        stages.record(Stage.KEY_USAGE, keyUsageTime);
+
+        stageStart = System.nanoTime();
+        return recordStage(Stage.LOGGING, stageStart);
+    }
+
+    private long recordStage(final Stage stage, final long start) {
+        final long now = System.nanoTime();
+        stages.record(stage, now - start);
+        return now;
+    }
+}
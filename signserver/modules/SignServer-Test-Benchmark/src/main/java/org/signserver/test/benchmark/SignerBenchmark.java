@@ -0,0 +1,107 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.signserver.server.BaseProcessable;
+
+/**
+ * JMH benchmark of the processData() call of the signers, in-process and
+ * without an application server.
+ *
+ * Measures the average time of signing one request for each signer and
+ * payload size. When started using the main method the GC profiler is added
+ * so that the allocation rate per operation is reported as well.
+ *
+ * Usage:
+ * <pre>
+ * mvn install -Pprofile-benchmark -DskipTests -pl modules/SignServer-Test-Benchmark -am
+ * java -jar modules/SignServer-Test-Benchmark/target/benchmarks.jar
+ * java -jar modules/SignServer-Test-Benchmark/target/benchmarks.jar -p signer=CMSSigner,PDFSigner -p payloadSize=1024
+ * </pre>
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SignerBenchmark {
+
+    @Param({"CMSSigner", "PlainSigner", "XMLSigner", "XAdESSigner", "PDFSigner", "TimeStampSigner", "OpenPGPSigner", "MRTDSODSigner"})
+    public SignerFixture.SignerType signer;
+
+    /** Input size in bytes, for the TimeStampSigner the data that is hashed. */
+    @Param({"1024", "65536", "1048576"})
+    public int payloadSize;
+
+    private SignerFixture fixture;
+    private BaseProcessable worker;
+    private byte[] payload;
+    private final AtomicInteger requestId = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new SignerFixture();
+        worker = fixture.createWorker(signer);
+        payload = fixture.createPayload(signer, payloadSize, 4711);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    /**
+     * @return the size of the response, consumed by JMH
+     * @throws Exception in case of failure processing
+     */
+    @Benchmark
+    public long processData() throws Exception {
+        return fixture.process(worker, signer, payload, requestId.incrementAndGet());
+    }
+
+    /**
+     * Runs the benchmarks with the GC profiler added. Accepts the same
+     * arguments as the JMH runner.
+     *
+     * @param args JMH command line options
+     * @throws Exception in case of failure
+     */
+    public static void main(final String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,331 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.benchmark;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.pdf.PdfWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.tsp.TimeStampRequestGenerator;
+import org.bouncycastle.util.encoders.Base64;
+import org.signserver.common.RequestContext;
+import org.signserver.common.RequestMetadata;
+import org.signserver.common.SignServerUtil;
+import org.signserver.common.WorkerConfig;
+import org.signserver.common.WorkerType;
+import org.signserver.common.data.Request;
+import org.signserver.common.data.SODRequest;
+import org.signserver.common.data.SignatureRequest;
+import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
+import org.signserver.module.cmssigner.CMSSigner;
+import org.signserver.module.cmssigner.PlainSigner;
+import org.signserver.module.mrtdsodsigner.MRTDSODSigner;
+import org.signserver.module.openpgp.signer.OpenPGPSigner;
+import org.signserver.module.pdfsigner.PDFSigner;
+import org.signserver.module.tsa.TimeStampSigner;
+import org.signserver.module.xades.signer.XAdESSigner;
+import org.signserver.module.xmlsigner.XMLSigner;
+import org.signserver.server.BaseProcessable;
+import org.signserver.server.IServices;
+import org.signserver.server.SignServerContext;
+import org.signserver.server.cryptotokens.KeystoreCryptoToken;
+import org.signserver.server.data.impl.CloseableReadableData;
+import org.signserver.server.data.impl.CloseableWritableData;
+import org.signserver.server.data.impl.DataFactory;
+import org.signserver.server.data.impl.DefaultDataFactory;
+import org.signserver.server.log.LogMap;
+import org.signserver.test.utils.builders.CertBuilder;
+import org.signserver.test.utils.builders.CertExt;
+import org.signserver.test.utils.builders.CryptoUtils;
+import org.signserver.test.utils.mock.GlobalConfigurationSessionMock;
+import org.signserver.test.utils.mock.KeyUsageCounterServiceMock;
+import org.signserver.test.utils.mock.MockedServicesImpl;
+
+/**
+ * Sets up signers in-process, without an application server, and processes
+ * requests with them.
+ *
+ * The workers are created and initialized the same way as by the worker
+ * session, using a KeystoreCryptoToken with a PKCS#12 key store generated
+ * in a temporary folder, the DefaultDataFactory for the request and response
+ * data and services backed by a mocked global configuration.
+ *
+ * @version $Id$
+ */
+public class SignerFixture implements AutoCloseable {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(SignerFixture.class);
+
+    /** Signers that can be set up. */
+    public enum SignerType {
+        CMSSigner,
+        PlainSigner,
+        XMLSigner,
+        XAdESSigner,
+        PDFSigner,
+        TimeStampSigner,
+        OpenPGPSigner,
+        MRTDSODSigner
+    }
+
+    private static final String KEYSTORE_PASSWORD = "foo123";
+    private static final String SIGNER_ALIAS = "signer";
+    private static final String TSA_ALIAS = "tsa";
+    private static final int WORKER_ID = 1;
+
+    private final File folder;
+    private final File keystore;
+    private final IServices services;
+    private final DataFactory dataFactory = new DefaultDataFactory();
+
+    /**
+     * Creates a fixture with a new key store holding an RSA key for the
+     * signers and one with a time stamping certificate for the TSA.
+     *
+     * @throws Exception in case the key store could not be created
+     */
+    public SignerFixture() throws Exception {
+        SignServerUtil.installBCProviderIfNotAvailable();
+        folder = Files.createTempDirectory("signserver-benchmark").toFile();
+        keystore = new File(folder, "keystore.p12");
+
+        final KeyStore ks = KeyStore.getInstance("PKCS12", "BC");
+        ks.load(null, null);
+        addEntry(ks, SIGNER_ALIAS, "CN=Benchmark Signer", null);
+        addEntry(ks, TSA_ALIAS, "CN=Benchmark TSA",
+                new CertExt(Extension.extendedKeyUsage, true, new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping)));
+        try (OutputStream out = Files.newOutputStream(keystore.toPath())) {
+            ks.store(out, KEYSTORE_PASSWORD.toCharArray());
+        }
+
+        services = new MockedServicesImpl().with(GlobalConfigurationSessionLocal.class, new GlobalConfigurationSessionMock());
+    }
+
+    private static void addEntry(final KeyStore ks, final String alias, final String subject,
+            final CertExt extension) throws Exception {
+        final KeyPair keyPair = CryptoUtils.generateRSA(2048);
+        final CertBuilder builder = new CertBuilder()
+                .setSelfSignKeyPair(keyPair)
+                .setSubject(subject)
+                .setSignatureAlgorithm("SHA256WithRSA");
+        if (extension != null) {
+            builder.addExtension(extension);
+        }
+        final Certificate cert = new JcaX509CertificateConverter().getCertificate(builder.build());
+        ks.setKeyEntry(alias, keyPair.getPrivate(), KEYSTORE_PASSWORD.toCharArray(), new Certificate[] {cert});
+    }
+
+    /**
+     * Creates and initializes a worker.
+     *
+     * @param type of signer
+     * @return the initialized worker
+     * @throws IllegalStateException in case the worker has fatal errors
+     */
+    public BaseProcessable createWorker(final SignerType type) {
+        final WorkerConfig config = new WorkerConfig();
+        config.setProperty("NAME", type.name() + "Benchmark");
+        config.setProperty(WorkerConfig.TYPE, WorkerType.PROCESSABLE.name());
+        config.setProperty("AUTHTYPE", "NOAUTH");
+        config.setProperty(WorkerConfig.CRYPTOTOKEN_IMPLEMENTATION_CLASS, KeystoreCryptoToken.class.getName());
+        config.setProperty(KeystoreCryptoToken.KEYSTORETYPE, KeystoreCryptoToken.TYPE_PKCS12);
+        config.setProperty(KeystoreCryptoToken.KEYSTOREPATH, keystore.getAbsolutePath());
+        config.setProperty(KeystoreCryptoToken.KEYSTOREPASSWORD, KEYSTORE_PASSWORD);
+        config.setProperty(KeystoreCryptoToken.DEFAULTKEY, SIGNER_ALIAS);
+        config.setProperty("DISABLEKEYUSAGECOUNTER", "TRUE");
+
+        final BaseProcessable worker;
+        switch (type) {
+            case CMSSigner:
+                worker = new CMSSigner();
+                break;
+            case PlainSigner:
+                worker = new PlainSigner();
+                break;
+            case XMLSigner:
+                worker = new XMLSigner();
+                break;
+            case XAdESSigner:
+                worker = new XAdESSigner();
+                break;
+            case PDFSigner:
+                worker = new PDFSigner();
+                break;
+            case TimeStampSigner:
+                worker = new TimeStampSigner();
+                config.setProperty(KeystoreCryptoToken.DEFAULTKEY, TSA_ALIAS);
+                config.setProperty(TimeStampSigner.DEFAULTTSAPOLICYOID, "1.2.3");
+                config.setProperty("ACCEPTANYPOLICY", "TRUE");
+                break;
+            case OpenPGPSigner:
+                worker = new OpenPGPSigner();
+                config.setProperty("DETACHEDSIGNATURE", "TRUE");
+                break;
+            case MRTDSODSigner:
+                worker = new MRTDSODSigner();
+                config.setProperty("DODATAGROUPHASHING", "TRUE");
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported signer: " + type);
+        }
+        worker.init(WORKER_ID, config, new SignServerContext(null, new KeyUsageCounterServiceMock()), null);
+
+        final List<String> errors = worker.getStatus(Collections.<String>emptyList(), services).getFatalErrors();
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Worker " + type + " is misconfigured: " + errors);
+        }
+        return worker;
+    }
+
+    /**
+     * Creates input data of the kind expected by a signer.
+     *
+     * For the XML signers the data is wrapped in an XML document, for the
+     * PDFSigner in a PDF document and for the TimeStampSigner it is the
+     * time-stamp request of the data.
+     *
+     * @param type of signer
+     * @param size approximate size of the input
+     * @param seed for the random content
+     * @return the input data
+     * @throws IOException in case of failure creating the input
+     */
+    public byte[] createPayload(final SignerType type, final int size, final long seed) throws IOException {
+        final Random random = new Random(seed);
+        final byte[] data = new byte[size];
+        random.nextBytes(data);
+        switch (type) {
+            case XMLSigner:
+            case XAdESSigner:
+                // Base64 expands by 4/3
+                final byte[] content = new byte[size * 3 / 4];
+                random.nextBytes(content);
+                return ("<root><data>" + Base64.toBase64String(content) + "</data></root>").getBytes(StandardCharsets.UTF_8);
+            case PDFSigner:
+                return createPdf(data);
+            case TimeStampSigner:
+                try {
+                    final TimeStampRequestGenerator generator = new TimeStampRequestGenerator();
+                    generator.setCertReq(true);
+                    return generator.generate(TSPAlgorithms.SHA256, MessageDigest.getInstance("SHA-256").digest(data),
+                            BigInteger.valueOf(random.nextLong())).getEncoded();
+                } catch (NoSuchAlgorithmException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            default:
+                return data;
+        }
+    }
+
+    /**
+     * Creates a PDF with the data as an embedded file, so that the size of
+     * the document grows with the data.
+     */
+    private static byte[] createPdf(final byte[] data) throws IOException {
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream(data.length + 2048);
+        final Document document = new Document();
+        try {
+            final PdfWriter writer = PdfWriter.getInstance(document, bout);
+            document.open();
+            document.add(new Paragraph("SignServer benchmark document"));
+            writer.addFileAttachment("Payload", data, null, "payload.bin");
+        } catch (DocumentException ex) {
+            throw new IOException("Failed to create PDF: " + ex.getMessage(), ex);
+        } finally {
+            document.close();
+        }
+        return bout.toByteArray();
+    }
+
+    /**
+     * Processes one request.
+     *
+     * @param worker to process with
+     * @param type of the worker
+     * @param payload input created with createPayload
+     * @param requestId ID of the request
+     * @return size of the response
+     * @throws Exception in case of failure processing
+     */
+    public long process(final BaseProcessable worker, final SignerType type, final byte[] payload,
+            final int requestId) throws Exception {
+        final RequestContext context = new RequestContext();
+        context.setServices(services);
+        context.put(RequestContext.TRANSACTION_ID, UUID.randomUUID().toString());
+        LogMap.getInstance(context);
+        RequestMetadata.getInstance(context);
+
+        try (CloseableReadableData requestData = createRequestData(payload);
+                CloseableWritableData responseData = dataFactory.createWritableData(false, folder)) {
+            final Request request;
+            if (type == SignerType.MRTDSODSigner) {
+                final Map<Integer, byte[]> dataGroups = new HashMap<>();
+                dataGroups.put(1, payload);
+                dataGroups.put(2, payload);
+                request = new SODRequest(requestId, dataGroups, null, null, responseData);
+            } else {
+                request = new SignatureRequest(requestId, requestData, responseData);
+            }
+            worker.processData(request, context);
+            return responseData.toReadableData().getLength();
+        }
+    }
+
+    private CloseableReadableData createRequestData(final byte[] payload) throws FileUploadException {
+        return dataFactory.createReadableData(payload, Long.MAX_VALUE, folder);
+    }
+
+    /** @return services used by the workers */
+    public IServices getServices() {
+        return services;
+    }
+
+    /**
+     * Removes the key store and any temporary request and response files.
+     */
+    @Override
+    public void close() {
+        try {
+            FileUtils.deleteDirectory(folder);
+        } catch (IOException ex) {
+            LOG.warn("Could not remove " + folder + ": " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.benchmark;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.signserver.server.BaseProcessable;
+
+/**
+ * Unit tests checking that all benchmarked signers can be set up and process
+ * requests using the SignerFixture.
+ *
+ * @version $Id$
+ */
+public class SignerFixtureUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(SignerFixtureUnitTest.class);
+
+    private static SignerFixture fixture;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        fixture = new SignerFixture();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        fixture.close();
+    }
+
+    /**
+     * Tests that each signer processes a small and a larger request.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testProcessAllSigners() throws Exception {
+        LOG.info("testProcessAllSigners");
+        for (SignerFixture.SignerType type : SignerFixture.SignerType.values()) {
+            final BaseProcessable worker = fixture.createWorker(type);
+            for (int size : new int[] {1024, 65536}) {
+                final byte[] payload = fixture.createPayload(type, size, 1);
+                final long responseSize = fixture.process(worker, type, payload, 1);
+                assertTrue(type + " response for " + size + " bytes: " + responseSize, responseSize > 0);
+            }
+        }
+    }
+
+    /**
+     * Tests that the payloads grow with the requested size.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testPayloadSizes() throws Exception {
+        LOG.info("testPayloadSizes");
+        for (SignerFixture.SignerType type : SignerFixture.SignerType.values()) {
+            if (type == SignerFixture.SignerType.TimeStampSigner) {
+                continue;
+            }
+            final int length = fixture.createPayload(type, 65536, 1).length;
+            assertTrue(type + " payload: " + length, length >= 60000 && length < 70000);
+        }
+    }
+}
@@ -285,11 +285,21 @@ public class InternalKeystoreCryptoTokenTest extends CryptoTokenTestBase {
                         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
                     }
 
+                    @Override
+                    public List<ArchiveMetadata> searchArchiveAfter(AdminInfo adminInfo, Long afterTime, String afterUniqueId, int max, QueryCriteria criteria, boolean descending, boolean includeData) throws AuthorizationDeniedException {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
                     @Override
                     public WorkerStatus getStatus(WorkerIdentifier workerId) throws InvalidWorkerIdException {
                         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
                     }
 
+                    @Override
+                    public List<byte[]> getCachedSignerCertificateChain(WorkerIdentifier wi) throws InvalidWorkerIdException {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
                     @Override
                     public boolean isTokenActive(WorkerIdentifier workerId) throws InvalidWorkerIdException {
                         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
@@ -470,6 +480,11 @@ public class InternalKeystoreCryptoTokenTest extends CryptoTokenTestBase {
                         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
                     }
 
+                    @Override
+                    public List<ArchiveMetadata> searchArchiveAfter(Long afterTime, String afterUniqueId, int max, QueryCriteria criteria, boolean descending, boolean includeData) throws AuthorizationDeniedException {
+                        throw new UnsupportedOperationException("Not supported yet.");
+                    }
+
                     @Override
                     public List<Integer> getWorkers(WorkerType workerType) {
                         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
@@ -554,6 +569,11 @@ public class InternalKeystoreCryptoTokenTest extends CryptoTokenTestBase {
                 throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
             }
 
+            @Override
+            public boolean incrementIfWithinLimit(String keyHash, long limit, long count) {
+                throw new UnsupportedOperationException("Not supported yet.");
+            }
+
             @Override
             public boolean isWithinLimit(String keyHash, long keyUsageLimit) {
                 throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
@@ -0,0 +1,360 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import org.bouncycastle.util.encoders.Hex;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.signserver.common.util.LatencyHistogram;
+
+/**
+ * Machine-readable results of a performance test run.
+ *
+ * A report holds the configuration of the run, a fingerprint of that
+ * configuration to tell whether two runs are comparable, some facts about
+ * the environment and one result per measurement: one for a closed-loop or
+ * open-loop run and one per step of a sweep.
+ *
+ * Reports are written as JSON, which can be read back to compare with, and
+ * as CSV with one row per measurement.
+ *
+ * @version $Id$
+ */
+public class BenchmarkReport {
+
+    /** Latency percentiles included in the results. */
+    static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    /** Result of one measurement, with latencies in milliseconds. */
+    public static class Result {
+        private final String label;
+        private final double targetRate;
+        private final long operations;
+        private final long failed;
+        private final long duration;
+        private final double throughput;
+        private final Map<String, Double> latencies;
+
+        /**
+         * Creates a result.
+         *
+         * @param label identifying the measurement within the run
+         * @param targetRate requests per second aimed for or NaN if closed-loop
+         * @param operations number of successful requests
+         * @param failed number of failed requests
+         * @param duration measured time in milliseconds
+         * @param throughput successful requests per second
+         * @param latencies latency by name (p50, ..., max, mean) in ms
+         */
+        public Result(final String label, final double targetRate, final long operations,
+                final long failed, final long duration, final double throughput,
+                final Map<String, Double> latencies) {
+            this.label = label;
+            this.targetRate = targetRate;
+            this.operations = operations;
+            this.failed = failed;
+            this.duration = duration;
+            this.throughput = throughput;
+            this.latencies = latencies;
+        }
+
+        /**
+         * Creates a result from a histogram of latencies in microseconds.
+         *
+         * @param label identifying the measurement within the run
+         * @param targetRate requests per second aimed for or NaN if closed-loop
+         * @param failed number of failed requests
+         * @param duration measured time in milliseconds
+         * @param throughput successful requests per second
+         * @param histogram of the successful requests
+         * @return the result
+         */
+        public static Result create(final String label, final double targetRate, final long failed,
+                final long duration, final double throughput, final LatencyHistogram histogram) {
+            final Map<String, Double> latencies = new LinkedHashMap<>();
+            for (double percentile : PERCENTILES) {
+                latencies.put(percentileName(percentile), histogram.getValueAtPercentile(percentile) / 1000.0);
+            }
+            latencies.put("max", histogram.getMax() / 1000.0);
+            latencies.put("mean", histogram.getCount() == 0 ? 0 : histogram.getMean() / 1000.0);
+            return new Result(label, targetRate, histogram.getCount(), failed, duration, throughput, latencies);
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public double getTargetRate() {
+            return targetRate;
+        }
+
+        public long getOperations() {
+            return operations;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public double getThroughput() {
+            return throughput;
+        }
+
+        /** @return part of the requests that failed */
+        public double getErrorRate() {
+            final long total = operations + failed;
+            return total == 0 ? 0 : failed / (double) total;
+        }
+
+        /**
+         * @param name of the latency, for instance p99 or max
+         * @return the latency in milliseconds or null if not available
+         */
+        public Double getLatency(final String name) {
+            return latencies.get(name);
+        }
+
+        /** @return all latencies by name in milliseconds */
+        public Map<String, Double> getLatencies() {
+            return Collections.unmodifiableMap(latencies);
+        }
+
+        @SuppressWarnings("unchecked")
+        JSONObject toJSON() {
+            final JSONObject result = new JSONObject();
+            result.put("label", label);
+            result.put("targetRate", Double.isNaN(targetRate) ? null : targetRate);
+            result.put("operations", operations);
+            result.put("failed", failed);
+            result.put("duration", duration);
+            result.put("throughput", Double.isNaN(throughput) ? null : throughput);
+            result.put("errorRate", getErrorRate());
+            final JSONObject latency = new JSONObject();
+            latency.putAll(latencies);
+            result.put("latency", latency);
+            return result;
+        }
+
+        static Result fromJSON(final JSONObject json) {
+            final Map<String, Double> latencies = new LinkedHashMap<>();
+            final JSONObject latency = (JSONObject) json.get("latency");
+            for (double percentile : PERCENTILES) {
+                putIfPresent(latencies, latency, percentileName(percentile));
+            }
+            putIfPresent(latencies, latency, "max");
+            putIfPresent(latencies, latency, "mean");
+            return new Result((String) json.get("label"), toDouble(json.get("targetRate")),
+                    ((Number) json.get("operations")).longValue(), ((Number) json.get("failed")).longValue(),
+                    ((Number) json.get("duration")).longValue(), toDouble(json.get("throughput")), latencies);
+        }
+
+        private static void putIfPresent(final Map<String, Double> latencies, final JSONObject json, final String name) {
+            if (json != null && json.get(name) != null) {
+                latencies.put(name, toDouble(json.get(name)));
+            }
+        }
+
+        private static double toDouble(final Object value) {
+            return value == null ? Double.NaN : ((Number) value).doubleValue();
+        }
+    }
+
+    private final String suite;
+    private final Date startTime;
+    private final Map<String, String> configuration;
+    private final Map<String, String> environment;
+    private final List<Result> results;
+
+    /**
+     * Creates a report.
+     *
+     * @param suite name of the test suite
+     * @param startTime when the run started
+     * @param configuration settings affecting the results
+     * @param environment information about where the test was run, not
+     * included in the fingerprint
+     * @param results of the measurements
+     */
+    public BenchmarkReport(final String suite, final Date startTime, final Map<String, String> configuration,
+            final Map<String, String> environment, final List<Result> results) {
+        this.suite = suite;
+        this.startTime = startTime;
+        this.configuration = new TreeMap<>(configuration);
+        this.environment = new TreeMap<>(environment);
+        this.results = new ArrayList<>(results);
+    }
+
+    /** @return the default environment information of this JVM */
+    public static Map<String, String> createEnvironment() {
+        final Map<String, String> result = new TreeMap<>();
+        result.put("java.version", System.getProperty("java.version"));
+        result.put("java.vm.name", System.getProperty("java.vm.name"));
+        result.put("os.name", System.getProperty("os.name"));
+        result.put("os.arch", System.getProperty("os.arch"));
+        result.put("processors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        return result;
+    }
+
+    static String percentileName(final double percentile) {
+        return "p" + (percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile));
+    }
+
+    public String getSuite() {
+        return suite;
+    }
+
+    public Map<String, String> getConfiguration() {
+        return Collections.unmodifiableMap(configuration);
+    }
+
+    public List<Result> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * @return SHA-256 of the configuration entries in hex, equal for runs
+     * with the same configuration
+     */
+    public String getFingerprint() {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(suite.getBytes(StandardCharsets.UTF_8));
+            for (Map.Entry<String, String> entry : configuration.entrySet()) {
+                md.update((byte) '\n');
+                md.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                md.update((byte) '=');
+                md.update(String.valueOf(entry.getValue()).getBytes(StandardCharsets.UTF_8));
+            }
+            return Hex.toHexString(md.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static SimpleDateFormat createDateFormat(final String pattern) {
+        final SimpleDateFormat result = new SimpleDateFormat(pattern, Locale.ENGLISH);
+        result.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return result;
+    }
+
+    /** @return the report as JSON */
+    @SuppressWarnings("unchecked")
+    public JSONObject toJSON() {
+        final JSONObject json = new JSONObject();
+        json.put("suite", suite);
+        json.put("startTime", createDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").format(startTime));
+        json.put("fingerprint", getFingerprint());
+        final JSONObject config = new JSONObject();
+        config.putAll(configuration);
+        json.put("configuration", config);
+        final JSONObject env = new JSONObject();
+        env.putAll(environment);
+        json.put("environment", env);
+        final JSONArray array = new JSONArray();
+        for (Result result : results) {
+            array.add(result.toJSON());
+        }
+        json.put("results", array);
+        return json;
+    }
+
+    /**
+     * Reads a report written by write().
+     *
+     * @param reader to read the JSON from
+     * @return the report
+     * @throws IOException in case of failure reading or parsing
+     */
+    @SuppressWarnings("unchecked")
+    public static BenchmarkReport read(final Reader reader) throws IOException {
+        try {
+            final JSONObject json = (JSONObject) new JSONParser().parse(reader);
+            final Date startTime = createDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").parse((String) json.get("startTime"));
+            final List<Result> results = new ArrayList<>();
+            for (Object result : (JSONArray) json.get("results")) {
+                results.add(Result.fromJSON((JSONObject) result));
+            }
+            return new BenchmarkReport((String) json.get("suite"), startTime,
+                    (Map<String, String>) json.get("configuration"), (Map<String, String>) json.get("environment"), results);
+        } catch (ParseException | java.text.ParseException | ClassCastException | NullPointerException ex) {
+            throw new IOException("Malformed results: " + ex.getMessage(), ex);
+        }
+    }
+
+    /** @return the results as CSV with a header row */
+    public String toCSV() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("suite,fingerprint,label,targetRate,operations,failed,duration,throughput,errorRate");
+        for (double percentile : PERCENTILES) {
+            sb.append(',').append(percentileName(percentile));
+        }
+        sb.append(",max,mean\n");
+        for (Result result : results) {
+            sb.append(suite).append(',').append(getFingerprint()).append(',').append(result.label).append(',')
+                    .append(format(result.targetRate)).append(',').append(result.operations).append(',')
+                    .append(result.failed).append(',').append(result.duration).append(',')
+                    .append(format(result.throughput)).append(',').append(format(result.getErrorRate()));
+            for (double percentile : PERCENTILES) {
+                sb.append(',').append(format(result.getLatency(percentileName(percentile))));
+            }
+            sb.append(',').append(format(result.getLatency("max"))).append(',').append(format(result.getLatency("mean"))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String format(final Double value) {
+        return value == null || value.isNaN() ? "" : String.format(Locale.ENGLISH, "%.3f", value);
+    }
+
+    /**
+     * Writes the report as a JSON file and a CSV file named after the suite
+     * and start time.
+     *
+     * @param folder existing folder to write to
+     * @return the JSON file
+     * @throws IOException in case of failure writing
+     */
+    public File write(final File folder) throws IOException {
+        final String name = suite + "-" + createDateFormat("yyyyMMdd-HHmmss").format(startTime);
+        final File json = new File(folder, name + ".json");
+        try (Writer out = Files.newBufferedWriter(json.toPath(), StandardCharsets.UTF_8)) {
+            toJSON().writeJSONString(out);
+        }
+        Files.write(new File(folder, name + ".csv").toPath(), toCSV().getBytes(StandardCharsets.UTF_8));
+        return json;
+    }
+}
@@ -0,0 +1,499 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.performance;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.log4j.Logger;
+import org.signserver.common.util.LatencyHistogram;
+
+/**
+ * Open-loop load generator issuing requests at a target arrival rate.
+ *
+ * Unlike the WorkerThread, which waits for each response before sending
+ * the next request, the requests are scheduled at fixed (or linearly ramped)
+ * intervals independently of the response times. Each scheduled request is
+ * queued with its intended start time and picked up by one of the threads,
+ * one per task. The latency is measured from the intended start time so
+ * that any time spent waiting because the server (or this tool) could not
+ * keep up is included, avoiding coordinated omission.
+ *
+ * The latencies are recorded in microseconds into HDR histograms.
+ *
+ * @version $Id$
+ */
+public class OpenLoopRunner {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(OpenLoopRunner.class);
+
+    /** Precision good enough for p99.99 (less than 1% relative error). */
+    private static final int PRECISION_BITS = 7;
+
+    /** Stop scheduling when this many seconds of arrivals are queued. */
+    private static final int MAX_BACKLOG_SECONDS = 10;
+
+    /** A step is saturated if less than this part of the target is achieved. */
+    private static final double MIN_ACHIEVED_RATIO = 0.95;
+
+    /** A step is saturated if more than this part of the requests fail. */
+    private static final double MAX_ERROR_RATIO = 0.01;
+
+    /** Percentiles included in the reports. */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    /** Result of running at one rate or ramp. */
+    public static class StageResult {
+        private final double fromRate;
+        private final double toRate;
+        private final LatencyHistogram histogram = new LatencyHistogram(PRECISION_BITS, LatencyHistogram.DEFAULT_HIGHEST_TRACKABLE_VALUE);
+        private final AtomicLong failed = new AtomicLong();
+        private long scheduled;
+        private long unsent;
+        private int maxBacklog;
+        private boolean overloaded;
+        private long measuredNanos;
+
+        StageResult(final double fromRate, final double toRate) {
+            this.fromRate = fromRate;
+            this.toRate = toRate;
+        }
+
+        /** @return the target rate in requests per second at the end of the stage */
+        public double getTargetRate() {
+            return toRate;
+        }
+
+        /** @return latencies from the intended start in microseconds */
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        /** @return number of successful requests after the warm up */
+        public long getCompleted() {
+            return histogram.getCount();
+        }
+
+        /** @return number of failed requests */
+        public long getFailed() {
+            return failed.get();
+        }
+
+        /** @return number of requests scheduled */
+        public long getScheduled() {
+            return scheduled;
+        }
+
+        /** @return number of requests scheduled but never sent as the run was stopped */
+        public long getUnsent() {
+            return unsent;
+        }
+
+        /** @return largest number of requests waiting for a thread */
+        public int getMaxBacklog() {
+            return maxBacklog;
+        }
+
+        /** @return if scheduling was cut short because of a too large backlog */
+        public boolean isOverloaded() {
+            return overloaded;
+        }
+
+        /** @return successful requests per second after the warm up */
+        public double getAchievedRate() {
+            return measuredNanos <= 0 ? Double.NaN : getCompleted() / (measuredNanos / 1e9);
+        }
+
+        /** @return part of the requests that failed */
+        public double getErrorRatio() {
+            final long total = getCompleted() + getFailed();
+            return total == 0 ? 0 : getFailed() / (double) total;
+        }
+
+        /**
+         * @param maxP99Micros p99 latency above which the stage is saturated
+         * or 0 for no limit
+         * @return true if the target rate could not be sustained
+         */
+        public boolean isSaturated(final long maxP99Micros) {
+            return overloaded
+                    || getAchievedRate() < toRate * MIN_ACHIEVED_RATIO
+                    || getErrorRatio() > MAX_ERROR_RATIO
+                    || (maxP99Micros > 0 && histogram.getValueAtPercentile(99) > maxP99Micros);
+        }
+
+        /** @return one line with the rates, errors and latency percentiles in ms */
+        public String toLine() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ENGLISH, "%10.1f %10.1f %8.2f%%", toRate, getAchievedRate(), getErrorRatio() * 100));
+            for (double percentile : PERCENTILES) {
+                sb.append(String.format(Locale.ENGLISH, " %10.1f", histogram.getValueAtPercentile(percentile) / 1000.0));
+            }
+            sb.append(String.format(Locale.ENGLISH, " %10.1f %8d", histogram.getMax() / 1000.0, maxBacklog));
+            return sb.toString();
+        }
+    }
+
+    private final List<Task> tasks;
+    private final long warmupTime;
+    private final File statFolder;
+    private final String name;
+    private final boolean continueOnFailure;
+
+    private final List<StageResult> results = new CopyOnWriteArrayList<>();
+    private volatile StageResult saturation;
+    private volatile boolean sweep;
+    private volatile boolean stop;
+    private volatile String failureMessage;
+
+    /** Guards the threads of the running stage. */
+    private final Object lock = new Object();
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * Creates a new runner.
+     *
+     * @param tasks one task per thread, the number of tasks is the maximum
+     * number of concurrent requests
+     * @param warmupTime milliseconds from the start of each stage to not
+     * record latencies for
+     * @param statFolder folder to write the latency of each request to or null
+     * @param name prefix for the thread and statistics file names
+     * @param continueOnFailure if failed requests should be counted instead of
+     * stopping the run
+     */
+    public OpenLoopRunner(final List<Task> tasks, final long warmupTime, final File statFolder,
+            final String name, final boolean continueOnFailure) {
+        this.tasks = tasks;
+        this.warmupTime = warmupTime;
+        this.statFolder = statFolder;
+        this.name = name;
+        this.continueOnFailure = continueOnFailure;
+    }
+
+    /**
+     * Computes the time until the next arrival.
+     *
+     * @param fromRate requests per second at the start
+     * @param toRate requests per second at the end
+     * @param elapsedNanos time since the start
+     * @param durationNanos total time to ramp over
+     * @return nanoseconds to the next request
+     */
+    static long intervalNanos(final double fromRate, final double toRate, final long elapsedNanos, final long durationNanos) {
+        final double rate;
+        if (fromRate == toRate || durationNanos == Long.MAX_VALUE) {
+            rate = fromRate;
+        } else {
+            rate = fromRate + (toRate - fromRate) * Math.min(1.0, elapsedNanos / (double) durationNanos);
+        }
+        return Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+    }
+
+    /**
+     * Runs at a constant or linearly ramped rate until the time limit, the
+     * run is stopped or, in case of failure, unless continuing on failures.
+     * Blocks until all sent requests are done.
+     *
+     * @param fromRate requests per second at the start
+     * @param toRate requests per second at the end of the time limit
+     * @param limitedTime milliseconds to run or -1 to run until stopped
+     * @return the result
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public StageResult run(final double fromRate, final double toRate, final long limitedTime) throws InterruptedException {
+        return runStage(fromRate, toRate, limitedTime);
+    }
+
+    /**
+     * Runs steps of increasing constant rates until a step can not be
+     * sustained, to find the saturation point.
+     *
+     * A step is considered saturated if less than 95% of the target rate is
+     * achieved, more than 1% of the requests fail, the backlog grows too large
+     * or the p99 latency is above the given limit.
+     *
+     * @param fromRate rate of the first step in requests per second
+     * @param toRate highest rate to try
+     * @param stepRate increase for each step
+     * @param stepTime milliseconds to run each step
+     * @param maxP99 p99 latency in milliseconds above which a step is
+     * saturated or 0 for no limit
+     * @return the saturated step or null if all steps were sustained
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public StageResult sweep(final double fromRate, final double toRate, final double stepRate,
+            final long stepTime, final long maxP99) throws InterruptedException {
+        sweep = true;
+        LOG.info(getHeader());
+        for (int i = 0; !stop; i++) {
+            final double rate = fromRate + i * stepRate;
+            if (rate > toRate + 1e-9) {
+                break;
+            }
+            final StageResult result = runStage(rate, rate, stepTime);
+            LOG.info(result.toLine());
+            if (result.isSaturated(TimeUnit.MILLISECONDS.toMicros(maxP99))) {
+                saturation = result;
+                break;
+            }
+        }
+        return saturation;
+    }
+
+    private StageResult runStage(final double fromRate, final double toRate, final long limitedTime) throws InterruptedException {
+        final StageResult result = new StageResult(fromRate, toRate);
+        final int stage = results.size();
+        results.add(result);
+
+        final BlockingQueue<Long> queue = new LinkedBlockingQueue<>();
+        final long maxBacklog = Math.max(tasks.size(), (long) (Math.max(fromRate, toRate) * MAX_BACKLOG_SECONDS));
+        final long start = System.nanoTime();
+        final long warmupEnd = start + TimeUnit.MILLISECONDS.toNanos(warmupTime);
+        final long durationNanos = limitedTime > 0 ? TimeUnit.MILLISECONDS.toNanos(limitedTime) : Long.MAX_VALUE;
+        final long[] lastEnd = new long[tasks.size()];
+        final boolean[] scheduling = {true};
+
+        synchronized (lock) {
+            threads.clear();
+            for (int i = 0; i < tasks.size(); i++) {
+                final int index = i;
+                final File statFile = statFolder == null ? null : new File(statFolder, name + "-" + stage + "-" + i + ".csv");
+                final Thread thread = new Thread(() -> {
+                    lastEnd[index] = work(tasks.get(index), queue, scheduling, start, warmupEnd, result, statFile);
+                }, name + "-" + i);
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+        }
+
+        // Schedule the requests at their intended start times
+        long next = start;
+        while (!stop && next - start < durationNanos) {
+            long wait;
+            while ((wait = next - System.nanoTime()) > 0 && !stop) {
+                LockSupport.parkNanos(wait);
+            }
+            if (stop) {
+                break;
+            }
+            queue.add(next);
+            result.scheduled++;
+            final int backlog = queue.size();
+            if (backlog > result.maxBacklog) {
+                result.maxBacklog = backlog;
+            }
+            if (backlog > maxBacklog) {
+                LOG.warn("Backlog of " + backlog + " requests at " + String.format(Locale.ENGLISH, "%.1f", toRate)
+                        + " requests per second, not able to keep up");
+                result.overloaded = true;
+                break;
+            }
+            next += intervalNanos(fromRate, toRate, next - start, durationNanos);
+        }
+        synchronized (scheduling) {
+            scheduling[0] = false;
+        }
+
+        // Let the threads finish what has been scheduled
+        synchronized (lock) {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            threads.clear();
+        }
+        long end = start;
+        for (long value : lastEnd) {
+            end = Math.max(end, value);
+        }
+        result.measuredNanos = end - Math.max(start, warmupEnd);
+        result.unsent = queue.size();
+        return result;
+    }
+
+    private long work(final Task task, final BlockingQueue<Long> queue, final boolean[] scheduling,
+            final long start, final long warmupEnd, final StageResult result, final File statFile) {
+        long lastEnd = start;
+        BufferedWriter out = null;
+        try {
+            if (statFile != null) {
+                out = new BufferedWriter(new FileWriter(statFile));
+            }
+            final long startMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            while (!stop) {
+                final Long intended = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (intended == null) {
+                    synchronized (scheduling) {
+                        if (!scheduling[0] && queue.isEmpty()) {
+                            break;
+                        }
+                    }
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (FailedException ex) {
+                    result.failed.incrementAndGet();
+                    if (!continueOnFailure) {
+                        failureMessage = "Thread " + Thread.currentThread().getName() + ": Failed after "
+                                + result.getCompleted() + " requests: " + ex.getMessage();
+                        stop = true;
+                    }
+                    continue;
+                }
+                lastEnd = System.nanoTime();
+                final long latency = lastEnd - intended;
+                if (intended >= warmupEnd) {
+                    result.histogram.record(TimeUnit.NANOSECONDS.toMicros(latency));
+                    if (out != null) {
+                        out.write((startMillis + TimeUnit.NANOSECONDS.toMillis(intended - start)) + ";" + TimeUnit.NANOSECONDS.toMillis(latency));
+                        out.newLine();
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("File could not be written", ex);
+            }
+            LOG.error("File could not be written: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            LOG.error("Interrupted: " + ex.getMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                    LOG.error("File could not be closed: " + ex.getMessage());
+                }
+            }
+        }
+        return lastEnd;
+    }
+
+    /**
+     * Stops scheduling new requests and waits for the requests in progress.
+     */
+    public void stopIt() {
+        stop = true;
+        synchronized (lock) {
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the results of the stages for the machine-readable report,
+     * labelled by their target rates when sweeping
+     */
+    public List<BenchmarkReport.Result> getBenchmarkResults() {
+        final List<BenchmarkReport.Result> list = new ArrayList<>(results.size());
+        for (StageResult result : results) {
+            final String label = sweep ? String.format(Locale.ENGLISH, "rate-%.1f", result.getTargetRate()) : "open-loop";
+            list.add(BenchmarkReport.Result.create(label, result.getTargetRate(), result.getFailed(),
+                    TimeUnit.NANOSECONDS.toMillis(result.measuredNanos), result.getAchievedRate(), result.getHistogram()));
+        }
+        return list;
+    }
+
+    /** @return message of the failure that stopped the run or null */
+    public String getFailureMessage() {
+        return failureMessage;
+    }
+
+    /** @return results of the stages run so far */
+    public List<StageResult> getResults() {
+        return results;
+    }
+
+    private static String label(final double percentile) {
+        return "p" + (percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile));
+    }
+
+    private static String getHeader() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ENGLISH, "%10s %10s %9s", "target/s", "actual/s", "errors"));
+        for (double percentile : PERCENTILES) {
+            sb.append(String.format(Locale.ENGLISH, " %10s", label(percentile)));
+        }
+        sb.append(String.format(Locale.ENGLISH, " %10s %8s", "max", "backlog"));
+        return sb.toString();
+    }
+
+    /**
+     * @return summary of the run with latencies in milliseconds
+     */
+    public String getSummary() {
+        final StringBuilder sb = new StringBuilder();
+        if (sweep) {
+            sb.append(String.format("%n-- Latency vs throughput (ms from intended start) ---------------------------%n"));
+            sb.append(getHeader()).append(String.format("%n"));
+            StageResult lastSustained = null;
+            for (StageResult result : results) {
+                sb.append(result.toLine()).append(String.format("%n"));
+                if (result != saturation) {
+                    lastSustained = result;
+                }
+            }
+            if (saturation == null) {
+                sb.append(String.format(Locale.ENGLISH, "   No saturation found up to %.1f requests per second%n", lastSustained == null ? 0 : lastSustained.getTargetRate()));
+            } else {
+                sb.append(String.format(Locale.ENGLISH, "   Saturation point:        between %.1f and %.1f requests per second (max achieved %.1f)%n",
+                        lastSustained == null ? 0 : lastSustained.getTargetRate(), saturation.getTargetRate(), saturation.getAchievedRate()));
+            }
+        } else {
+            for (StageResult result : results) {
+                final LatencyHistogram histogram = result.getHistogram();
+                sb.append(String.format(Locale.ENGLISH,
+                          "%n-- Open-loop summary ---------------------------------------------------------%n"
+                        + "   Target rate:             %12.1f req/s%n"
+                        + "   Achieved rate:           %12.1f req/s%n"
+                        + "   Requests scheduled:      %10d%n"
+                        + "   Operations performed:    %10d%n"
+                        + "   Operations failed:       %10d%n"
+                        + "   Requests not sent:       %10d%n"
+                        + "   Maximum backlog:         %10d%n"
+                        + "   Latency from intended start:%n",
+                        result.getTargetRate(), result.getAchievedRate(), result.getScheduled(), result.getCompleted(),
+                        result.getFailed(), result.getUnsent(), result.getMaxBacklog()));
+                for (double percentile : PERCENTILES) {
+                    sb.append(String.format(Locale.ENGLISH, "     %-23s %12.1f ms%n", label(percentile) + ":", histogram.getValueAtPercentile(percentile) / 1000.0));
+                }
+                sb.append(String.format(Locale.ENGLISH, "     %-23s %12.1f ms%n", "max:", histogram.getMax() / 1000.0));
+                if (result.isOverloaded()) {
+                    sb.append(String.format("   Stopped early as the backlog grew too large%n"));
+                }
+            }
+        }
+        sb.append(String.format("------------------------------------------------------------------------------%n"));
+        return sb.toString();
+    }
+}
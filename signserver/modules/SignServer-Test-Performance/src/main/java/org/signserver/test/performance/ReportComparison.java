@@ -0,0 +1,162 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.performance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Comparison of a performance test run against a baseline, flagging
+ * regressions above configurable thresholds.
+ *
+ * Measurements are matched by their labels. A measurement is regressed if
+ * its throughput dropped, its p50, p99 or p99.9 latency increased or its
+ * error rate increased by more than the thresholds.
+ *
+ * The reports are not comparable if they are from different test suites or
+ * configurations or if a measurement of the baseline is missing in the new
+ * results. Such mismatches are reported separately from the regressions.
+ *
+ * @version $Id$
+ */
+public class ReportComparison {
+
+    /** Latencies compared. */
+    private static final String[] COMPARED_LATENCIES = {"p50", "p99", "p99.9"};
+
+    /** Latencies below this are not compared as the noise dominates. */
+    private static final double MIN_COMPARED_LATENCY = 1.0;
+
+    private final List<String> regressions = new ArrayList<>();
+    private final List<String> mismatches = new ArrayList<>();
+    private final List<String> notes = new ArrayList<>();
+
+    /**
+     * Compares two reports.
+     *
+     * @param baseline report to compare against
+     * @param current report of the new run
+     * @param maxThroughputDrop largest allowed throughput decrease in percent
+     * @param maxLatencyIncrease largest allowed latency increase in percent
+     * @param maxErrorRateIncrease largest allowed error rate increase in
+     * percentage points
+     */
+    public ReportComparison(final BenchmarkReport baseline, final BenchmarkReport current,
+            final double maxThroughputDrop, final double maxLatencyIncrease, final double maxErrorRateIncrease) {
+        if (!baseline.getSuite().equals(current.getSuite())) {
+            mismatches.add("Different test suites: " + baseline.getSuite() + " and " + current.getSuite());
+        }
+        if (!baseline.getFingerprint().equals(current.getFingerprint())) {
+            mismatches.add("Different configurations: " + baseline.getConfiguration()
+                    + " and " + current.getConfiguration());
+        }
+        for (BenchmarkReport.Result result : current.getResults()) {
+            final BenchmarkReport.Result base = find(baseline, result.getLabel());
+            if (base == null) {
+                notes.add(result.getLabel() + ": not in the baseline");
+                continue;
+            }
+            final double throughputChange = change(base.getThroughput(), result.getThroughput());
+            if (throughputChange < -maxThroughputDrop) {
+                regressions.add(String.format(Locale.ENGLISH, "%s: throughput %.1f -> %.1f req/s (%+.1f%%)",
+                        result.getLabel(), base.getThroughput(), result.getThroughput(), throughputChange));
+            }
+            for (String name : COMPARED_LATENCIES) {
+                final Double before = base.getLatency(name);
+                final Double after = result.getLatency(name);
+                if (before == null || after == null || Math.max(before, after) < MIN_COMPARED_LATENCY) {
+                    continue;
+                }
+                final double latencyChange = change(before, after);
+                if (latencyChange > maxLatencyIncrease) {
+                    regressions.add(String.format(Locale.ENGLISH, "%s: %s latency %.1f -> %.1f ms (%+.1f%%)",
+                            result.getLabel(), name, before, after, latencyChange));
+                }
+            }
+            final double errorRateChange = (result.getErrorRate() - base.getErrorRate()) * 100;
+            if (errorRateChange > maxErrorRateIncrease) {
+                regressions.add(String.format(Locale.ENGLISH, "%s: error rate %.2f%% -> %.2f%%",
+                        result.getLabel(), base.getErrorRate() * 100, result.getErrorRate() * 100));
+            }
+        }
+        for (BenchmarkReport.Result base : baseline.getResults()) {
+            if (find(current, base.getLabel()) == null) {
+                mismatches.add(base.getLabel() + ": missing in the new results");
+            }
+        }
+    }
+
+    private static BenchmarkReport.Result find(final BenchmarkReport report, final String label) {
+        for (BenchmarkReport.Result result : report.getResults()) {
+            if (result.getLabel().equals(label)) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /** @return change in percent, 0 if not computable */
+    private static double change(final double before, final double after) {
+        if (Double.isNaN(before) || Double.isNaN(after) || before == 0) {
+            return 0;
+        }
+        return (after - before) / before * 100;
+    }
+
+    /** @return true if any measurement regressed */
+    public boolean hasRegressions() {
+        return !regressions.isEmpty();
+    }
+
+    /** @return descriptions of the regressions */
+    public List<String> getRegressions() {
+        return Collections.unmodifiableList(regressions);
+    }
+
+    /** @return true if the reports are not comparable */
+    public boolean hasMismatches() {
+        return !mismatches.isEmpty();
+    }
+
+    /** @return descriptions of why the reports are not comparable */
+    public List<String> getMismatches() {
+        return Collections.unmodifiableList(mismatches);
+    }
+
+    /** @return descriptions of differences that are not regressions */
+    public List<String> getNotes() {
+        return Collections.unmodifiableList(notes);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (String note : notes) {
+            sb.append("   Note: ").append(note).append(String.format("%n"));
+        }
+        for (String mismatch : mismatches) {
+            sb.append("   MISMATCH: ").append(mismatch).append(String.format("%n"));
+        }
+        for (String regression : regressions) {
+            sb.append("   REGRESSION: ").append(regression).append(String.format("%n"));
+        }
+        if (!mismatches.isEmpty()) {
+            sb.append(String.format("   Reports not comparable%n"));
+        } else if (regressions.isEmpty()) {
+            sb.append(String.format("   No regressions%n"));
+        }
+        return sb.toString();
+    }
+}
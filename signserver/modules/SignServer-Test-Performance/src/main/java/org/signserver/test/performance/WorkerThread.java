@@ -20,6 +20,7 @@ import java.util.Date;
 import java.util.Random;
 
 import org.apache.log4j.Logger;
+import org.signserver.common.util.LatencyHistogram;
 
 /**
  * Thread running tests.
@@ -41,6 +42,9 @@ public class WorkerThread extends Thread {
     protected long maxRespTime;
     protected long minRespTime = Long.MAX_VALUE;
 
+    /** Response times in microseconds for the percentiles. */
+    private final LatencyHistogram respTimes = new LatencyHistogram();
+
     private long startTime;
     private long warmupTime;
     private final long limitedTime;
@@ -134,6 +138,13 @@ public class WorkerThread extends Thread {
         }
     }
     
+    /**
+     * @return The task performed by this thread
+     */
+    public Task getTask() {
+        return task;
+    }
+
     /**
      * Indicate that this thread has discovered a failure.
      * @param message A description of the problem
@@ -184,6 +195,14 @@ public class WorkerThread extends Thread {
         if (time < minRespTime) {
             minRespTime = time;
         }
+        respTimes.record(time * 1000);
+    }
+
+    /**
+     * @return Histogram of the response times in microseconds
+     */
+    public LatencyHistogram getResponseTimeHistogram() {
+        return respTimes;
     }
     
     /**
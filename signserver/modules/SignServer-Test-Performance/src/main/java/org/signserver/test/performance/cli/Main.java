@@ -13,8 +13,13 @@
 package org.signserver.test.performance.cli;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.function.Function;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
@@ -22,11 +27,21 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.util.encoders.Hex;
 import org.signserver.common.InvalidWorkerIdException;
+import org.signserver.common.util.LatencyHistogram;
+import org.signserver.test.performance.BenchmarkReport;
 import org.signserver.test.performance.FailureCallback;
+import org.signserver.test.performance.OpenLoopRunner;
+import org.signserver.test.performance.ReportComparison;
+import org.signserver.test.performance.Task;
 import org.signserver.test.performance.WorkerThread;
+import org.signserver.test.performance.impl.DocumentSigner;
 import org.signserver.test.performance.impl.DocumentSignerThread;
+import org.signserver.test.performance.impl.SODSigner;
+import org.signserver.test.performance.impl.TaskThread;
 import org.signserver.test.performance.impl.TimeStampThread;
+import org.signserver.test.performance.impl.WeightedMix;
 
 /**
  * Performance test tool.
@@ -56,11 +71,34 @@ public class Main {
     private static final String USERSUFFIXMIN = "usersuffixmin";
     private static final String USERSUFFIXMAX = "usersuffixmax";
     private static final String CONTINUE_ON_FAILURE = "continueonfailure";
+    private static final String ARRIVAL_RATE = "arrivalrate";
+    private static final String RAMP_TO = "rampto";
+    private static final String SWEEP = "sweep";
+    private static final String STEP_TIME = "steptime";
+    private static final String MAX_P99 = "maxp99";
+    private static final String MIX = "mix";
+    private static final String RESULT_DIR = "resultdir";
+
+    private static final String COMPARE = "compare";
+    private static final String BASELINE = "baseline";
+    private static final String CURRENT = "current";
+    private static final String MAX_THROUGHPUT_DROP = "maxthroughputdrop";
+    private static final String MAX_LATENCY_INCREASE = "maxlatencyincrease";
+    private static final String MAX_ERROR_RATE_INCREASE = "maxerrorrateincrease";
+    private static final Options COMPARE_OPTIONS;
 
     private static final String NL = System.getProperty("line.separator");
     private static final String COMMAND = "stresstest";
 
     private static final int DEFUALT_MAX_WAIT_TIME = 100;
+    private static final long DEFAULT_STEP_TIME = 30000;
+    private static final double DEFAULT_MAX_THROUGHPUT_DROP = 10;
+    private static final double DEFAULT_MAX_LATENCY_INCREASE = 20;
+    private static final double DEFAULT_MAX_ERROR_RATE_INCREASE = 1;
+
+    /** Input used by the benchmark suites when none is given. */
+    private static final byte[] DEFAULT_DATA = "SignServer performance test data".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DEFAULT_XML = "<root><data>SignServer performance test data</data></root>".getBytes(StandardCharsets.US_ASCII);
 
     private static int exitCode;
     private static long startTime;
@@ -73,11 +111,51 @@ public class Main {
     private static Integer usersuffixMin;
     private static Integer usersuffixMax;
 
+    /** Runner used in open-loop mode or null. */
+    private static volatile OpenLoopRunner openLoopRunner;
+
+    /** SHA-256 of the input used with client-side hashing. */
+    private static byte[] inputDigest;
+
+    /** Folder to write the results to or null. */
+    private static File resultFolder;
+    private static String suiteName;
+    private static Date startDate;
+    private static final Map<String, String> configuration = new TreeMap<>();
+
+    /** Suites with a default worker name for which the requests are built in. */
+    private static final Set<TestSuites> BENCHMARK_SUITES = EnumSet.of(
+            TestSuites.CMS1, TestSuites.CMSDetached1, TestSuites.CMSClientSideHash1,
+            TestSuites.PDF1, TestSuites.PDFWithTSA1, TestSuites.XAdES1,
+            TestSuites.OpenPGP1, TestSuites.MRTDSOD1);
+
     private enum TestSuites {
-        TimeStamp1,
-        TimeStamp2,
-        DocumentSigner1,
-        DocumentValidator1,
+        TimeStamp1(null),
+        TimeStamp2(null),
+        DocumentSigner1(null),
+        DocumentValidator1(null),
+        /** CMS signature with the content attached. */
+        CMS1("CMSSigner"),
+        /** Detached CMS signature, the worker must allow the override. */
+        CMSDetached1("CMSSigner"),
+        /** CMS signature of a hash computed by the client. */
+        CMSClientSideHash1("CMSSigner"),
+        /** PDF signature using a worker without a TSA. */
+        PDF1("PDFSigner"),
+        /** PDF signature using a worker configured with a TSA. */
+        PDFWithTSA1("PDFSignerTSA"),
+        XAdES1("XAdESSigner"),
+        OpenPGP1("OpenPGPSigner"),
+        /** MRTD SOD of random data groups using the SOD servlet. */
+        MRTDSOD1("MRTDSODSigner"),
+        /** Weighted mix of the other suites as given with -mix. */
+        Mix1(null);
+
+        private final String defaultWorker;
+
+        TestSuites(final String defaultWorker) {
+            this.defaultWorker = defaultWorker;
+        }
     }
 
     static {
@@ -100,6 +178,20 @@ public class Main {
         OPTIONS.addOption(USERSUFFIXMIN, true, "Lowest suffix for usernames in form of an integer value (inclusive).");
         OPTIONS.addOption(USERSUFFIXMAX, true, "Highest suffix for usernames in form of an integer value (inclusive).");
         OPTIONS.addOption(CONTINUE_ON_FAILURE, false, "When this option is specified the test will continue running if a request fails. Failed requests will not be considered for the calculation of the total number of requests and response times. The total number of failed requests will presented in the statistics.");
+        OPTIONS.addOption(ARRIVAL_RATE, true, "Optional. Run in open-loop mode, issuing this number of requests per second independently of the response times. Latencies are measured from the intended start time of each request and reported as percentiles. The number of threads is the maximum number of concurrent requests. The -maxwaittime option is not used.");
+        OPTIONS.addOption(RAMP_TO, true, "Optional. With -arrivalrate, increase (or decrease) the rate linearly to this number of requests per second over the -timelimit.");
+        OPTIONS.addOption(SWEEP, true, "Optional. Run in open-loop mode with steps of increasing rates given as from:to:step in requests per second, each for -steptime, and report latency against throughput up to the saturation point.");
+        OPTIONS.addOption(STEP_TIME, true, "Time to run each step of a -sweep (in milliseconds). The -warmuptime applies to each step. Default=" + DEFAULT_STEP_TIME);
+        OPTIONS.addOption(MAX_P99, true, "Optional. With -sweep, also consider a step saturated if the 99th percentile latency is above this number of milliseconds.");
+        OPTIONS.addOption(MIX, true, "Suites to mix for the Mix1 test suite given as suite:weight[:worker],... using any of " + BENCHMARK_SUITES + ". The -infile or -data is only used by the suites without built-in input data (the PDF suites).");
+        OPTIONS.addOption(RESULT_DIR, true, "Optional. Existing directory to write the results to as JSON and CSV including throughput, error rate, latency percentiles and a fingerprint of the configuration.");
+
+        COMPARE_OPTIONS = new Options();
+        COMPARE_OPTIONS.addOption(BASELINE, true, "JSON results to compare against.");
+        COMPARE_OPTIONS.addOption(CURRENT, true, "JSON results of the new run.");
+        COMPARE_OPTIONS.addOption(MAX_THROUGHPUT_DROP, true, "Largest allowed throughput decrease in percent. Default=" + DEFAULT_MAX_THROUGHPUT_DROP);
+        COMPARE_OPTIONS.addOption(MAX_LATENCY_INCREASE, true, "Largest allowed increase of the p50, p99 and p99.9 latencies in percent. Default=" + DEFAULT_MAX_LATENCY_INCREASE);
+        COMPARE_OPTIONS.addOption(MAX_ERROR_RATE_INCREASE, true, "Largest allowed error rate increase in percentage points. Default=" + DEFAULT_MAX_ERROR_RATE_INCREASE);
     }
 
     /**
@@ -120,7 +212,25 @@ public class Main {
                 .append("e) ").append(COMMAND)
                 .append(" -testsuite DocumentSigner1 -threads 4 -processurl http://localhost:8080/signserver/process -worker XMLSigner -data \"<root/>\" -userprefix user -usersuffixmin 1 -usersuffixmax 50").append(NL)
                 .append("f) ").append(COMMAND)
-                .append(" -testsuite DocumentValidator1 -threads 4 -processurl http://localhost:8080/signserver/process -worker DemoXMLValidator -infile signed.xml").append(NL);
+                .append(" -testsuite DocumentValidator1 -threads 4 -processurl http://localhost:8080/signserver/process -worker DemoXMLValidator -infile signed.xml").append(NL)
+                .append("g) ").append(COMMAND)
+                .append(" -testsuite TimeStamp1 -threads 50 -arrivalrate 200 -timelimit 60000 -warmuptime 10000 -tsaurl http://localhost:8080/signserver/tsa?workerId=1").append(NL)
+                .append("h) ").append(COMMAND)
+                .append(" -testsuite DocumentSigner1 -threads 100 -arrivalrate 10 -rampto 500 -timelimit 300000 -processurl http://localhost:8080/signserver/process -worker CMSSigner -data foo").append(NL)
+                .append("i) ").append(COMMAND)
+                .append(" -testsuite TimeStamp1 -threads 100 -sweep 100:2000:100 -steptime 30000 -warmuptime 5000 -maxp99 500 -tsaurl http://localhost:8080/signserver/tsa?workerId=1").append(NL)
+                .append("j) ").append(COMMAND)
+                .append(" -testsuite CMSDetached1 -threads 20 -timelimit 60000 -processurl http://localhost:8080/signserver/process -resultdir ./results/").append(NL)
+                .append("k) ").append(COMMAND)
+                .append(" -testsuite PDFWithTSA1 -threads 10 -timelimit 60000 -processurl http://localhost:8080/signserver/process -infile test.pdf -resultdir ./results/").append(NL)
+                .append("l) ").append(COMMAND)
+                .append(" -testsuite MRTDSOD1 -threads 10 -arrivalrate 100 -timelimit 60000 -processurl http://localhost:8080/signserver/sod").append(NL)
+                .append("m) ").append(COMMAND)
+                .append(" -testsuite Mix1 -mix CMS1:5,XAdES1:3,MRTDSOD1:1,PDF1:1:MyPDFSigner -threads 20 -timelimit 60000 -processurl http://localhost:8080/signserver/process -infile test.pdf").append(NL)
+                .append(NL)
+                .append("Comparing results, exits with 1 if there are regressions:").append(NL)
+                .append("n) ").append(COMMAND)
+                .append(" ").append(COMPARE).append(" -baseline ./results/CMS1-20240101-120000.json -current ./results/CMS1-20240102-120000.json -maxthroughputdrop 5").append(NL);
 
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
         final HelpFormatter formatter = new HelpFormatter();
@@ -139,6 +249,10 @@ public class Main {
                 LOG.debug("(Debug logging is enabled)");
             }
 
+            if (args.length > 0 && COMPARE.equals(args[0])) {
+                System.exit(compare(Arrays.copyOfRange(args, 1, args.length)));
+            }
+
             final CommandLine commandLine = new GnuParser().parse(OPTIONS, args);
 
             // Test suite
@@ -172,23 +286,23 @@ public class Main {
             }
 
             final String url;
-            boolean useWorkerServlet = false;
+            final boolean useWorkerServlet;
             if (commandLine.hasOption(TSA_URL)) {
                 if (!ts.name().startsWith("TimeStamp")) {
                     throw new ParseException("Option " + TSA_URL + " can only be used with the TimeStamp test suites.");
                 }
                 url = commandLine.getOptionValue(TSA_URL);
+                useWorkerServlet = false;
             } else if (commandLine.hasOption(PROCESS_URL)) {
-                if (!ts.equals(TestSuites.DocumentSigner1) && !ts.equals(TestSuites.DocumentValidator1)) {
-                    throw new ParseException("Option " + PROCESS_URL + " can only be used with the " +
-                            TestSuites.DocumentSigner1.toString() + " or " + TestSuites.DocumentValidator1.toString() + " test suites.");
+                if (ts.name().startsWith("TimeStamp")) {
+                    throw new ParseException("Option " + PROCESS_URL + " can not be used with the TimeStamp test suites.");
                 }
                 url = commandLine.getOptionValue(PROCESS_URL);
                 useWorkerServlet = false;
             } else if (commandLine.hasOption(WORKER_URL)) {
-                if (!ts.equals(TestSuites.DocumentSigner1)) {
+                if (!ts.equals(TestSuites.DocumentSigner1) && (!BENCHMARK_SUITES.contains(ts) || ts.equals(TestSuites.MRTDSOD1))) {
                     throw new ParseException("Option " + WORKER_URL + " can only be used with the " +
-                            TestSuites.DocumentSigner1.toString() + " or " + TestSuites.DocumentValidator1.toString() + " test suites.");
+                            TestSuites.DocumentSigner1.toString() + " test suite or the document signing benchmark suites.");
                 }
                 url = commandLine.getOptionValue(WORKER_URL);
                 useWorkerServlet = true;
@@ -200,11 +314,45 @@ public class Main {
                 }
             }
 
-            String workerNameOrId = null;
+            final String workerNameOrId;
             if (commandLine.hasOption(WORKER_NAME_OR_ID)) {
                 workerNameOrId = commandLine.getOptionValue(WORKER_NAME_OR_ID);
             } else if (ts.equals(TestSuites.DocumentSigner1)) {
                 throw new ParseException("Must specify worker name or ID.");
+            } else {
+                workerNameOrId = ts.defaultWorker;
+            }
+
+            // Weighted mix of suites
+            final List<TestSuites> mixSuites = new ArrayList<>();
+            final List<Integer> mixWeights = new ArrayList<>();
+            final List<String> mixWorkers = new ArrayList<>();
+            if (ts.equals(TestSuites.Mix1)) {
+                if (!commandLine.hasOption(MIX)) {
+                    throw new ParseException("Missing option: -" + MIX);
+                }
+                if (commandLine.hasOption(WORKER_NAME_OR_ID) || commandLine.hasOption(WORKER_URL)) {
+                    throw new ParseException("Specify the workers in -" + MIX + " instead of with -" + WORKER_NAME_OR_ID + " or -" + WORKER_URL);
+                }
+                for (String entry : commandLine.getOptionValue(MIX).split(",")) {
+                    final String[] parts = entry.trim().split(":");
+                    if (parts.length < 2 || parts.length > 3) {
+                        throw new ParseException("Malformed -" + MIX + " entry: " + entry);
+                    }
+                    final TestSuites suite = TestSuites.valueOf(parts[0]);
+                    if (!BENCHMARK_SUITES.contains(suite)) {
+                        throw new ParseException("Test suite can not be mixed: " + suite);
+                    }
+                    final int weight = Integer.parseInt(parts[1]);
+                    if (weight < 1) {
+                        throw new ParseException("Weight must be > 0: " + entry);
+                    }
+                    mixSuites.add(suite);
+                    mixWeights.add(weight);
+                    mixWorkers.add(parts.length > 2 ? parts[2] : suite.defaultWorker);
+                }
+            } else if (commandLine.hasOption(MIX)) {
+                throw new ParseException("Option -" + MIX + " can only be used with the " + TestSuites.Mix1 + " test suite.");
             }
 
             if (commandLine.hasOption(INFILE)) {
@@ -212,9 +360,23 @@ public class Main {
                 infile = new File(file);
             } else if (commandLine.hasOption(DATA)) {
                 bytes = commandLine.getOptionValue(DATA).getBytes();
-            } else if (ts.equals(TestSuites.DocumentSigner1)) {
+            } else if (ts.equals(TestSuites.DocumentSigner1) || ts.equals(TestSuites.PDF1) || ts.equals(TestSuites.PDFWithTSA1)
+                    || mixSuites.contains(TestSuites.PDF1) || mixSuites.contains(TestSuites.PDFWithTSA1)) {
                 throw new ParseException("Must specify an input file.");
             }
+            final byte[] givenInputDigest = infile == null && bytes == null ? null : sha256(readInput());
+            if (ts.equals(TestSuites.CMSClientSideHash1)) {
+                inputDigest = givenInputDigest == null ? sha256(DEFAULT_DATA) : givenInputDigest;
+            } else if (mixSuites.contains(TestSuites.CMSClientSideHash1)) {
+                inputDigest = sha256(DEFAULT_DATA);
+            }
+
+            if (commandLine.hasOption(RESULT_DIR)) {
+                resultFolder = new File(commandLine.getOptionValue(RESULT_DIR));
+                if (!resultFolder.isDirectory()) {
+                    throw new ParseException("Option -" + RESULT_DIR + " must be an existing directory");
+                }
+            }
 
             if (commandLine.hasOption(WARMUP_TIME)) {
                 warmupTime = Long.parseLong(commandLine.getOptionValue(WARMUP_TIME));
@@ -261,11 +423,80 @@ public class Main {
             final boolean continueOnFailure =
                     commandLine.hasOption(CONTINUE_ON_FAILURE);
 
+            // Open-loop mode
+            final Double arrivalRate = commandLine.hasOption(ARRIVAL_RATE) ? Double.valueOf(commandLine.getOptionValue(ARRIVAL_RATE)) : null;
+            final Double rampTo = commandLine.hasOption(RAMP_TO) ? Double.valueOf(commandLine.getOptionValue(RAMP_TO)) : null;
+            final double[] sweep;
+            if (commandLine.hasOption(SWEEP)) {
+                final String[] parts = commandLine.getOptionValue(SWEEP).split(":");
+                if (parts.length != 3) {
+                    throw new ParseException("Option -" + SWEEP + " must be of the form from:to:step");
+                }
+                sweep = new double[] {Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2])};
+                if (sweep[0] <= 0 || sweep[1] < sweep[0] || sweep[2] <= 0) {
+                    throw new ParseException("Option -" + SWEEP + " requires 0 < from <= to and step > 0");
+                }
+            } else {
+                sweep = null;
+            }
+            final long stepTime = commandLine.hasOption(STEP_TIME) ? Long.parseLong(commandLine.getOptionValue(STEP_TIME)) : DEFAULT_STEP_TIME;
+            final long maxP99 = commandLine.hasOption(MAX_P99) ? Long.parseLong(commandLine.getOptionValue(MAX_P99)) : 0;
+            if (arrivalRate != null && sweep != null) {
+                throw new ParseException("Can not specify both -" + ARRIVAL_RATE + " and -" + SWEEP);
+            }
+            if (arrivalRate != null && arrivalRate <= 0) {
+                throw new ParseException("Option -" + ARRIVAL_RATE + " must be > 0");
+            }
+            if (rampTo != null) {
+                if (arrivalRate == null) {
+                    throw new ParseException("Option -" + RAMP_TO + " requires -" + ARRIVAL_RATE);
+                }
+                if (rampTo <= 0) {
+                    throw new ParseException("Option -" + RAMP_TO + " must be > 0");
+                }
+                if (limitedTime <= 0) {
+                    throw new ParseException("Option -" + RAMP_TO + " requires -" + TIME_LIMIT);
+                }
+            }
+            if (sweep == null && (commandLine.hasOption(STEP_TIME) || commandLine.hasOption(MAX_P99))) {
+                throw new ParseException("Options -" + STEP_TIME + " and -" + MAX_P99 + " can only be used with -" + SWEEP);
+            }
+            if (sweep != null && (stepTime <= warmupTime || limitedTime > 0)) {
+                throw new ParseException("Option -" + SWEEP + " requires -" + STEP_TIME + " larger than -" + WARMUP_TIME + " and can not be combined with -" + TIME_LIMIT);
+            }
+            final String mode;
+            if (arrivalRate != null) {
+                mode = "open-loop, " + arrivalRate + (rampTo == null ? "" : " to " + rampTo) + " req/s";
+            } else if (sweep != null) {
+                mode = "open-loop sweep, " + sweep[0] + " to " + sweep[1] + " req/s by " + sweep[2] + ", " + stepTime + " ms each";
+            } else {
+                mode = "closed-loop";
+            }
+
+            // Configuration identifying comparable results
+            suiteName = ts.name();
+            startDate = new Date();
+            configuration.put("suite", ts.name());
+            configuration.put("mode", mode);
+            configuration.put("threads", String.valueOf(numThreads));
+            configuration.put("url", url);
+            configuration.put("worker", String.valueOf(workerNameOrId));
+            if (!mixSuites.isEmpty()) {
+                configuration.put("mix", commandLine.getOptionValue(MIX));
+            }
+            configuration.put("maxwaittime", String.valueOf(maxWaitTime));
+            configuration.put("warmuptime", String.valueOf(warmupTime));
+            configuration.put("timelimit", String.valueOf(limitedTime));
+            configuration.put("input", givenInputDigest == null ? "built-in" : "SHA-256:" + Hex.toHexString(givenInputDigest));
+            configuration.put("usernames", userNameDescription);
+            configuration.put("continueonfailure", String.valueOf(continueOnFailure));
+
             // Print info
             LOG.info(String.format(
                   "-- Configuration -----------------------------------------------------------%n"
                 + "   Start time:              %s%n"
                 + "   Test suite:              %s%n"
+                + "   Mode:                    %s%n"
                 + "   Threads:                 %10d%n"
                 + "   Warm up time:            %10d ms%n"
                 + "   Max wait time:           %10d ms%n"
@@ -273,7 +504,8 @@ public class Main {
                 + "   URL:                     %s%n"
                 + "   Username(s):             %s%n"
                 + "   Output statistics:       %s%n"
-                + "-------------------------------------------------------------------------------%n", new Date(), ts.name(), numThreads, warmupTime, maxWaitTime, limitedTime, url, userNameDescription, statFolder == null ? "no" : statFolder.getAbsolutePath()));
+                + "   Output results:          %s%n"
+                + "-------------------------------------------------------------------------------%n", startDate, ts.name(), mode, numThreads, warmupTime, maxWaitTime, limitedTime, url, userNameDescription, statFolder == null ? "no" : statFolder.getAbsolutePath(), resultFolder == null ? "no" : resultFolder.getAbsolutePath()));
 
             final LinkedList<WorkerThread> threads = new LinkedList<>();
             final FailureCallback callback = new FailureCallback() {
@@ -324,6 +556,27 @@ public class Main {
                 case DocumentValidator1:
                     documentValidator1(threads, numThreads, callback, url, useWorkerServlet, workerNameOrId, maxWaitTime, warmupTime, limitedTime, statFolder, userPrefix, usersuffixMin, usersuffixMax, continueOnFailure);
                     break;
+                case CMS1:
+                case CMSDetached1:
+                case CMSClientSideHash1:
+                case PDF1:
+                case PDFWithTSA1:
+                case XAdES1:
+                case OpenPGP1:
+                case MRTDSOD1:
+                    benchmark(threads, numThreads, callback, ts.name() + "-",
+                            random -> createTask(ts, url, useWorkerServlet, workerNameOrId, random),
+                            maxWaitTime, warmupTime, limitedTime, statFolder, continueOnFailure);
+                    break;
+                case Mix1:
+                    benchmark(threads, numThreads, callback, ts.name() + "-", random -> {
+                        final List<Task> tasks = new ArrayList<>(mixSuites.size());
+                        for (int i = 0; i < mixSuites.size(); i++) {
+                            tasks.add(createTask(mixSuites.get(i), url, false, mixWorkers.get(i), random));
+                        }
+                        return new WeightedMix(tasks, mixWeights, random);
+                    }, maxWaitTime, warmupTime, limitedTime, statFolder, continueOnFailure);
+                    break;
                 default:
                     throw new Exception("Unsupported test suite");
                 }
@@ -331,6 +584,27 @@ public class Main {
                 // Wait 1 second to start
                 Thread.sleep(1000);
 
+                if (arrivalRate != null || sweep != null) {
+                    // Use the tasks of the threads from the open-loop runner
+                    final List<Task> tasks = new ArrayList<>(threads.size());
+                    for (WorkerThread w : threads) {
+                        tasks.add(w.getTask());
+                    }
+                    final OpenLoopRunner runner = new OpenLoopRunner(tasks, warmupTime, statFolder, ts.name(), continueOnFailure);
+                    openLoopRunner = runner;
+                    startTime = System.currentTimeMillis();
+                    if (sweep != null) {
+                        runner.sweep(sweep[0], sweep[1], sweep[2], stepTime, maxP99);
+                    } else {
+                        runner.run(arrivalRate, rampTo == null ? arrivalRate : rampTo, limitedTime);
+                    }
+                    if (runner.getFailureMessage() != null) {
+                        LOG.error("   " + runner.getFailureMessage());
+                        exitCode = -1;
+                    }
+                    System.exit(exitCode);
+                }
+
                 // Start all threads
                 startTime = System.currentTimeMillis();
                 for (WorkerThread w : threads) {
@@ -373,6 +647,14 @@ public class Main {
      * @param threads
      */
     private static void shutdown(final List<WorkerThread> threads) {
+        final OpenLoopRunner runner = openLoopRunner;
+        if (runner != null) {
+            runner.stopIt();
+            LOG.info(runner.getSummary());
+            writeReport(runner.getBenchmarkResults());
+            return;
+        }
+
         for (WorkerThread w : threads) {
             w.stopIt();
         }
@@ -385,6 +667,7 @@ public class Main {
         double totalAverageResponseTime;
         long totalMaxResponseTime = 0;
         long totalMinResponseTime = Long.MAX_VALUE;
+        final LatencyHistogram histogram = new LatencyHistogram();
 
         // Wait until all stopped
         try {
@@ -401,6 +684,7 @@ public class Main {
                 totalOperationsPerformed += operationsPerformed;
                 totalOperationsFailed += operationsFailed;
                 totalResponseTime += w.getResponseTimeSum();
+                histogram.add(w.getResponseTimeHistogram());
 
                 totalMaxResponseTime = Math.max(totalMaxResponseTime, maxResponseTime);
                 totalMinResponseTime = Math.min(totalMinResponseTime, minResponseTime);
@@ -430,6 +714,100 @@ public class Main {
         logOutput(totalOperationsPerformed, totalOperationsFailed,
                   totalMinResponseTime, totalAverageResponseTime,
                   totalMaxResponseTime, totalRunTime, tps);
+
+        final BenchmarkReport.Result result = BenchmarkReport.Result.create("closed-loop", Double.NaN,
+                totalOperationsFailed, totalRunTime, tps, histogram);
+        LOG.info("   Response time percentiles: " + result.getLatencies() + " ms");
+        writeReport(Collections.singletonList(result));
+    }
+
+    /**
+     * Writes the results as JSON and CSV if a result folder was given.
+     *
+     * @param results to include in the report
+     */
+    private static void writeReport(final List<BenchmarkReport.Result> results) {
+        if (resultFolder != null && suiteName != null) {
+            final BenchmarkReport report = new BenchmarkReport(suiteName, startDate, configuration,
+                    BenchmarkReport.createEnvironment(), results);
+            try {
+                final File file = report.write(resultFolder);
+                LOG.info("   Results written to: " + file.getAbsolutePath());
+            } catch (IOException ex) {
+                LOG.error("Failed to write results: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Compares a benchmark report against a baseline report.
+     *
+     * @param args the command line arguments after the compare command
+     * @return 0 if no regressions were found, 1 in case of regressions, 2 if
+     * the reports are not comparable and -2 in case of invalid arguments or
+     * reports
+     */
+    private static int compare(final String[] args) {
+        try {
+            final CommandLine commandLine = new GnuParser().parse(COMPARE_OPTIONS, args);
+            if (!commandLine.hasOption(BASELINE) || !commandLine.hasOption(CURRENT)) {
+                throw new ParseException("Missing option: -" + BASELINE + " or -" + CURRENT);
+            }
+            final double maxThroughputDrop = Double.parseDouble(commandLine.getOptionValue(MAX_THROUGHPUT_DROP, String.valueOf(DEFAULT_MAX_THROUGHPUT_DROP)));
+            final double maxLatencyIncrease = Double.parseDouble(commandLine.getOptionValue(MAX_LATENCY_INCREASE, String.valueOf(DEFAULT_MAX_LATENCY_INCREASE)));
+            final double maxErrorRateIncrease = Double.parseDouble(commandLine.getOptionValue(MAX_ERROR_RATE_INCREASE, String.valueOf(DEFAULT_MAX_ERROR_RATE_INCREASE)));
+
+            final ReportComparison comparison = new ReportComparison(
+                    readReport(new File(commandLine.getOptionValue(BASELINE))),
+                    readReport(new File(commandLine.getOptionValue(CURRENT))),
+                    maxThroughputDrop, maxLatencyIncrease, maxErrorRateIncrease);
+            LOG.info(comparison.toString());
+            if (comparison.hasMismatches()) {
+                return 2;
+            }
+            return comparison.hasRegressions() ? 1 : 0;
+        } catch (ParseException | NumberFormatException ex) {
+            LOG.error("Parse error: " + ex.getMessage());
+            final HelpFormatter formatter = new HelpFormatter();
+            final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            try (PrintWriter pw = new PrintWriter(bout)) {
+                formatter.printHelp(pw, HelpFormatter.DEFAULT_WIDTH, COMMAND + " " + COMPARE + " <options>", "Compare benchmark results. Exits with 1 in case of regressions and 2 if the reports are not comparable", COMPARE_OPTIONS, HelpFormatter.DEFAULT_LEFT_PAD, HelpFormatter.DEFAULT_DESC_PAD, null);
+            }
+            LOG.info(bout.toString());
+            return -2;
+        } catch (IOException ex) {
+            LOG.error("Failed to read report: " + ex.getMessage());
+            return -2;
+        }
+    }
+
+    private static BenchmarkReport readReport(final File file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return BenchmarkReport.read(reader);
+        }
+    }
+
+    /**
+     * @return the content of the input file or the given data
+     * @throws ParseException in case the input file could not be read
+     */
+    private static byte[] readInput() throws ParseException {
+        if (infile == null) {
+            return bytes;
+        }
+        try {
+            return Files.readAllBytes(infile.toPath());
+        } catch (IOException ex) {
+            throw new ParseException("Could not read input file: " + ex.getMessage());
+        }
+    }
+
+    private static byte[] sha256(final byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not supported", ex);
+        }
     }
 
     private static void logOutput(final long totalOperationsPerformed,
@@ -582,4 +960,90 @@ public class Main {
                     userPrefix, userSuffixMin, userSuffixMax, continueOnFailure));
         }
     }
+
+    /**
+     * Initialize the worker thread list for a benchmark test suite.
+     *
+     * @param threads A list to hold the worker threads. This list is filled by the method.
+     * @param numThreads Number of threads to create.
+     * @param failureCallback Callback to handle failures.
+     * @param namePrefix Prefix of the thread names.
+     * @param taskFactory Creates the task for each thread given its random generator.
+     * @param maxWaitTime Maximum waiting time between generated requests.
+     * @param warmupTime Warmup time, if set to > 0, will add a warmup period where no stats are collected.
+     * @param limitedTime Maximum run time, if set to -1, threads will run until interrupted.
+     * @param statFolder Output folder for statistics.
+     */
+    private static void benchmark(final List<WorkerThread> threads, final int numThreads,
+            final FailureCallback failureCallback, final String namePrefix,
+            final Function<Random, Task> taskFactory, int maxWaitTime, long warmupTime,
+            final long limitedTime, final File statFolder, final boolean continueOnFailure) {
+        final Random random = new Random();
+        for (int i = 0; i < numThreads; i++) {
+            final String name = namePrefix + i;
+            final File statFile;
+            if (statFolder == null) {
+                statFile = null;
+            } else {
+                statFile = new File(statFolder, name + ".csv");
+            }
+            threads.add(new TaskThread(name, failureCallback, maxWaitTime, random.nextInt(), warmupTime,
+                    limitedTime, statFile, continueOnFailure, taskFactory));
+        }
+    }
+
+    /**
+     * Creates the task issuing the requests of a benchmark test suite.
+     *
+     * @param suite to create the task for
+     * @param url Base process URL or worker servlet URL.
+     * @param useWorkerServlet If the URL is to the worker servlet.
+     * @param workerNameOrId Worker name of worker ID.
+     * @param random Random generator of the thread.
+     * @return the task
+     */
+    private static Task createTask(final TestSuites suite, final String url, final boolean useWorkerServlet,
+            final String workerNameOrId, final Random random) {
+        // The given input is only used in a mix by the suites requiring it
+        final boolean mixed = TestSuites.Mix1.name().equals(suiteName);
+        final byte[] data = mixed ? null : bytes;
+        final File file = mixed ? null : infile;
+        final boolean custom = data != null || file != null;
+
+        final Map<String, String> metadata = new HashMap<>();
+        switch (suite) {
+        case CMS1:
+        case OpenPGP1:
+            return new DocumentSigner(url, useWorkerServlet, custom ? data : DEFAULT_DATA, file, workerNameOrId,
+                    "signDocument", random, userPrefix, usersuffixMin, usersuffixMax);
+        case CMSDetached1:
+            metadata.put("DETACHEDSIGNATURE", "true");
+            return new DocumentSigner(url, useWorkerServlet, custom ? data : DEFAULT_DATA, file, workerNameOrId,
+                    "signDocument", random, userPrefix, usersuffixMin, usersuffixMax, metadata);
+        case CMSClientSideHash1:
+            metadata.put("USING_CLIENTSUPPLIED_HASH", "true");
+            metadata.put("CLIENTSIDE_HASHDIGESTALGORITHM", "SHA-256");
+            return new DocumentSigner(url, useWorkerServlet, inputDigest, null, workerNameOrId,
+                    "signDocument", random, userPrefix, usersuffixMin, usersuffixMax, metadata);
+        case PDF1:
+        case PDFWithTSA1:
+            return new DocumentSigner(url, useWorkerServlet, bytes, infile, workerNameOrId,
+                    "signDocument", random, userPrefix, usersuffixMin, usersuffixMax);
+        case XAdES1:
+            return new DocumentSigner(url, useWorkerServlet, custom ? data : DEFAULT_XML, file, workerNameOrId,
+                    "signDocument", random, userPrefix, usersuffixMin, usersuffixMax);
+        case MRTDSOD1:
+            return new SODSigner(sodUrl(url), workerNameOrId, random);
+        default:
+            throw new IllegalArgumentException("Not a benchmark test suite: " + suite);
+        }
+    }
+
+    /**
+     * @param url process servlet URL or SOD servlet URL
+     * @return the SOD servlet URL
+     */
+    private static String sodUrl(final String url) {
+        return url.endsWith("/process") ? url.substring(0, url.length() - "/process".length()) + "/sod" : url;
+    }
 }
@@ -18,6 +18,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
@@ -57,9 +59,23 @@ public class DocumentSigner implements Task {
     private final Integer userSuffixMin;
     private final Integer userSuffixMax;
 
+    private final Map<String, String> metadata;
+
     public DocumentSigner(final String url, final boolean useWorkerServlet, 
             final byte[] indata, final File infile, final String workerNameOrId, final String processType, final Random random,
             final String userPrefix, final Integer userSuffixMin, final Integer userSuffixMax) {
+        this(url, useWorkerServlet, indata, infile, workerNameOrId, processType, random, userPrefix, userSuffixMin, userSuffixMax,
+                Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Creates a task with request metadata sent as REQUEST_METADATA fields,
+     * for instance to request a detached signature.
+     */
+    public DocumentSigner(final String url, final boolean useWorkerServlet,
+            final byte[] indata, final File infile, final String workerNameOrId, final String processType, final Random random,
+            final String userPrefix, final Integer userSuffixMin, final Integer userSuffixMax,
+            final Map<String, String> metadata) {
         this.url = url;
         this.useWorkerServlet = useWorkerServlet;
         this.indata = indata;
@@ -70,6 +86,7 @@ public class DocumentSigner implements Task {
         this.userPrefix = userPrefix;
         this.userSuffixMin = userSuffixMin;
         this.userSuffixMax = userSuffixMax;
+        this.metadata = metadata;
     }
     
     @Override
@@ -186,6 +203,17 @@ public class DocumentSigner implements Task {
         sb.append("--" + BOUNDARY);
         sb.append(CRLF);
 
+        // Request metadata
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            sb.append("Content-Disposition: form-data; name=\"REQUEST_METADATA.").append(entry.getKey()).append("\"");
+            sb.append(CRLF);
+            sb.append(CRLF);
+            sb.append(entry.getValue());
+            sb.append(CRLF);
+            sb.append("--" + BOUNDARY);
+            sb.append(CRLF);
+        }
+
         sb.append("Content-Disposition: form-data; name=\"datafile\"");
         sb.append("; filename=\""); 
         // don't care about the actual file name for now...
@@ -0,0 +1,112 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.performance.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.Base64;
+import org.signserver.test.performance.FailedException;
+import org.signserver.test.performance.Task;
+
+/**
+ * Requests an MRTD SOD over the SOD process servlet with random data groups.
+ *
+ * @version $Id$
+ */
+public class SODSigner implements Task {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(SODSigner.class);
+
+    /** Data groups included in each request. */
+    private static final int DATA_GROUPS = 3;
+
+    /** Size of each data group. */
+    private static final int DATA_GROUP_SIZE = 256;
+
+    private final String url;
+    private final String workerNameOrId;
+    private final Random random;
+
+    public SODSigner(final String url, final String workerNameOrId, final Random random) {
+        this.url = url;
+        this.workerNameOrId = workerNameOrId;
+        this.random = random;
+    }
+
+    @Override
+    public long run() throws FailedException {
+        try {
+            return sodRequest();
+        } catch (IOException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Could not create request", ex);
+            }
+            throw new FailedException("Could not create request: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Issue a request for an SOD.
+     *
+     * @return Run time (in ms).
+     * @throws IOException
+     */
+    private long sodRequest() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            Integer.parseInt(workerNameOrId);
+            sb.append("workerId=").append(workerNameOrId);
+        } catch (NumberFormatException e) {
+            sb.append("workerName=").append(URLEncoder.encode(workerNameOrId, "UTF-8"));
+        }
+        final byte[] dataGroup = new byte[DATA_GROUP_SIZE];
+        for (int i = 1; i <= DATA_GROUPS; i++) {
+            random.nextBytes(dataGroup);
+            sb.append("&dataGroup").append(i).append('=')
+                    .append(URLEncoder.encode(new String(Base64.encode(dataGroup), StandardCharsets.US_ASCII), "UTF-8"));
+        }
+        final byte[] body = sb.toString().getBytes(StandardCharsets.US_ASCII);
+
+        // Take start time
+        final long startTime = System.nanoTime();
+
+        final HttpURLConnection urlConn = (HttpURLConnection) new URL(url).openConnection();
+        urlConn.setDoOutput(true);
+        urlConn.setAllowUserInteraction(false);
+        urlConn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        urlConn.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = urlConn.getOutputStream()) {
+            out.write(body);
+        }
+        if (urlConn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Unexpected response: " + urlConn.getResponseCode() + " " + urlConn.getResponseMessage());
+        }
+        try (InputStream in = urlConn.getInputStream()) {
+            IOUtils.copy(in, new NullOutputStream());
+        }
+
+        // Take stop time
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+}
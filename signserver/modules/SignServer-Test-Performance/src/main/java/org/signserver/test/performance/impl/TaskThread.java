@@ -0,0 +1,37 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.performance.impl;
+
+import java.io.File;
+import java.util.Random;
+import java.util.function.Function;
+import org.signserver.test.performance.FailureCallback;
+import org.signserver.test.performance.Task;
+import org.signserver.test.performance.WorkerThread;
+
+/**
+ * Thread running a task created for it using the random generator of the
+ * thread.
+ *
+ * @version $Id$
+ */
+public class TaskThread extends WorkerThread {
+
+    public TaskThread(final String name, final FailureCallback failureCallback, int maxWaitTime,
+            int seed, long warmupTime, final long limitedTime, final File statFile,
+            final boolean continueOnFailure, final Function<Random, Task> taskFactory) {
+        super(name, failureCallback, maxWaitTime, seed, warmupTime, limitedTime,
+              statFile, continueOnFailure);
+        this.task = taskFactory.apply(random);
+    }
+}
@@ -0,0 +1,70 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.performance.impl;
+
+import java.util.List;
+import java.util.Random;
+import org.signserver.test.performance.FailedException;
+import org.signserver.test.performance.Task;
+
+/**
+ * Runs one of several tasks chosen at random according to their weights,
+ * for instance to load multiple workers at the same time.
+ *
+ * @version $Id$
+ */
+public class WeightedMix implements Task {
+
+    private final List<Task> tasks;
+    private final int[] cumulativeWeights;
+    private final Random random;
+
+    /**
+     * @param tasks to choose from
+     * @param weights relative weight of each task, all > 0
+     * @param random to choose with
+     */
+    public WeightedMix(final List<Task> tasks, final List<Integer> weights, final Random random) {
+        if (tasks.isEmpty() || tasks.size() != weights.size()) {
+            throw new IllegalArgumentException("Need one weight per task");
+        }
+        this.tasks = tasks;
+        this.random = random;
+        this.cumulativeWeights = new int[weights.size()];
+        int sum = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            if (weights.get(i) < 1) {
+                throw new IllegalArgumentException("Weights must be > 0");
+            }
+            sum += weights.get(i);
+            cumulativeWeights[i] = sum;
+        }
+    }
+
+    /**
+     * @return the task to run next
+     */
+    Task next() {
+        final int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (value >= cumulativeWeights[i]) {
+            i++;
+        }
+        return tasks.get(i);
+    }
+
+    @Override
+    public long run() throws FailedException {
+        return next().run();
+    }
+}
@@ -0,0 +1,167 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.performance;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import junit.framework.TestCase;
+import org.apache.log4j.Logger;
+import org.signserver.common.util.LatencyHistogram;
+import org.signserver.test.performance.impl.WeightedMix;
+
+/**
+ * Tests for the benchmark results and the comparison of them.
+ *
+ * @version $Id$
+ */
+public class BenchmarkReportTest extends TestCase {
+
+    /** Logger for this class */
+    private static final Logger LOG = Logger.getLogger(BenchmarkReportTest.class);
+
+    private static Map<String, String> config(final int threads) {
+        final Map<String, String> result = new TreeMap<>();
+        result.put("suite", "CMS1");
+        result.put("threads", String.valueOf(threads));
+        return result;
+    }
+
+    /** @return result with latencies from 1 to 100 times the factor ms */
+    private static BenchmarkReport.Result result(final String label, final double throughput,
+            final long failed, final long factor) {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * factor * 1000);
+        }
+        return BenchmarkReport.Result.create(label, Double.NaN, failed, 10000, throughput, histogram);
+    }
+
+    private static BenchmarkReport report(final int threads, final BenchmarkReport.Result... results) {
+        return new BenchmarkReport("CMS1", new Date(1700000000000L), config(threads),
+                BenchmarkReport.createEnvironment(), Arrays.asList(results));
+    }
+
+    /**
+     * Tests writing and reading the JSON and the CSV output.
+     */
+    public void test01RoundTrip() throws Exception {
+        LOG.info("test01RoundTrip");
+        final BenchmarkReport instance = report(10, result("closed-loop", 123.5, 2, 1));
+        final BenchmarkReport read = BenchmarkReport.read(new StringReader(instance.toJSON().toJSONString()));
+
+        assertEquals("suite", "CMS1", read.getSuite());
+        assertEquals("fingerprint", instance.getFingerprint(), read.getFingerprint());
+        final BenchmarkReport.Result result = read.getResults().get(0);
+        assertEquals("label", "closed-loop", result.getLabel());
+        assertEquals("operations", 100, result.getOperations());
+        assertEquals("failed", 2, result.getFailed());
+        assertEquals("throughput", 123.5, result.getThroughput(), 0.001);
+        assertTrue("target rate", Double.isNaN(result.getTargetRate()));
+        assertEquals("p50", 50.0, result.getLatency("p50"), 1.0);
+        assertEquals("max", 100.0, result.getLatency("max"), 1.0);
+        assertNotNull("p99.9", result.getLatency("p99.9"));
+
+        final String[] lines = instance.toCSV().split("\n");
+        assertEquals("lines", 2, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("suite,fingerprint,label,"));
+        assertTrue(lines[0], lines[0].endsWith(",p50,p90,p99,p99.9,p99.99,max,mean"));
+        assertTrue(lines[1], lines[1].startsWith("CMS1," + instance.getFingerprint() + ",closed-loop,,100,2,10000,123.500,"));
+
+        try {
+            BenchmarkReport.read(new StringReader("{\"suite\": \"CMS1\"}"));
+            fail("Should have thrown IOException");
+        } catch (IOException expected) { // NOPMD
+            // OK
+        }
+    }
+
+    /**
+     * Tests that the fingerprint only depends on the configuration.
+     */
+    public void test02Fingerprint() throws Exception {
+        LOG.info("test02Fingerprint");
+        assertEquals("same config", report(10).getFingerprint(), report(10, result("a", 1, 0, 1)).getFingerprint());
+        assertFalse("other config", report(10).getFingerprint().equals(report(20).getFingerprint()));
+    }
+
+    /**
+     * Tests that throughput, latency and error rate regressions are found
+     * and that changes within the thresholds are not.
+     */
+    public void test03Comparison() throws Exception {
+        LOG.info("test03Comparison");
+        final BenchmarkReport baseline = report(10, result("closed-loop", 100, 0, 10));
+
+        ReportComparison instance = new ReportComparison(baseline, report(10, result("closed-loop", 95, 0, 11)), 10, 20, 1);
+        assertFalse(instance.toString(), instance.hasRegressions());
+        assertTrue("notes: " + instance.getNotes(), instance.getNotes().isEmpty());
+
+        instance = new ReportComparison(baseline, report(10, result("closed-loop", 80, 0, 10)), 10, 20, 1);
+        assertEquals(instance.toString(), 1, instance.getRegressions().size());
+        assertTrue(instance.toString(), instance.getRegressions().get(0).contains("throughput"));
+
+        instance = new ReportComparison(baseline, report(10, result("closed-loop", 100, 0, 15)), 10, 20, 1);
+        assertEquals(instance.toString(), 3, instance.getRegressions().size());
+
+        instance = new ReportComparison(baseline, report(10, result("closed-loop", 100, 5, 10)), 10, 20, 1);
+        assertEquals(instance.toString(), 1, instance.getRegressions().size());
+        assertTrue(instance.toString(), instance.getRegressions().get(0).contains("error rate"));
+
+        // Other configuration and a baseline result missing
+        instance = new ReportComparison(baseline, report(20, result("other", 100, 0, 10)), 10, 20, 1);
+        assertFalse(instance.toString(), instance.hasRegressions());
+        assertTrue(instance.toString(), instance.hasMismatches());
+        assertEquals("mismatches: " + instance.getMismatches(), 2, instance.getMismatches().size());
+        assertEquals("notes: " + instance.getNotes(), 1, instance.getNotes().size());
+
+        // Additional result only
+        instance = new ReportComparison(baseline, report(10, result("closed-loop", 100, 0, 10), result("other", 100, 0, 10)), 10, 20, 1);
+        assertFalse(instance.toString(), instance.hasMismatches());
+        assertEquals("notes: " + instance.getNotes(), 1, instance.getNotes().size());
+    }
+
+    /**
+     * Tests that the mix picks the tasks according to the weights.
+     */
+    public void test04WeightedMix() throws Exception {
+        LOG.info("test04WeightedMix");
+        final int[] counts = new int[2];
+        final Task first = () -> {
+            counts[0]++;
+            return 0;
+        };
+        final Task second = () -> {
+            counts[1]++;
+            return 0;
+        };
+        final WeightedMix instance = new WeightedMix(Arrays.asList(first, second), Arrays.asList(3, 1), new Random(42));
+        for (int i = 0; i < 4000; i++) {
+            instance.run();
+        }
+        assertEquals("first", 3000, counts[0], 200);
+        assertEquals("second", 1000, counts[1], 200);
+
+        try {
+            new WeightedMix(Collections.singletonList(first), Arrays.asList(1, 2), new Random());
+            fail("Should have thrown IllegalArgumentException");
+        } catch (IllegalArgumentException expected) { // NOPMD
+            // OK
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.test.performance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.apache.log4j.Logger;
+
+/**
+ * Tests for the open-loop mode of the performance tool.
+ *
+ * @version $Id$
+ */
+public class OpenLoopRunnerTest extends TestCase {
+
+    /** Logger for this class */
+    private static final Logger LOG = Logger.getLogger(OpenLoopRunnerTest.class);
+
+    private static List<Task> sleepingTasks(final int count, final long millis) {
+        final List<Task> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(() -> {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException ex) {
+                    throw new FailedException("Interrupted");
+                }
+                return millis;
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Tests the intervals for constant and ramped rates.
+     */
+    public void test01Intervals() throws Exception {
+        LOG.info("test01Intervals");
+        final long second = TimeUnit.SECONDS.toNanos(1);
+        assertEquals("constant", TimeUnit.MILLISECONDS.toNanos(10), OpenLoopRunner.intervalNanos(100, 100, 0, second));
+        assertEquals("no limit", TimeUnit.MILLISECONDS.toNanos(10), OpenLoopRunner.intervalNanos(100, 300, 0, Long.MAX_VALUE));
+        assertEquals("ramp start", TimeUnit.MILLISECONDS.toNanos(10), OpenLoopRunner.intervalNanos(100, 300, 0, second));
+        assertEquals("ramp middle", TimeUnit.MILLISECONDS.toNanos(5), OpenLoopRunner.intervalNanos(100, 300, second / 2, second));
+        assertEquals("ramp after end", OpenLoopRunner.intervalNanos(100, 300, second, second), OpenLoopRunner.intervalNanos(100, 300, 2 * second, second));
+    }
+
+    /**
+     * Tests that the time waiting for a free thread is included in the
+     * latencies when the server can not keep up with the rate, which a
+     * closed-loop test would not show.
+     */
+    public void test02QueueingDelayIncluded() throws Exception {
+        LOG.info("test02QueueingDelayIncluded");
+        // One thread serving 50 requests per second, requested at 100 per second
+        final OpenLoopRunner instance = new OpenLoopRunner(sleepingTasks(1, 20), 0, null, "test", false);
+        final OpenLoopRunner.StageResult result = instance.run(100, 100, 1000);
+
+        assertEquals("all scheduled sent", result.getScheduled(), result.getCompleted());
+        assertTrue("scheduled: " + result.getScheduled(), result.getScheduled() >= 95 && result.getScheduled() <= 101);
+        assertTrue("achieved: " + result.getAchievedRate(), result.getAchievedRate() < 60);
+        assertTrue("backlog: " + result.getMaxBacklog(), result.getMaxBacklog() > 10);
+        assertTrue("p50 far above the service time: " + result.getHistogram(), result.getHistogram().getValueAtPercentile(50) > 200000);
+        assertTrue("saturated", result.isSaturated(0));
+        assertTrue(instance.getSummary(), instance.getSummary().contains("p99.99:"));
+    }
+
+    /**
+     * Tests that a sweep stops at the first step that can not be sustained.
+     */
+    public void test03SweepFindsSaturation() throws Exception {
+        LOG.info("test03SweepFindsSaturation");
+        // Two threads serving at most 200 requests per second
+        final OpenLoopRunner instance = new OpenLoopRunner(sleepingTasks(2, 10), 0, null, "test", false);
+        final OpenLoopRunner.StageResult saturation = instance.sweep(20, 1000, 300, 500, 0);
+
+        assertNotNull("saturation found", saturation);
+        assertFalse("first step sustained", instance.getResults().get(0).isSaturated(0));
+        assertTrue("saturated above capacity: " + saturation.getTargetRate(), saturation.getTargetRate() >= 320);
+        assertSame("last step", saturation, instance.getResults().get(instance.getResults().size() - 1));
+        assertTrue(instance.getSummary(), instance.getSummary().contains("Saturation point:"));
+    }
+
+    /**
+     * Tests that the run stops at the first failure unless continuing on
+     * failures.
+     */
+    public void test04StopOnFailure() throws Exception {
+        LOG.info("test04StopOnFailure");
+        final List<Task> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            throw new FailedException("failure");
+        });
+        OpenLoopRunner instance = new OpenLoopRunner(tasks, 0, null, "test", false);
+        OpenLoopRunner.StageResult result = instance.run(100, 100, 5000);
+        assertEquals("failed", 1, result.getFailed());
+        assertNotNull("message", instance.getFailureMessage());
+
+        instance = new OpenLoopRunner(tasks, 0, null, "test", true);
+        result = instance.run(100, 100, 200);
+        assertTrue("failures: " + result.getFailed(), result.getFailed() > 10);
+        assertNull("message", instance.getFailureMessage());
+    }
+}
@@ -184,6 +184,11 @@ public class WorkerSessionMock implements WorkerSessionLocal,
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    @Override
+    public List<byte[]> getCachedSignerCertificateChain(WorkerIdentifier wi) throws InvalidWorkerIdException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     @Override
     public boolean isTokenActive(WorkerIdentifier workerId) throws InvalidWorkerIdException {
         throw new UnsupportedOperationException("Not supported yet.");
@@ -438,6 +443,20 @@ public class WorkerSessionMock implements WorkerSessionLocal,
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    @Override
+    public List<ArchiveMetadata> searchArchiveAfter(Long afterTime,
+            String afterUniqueId, int max, QueryCriteria criteria,
+            boolean descending, boolean includeData) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public List<ArchiveMetadata> searchArchiveAfter(AdminInfo adminInfo,
+            Long afterTime, String afterUniqueId, int max,
+            QueryCriteria criteria, boolean descending, boolean includeData) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     @Override
     public List<ArchiveMetadata> searchArchiveWithIds(AdminInfo adminInfo,
         List<String> uniqueIds, boolean includeData) throws AuthorizationDeniedException {
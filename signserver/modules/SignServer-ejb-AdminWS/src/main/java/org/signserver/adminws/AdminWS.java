@@ -1285,6 +1285,48 @@ public class AdminWS {
         }
     }
 
+    /**
+     * Query the archive one page at a time.
+     *
+     * Unlike queryArchive with a start index the cost of getting a page does
+     * not depend on the number of entries before it. To get the next page,
+     * pass the time (in milliseconds) and unique ID of the last entry of the
+     * previous page.
+     *
+     * @param afterTime Time of the last entry of the previous page or null for the first page
+     * @param afterUniqueId Unique ID of the last entry of the previous page or null for the first page
+     * @param max maximum number of results to be returned.
+     * @param conditions List of conditions defining the subset of the archive to be presented.
+     * @param descending Set to true to get the newest entries first
+     * @param includeData Set to true if archive data should be included in the result set
+     * @return List of archive entries ordered by time and unique ID
+     * @throws SignServerException general exception
+     * @throws AdminNotAuthorizedException If the admin is not authorized
+     */
+    @WebMethod(operationName="queryArchiveAfter")
+    public List<WSArchiveMetadata> queryArchiveAfter(@WebParam(name="afterTime") final Long afterTime,
+                                                     @WebParam(name="afterUniqueId") final String afterUniqueId,
+                                                     @WebParam(name="max") int max, @WebParam(name="condition") final List<QueryCondition> conditions,
+                                                     @WebParam(name="descending") final boolean descending,
+                                                     @WebParam(name="includeData") final boolean includeData)
+            throws SignServerException, AdminNotAuthorizedException {
+        final AdminInfo adminInfo = auth.requireArchiveAuditorAuthorization(getCertificate(), "queryArchiveAfter", String.valueOf(afterTime), afterUniqueId, String.valueOf(max));
+
+        final List<Elem> elements = QueryUtil.toElements(conditions);
+        final QueryCriteria qc = QueryCriteria.create();
+
+        if (!elements.isEmpty()) {
+            qc.add(QueryUtil.andAll(elements, 0));
+        }
+
+        try {
+            return toArchiveEntries(worker.searchArchiveAfter(adminInfo, afterTime,
+                    afterUniqueId, max, qc, descending, includeData));
+        } catch (AuthorizationDeniedException ex) {
+            throw new AdminNotAuthorizedException(ex.getMessage());
+        }
+    }
+
     /**
      * Query the archive based on unique IDs.
      *
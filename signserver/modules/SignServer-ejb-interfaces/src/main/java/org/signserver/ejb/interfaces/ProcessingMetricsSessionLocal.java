@@ -0,0 +1,47 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.ejb.interfaces;
+
+import javax.ejb.Local;
+import org.signserver.common.WorkerIdentifier;
+
+/**
+ * Local EJB interface for the latency histograms of the stages of the worker
+ * processing pipeline (lookup, authorization, crypto instance, processData,
+ * key usage, accounting, archiving and logging).
+ *
+ * @version $Id$
+ */
+@Local
+public interface ProcessingMetricsSessionLocal {
+
+    /**
+     * @return the histograms of all workers in the Prometheus text exposition
+     * format
+     */
+    String getPrometheusMetrics();
+
+    /**
+     * @return a compact text summary of the histograms with one line per
+     * worker and stage
+     */
+    String getSummary();
+
+    /**
+     * Clears the recorded values so that percentiles are calculated from new
+     * requests only.
+     *
+     * @param wi worker to reset or null for all workers
+     */
+    void reset(WorkerIdentifier wi);
+}
@@ -507,6 +507,28 @@ public interface WorkerSession {
             int max, QueryCriteria criteria, boolean includeData)
             throws AuthorizationDeniedException; 
     
+    /**
+     * Query contents of archive, one page at a time.
+     * Returns meta data entries of archive entries matching query criteria,
+     * ordered by time and unique ID, following the given entry.
+     * 
+     * Unlike searchArchive with a start index the cost of getting a page does
+     * not depend on the number of entries before it, so this method should be
+     * used when going through large result sets.
+     * 
+     * @param afterTime Time of the last entry of the previous page or null for the first page
+     * @param afterUniqueId Unique ID of the last entry of the previous page or null for the first page
+     * @param max Maximum number of results returned, 0 means all matching results
+     * @param criteria Search criteria for matching results, any orderings are ignored
+     * @param descending If true, the newest entries are returned first
+     * @param includeData If true, include actual archive data in entries
+     * @return List of metadata objects describing matching entries
+     * @throws AuthorizationDeniedException
+     */
+    List<ArchiveMetadata> searchArchiveAfter(Long afterTime, String afterUniqueId,
+            int max, QueryCriteria criteria, boolean descending, boolean includeData)
+            throws AuthorizationDeniedException;
+
     /**
      * Query contents of archive based on list of uniqueIds (primary key in DB).
      * 
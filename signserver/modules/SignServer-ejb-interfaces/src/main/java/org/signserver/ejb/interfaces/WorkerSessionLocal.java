@@ -343,6 +343,22 @@ public interface WorkerSessionLocal extends WorkerSession {
      */
     void reloadConfiguration(final AdminInfo adminInfo, int workerId);
 
+    /**
+     * Get the encoded signer certificate chain from the active configuration
+     * of the worker.
+     *
+     * Unlike getStatus() this does not evaluate the worker status and the
+     * encoded chain is cached until the worker is reloaded or a new signer
+     * certificate is uploaded, so it is cheap enough to call for each request.
+     *
+     * @param wi of the worker
+     * @return the encoded certificates or null if the worker has no signer
+     * certificate chain configured
+     * @throws InvalidWorkerIdException in case the worker does not exist
+     */
+    List<byte[]> getCachedSignerCertificateChain(WorkerIdentifier wi)
+            throws InvalidWorkerIdException;
+
     /**
      * Query contents of archive. Returns meta data entries of archive entries
      * matching query criteria.
@@ -362,6 +378,31 @@ public interface WorkerSessionLocal extends WorkerSession {
             boolean includeData)
             throws AuthorizationDeniedException;
 
+    /**
+     * Query contents of archive, one page at a time. Returns meta data entries
+     * of archive entries matching query criteria, ordered by time and unique
+     * ID, following the given entry.
+     *
+     * @param adminInfo Administrator information
+     * @param afterTime Time of the last entry of the previous page or null
+     * for the first page
+     * @param afterUniqueId Unique ID of the last entry of the previous page or
+     * null for the first page
+     * @param max Maximum number of results returned, 0 means all matching
+     * results
+     * @param criteria Search criteria for matching results, any orderings are
+     * ignored
+     * @param descending If true, the newest entries are returned first
+     * @param includeData If true, archive data is included in the meta data
+     * entries
+     * @return List of metadata objects describing matching entries
+     * @throws AuthorizationDeniedException
+     */
+    List<ArchiveMetadata> searchArchiveAfter(AdminInfo adminInfo,
+            Long afterTime, String afterUniqueId, int max,
+            QueryCriteria criteria, boolean descending, boolean includeData)
+            throws AuthorizationDeniedException;
+
     /**
      * Query contents of archive based on list of unique IDs (primary key in
      * DB).
@@ -0,0 +1,71 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.ejb.interfaces;
+
+import javax.ejb.Local;
+import org.signserver.common.InvalidWorkerIdException;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.WorkerStatus;
+
+/**
+ * Local EJB interface for reading worker statuses from a snapshot refreshed
+ * in the background.
+ *
+ * The snapshot is refreshed every GLOB.STATUSSNAPSHOT_INTERVAL seconds using
+ * at most GLOB.STATUSSNAPSHOT_PARALLELISM concurrent status calls. When no
+ * interval is configured the status is computed on every call as with
+ * WorkerSession.getStatus().
+ *
+ * @version $Id$
+ */
+@Local
+public interface WorkerStatusSnapshotSessionLocal {
+
+    /**
+     * Get the status of a worker from the latest snapshot.
+     *
+     * @param wi worker to get the status for
+     * @param forceRefresh if true the status is computed now instead of
+     * taken from the snapshot
+     * @return the status of the worker
+     * @throws InvalidWorkerIdException in case the worker does not exist
+     */
+    WorkerStatus getStatus(WorkerIdentifier wi, boolean forceRefresh)
+            throws InvalidWorkerIdException;
+
+    /**
+     * Drops the snapshot entry of a worker so that the next read computes a
+     * fresh status, for instance after the worker has been activated or
+     * reloaded.
+     *
+     * @param wi worker or null for all workers
+     */
+    void invalidate(WorkerIdentifier wi);
+
+    /**
+     * Refreshes the status of all workers now and waits for it to complete.
+     */
+    void refresh();
+
+    /**
+     * @return milliseconds since the last refresh of all workers finished or
+     * -1 if none has been performed
+     */
+    long getSnapshotAge();
+
+    /**
+     * @return milliseconds the last refresh of all workers took or -1 if none
+     * has been performed
+     */
+    long getLastRefreshDuration();
+}
@@ -0,0 +1,46 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.integrityprotected;
+
+/**
+ * Exception thrown when the integrity protection of an audit log row could
+ * not be verified.
+ *
+ * @version $Id$
+ */
+public class AuditRecordVerificationException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long sequenceNumber;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param sequenceNumber of the row that could not be verified
+     * @param message describing the failure
+     * @param cause of the failure
+     */
+    public AuditRecordVerificationException(final long sequenceNumber,
+            final String message, final Throwable cause) {
+        super(message, cause);
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * @return sequence number of the row that could not be verified
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+}
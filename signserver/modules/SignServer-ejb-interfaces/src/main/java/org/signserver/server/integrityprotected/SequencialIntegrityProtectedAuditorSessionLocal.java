@@ -0,0 +1,56 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.integrityprotected;
+
+import java.util.List;
+import javax.ejb.Local;
+
+/**
+ * Read access to the integrity protected audit log rows, one node and
+ * sequence number range at a time, used by the ParallelAuditLogVerifier.
+ *
+ * @version $Id$
+ */
+@Local
+public interface SequencialIntegrityProtectedAuditorSessionLocal {
+
+    /**
+     * @return the node identifiers present in the log
+     */
+    List<String> getNodeIds();
+
+    /**
+     * @param nodeId to get the sequence number for
+     * @param maxTimeStamp only consider rows logged at or before this time
+     * @return the highest sequence number of the node or null if the node
+     * has no rows
+     */
+    Long getMaxSequenceNumber(String nodeId, long maxTimeStamp);
+
+    /**
+     * Loads and verifies the integrity protection of the rows of a node
+     * following the given sequence number.
+     *
+     * @param nodeId of the rows
+     * @param afterSequenceNumber only include rows with a higher sequence number
+     * @param lastSequenceNumber only include rows up to and including this sequence number
+     * @param maxTimeStamp only include rows logged at or before this time
+     * @param max maximum number of rows to load
+     * @return the sequence numbers of the verified rows in ascending order,
+     * empty if there are no more rows in the range
+     * @throws AuditRecordVerificationException for the first row loaded
+     * that could not be verified
+     */
+    List<Long> verifyRange(String nodeId, long afterSequenceNumber, long lastSequenceNumber, long maxTimeStamp, int max)
+            throws AuditRecordVerificationException;
+}
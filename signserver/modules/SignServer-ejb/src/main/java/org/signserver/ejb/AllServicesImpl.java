@@ -19,6 +19,7 @@ import org.signserver.ejb.interfaces.InternalProcessSessionLocal;
 import org.signserver.ejb.interfaces.ProcessSessionLocal;
 import org.signserver.server.ServicesImpl;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
 import org.signserver.server.entities.IKeyUsageCounterDataService;
 import org.signserver.statusrepo.StatusRepositorySessionLocal;
@@ -45,6 +46,7 @@ public class AllServicesImpl extends ServicesImpl {
      * @param dispatcherWorkerSession Dispatcher worker session
      * @param statusRespositorySession Status repository session
      * @param keyUsageCounterDataService Key usage counter service
+     * @param statusSnapshotSession Worker status snapshot session
      */
     public void putAll(final EntityManager em,
             final WorkerSessionLocal workerSession,
@@ -54,7 +56,8 @@ public class AllServicesImpl extends ServicesImpl {
             final InternalProcessSessionLocal internalWorkerSession,
             final DispatcherProcessSessionLocal dispatcherWorkerSession,
             final StatusRepositorySessionLocal statusRespositorySession,
-            final IKeyUsageCounterDataService keyUsageCounterDataService) {
+            final IKeyUsageCounterDataService keyUsageCounterDataService,
+            final WorkerStatusSnapshotSessionLocal statusSnapshotSession) {
         put(EntityManager.class, em);
         put(WorkerSessionLocal.class, workerSession);
         put(ProcessSessionLocal.class, processSession);
@@ -64,6 +67,7 @@ public class AllServicesImpl extends ServicesImpl {
         put(DispatcherProcessSessionLocal.class, dispatcherWorkerSession);
         put(StatusRepositorySessionLocal.class, statusRespositorySession);
         put(IKeyUsageCounterDataService.class, keyUsageCounterDataService);
+        put(WorkerStatusSnapshotSessionLocal.class, statusSnapshotSession);
         // Add additional services here
     }
 }
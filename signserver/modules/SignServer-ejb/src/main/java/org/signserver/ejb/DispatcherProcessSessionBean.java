@@ -42,6 +42,7 @@ import org.signserver.server.entities.KeyUsageCounterDataService;
 import org.signserver.server.log.AdminInfo;
 import org.signserver.server.nodb.FileBasedDatabaseManager;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
 import org.signserver.statusrepo.StatusRepositorySessionLocal;
 
@@ -125,7 +126,8 @@ public class DispatcherProcessSessionBean implements DispatcherProcessSessionLoc
                     globalConfigurationSession,
                     logSession,
                     internalSession, session, statusSession,
-                    keyUsageCounterDataService);
+                    keyUsageCounterDataService,
+                    ServiceLocator.getInstance().lookupLocal(WorkerStatusSnapshotSessionLocal.class));
         } catch (NamingException ex) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Lookup services failed", ex);
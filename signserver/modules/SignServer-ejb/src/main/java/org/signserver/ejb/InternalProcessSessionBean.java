@@ -41,6 +41,7 @@ import org.signserver.server.entities.KeyUsageCounterDataService;
 import org.signserver.server.log.AdminInfo;
 import org.signserver.server.nodb.FileBasedDatabaseManager;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
 import org.signserver.ejb.interfaces.InternalProcessTransactionSessionLocal;
 import org.signserver.statusrepo.StatusRepositorySessionLocal;
@@ -123,7 +124,8 @@ public class InternalProcessSessionBean implements InternalProcessSessionLocal {
                     globalConfigurationSession,
                     logSession,
                     session, dispatcherSession, statusSession,
-                    keyUsageCounterDataService);
+                    keyUsageCounterDataService,
+                    ServiceLocator.getInstance().lookupLocal(WorkerStatusSnapshotSessionLocal.class));
         } catch (NamingException ex) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Lookup services failed", ex);
@@ -69,6 +69,7 @@ import org.signserver.server.nodb.FileBasedDatabaseManager;
 import org.signserver.ejb.interfaces.ProcessSessionLocal;
 import org.signserver.ejb.interfaces.ProcessSessionRemote;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
 import org.signserver.server.UsernamePasswordClientCredential;
 import org.signserver.common.data.SignatureRequest;
@@ -163,7 +164,8 @@ public class ProcessSessionBean implements ProcessSessionRemote, ProcessSessionL
                     globalConfigurationSession,
                     logSession,
                     internalSession, dispatcherSession, statusSession,
-                    keyUsageCounterDataService);
+                    keyUsageCounterDataService,
+                    ServiceLocator.getInstance().lookupLocal(WorkerStatusSnapshotSessionLocal.class));
         } catch (NamingException ex) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Lookup services failed", ex);
@@ -0,0 +1,149 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.ejb;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.NoSuchObjectLocalException;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import org.apache.log4j.Logger;
+import org.signserver.common.GlobalConfiguration;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
+import org.signserver.ejb.interfaces.ProcessingMetricsSessionLocal;
+import org.signserver.ejb.worker.impl.ProcessingStageMetrics;
+import org.signserver.ejb.worker.impl.WorkerManagerSingletonBean;
+import org.signserver.statusrepo.StatusRepositorySessionLocal;
+import org.signserver.statusrepo.common.NoSuchPropertyException;
+import org.signserver.statusrepo.common.StatusName;
+
+/**
+ * Singleton giving access to the processing stage latency histograms and
+ * optionally publishing a summary of them to the status repository.
+ *
+ * Global configuration properties:<br/>
+ * GLOB.PROCESSINGMETRICS_STATUS_INTERVAL = Seconds between updates of the
+ * PROCESSING_LATENCIES status property, 0 or not set means that the property
+ * is not updated. Note that each update is audit logged unless the status
+ * repository is configured to only log changes or nothing.
+ *
+ * @version $Id$
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ProcessingMetricsSessionBean implements ProcessingMetricsSessionLocal {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ProcessingMetricsSessionBean.class);
+
+    public static final String PROPERTY_STATUS_INTERVAL = "PROCESSINGMETRICS_STATUS_INTERVAL";
+
+    /** Seconds until the configuration is checked again when disabled. */
+    private static final long DISABLED_CHECK_INTERVAL = 60;
+
+    @Resource
+    private TimerService timerService;
+
+    @EJB
+    private WorkerManagerSingletonBean workerManagerSession;
+
+    @EJB
+    private GlobalConfigurationSessionLocal globalConfigurationSession;
+
+    @EJB
+    private StatusRepositorySessionLocal statusRepository;
+
+    private ProcessingStageMetrics metrics;
+
+    @PostConstruct
+    public void create() {
+        metrics = workerManagerSession.getProcessingMetrics();
+        scheduleNext();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (Timer timer : timerService.getTimers()) {
+            try {
+                timer.cancel();
+            } catch (IllegalStateException | NoSuchObjectLocalException ex) {
+                LOG.debug("Timer already cancelled: " + ex.getMessage());
+            }
+        }
+    }
+
+    @Timeout
+    public void timeout(final Timer timer) {
+        try {
+            final long interval = getInterval();
+            if (interval > 0) {
+                // Expire if updates stop
+                final long expiration = System.currentTimeMillis() + 2 * interval * 1000L;
+                statusRepository.update(StatusName.PROCESSING_LATENCIES.name(), getSummary(), expiration);
+            }
+        } catch (NoSuchPropertyException | RuntimeException ex) {
+            LOG.error("Publishing processing latencies failed: " + ex.getMessage(), ex);
+        } finally {
+            scheduleNext();
+        }
+    }
+
+    private void scheduleNext() {
+        final long interval = getInterval();
+        final long delay = (interval > 0 ? interval : DISABLED_CHECK_INTERVAL) * 1000L;
+        timerService.createSingleActionTimer(delay, new TimerConfig(PROPERTY_STATUS_INTERVAL, false));
+    }
+
+    private long getInterval() {
+        final String value = globalConfigurationSession.getGlobalConfiguration().getProperty(GlobalConfiguration.SCOPE_GLOBAL, PROPERTY_STATUS_INTERVAL);
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException ex) {
+            LOG.warn("Illegal value for global property " + PROPERTY_STATUS_INTERVAL + ": " + value);
+            return 0;
+        }
+    }
+
+    @Override
+    public String getPrometheusMetrics() {
+        // Forget removed workers
+        metrics.retainAll(workerManagerSession.getAllWorkerIDs());
+        return metrics.toPrometheusText();
+    }
+
+    @Override
+    public String getSummary() {
+        return metrics.toSummaryText();
+    }
+
+    @Override
+    public void reset(final WorkerIdentifier wi) {
+        metrics.reset(wi);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Reset processing latencies of " + (wi == null ? "all workers" : wi));
+        }
+    }
+}
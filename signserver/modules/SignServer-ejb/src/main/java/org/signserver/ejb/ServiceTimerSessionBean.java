@@ -45,6 +45,7 @@ import org.signserver.ejb.interfaces.InternalProcessSessionLocal;
 import org.signserver.ejb.interfaces.ProcessSessionLocal;
 import org.signserver.ejb.interfaces.ServiceTimerSessionLocal;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 import org.signserver.server.entities.FileBasedKeyUsageCounterDataService;
 import org.signserver.server.entities.IKeyUsageCounterDataService;
 import org.signserver.server.entities.KeyUsageCounterDataService;
@@ -131,7 +132,8 @@ public class ServiceTimerSessionBean implements ServiceTimerSessionLocal {
                     globalConfigurationSession,
                     logSession,
                     internalSession, ServiceLocator.getInstance().lookupLocal(DispatcherProcessSessionLocal.class), statusSession,
-                    keyUsageCounterDataService);
+                    keyUsageCounterDataService,
+                    ServiceLocator.getInstance().lookupLocal(WorkerStatusSnapshotSessionLocal.class));
         } catch (NamingException ex) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Lookup services failed", ex);
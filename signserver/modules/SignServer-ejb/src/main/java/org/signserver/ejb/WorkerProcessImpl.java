@@ -20,7 +20,9 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Supplier;
 import javax.persistence.EntityManager;
+import javax.security.auth.x500.X500Principal;
 import org.apache.log4j.Logger;
 import org.cesecore.audit.enums.EventStatus;
 import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
@@ -28,6 +30,7 @@ import org.signserver.common.AccessDeniedException;
 import org.signserver.common.AuthorizationRequiredException;
 import org.signserver.common.CryptoTokenOfflineException;
 import org.signserver.common.IArchivableProcessResponse;
+import org.signserver.common.IBatchProcessResponse;
 import org.signserver.common.IllegalRequestException;
 import org.signserver.common.NoSuchWorkerException;
 import org.signserver.common.NotGrantedException;
@@ -41,6 +44,7 @@ import org.signserver.common.data.SignatureResponse;
 import org.signserver.ejb.worker.impl.WorkerManagerSingletonBean;
 import org.signserver.ejb.worker.impl.WorkerWithComponents;
 import org.signserver.server.AccounterException;
+import org.signserver.server.DNCache;
 import org.signserver.server.IAuthorizer;
 import org.signserver.server.IClientCredential;
 import org.signserver.server.IProcessable;
@@ -62,6 +66,8 @@ import org.signserver.server.log.WorkerLoggerException;
 import org.signserver.ejb.interfaces.WorkerSession;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
 import org.signserver.ejb.worker.impl.PreloadedWorkerConfig;
+import org.signserver.ejb.worker.impl.ProcessingStageMetrics;
+import org.signserver.ejb.worker.impl.ProcessingStageMetrics.Stage;
 import org.signserver.server.IServices;
 import org.signserver.server.log.ExceptionLoggable;
 import org.signserver.server.log.Loggable;
@@ -76,6 +82,9 @@ class WorkerProcessImpl {
     /** Log4j instance for this class. */
     private static final Logger LOG = Logger.getLogger(WorkerProcessImpl.class);
 
+    /** Logged signer and client certificate DNs. */
+    private static final DNCache LOGGED_DN_CACHE = new DNCache(DNCache.DEFAULT_MAX_ENTRIES);
+
     private final EntityManager em;
 
     private final IKeyUsageCounterDataService keyUsageCounterDataService;
@@ -143,6 +152,7 @@ class WorkerProcessImpl {
                    (String) requestContext.get(RequestContext.REMOTE_IP));
 
         // Get worker instance
+        long stageStart = System.nanoTime();
         final WorkerWithComponents worker;
         try {
             worker = workerManagerSession.getWorkerWithComponents(wi);
@@ -173,6 +183,11 @@ class WorkerProcessImpl {
         // Log the worker name
         logMap.put(IWorkerLogger.LOG_WORKER_NAME, pwc.getName());
 
+        // Latency histograms of the processing stages
+        final ProcessingStageMetrics.WorkerStages stages
+                = workerManagerSession.getProcessingMetrics().getWorker(workerId, pwc.getName());
+        recordStage(stages, Stage.LOOKUP, stageStart);
+
         // Get worker log instance
         final IWorkerLogger workerLogger = worker.getWorkerLogger();
 
@@ -200,7 +215,9 @@ class WorkerProcessImpl {
             final IProcessable processable = (IProcessable) worker.getWorker();
 
             // Authorizer
+            stageStart = System.nanoTime();
             handleAuthorization(processable, worker, request, logMap, adminInfo, workerLogger, requestContext);
+            recordStage(stages, Stage.AUTHORIZATION, stageStart);
 
             // Check activation
             if (pwc.isDisabled()) {
@@ -224,25 +241,48 @@ class WorkerProcessImpl {
             }
 
             // Process the request
+            final CryptoInstances acquired = CryptoInstances.getInstance(requestContext);
+            final long acquireTimeBefore = acquired.getAcquireTime();
+            stageStart = System.nanoTime();
             final Response res = handleProcessing(processable, workerId, request, requestContext, logMap, workerLogger, adminInfo);
+            final long processTime = System.nanoTime() - stageStart;
+            final long acquireTime = acquired.getAcquireTime() - acquireTimeBefore;
+            stages.record(Stage.CRYPTO_INSTANCE, acquireTime);
+            stages.record(Stage.PROCESS_DATA, processTime - acquireTime);
+
+            // Number of items processed, more than one for a batch
+            final int items;
+            if (res instanceof IBatchProcessResponse) {
+                items = ((IBatchProcessResponse) res).getItemCount();
+                logMap.put(IWorkerLogger.LOG_BATCH_SIZE, String.valueOf(items));
+            } else {
+                items = 1;
+            }
 
             // Check signer certificate            
             Certificate signerCertificate = null;
             if (res instanceof SignatureResponse) {
                 signerCertificate = ((SignatureResponse) res).getSignerCertificate();
             }
+            stageStart = System.nanoTime();
             handleSignerCertificate(signerCertificate, workerId, logMap, pwc, requestContext, workerLogger, adminInfo);
+            long keyUsageTime = System.nanoTime() - stageStart;
 
             // Charge the client if the request was successfull
-            handleAccounting(worker, requestContext, logMap, request, res, workerLogger, adminInfo);
+            stageStart = System.nanoTime();
+            handleAccounting(worker, requestContext, logMap, request, res, items, workerLogger, adminInfo);
+            stageStart = recordStage(stages, Stage.ACCOUNTING, stageStart);
 
             // Archiving
             handleArchiving(res, worker, requestContext);
+            stageStart = recordStage(stages, Stage.ARCHIVING, stageStart);
 
             // Check key usage limit
             if (!pwc.isDisableKeyUsageCounter() || pwc.isKeyUsageLimitSpecified()) {
-                checkSignerKeyUsageCounter(signerCertificate, workerId, pwc.getKeyUsageLimit(), em, true, requestContext.getServices());
+                checkSignerKeyUsageCounter(signerCertificate, workerId, pwc.getKeyUsageLimit(), em, true, items, requestContext.getServices());
             }
+            keyUsageTime += System.nanoTime() - stageStart;
+            stages.record(Stage.KEY_USAGE, keyUsageTime);
 
             // Output successfully
             if (LOG.isDebugEnabled()) {
@@ -274,7 +314,9 @@ class WorkerProcessImpl {
             if (loggable == null) {
             	logMap.put(IWorkerLogger.LOG_PROCESS_SUCCESS, true);
             }
+            stageStart = System.nanoTime();
             workerLogger.log(adminInfo, logMap, requestContext);
+            recordStage(stages, Stage.LOGGING, stageStart);
 
             LOG.debug("<process");
             return res;
@@ -297,6 +339,20 @@ class WorkerProcessImpl {
         }
     }
 
+    /**
+     * Records the time since the start of a stage.
+     *
+     * @param stages histograms to record into
+     * @param stage that ended now
+     * @param start of the stage from System.nanoTime()
+     * @return the current System.nanoTime() to use as start of the next stage
+     */
+    private static long recordStage(final ProcessingStageMetrics.WorkerStages stages, final Stage stage, final long start) {
+        final long now = System.nanoTime();
+        stages.record(stage, now - start);
+        return now;
+    }
+
     private String generateTransactionID() {
         return UUID.randomUUID().toString();
     }
@@ -318,11 +374,12 @@ class WorkerProcessImpl {
      * @param workerId
      * @param awc
      * @param em
+     * @param count number of usages to increment with
      * @throws CryptoTokenOfflineException
      */
     private void checkSignerKeyUsageCounter(final Certificate cert,
             final int workerId, final long keyUsageLimit, EntityManager em,
-            final boolean increment, final IServices services)
+            final boolean increment, final int count, final IServices services)
         throws CryptoTokenOfflineException {
 
         if (cert != null) {
@@ -337,7 +394,7 @@ class WorkerProcessImpl {
             }
 
             if (increment) {
-                if (!keyUsageCounterDataService.incrementIfWithinLimit(keyHash, keyUsageLimit)) {
+                if (!keyUsageCounterDataService.incrementIfWithinLimit(keyHash, keyUsageLimit, count)) {
                     final String message
                             = "Key usage limit exceeded or not initialized for worker "
                             + workerId;
@@ -401,7 +458,7 @@ class WorkerProcessImpl {
         }
     }
 
-    private void handleAccounting(final WorkerWithComponents worker, final RequestContext requestContext, final LogMap logMap, final Request request, Response res, IWorkerLogger workerLogger, AdminInfo adminInfo) throws NotGrantedException, WorkerLoggerException, SignServerException {
+    private void handleAccounting(final WorkerWithComponents worker, final RequestContext requestContext, final LogMap logMap, final Request request, Response res, final int items, IWorkerLogger workerLogger, AdminInfo adminInfo) throws NotGrantedException, WorkerLoggerException, SignServerException {
         if (requestContext.isRequestFulfilledByWorker()) {
                 
             // Billing time
@@ -412,7 +469,11 @@ class WorkerProcessImpl {
                         (IClientCredential) requestContext.get(
                                     RequestContext.CLIENT_CREDENTIAL);
 
-                purchased = worker.getAccounter().purchase(credential, request, res, requestContext);
+                if (items == 1) {
+                    purchased = worker.getAccounter().purchase(credential, request, res, requestContext);
+                } else {
+                    purchased = worker.getAccounter().purchase(credential, request, res, requestContext, items);
+                }
 
                 logMap.put(IWorkerLogger.LOG_PURCHASED, purchased);
             } catch (AccounterException ex) {
@@ -444,13 +505,13 @@ class WorkerProcessImpl {
             logMap.put(IWorkerLogger.LOG_SIGNER_CERT_SUBJECTDN, new Loggable() {
                 @Override
                 public String toString() {
-                    return cert.getSubjectDN().getName();
+                    return getLoggedDN(cert.getSubjectX500Principal(), cert, () -> cert.getSubjectDN().getName());
                 }
             });     
             logMap.put(IWorkerLogger.LOG_SIGNER_CERT_ISSUERDN, new Loggable() {
                 @Override
                 public String toString() {
-                    return cert.getIssuerDN().getName();
+                    return getLoggedDN(cert.getIssuerX500Principal(), cert, () -> cert.getIssuerDN().getName());
                 }
             });     
             logMap.put(IWorkerLogger.LOG_SIGNER_CERT_SERIALNUMBER, new Loggable() {
@@ -474,7 +535,7 @@ class WorkerProcessImpl {
                 }
                 if (!pwc.isDisableKeyUsageCounter() || pwc.isKeyUsageLimitSpecified()) {
                     checkSignerKeyUsageCounter(signerCertificate, workerId, pwc.getKeyUsageLimit(), em,
-                            false, requestContext.getServices());
+                            false, 1, requestContext.getServices());
                 }
             } catch (CryptoTokenOfflineException ex) {
                 final CryptoTokenOfflineException exception =
@@ -538,14 +599,14 @@ class WorkerProcessImpl {
             logMap.put(IWorkerLogger.LOG_CLIENT_CERT_SUBJECTDN, new Loggable() {
                 @Override
                 public String toString() {
-                    return cert.getSubjectDN().getName();
+                    return getLoggedDN(cert.getSubjectX500Principal(), cert, () -> cert.getSubjectDN().getName());
                 }
             });
 
             logMap.put(IWorkerLogger.LOG_CLIENT_CERT_ISSUERDN, new Loggable() {
                 @Override
                 public String toString() {
-                    return cert.getIssuerDN().getName();
+                    return getLoggedDN(cert.getIssuerX500Principal(), cert, () -> cert.getIssuerDN().getName());
                 }
             });
 
@@ -587,4 +648,17 @@ class WorkerProcessImpl {
         }
     }
 
+    /**
+     * Gets the DN to log for a certificate. The string representation of
+     * the name depends on the certificate implementation so its class is
+     * part of the key.
+     *
+     * @param name encoded name to use as key
+     * @param cert the certificate the name is from
+     * @param dn supplier of the string to log
+     * @return the string to log
+     */
+    private static String getLoggedDN(final X500Principal name, final Certificate cert, final Supplier<String> dn) {
+        return LOGGED_DN_CACHE.get(name, cert.getClass().getName(), dn);
+    }
 }
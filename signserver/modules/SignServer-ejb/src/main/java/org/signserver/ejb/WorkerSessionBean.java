@@ -70,6 +70,7 @@ import org.signserver.server.entities.KeyUsageCounterDataService;
 import org.signserver.server.log.*;
 import org.signserver.server.nodb.FileBasedDatabaseManager;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 import org.signserver.ejb.interfaces.WorkerSessionRemote;
 import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
 import org.signserver.ejb.interfaces.ServiceTimerSessionLocal;
@@ -158,7 +159,8 @@ public class WorkerSessionBean implements WorkerSessionLocal, WorkerSessionRemot
                     globalConfigurationSession,
                     logSession,
                     internalSession, dispatcherSession, statusSession,
-                    keyUsageCounterDataService);
+                    keyUsageCounterDataService,
+                    ServiceLocator.getInstance().lookupLocal(WorkerStatusSnapshotSessionLocal.class));
         } catch (NamingException ex) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Lookup services failed", ex);
@@ -290,6 +292,18 @@ public class WorkerSessionBean implements WorkerSessionLocal, WorkerSessionRemot
         }
     }
 
+    @Override
+    public List<byte[]> getCachedSignerCertificateChain(final WorkerIdentifier wi) throws InvalidWorkerIdException {
+        try {
+            return workerManagerSession.getSignerCertificateChain(wi);
+        } catch (NoSuchWorkerException ex) {
+            throw new InvalidWorkerIdException(ex.getMessage());
+        } catch (CertificateEncodingException ex) {
+            LOG.error("Unable to encode signer certificate chain of worker " + wi + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
     @Override
     public boolean isTokenActive(WorkerIdentifier workerId) throws InvalidWorkerIdException {
         boolean result;
@@ -353,6 +367,21 @@ public class WorkerSessionBean implements WorkerSessionLocal, WorkerSessionRemot
             serviceTimerSession.unload(workerId);
             serviceTimerSession.load(workerId);
         }
+
+        invalidateStatusSnapshot(workerId == 0 ? null : new WorkerIdentifier(workerId));
+    }
+
+    /**
+     * Makes the next read of the status snapshot compute a fresh status for
+     * the worker.
+     *
+     * @param wi worker or null for all workers
+     */
+    private void invalidateStatusSnapshot(final WorkerIdentifier wi) {
+        final WorkerStatusSnapshotSessionLocal statusSnapshot = servicesImpl.get(WorkerStatusSnapshotSessionLocal.class);
+        if (statusSnapshot != null) {
+            statusSnapshot.invalidate(wi);
+        }
     }
 
     /* (non-Javadoc)
@@ -372,6 +401,7 @@ public class WorkerSessionBean implements WorkerSessionLocal, WorkerSessionRemot
             IProcessable signer = (IProcessable) worker;
             
             signer.activateSigner(authenticationCode, servicesImpl);
+            invalidateStatusSnapshot(signerId);
             
             // Try to initialize the key usage counter
             initKeyUsageCounter(worker, servicesImpl);
@@ -395,7 +425,9 @@ public class WorkerSessionBean implements WorkerSessionLocal, WorkerSessionRemot
             }
             IProcessable signer = (IProcessable) worker;
             
-            return signer.deactivateSigner(servicesImpl);
+            final boolean result = signer.deactivateSigner(servicesImpl);
+            invalidateStatusSnapshot(signerId);
+            return result;
         } catch (NoSuchWorkerException ex) {
             throw new InvalidWorkerIdException(ex.getMessage());
         }
@@ -1132,6 +1164,7 @@ public class WorkerSessionBean implements WorkerSessionLocal, WorkerSessionRemot
         final Certificate cert  = CertTools.getCertfromByteArray(signerCert);
         config.setSignerCertificate((X509Certificate)cert,scope);
         setWorkerConfig(adminInfo, signerId, config, null, null);
+        workerManagerSession.clearSignerCertificateChain(new WorkerIdentifier(signerId));
         final boolean scopeGlobal = GlobalConfiguration.SCOPE_GLOBAL.equalsIgnoreCase(scope);
         auditLogCertInstalled(adminInfo, new WorkerIdentifier(signerId), new String (CertTools.getPEMFromCerts(Arrays.asList(cert))), scopeGlobal ? "GLOBAL" : "NODE", scopeGlobal ? null : WorkerConfig.getNodeId());
     }
@@ -1161,6 +1194,7 @@ public class WorkerSessionBean implements WorkerSessionLocal, WorkerSessionRemot
 
         config.setSignerCertificateChain(certs, scope);
         setWorkerConfig(adminInfo, signerId, config, null, null);
+        workerManagerSession.clearSignerCertificateChain(new WorkerIdentifier(signerId));
         final boolean scopeGlobal = GlobalConfiguration.SCOPE_GLOBAL.equalsIgnoreCase(scope);
         auditLogCertChainInstalled(adminInfo, new WorkerIdentifier(signerId), new String (CertTools.getPEMFromCerts(certs)), scopeGlobal ? "GLOBAL" : "NODE", scopeGlobal ? null : WorkerConfig.getNodeId());
     }
@@ -1186,6 +1220,7 @@ public class WorkerSessionBean implements WorkerSessionLocal, WorkerSessionRemot
             if (worker instanceof IProcessable) {
                 try {
                     ((IProcessable) worker).importCertificateChain(certs, alias, authenticationCode, Collections.<String, Object>emptyMap(), servicesImpl);
+                    workerManagerSession.clearSignerCertificateChain(signerId);
                     auditLogCertChainInstalledToToken(adminInfo, EventStatus.SUCCESS, signerId, worker.getConfig(), alias, new String(CertTools.getPEMFromCerts(certs)), null);
                 } catch (NoSuchAliasException ex) {
                     auditLogCertChainInstalledToToken(adminInfo, EventStatus.FAILURE, signerId, worker.getConfig(), alias, new String(CertTools.getPEMFromCerts(certs)), ex.getMessage());
@@ -1427,6 +1462,31 @@ public class WorkerSessionBean implements WorkerSessionLocal, WorkerSessionRemot
         }
     }
 
+    @Override
+    public List<ArchiveMetadata> searchArchiveAfter(final Long afterTime,
+            final String afterUniqueId, final int max,
+            final QueryCriteria criteria, final boolean descending,
+            final boolean includeData) {
+        return searchArchiveAfter(new AdminInfo("CLI user", null, null),
+                afterTime, afterUniqueId, max, criteria, descending, includeData);
+    }
+
+    @Override
+    public List<ArchiveMetadata> searchArchiveAfter(final AdminInfo adminInfo,
+            final Long afterTime, final String afterUniqueId, final int max,
+            final QueryCriteria criteria, final boolean descending,
+            final boolean includeData) {
+        if (archiveDataService == null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Archiving to database is not supported when running without database");
+            }
+            return Collections.emptyList();
+        } else {
+            return archiveDataService.findMatchingCriteriaAfter(afterTime,
+                    afterUniqueId, max, criteria, descending, includeData);
+        }
+    }
+
     @Override
     public List<ArchiveMetadata> searchArchiveWithIds(AdminInfo adminInfo,
         List<String> uniqueIds, boolean includeData) {
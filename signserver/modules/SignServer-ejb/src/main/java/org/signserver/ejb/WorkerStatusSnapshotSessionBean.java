@@ -0,0 +1,201 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.ejb;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.NoSuchObjectLocalException;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import org.apache.log4j.Logger;
+import org.signserver.common.GlobalConfiguration;
+import org.signserver.common.InvalidWorkerIdException;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.WorkerStatus;
+import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
+import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
+import org.signserver.ejb.worker.impl.WorkerStatusSnapshot;
+
+/**
+ * Singleton refreshing the worker status snapshot in the background.
+ *
+ * Global configuration properties:<br/>
+ * GLOB.STATUSSNAPSHOT_INTERVAL = Seconds between refreshes, 0 or not set
+ * means that no snapshot is kept and statuses are computed on demand<br/>
+ * GLOB.STATUSSNAPSHOT_PARALLELISM = Maximum number of worker statuses to
+ * compute concurrently during a refresh (default: 4)
+ *
+ * The properties are read before each refresh so changes take effect without
+ * a restart. While disabled no timer is kept, instead the refreshing is
+ * started again by the first status read after the interval has been set.
+ * The statuses are fetched using the container's managed executor service.
+ *
+ * @version $Id$
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class WorkerStatusSnapshotSessionBean implements WorkerStatusSnapshotSessionLocal {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(WorkerStatusSnapshotSessionBean.class);
+
+    public static final String PROPERTY_INTERVAL = "STATUSSNAPSHOT_INTERVAL";
+    public static final String PROPERTY_PARALLELISM = "STATUSSNAPSHOT_PARALLELISM";
+
+    private static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * Snapshot entries older than this number of intervals are not used, in
+     * case refreshing has stalled.
+     */
+    private static final int MAX_AGE_INTERVALS = 3;
+
+    @Resource
+    private TimerService timerService;
+
+    @Resource
+    private ManagedExecutorService executorService;
+
+    @EJB
+    private WorkerSessionLocal workerSession;
+
+    @EJB
+    private GlobalConfigurationSessionLocal globalConfigurationSession;
+
+    private WorkerStatusSnapshot snapshot;
+
+    /** If a refresh timer is currently scheduled. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    @PostConstruct
+    public void create() {
+        snapshot = new WorkerStatusSnapshot(new WorkerStatusSnapshot.StatusFetcher() {
+            @Override
+            public List<Integer> getAllWorkers() {
+                return workerSession.getAllWorkers();
+            }
+
+            @Override
+            public WorkerStatus getStatus(final WorkerIdentifier wi) throws InvalidWorkerIdException {
+                return workerSession.getStatus(wi);
+            }
+        });
+        scheduleIfEnabled(getInterval());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (Timer timer : timerService.getTimers()) {
+            try {
+                timer.cancel();
+            } catch (IllegalStateException | NoSuchObjectLocalException ex) {
+                LOG.debug("Timer already cancelled: " + ex.getMessage());
+            }
+        }
+    }
+
+    @Timeout
+    public void timeout(final Timer timer) {
+        long interval = 0;
+        try {
+            interval = getInterval();
+            if (interval > 0) {
+                snapshot.refresh(executorService, getParallelism());
+            }
+        } catch (RuntimeException ex) {
+            LOG.error("Refreshing worker status snapshot failed: " + ex.getMessage(), ex);
+        } finally {
+            if (interval > 0) {
+                timerService.createSingleActionTimer(interval * 1000L, new TimerConfig(PROPERTY_INTERVAL, false));
+            } else {
+                // Disabled: stop until a status read finds it enabled again
+                scheduled.set(false);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Worker status snapshot disabled");
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules the first refresh if enabled and not already scheduled.
+     *
+     * @param interval current interval in seconds
+     */
+    private void scheduleIfEnabled(final long interval) {
+        if (interval > 0 && scheduled.compareAndSet(false, true)) {
+            timerService.createSingleActionTimer(interval * 1000L, new TimerConfig(PROPERTY_INTERVAL, false));
+        }
+    }
+
+    private long getInterval() {
+        return getLongProperty(PROPERTY_INTERVAL, 0);
+    }
+
+    private int getParallelism() {
+        return (int) getLongProperty(PROPERTY_PARALLELISM, DEFAULT_PARALLELISM);
+    }
+
+    private long getLongProperty(final String property, final long defaultValue) {
+        final String value = globalConfigurationSession.getGlobalConfiguration().getProperty(GlobalConfiguration.SCOPE_GLOBAL, property);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException ex) {
+            LOG.warn("Illegal value for global property " + property + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public WorkerStatus getStatus(final WorkerIdentifier wi, final boolean forceRefresh) throws InvalidWorkerIdException {
+        final long interval = getInterval();
+        scheduleIfEnabled(interval);
+        return snapshot.getStatus(wi, forceRefresh, interval * 1000L * MAX_AGE_INTERVALS);
+    }
+
+    @Override
+    public void invalidate(final WorkerIdentifier wi) {
+        snapshot.invalidate(wi);
+    }
+
+    @Override
+    public void refresh() {
+        snapshot.refresh(executorService, getParallelism());
+    }
+
+    @Override
+    public long getSnapshotAge() {
+        return snapshot.getSnapshotAge();
+    }
+
+    @Override
+    public long getLastRefreshDuration() {
+        return snapshot.getLastRefreshDuration();
+    }
+}
@@ -0,0 +1,238 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.ejb.worker.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.util.LatencyHistogram;
+
+/**
+ * Latency histograms for each stage of the worker processing pipeline, per
+ * worker.
+ *
+ * Durations are recorded in microseconds into lock-free histograms so
+ * recording can be done from any number of request threads without
+ * synchronization. The histograms of a worker are created on its first
+ * request.
+ *
+ * @version $Id$
+ */
+public class ProcessingStageMetrics {
+
+    /** Stages of the processing pipeline. */
+    public enum Stage {
+        /** Getting the worker instance and its components. */
+        LOOKUP,
+        /** Authorizing the request. */
+        AUTHORIZATION,
+        /** Acquiring crypto instances from the crypto token. */
+        CRYPTO_INSTANCE,
+        /** The processData call excluding crypto instance acquisition. */
+        PROCESS_DATA,
+        /** Checking the signer certificate and the key usage counter. */
+        KEY_USAGE,
+        /** Charging the client. */
+        ACCOUNTING,
+        /** Archiving the request and response. */
+        ARCHIVING,
+        /** Writing the worker log. */
+        LOGGING;
+
+        /** @return name to use in metric labels */
+        public String getLabel() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    /** Precision sufficient for monitoring, keeping the footprint small. */
+    private static final int PRECISION_BITS = 5;
+
+    /** Largest duration tracked, a bit more than an hour in microseconds. */
+    private static final long HIGHEST_TRACKABLE_VALUE = 1L << 32;
+
+    /** Percentiles included in the exported metrics. */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /** Histograms of one worker. */
+    public static class WorkerStages {
+        private final int workerId;
+        private volatile String workerName;
+        private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+        WorkerStages(final int workerId, final String workerName) {
+            this.workerId = workerId;
+            this.workerName = workerName;
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram(PRECISION_BITS, HIGHEST_TRACKABLE_VALUE);
+            }
+        }
+
+        /**
+         * Records the duration of a stage.
+         *
+         * @param stage the duration is for
+         * @param nanos duration in nanoseconds
+         */
+        public void record(final Stage stage, final long nanos) {
+            histograms[stage.ordinal()].record(Math.max(0, nanos / 1000));
+        }
+
+        /** @return the ID of the worker */
+        public int getWorkerId() {
+            return workerId;
+        }
+
+        /** @return the name of the worker when it was last seen */
+        public String getWorkerName() {
+            return workerName;
+        }
+
+        /**
+         * @param stage to get the histogram for
+         * @return histogram with durations in microseconds
+         */
+        public LatencyHistogram getHistogram(final Stage stage) {
+            return histograms[stage.ordinal()];
+        }
+
+        private void reset() {
+            for (LatencyHistogram histogram : histograms) {
+                histogram.reset();
+            }
+        }
+    }
+
+    private final ConcurrentMap<Integer, WorkerStages> workers = new ConcurrentHashMap<>();
+
+    /**
+     * Get the histograms of a worker, creating them if needed.
+     *
+     * @param workerId ID of the worker
+     * @param workerName current name of the worker
+     * @return the histograms to record into
+     */
+    public WorkerStages getWorker(final int workerId, final String workerName) {
+        WorkerStages result = workers.get(workerId);
+        if (result == null) {
+            result = workers.computeIfAbsent(workerId, id -> new WorkerStages(id, workerName));
+        } else if (workerName != null && !workerName.equals(result.workerName)) {
+            // Renamed worker
+            result.workerName = workerName;
+        }
+        return result;
+    }
+
+    /**
+     * @return the histograms of all workers that have processed requests,
+     * ordered by worker ID
+     */
+    public List<WorkerStages> getWorkers() {
+        final List<WorkerStages> result = new ArrayList<>(workers.values());
+        Collections.sort(result, (a, b) -> Integer.compare(a.workerId, b.workerId));
+        return result;
+    }
+
+    /**
+     * Clears the recorded values.
+     *
+     * @param wi worker to reset or null for all workers
+     */
+    public void reset(final WorkerIdentifier wi) {
+        for (WorkerStages worker : workers.values()) {
+            if (wi == null
+                    || (wi.hasId() && wi.getId() == worker.workerId)
+                    || (wi.hasName() && wi.getName().equalsIgnoreCase(worker.workerName))) {
+                worker.reset();
+            }
+        }
+    }
+
+    /**
+     * Forgets the histograms of workers no longer existing.
+     *
+     * @param existing IDs of the workers to keep
+     */
+    public void retainAll(final List<Integer> existing) {
+        workers.keySet().retainAll(existing);
+    }
+
+    /**
+     * Renders all histograms in the Prometheus text exposition format as
+     * a summary with quantiles in seconds.
+     *
+     * @return the metrics as text
+     */
+    public String toPrometheusText() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("# HELP signserver_processing_stage_seconds Time spent in each stage of processing a request.\n");
+        sb.append("# TYPE signserver_processing_stage_seconds summary\n");
+        for (WorkerStages worker : getWorkers()) {
+            for (Stage stage : Stage.values()) {
+                final LatencyHistogram histogram = worker.getHistogram(stage);
+                final long count = histogram.getCount();
+                if (count == 0) {
+                    continue;
+                }
+                final String labels = "worker=\"" + escapeLabel(worker.workerName)
+                        + "\",worker_id=\"" + worker.workerId
+                        + "\",stage=\"" + stage.getLabel() + "\"";
+                for (double quantile : QUANTILES) {
+                    sb.append("signserver_processing_stage_seconds{").append(labels)
+                            .append(",quantile=\"").append(quantile).append("\"} ")
+                            .append(toSeconds(histogram.getValueAtPercentile(quantile * 100))).append('\n');
+                }
+                sb.append("signserver_processing_stage_seconds_sum{").append(labels).append("} ")
+                        .append(toSeconds(histogram.getSum())).append('\n');
+                sb.append("signserver_processing_stage_seconds_count{").append(labels).append("} ")
+                        .append(count).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Renders a compact summary with one line per worker and stage with
+     * percentiles in microseconds.
+     *
+     * @return the summary as text
+     */
+    public String toSummaryText() {
+        final StringBuilder sb = new StringBuilder();
+        for (WorkerStages worker : getWorkers()) {
+            for (Stage stage : Stage.values()) {
+                final LatencyHistogram histogram = worker.getHistogram(stage);
+                if (histogram.getCount() > 0) {
+                    sb.append(worker.workerName).append('.').append(stage.getLabel())
+                            .append(": ").append(histogram).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String toSeconds(final long micros) {
+        return String.valueOf(micros / 1000000.0);
+    }
+
+    private static String escapeLabel(final String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -12,6 +12,8 @@
  *************************************************************************/
 package org.signserver.ejb.worker.impl;
 
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
 import java.util.*;
 import javax.persistence.EntityManager;
 import org.apache.log4j.Logger;
@@ -90,6 +92,50 @@ public class WorkerFactory {
         return result;
     }
 
+    /**
+     * Get the encoded signer certificate chain from the active configuration
+     * of the worker.
+     *
+     * The encoded chain is cached until the worker is reloaded or the cached
+     * chain is cleared.
+     *
+     * @param wi of the worker
+     * @return the encoded certificates or null if the worker has no signer
+     * certificate chain configured
+     * @throws NoSuchWorkerException In case the worker ID does not exist
+     * @throws CertificateEncodingException in case a certificate could not be encoded
+     */
+    public synchronized List<byte[]> getSignerCertificateChain(final WorkerIdentifier wi) throws NoSuchWorkerException, CertificateEncodingException {
+        final IWorker worker = getWorker(wi);
+        final Integer workerId = wi.hasId() ? wi.getId() : cache.getWorkerId(wi.getName());
+        if (workerId != null && cache.hasSignerCertificateChain(workerId)) {
+            return cache.getSignerCertificateChain(workerId);
+        }
+
+        List<byte[]> result = null;
+        final List<Certificate> chain = worker.getConfig() == null ? null : worker.getConfig().getSignerCertificateChain();
+        if (chain != null) {
+            final List<byte[]> encoded = new ArrayList<>(chain.size());
+            for (Certificate cert : chain) {
+                encoded.add(cert.getEncoded());
+            }
+            result = Collections.unmodifiableList(encoded);
+        }
+        if (workerId != null) {
+            cache.putSignerCertificateChain(workerId, result);
+        }
+        return result;
+    }
+
+    /**
+     * Forget the cached signer certificate chain of the worker.
+     *
+     * @param wi of worker
+     */
+    public synchronized void clearSignerCertificateChain(final WorkerIdentifier wi) {
+        cache.clearSignerCertificateChain(wi);
+    }
+
     private IWorker loadWorker(final WorkerIdentifier wi) throws NoSuchWorkerException {
         if (LOG.isTraceEnabled()) {
             LOG.trace(">loadWorker(" + wi + ")");
@@ -12,6 +12,7 @@
  *************************************************************************/
 package org.signserver.ejb.worker.impl;
 
+import java.security.cert.CertificateEncodingException;
 import java.util.List;
 import javax.annotation.PostConstruct;
 import javax.ejb.ConcurrencyManagement;
@@ -55,6 +56,8 @@ public class WorkerManagerSingletonBean {
     
     private SignServerContext workerContext;
 
+    private final ProcessingStageMetrics processingMetrics = new ProcessingStageMetrics();
+
     @PostConstruct
     public void create() {
         if (em == null) {
@@ -101,6 +104,29 @@ public class WorkerManagerSingletonBean {
         workerFactory.reloadWorker(wi);
     }
 
+    /**
+     * Get the encoded signer certificate chain from the active configuration
+     * of the worker. The result is cached until the worker is reloaded.
+     *
+     * @param wi of the worker
+     * @return the encoded certificates or null if no chain is configured
+     * @throws NoSuchWorkerException in case the worker does not exist
+     * @throws CertificateEncodingException in case a certificate could not be
+     * encoded
+     */
+    public List<byte[]> getSignerCertificateChain(final WorkerIdentifier wi) throws NoSuchWorkerException, CertificateEncodingException {
+        return workerFactory.getSignerCertificateChain(wi);
+    }
+
+    /**
+     * Forget the cached signer certificate chain of the given worker.
+     *
+     * @param wi of the worker
+     */
+    public void clearSignerCertificateChain(final WorkerIdentifier wi) {
+        workerFactory.clearSignerCertificateChain(wi);
+    }
+
     /**
      * Forget all created instances of workers and their resources.
      */
@@ -136,6 +162,13 @@ public class WorkerManagerSingletonBean {
         return workerConfigService.findAllIds(workerType);
     }
 
+    /**
+     * @return the latency histograms of the processing stages of all workers
+     */
+    public ProcessingStageMetrics getProcessingMetrics() {
+        return processingMetrics;
+    }
+
     public void upgradeWorkerNames() {
         workerConfigService.populateNameColumn();
     }
@@ -0,0 +1,251 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.ejb.worker.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+import org.signserver.common.InvalidWorkerIdException;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.WorkerStatus;
+import org.signserver.common.util.PropertiesConstants;
+
+/**
+ * Holds the latest known status of each worker.
+ *
+ * The snapshot is refreshed as a whole by calling refresh(), typically from a
+ * timer, where the statuses are fetched by the calling thread helped by a
+ * bounded number of tasks on the given (container managed) executor.
+ * Readers get the latest snapshot entry unless it is older than the given
+ * maximum age or a refresh is explicitly requested in which case the status
+ * of that worker is fetched directly.
+ *
+ * @version $Id$
+ */
+public class WorkerStatusSnapshot {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(WorkerStatusSnapshot.class);
+
+    /**
+     * Source of worker statuses.
+     */
+    public interface StatusFetcher {
+
+        /**
+         * @return IDs of all workers to include in the snapshot
+         */
+        List<Integer> getAllWorkers();
+
+        /**
+         * @param wi worker to get the status for
+         * @return the current status of the worker
+         * @throws InvalidWorkerIdException in case the worker does not exist
+         */
+        WorkerStatus getStatus(WorkerIdentifier wi) throws InvalidWorkerIdException;
+    }
+
+    /** Status of one worker and when it was fetched. */
+    private static class Entry {
+        private final WorkerStatus status;
+        private final long time;
+
+        Entry(final WorkerStatus status, final long time) {
+            this.status = status;
+            this.time = time;
+        }
+    }
+
+    private final StatusFetcher fetcher;
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Integer> nameToId = new ConcurrentHashMap<>();
+
+    /** Only one refresh at a time. */
+    private final Object refreshLock = new Object();
+
+    private volatile long lastRefreshTime = -1;
+    private volatile long lastRefreshDuration = -1;
+
+    /**
+     * Creates an empty snapshot.
+     *
+     * @param fetcher to get the statuses from
+     */
+    public WorkerStatusSnapshot(final StatusFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Get the status of a worker.
+     *
+     * @param wi worker to get the status for
+     * @param forceRefresh if true the status is always fetched
+     * @param maxAge snapshot entries older than this number of milliseconds
+     * are not used, 0 means that the status is always fetched
+     * @return the status of the worker
+     * @throws InvalidWorkerIdException in case the worker does not exist
+     */
+    public WorkerStatus getStatus(final WorkerIdentifier wi, final boolean forceRefresh, final long maxAge) throws InvalidWorkerIdException {
+        if (!forceRefresh && maxAge > 0) {
+            final Integer workerId = wi.hasId() ? wi.getId() : nameToId.get(wi.getName().toUpperCase(Locale.ENGLISH));
+            final Entry entry = workerId == null ? null : entries.get(workerId);
+            if (entry != null && currentTimeMillis() - entry.time <= maxAge) {
+                return entry.status;
+            }
+        }
+        return fetch(wi);
+    }
+
+    private WorkerStatus fetch(final WorkerIdentifier wi) throws InvalidWorkerIdException {
+        final WorkerStatus status = fetcher.getStatus(wi);
+        put(status);
+        return status;
+    }
+
+    private void put(final WorkerStatus status) {
+        final int workerId = status.getWorkerId();
+        entries.put(workerId, new Entry(status, currentTimeMillis()));
+        final String name = status.getActiveSignerConfig() == null ? null : status.getActiveSignerConfig().getProperty(PropertiesConstants.NAME);
+        if (name != null) {
+            nameToId.put(name.toUpperCase(Locale.ENGLISH), workerId);
+        }
+    }
+
+    /**
+     * Drops the entry of a worker so that the next read fetches the status.
+     *
+     * @param wi worker or null for all workers
+     */
+    public void invalidate(final WorkerIdentifier wi) {
+        if (wi == null) {
+            entries.clear();
+        } else {
+            final Integer workerId = wi.hasId() ? wi.getId() : nameToId.get(wi.getName().toUpperCase(Locale.ENGLISH));
+            if (workerId != null) {
+                entries.remove(workerId);
+            }
+        }
+    }
+
+    /**
+     * Fetches the status of all workers and replaces the snapshot.
+     *
+     * Blocks until the refresh is done. If a refresh is already in progress
+     * this call waits for it and then performs a new refresh.
+     *
+     * @param executor to run the additional fetching tasks on or null to
+     * fetch all statuses in the calling thread
+     * @param parallelism maximum number of statuses to fetch concurrently
+     */
+    public void refresh(final Executor executor, final int parallelism) {
+        synchronized (refreshLock) {
+            final long start = currentTimeMillis();
+            final List<Integer> workerIds = fetcher.getAllWorkers();
+            final AtomicInteger failures = new AtomicInteger();
+
+            // Each task fetches statuses until there are no more left
+            final Queue<Integer> remaining = new ConcurrentLinkedQueue<>(workerIds);
+            final Runnable fetchRemaining = () -> {
+                Integer workerId;
+                while ((workerId = remaining.poll()) != null) {
+                    try {
+                        fetch(new WorkerIdentifier(workerId));
+                    } catch (InvalidWorkerIdException ex) {
+                        // Removed since the list was obtained
+                        entries.remove(workerId);
+                    } catch (RuntimeException ex) { // NOPMD: Safe-guard for bugs in worker implementations
+                        failures.incrementAndGet();
+                        LOG.error("Failed to get status of worker " + workerId + ": " + ex.getMessage(), ex);
+                    }
+                }
+            };
+
+            final int helpers = executor == null ? 0 : Math.min(Math.max(1, parallelism), workerIds.size()) - 1;
+            final List<FutureTask<Void>> tasks = new ArrayList<>(Math.max(0, helpers));
+            for (int i = 0; i < helpers; i++) {
+                final FutureTask<Void> task = new FutureTask<>(fetchRemaining, null);
+                try {
+                    executor.execute(task);
+                    tasks.add(task);
+                } catch (RejectedExecutionException ex) {
+                    LOG.debug("Refreshing with fewer tasks: " + ex.getMessage());
+                    break;
+                }
+            }
+
+            try {
+                fetchRemaining.run();
+                for (FutureTask<Void> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted while refreshing worker statuses");
+                remaining.clear();
+                return;
+            } catch (ExecutionException ex) {
+                LOG.error("Failed to refresh worker statuses: " + ex.getMessage(), ex);
+            }
+
+            // Forget workers no longer existing
+            final Set<Integer> existing = new HashSet<>(workerIds);
+            entries.keySet().retainAll(existing);
+            nameToId.values().retainAll(existing);
+
+            final long end = currentTimeMillis();
+            lastRefreshTime = end;
+            lastRefreshDuration = end - start;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Refreshed status of " + workerIds.size() + " workers in "
+                        + lastRefreshDuration + " ms (failures: " + failures.get() + ")");
+            }
+        }
+    }
+
+    /**
+     * @return milliseconds since the last refresh finished or -1 if no
+     * refresh has been performed
+     */
+    public long getSnapshotAge() {
+        final long time = lastRefreshTime;
+        return time < 0 ? -1 : currentTimeMillis() - time;
+    }
+
+    /**
+     * @return milliseconds the last refresh took or -1 if no refresh has been
+     * performed
+     */
+    public long getLastRefreshDuration() {
+        return lastRefreshDuration;
+    }
+
+    /**
+     * @return current time in milliseconds, can be overridden by tests
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
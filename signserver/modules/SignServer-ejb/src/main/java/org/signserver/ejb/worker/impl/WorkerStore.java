@@ -15,6 +15,7 @@ package org.signserver.ejb.worker.impl;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import org.apache.log4j.Logger;
@@ -26,6 +27,10 @@ import org.signserver.server.IWorker;
  * Holder for loaded workers and workers+components as well as the mapping from
  * worker name to worker ID.
  *
+ * Also holds the encoded signer certificate chains from the active
+ * configuration of the loaded workers. A cached chain is dropped whenever the
+ * worker instance is replaced or cleared.
+ *
  * @author Markus Kilås
  * @version $Id$
  */
@@ -37,6 +42,7 @@ public class WorkerStore {
     private final Map<Integer, WorkerWithComponents> workersWithComponents = new HashMap<>();
     private final Map<Integer, IWorker> workersOnly = new HashMap<>();
     private final Map<String, Integer> nameToIdMap = new HashMap<>();
+    private final Map<Integer, List<byte[]>> signerCertificateChains = new HashMap<>();
     
     protected WorkerStore() {
         
@@ -75,11 +81,14 @@ public class WorkerStore {
     public void putWorkerOnly(int workerId, IWorker worker) {
         workersOnly.put(workerId, worker);
         workersWithComponents.remove(workerId);
+        signerCertificateChains.remove(workerId);
         cacheName(workerId, worker);
     }
 
     public void putWorkerWithComponents(int workerId, WorkerWithComponents workerWithComponents) {
-        workersOnly.put(workerId, workerWithComponents.getWorker());
+        if (workersOnly.put(workerId, workerWithComponents.getWorker()) != workerWithComponents.getWorker()) {
+            signerCertificateChains.remove(workerId);
+        }
         workersWithComponents.put(workerId, workerWithComponents);
         cacheName(workerId, workerWithComponents.getWorker());
     }
@@ -114,10 +123,53 @@ public class WorkerStore {
         return result;
     }
 
+    /**
+     * @param workerId of the worker
+     * @return true if a signer certificate chain (possibly null) is cached for
+     * the worker
+     */
+    public boolean hasSignerCertificateChain(int workerId) {
+        return signerCertificateChains.containsKey(workerId);
+    }
+
+    /**
+     * @param workerId of the worker
+     * @return the cached encoded signer certificate chain or null if none is
+     * cached or the worker has no chain configured
+     */
+    public List<byte[]> getSignerCertificateChain(int workerId) {
+        return signerCertificateChains.get(workerId);
+    }
+
+    /**
+     * Caches the encoded signer certificate chain for a loaded worker.
+     *
+     * @param workerId of the worker
+     * @param chain encoded certificates or null if the worker has no chain
+     */
+    public void putSignerCertificateChain(int workerId, List<byte[]> chain) {
+        if (workersOnly.containsKey(workerId)) {
+            signerCertificateChains.put(workerId, chain);
+        }
+    }
+
+    /**
+     * Drops the cached signer certificate chain of a worker, if any.
+     *
+     * @param id of the worker
+     */
+    public void clearSignerCertificateChain(WorkerIdentifier id) {
+        final Integer workerId = id.hasId() ? id.getId() : getWorkerId(id.getName());
+        if (workerId != null) {
+            signerCertificateChains.remove(workerId);
+        }
+    }
+
     public void clearAll() {
         workersWithComponents.clear();
         workersOnly.clear();
         nameToIdMap.clear();
+        signerCertificateChains.clear();
     }
 
     public void clear(WorkerIdentifier id) {
@@ -130,6 +182,7 @@ public class WorkerStore {
         if (workerId != null) {
             workersOnly.remove(workerId);
             workersWithComponents.remove(workerId);
+            signerCertificateChains.remove(workerId);
             removeEntriesMappingToId(nameToIdMap, workerId);
         }
     }
@@ -67,7 +67,7 @@ public class Base64DatabaseArchiver extends BaseArchiver implements Archiver {
     @Override
     public void init(int listIndex, WorkerConfig config, SignServerContext context) throws ArchiverInitException {
         if (!context.isDatabaseConfigured()) {
-            addFatalError("Base64DatabaseArchiver requires a database connection.");
+            addFatalError(getClass().getSimpleName() + " requires a database connection.");
         }
         
         // Configuration of what to archive
@@ -151,12 +151,7 @@ public class Base64DatabaseArchiver extends BaseArchiver implements Archiver {
                 }
             }
 
-            uniqueId = dataService.create(archiveType,
-                            workerId,
-                            archivable.getArchiveId(),
-                            certificate,
-                            remoteIp,
-                        new String(Base64.encode(archivable.getContentEncoded())));
+            uniqueId = create(dataService, archiveType, workerId, certificate, remoteIp, archivable);
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Archived with uniqueId: " + uniqueId);
@@ -185,4 +180,27 @@ public class Base64DatabaseArchiver extends BaseArchiver implements Archiver {
         }
         return archived;
     }
+
+    /**
+     * Creates the archive entry.
+     *
+     * @param dataService to create the entry with
+     * @param archiveType type of archive entry
+     * @param workerId ID of the worker
+     * @param certificate client certificate or null
+     * @param remoteIp address(es) of the client
+     * @param archivable to archive
+     * @return unique ID of the entry
+     * @throws ArchiveException in case of failure storing the content
+     */
+    protected String create(final ArchiveDataService dataService, final int archiveType,
+            final Integer workerId, final X509Certificate certificate, final String remoteIp,
+            final Archivable archivable) throws ArchiveException {
+        return dataService.create(archiveType,
+                            workerId,
+                            archivable.getArchiveId(),
+                            certificate,
+                            remoteIp,
+                        new String(Base64.encode(archivable.getContentEncoded())));
+    }
 }
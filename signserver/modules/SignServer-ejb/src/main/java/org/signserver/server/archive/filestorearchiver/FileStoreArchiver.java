@@ -0,0 +1,75 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.archive.filestorearchiver;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import org.apache.log4j.Logger;
+import org.signserver.common.WorkerConfig;
+import org.signserver.server.SignServerContext;
+import org.signserver.server.archive.Archivable;
+import org.signserver.server.archive.ArchiveException;
+import org.signserver.server.archive.ArchiverInitException;
+import org.signserver.server.archive.base64dbarchiver.Base64DatabaseArchiver;
+import org.signserver.server.archive.filestore.ContentAddressedFileStore;
+import org.signserver.server.archive.olddbarchiver.entities.ArchiveDataService;
+
+/**
+ * Archiver storing the archived bytes in the content addressed file store
+ * configured by the deploy-time property archive.filestore.location, with
+ * only the meta data and the SHA-256 digest of the content in the database
+ * table ArchiveData.
+ *
+ * Identical content, for instance the same request archived by multiple
+ * workers, is only stored once. Supports the same worker properties as the
+ * Base64DatabaseArchiver.
+ *
+ * @version $Id$
+ */
+public class FileStoreArchiver extends Base64DatabaseArchiver {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(FileStoreArchiver.class);
+
+    private ContentAddressedFileStore store;
+
+    @Override
+    public void init(int listIndex, WorkerConfig config, SignServerContext context) throws ArchiverInitException {
+        super.init(listIndex, config, context);
+        store = ContentAddressedFileStore.getDefault();
+        if (store == null) {
+            addFatalError("FileStoreArchiver requires the deploy-time property " + ContentAddressedFileStore.LOCATION_PROPERTY + " to be set.");
+        } else if (!store.getDirectory().isDirectory() || !store.getDirectory().canWrite()) {
+            addFatalError("Archive file store is not a writable directory: " + store.getDirectory().getAbsolutePath());
+        }
+    }
+
+    @Override
+    protected String create(final ArchiveDataService dataService, final int archiveType,
+            final Integer workerId, final X509Certificate certificate, final String remoteIp,
+            final Archivable archivable) throws ArchiveException {
+        if (store == null) {
+            throw new ArchiveException("Could not archive as archiver was not successfully initialized");
+        }
+        final String digest;
+        try {
+            digest = store.store(archivable.getContentEncoded());
+        } catch (IOException ex) {
+            throw new ArchiveException("Could not store archive content: " + ex.getMessage(), ex);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Stored archive content: " + digest);
+        }
+        return dataService.createInFileStore(archiveType, workerId, archivable.getArchiveId(), certificate, remoteIp, digest);
+    }
+}
@@ -0,0 +1,329 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.dispatchers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Load and health bookkeeping for one worker a dispatcher can dispatch to.
+ *
+ * The target works as a circuit breaker: after a number of consecutive
+ * failures it is opened and not selected until the open duration has passed.
+ * After that one probe request at a time is let through (half-open) and the
+ * first successful one closes the circuit again. When closed after having
+ * been open the target is slowly ramped up during the slow start duration
+ * by reducing its weight.
+ *
+ * The state is changed with compare-and-set on an immutable snapshot. Each
+ * acquired request gets a permit referring to the snapshot it was acquired
+ * under, so only the request that moved the target to half-open acts as the
+ * probe, and the outcome of a request acquired before the state changed
+ * does not change it again.
+ *
+ * All methods are safe to call concurrently.
+ *
+ * @version $Id$
+ */
+public class DispatchTarget {
+
+    /** Circuit breaker states. */
+    public enum State {
+        /** Target is healthy. */
+        CLOSED,
+        /** Target has failed and is not selected. */
+        OPEN,
+        /** Target is let in with one probe request at a time. */
+        HALF_OPEN
+    }
+
+    /** Minimum weight during slow start. */
+    private static final double MIN_WEIGHT = 0.1;
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDuration;
+    private final long slowStartDuration;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong circuitOpenings = new AtomicLong();
+
+    private final AtomicReference<Circuit> circuit =
+            new AtomicReference<>(new Circuit(State.CLOSED, Long.MIN_VALUE));
+
+    /**
+     * Creates a new target.
+     *
+     * @param name of worker to dispatch to
+     * @param failureThreshold number of consecutive failures before opening
+     * @param openDuration time in milliseconds to keep the circuit open
+     * @param slowStartDuration time in milliseconds to ramp up after recovery
+     */
+    public DispatchTarget(final String name, final int failureThreshold,
+            final long openDuration, final long slowStartDuration) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.slowStartDuration = slowStartDuration;
+    }
+
+    /**
+     * @return name of the worker
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return current circuit breaker state
+     */
+    public State getState() {
+        return circuit.get().state;
+    }
+
+    /**
+     * @return number of requests currently being processed by the target
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return number of requests dispatched to the target
+     */
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    /**
+     * @return number of successful requests
+     */
+    public long getSuccesses() {
+        return successes.get();
+    }
+
+    /**
+     * @return number of failed requests
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return number of times the circuit has been opened
+     */
+    public long getCircuitOpenings() {
+        return circuitOpenings.get();
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return true if the target could be selected for a request now
+     */
+    public boolean isSelectable(final long now) {
+        final Circuit current = circuit.get();
+        switch (current.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return now - current.since >= openDuration;
+            default:
+                // A probe is in progress
+                return false;
+        }
+    }
+
+    /**
+     * Weight of the target between 0.1 and 1.0. Reduced during slow start.
+     *
+     * @param now current time in milliseconds
+     * @return the weight
+     */
+    public double getWeight(final long now) {
+        final Circuit current = circuit.get();
+        if (current.state != State.CLOSED) {
+            return MIN_WEIGHT;
+        }
+        final long elapsed = now - current.since;
+        if (slowStartDuration <= 0 || elapsed >= slowStartDuration || elapsed < 0) {
+            return 1.0;
+        }
+        return Math.max(MIN_WEIGHT, (double) elapsed / slowStartDuration);
+    }
+
+    /**
+     * Load of the target if one more request would be dispatched to it,
+     * adjusted by the current weight.
+     *
+     * @param now current time in milliseconds
+     * @return the effective load
+     */
+    public double getEffectiveLoad(final long now) {
+        return (outstanding.get() + 1) / getWeight(now);
+    }
+
+    /**
+     * Tries to reserve the target for a request. For a target that is not
+     * closed only one probe request at a time is allowed.
+     *
+     * @param now current time in milliseconds
+     * @return the permit to record the outcome with or null if the request
+     * can not be dispatched to the target
+     */
+    public Permit tryAcquire(final long now) {
+        final Circuit current = circuit.get();
+        final Permit permit;
+        switch (current.state) {
+            case CLOSED:
+                permit = new Permit(this, current, false);
+                break;
+            case OPEN:
+                final Circuit halfOpen = new Circuit(State.HALF_OPEN, current.since);
+                if (now - current.since < openDuration
+                        || !circuit.compareAndSet(current, halfOpen)) {
+                    return null;
+                }
+                permit = new Permit(this, halfOpen, true);
+                break;
+            default:
+                return null;
+        }
+        outstanding.incrementAndGet();
+        dispatched.incrementAndGet();
+        return permit;
+    }
+
+    /**
+     * Records a successful request. A successful probe closes the circuit.
+     *
+     * @param permit from tryAcquire
+     * @param now current time in milliseconds
+     * @return true if the circuit was closed by this call
+     */
+    public boolean recordSuccess(final Permit permit, final long now) {
+        outstanding.decrementAndGet();
+        successes.incrementAndGet();
+        if (permit.probe) {
+            if (circuit.compareAndSet(permit.circuit, new Circuit(State.CLOSED, now))) {
+                consecutiveFailures.set(0);
+                return true;
+            }
+        } else if (circuit.get() == permit.circuit) {
+            consecutiveFailures.set(0);
+        }
+        return false;
+    }
+
+    /**
+     * Records a failed request, opening the circuit if the request was a
+     * probe or if the threshold was reached while closed.
+     *
+     * @param permit from tryAcquire
+     * @param now current time in milliseconds
+     * @return true if the circuit was opened by this call
+     */
+    public boolean recordFailure(final Permit permit, final long now) {
+        outstanding.decrementAndGet();
+        failures.incrementAndGet();
+        if (permit.probe) {
+            return open(permit, now);
+        }
+        // Failures of requests from before the circuit last changed do not count
+        if (circuit.get() == permit.circuit
+                && consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            return open(permit, now);
+        }
+        return false;
+    }
+
+    private boolean open(final Permit permit, final long now) {
+        if (circuit.compareAndSet(permit.circuit, new Circuit(State.OPEN, now))) {
+            circuitOpenings.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Releases the target without counting the request as a success or
+     * failure, for instance when the request itself was illegal. A released
+     * probe lets the next request probe the target.
+     *
+     * @param permit from tryAcquire
+     */
+    public void release(final Permit permit) {
+        outstanding.decrementAndGet();
+        if (permit.probe) {
+            circuit.compareAndSet(permit.circuit, new Circuit(State.OPEN, permit.circuit.since));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + ": state=" + getState()
+                + ", outstanding=" + outstanding.get()
+                + ", dispatched=" + dispatched.get()
+                + ", successes=" + successes.get()
+                + ", failures=" + failures.get()
+                + ", circuitOpenings=" + circuitOpenings.get();
+    }
+
+    /**
+     * State of the circuit and the time it was opened or, for a closed
+     * circuit, recovered.
+     */
+    private static final class Circuit {
+        private final State state;
+        private final long since;
+
+        private Circuit(final State state, final long since) {
+            this.state = state;
+            this.since = since;
+        }
+    }
+
+    /**
+     * Reservation of the target for one request.
+     */
+    public static final class Permit {
+        private final DispatchTarget target;
+        private final Circuit circuit;
+        private final boolean probe;
+
+        private Permit(final DispatchTarget target, final Circuit circuit,
+                final boolean probe) {
+            this.target = target;
+            this.circuit = circuit;
+            this.probe = probe;
+        }
+
+        /**
+         * @return the reserved target
+         */
+        public DispatchTarget getTarget() {
+            return target;
+        }
+
+        /**
+         * @return true if the request is the probe of a target not closed
+         */
+        public boolean isProbe() {
+            return probe;
+        }
+    }
+}
@@ -0,0 +1,665 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.dispatchers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.persistence.EntityManager;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.signserver.common.CryptoTokenOfflineException;
+import org.signserver.common.IllegalRequestException;
+import org.signserver.common.NoSuchWorkerException;
+import org.signserver.common.RequestContext;
+import org.signserver.common.SignServerException;
+import org.signserver.common.WorkerConfig;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.WorkerStatusInfo;
+import org.signserver.common.data.Request;
+import org.signserver.common.data.Response;
+import org.signserver.common.data.SignatureRequest;
+import org.signserver.common.data.SignatureResponse;
+import org.signserver.common.data.WritableData;
+import org.signserver.common.util.LatencyHistogram;
+import org.signserver.ejb.interfaces.DispatcherProcessSessionLocal;
+import org.signserver.server.IServices;
+import org.signserver.server.WorkerContext;
+import org.signserver.server.archive.Archivable;
+import org.signserver.server.archive.DefaultArchivable;
+import org.signserver.server.data.impl.ByteArrayReadableData;
+import org.signserver.server.data.impl.TemporarlyWritableData;
+import org.signserver.server.log.AdminInfo;
+
+/**
+ * Dispatching requests to the first worker in the list and sending a hedged
+ * request to the next worker in case no response has been received within
+ * the hedge delay. The first successful response is returned and the other
+ * one is discarded.
+ *
+ * The hedge delay is by default derived from a latency histogram of the
+ * primary worker (HEDGE_PERCENTILE) but can also be configured as a fixed
+ * value. The number of hedged requests is limited to MAX_HEDGE_PERCENT of
+ * the total number of requests.
+ *
+ * As a hedged request is processed by two workers it is also archived,
+ * accounted and logged twice. Hedging is therefore only performed when the
+ * workers have been declared idempotent (IDEMPOTENT=TRUE) and only for
+ * signature requests not larger than MAX_HEDGE_REQUEST_SIZE. Workers issuing
+ * unique responses, like time-stamp signers, should not be declared
+ * idempotent. Other requests are dispatched in the same way as by the
+ * FirstActiveDispatcher.
+ *
+ * The dispatched requests are executed by the container's default managed
+ * executor service. If it is not available requests are not hedged.
+ *
+ * Properties:<br/>
+ * WORKERS = Comma separated list of worker names, the first is the primary<br/>
+ * IDEMPOTENT = TRUE if requests can be processed twice by the workers, needed
+ * for hedging (default: FALSE)<br/>
+ * HEDGE_PERCENTILE = Percentile of the primary's latency to use as hedge
+ * delay (default: 95)<br/>
+ * HEDGE_DELAY = Fixed hedge delay in milliseconds, if set the percentile is
+ * not used (optional)<br/>
+ * MIN_HEDGE_DELAY = Lower bound for the hedge delay in milliseconds
+ * (default: 10)<br/>
+ * MIN_SAMPLES = Number of samples needed before the hedge delay is derived
+ * from the histogram (default: 100)<br/>
+ * MAX_HEDGE_PERCENT = Maximum percentage of requests that are hedged
+ * (default: 5)<br/>
+ * MAX_HEDGE_REQUEST_SIZE = Largest request in bytes that is hedged
+ * (default: 1048576)<br/>
+ * MAX_THREADS = Maximum number of concurrently dispatched requests using the
+ * executor service, when reached requests are dispatched without hedging
+ * (default: 64)
+ *
+ * @version $Id$
+ */
+public class HedgingDispatcher extends BaseDispatcher {
+
+    /** Log4j instance for this class. */
+    private static final Logger LOG = Logger.getLogger(
+            HedgingDispatcher.class);
+
+    // Property constants
+    public static final String PROPERTY_WORKERS = "WORKERS";
+    public static final String PROPERTY_IDEMPOTENT = "IDEMPOTENT";
+    public static final String PROPERTY_HEDGE_PERCENTILE = "HEDGE_PERCENTILE";
+    public static final String PROPERTY_HEDGE_DELAY = "HEDGE_DELAY";
+    public static final String PROPERTY_MIN_HEDGE_DELAY = "MIN_HEDGE_DELAY";
+    public static final String PROPERTY_MIN_SAMPLES = "MIN_SAMPLES";
+    public static final String PROPERTY_MAX_HEDGE_PERCENT = "MAX_HEDGE_PERCENT";
+    public static final String PROPERTY_MAX_HEDGE_REQUEST_SIZE = "MAX_HEDGE_REQUEST_SIZE";
+    public static final String PROPERTY_MAX_THREADS = "MAX_THREADS";
+
+    // Default values
+    private static final double DEFAULT_HEDGE_PERCENTILE = 95;
+    private static final long DEFAULT_MIN_HEDGE_DELAY = 10;
+    private static final long DEFAULT_MIN_SAMPLES = 100;
+    private static final double DEFAULT_MAX_HEDGE_PERCENT = 5;
+    private static final long DEFAULT_MAX_HEDGE_REQUEST_SIZE = 1024 * 1024;
+    private static final int DEFAULT_MAX_THREADS = 64;
+
+    /** Maximum number of hedges that can be saved up. */
+    private static final long MAX_HEDGE_BURST = 10;
+
+    /** Hedge tokens are counted in thousands. */
+    private static final long TOKEN_SCALE = 1000;
+
+    /** How often the derived hedge delay is recomputed. */
+    private static final long DELAY_REFRESH_INTERVAL_MILLIS = 1000;
+
+    /** JNDI name of the container's default executor service. */
+    private static final String EXECUTOR_SERVICE_NAME = "java:comp/DefaultManagedExecutorService";
+
+    /** Attempt states. */
+    private static final int RUNNING = 0;
+    private static final int DONE = 1;
+    private static final int ABANDONED = 2;
+
+    private List<String> workers;
+    private boolean idempotent;
+    private Map<String, LatencyHistogram> histograms;
+
+    private double hedgePercentile;
+    private Long fixedHedgeDelay;
+    private long minHedgeDelay;
+    private long minSamples;
+    private long tokensPerRequest;
+    private long maxHedgeRequestSize;
+
+    private Semaphore threads;
+    private volatile ExecutorService executorService;
+    private volatile boolean executorServiceUnavailable;
+
+    private final AtomicLong hedgeTokens = new AtomicLong(MAX_HEDGE_BURST * TOKEN_SCALE);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong hedgesDenied = new AtomicLong();
+    private final AtomicLong primaryRejected = new AtomicLong();
+
+    private volatile long cachedHedgeDelay = -1;
+    private volatile long cachedHedgeDelayTime;
+
+    /** Configuration errors. */
+    private LinkedList<String> configErrors;
+
+    private String name;
+
+    @Override
+    public void init(final int workerId, final WorkerConfig config,
+            final WorkerContext workerContext, final EntityManager workerEM) {
+        super.init(workerId, config, workerContext, workerEM);
+        configErrors = new LinkedList<>();
+
+        name = config.getProperty("NAME");
+
+        workers = new ArrayList<>();
+        histograms = new LinkedHashMap<>();
+        final String workersValue = config.getProperty(PROPERTY_WORKERS);
+        if (workersValue == null) {
+            configErrors.add("Property " + PROPERTY_WORKERS + " missing!");
+        } else {
+            for (String workerName : workersValue.split(",")) {
+                workerName = workerName.trim();
+                if (workerName.isEmpty()) {
+                    continue;
+                }
+                if (workerName.equals(name)) {
+                    LOG.warn("Ignoring dispatching to it self (worker "
+                            + name + ")");
+                } else {
+                    workers.add(workerName);
+                    histograms.put(workerName, new LatencyHistogram());
+                }
+            }
+            if (workers.isEmpty()) {
+                configErrors.add("No workers to dispatch to in property " + PROPERTY_WORKERS);
+            }
+        }
+
+        idempotent = Boolean.parseBoolean(config.getProperty(PROPERTY_IDEMPOTENT, Boolean.FALSE.toString()).trim());
+        hedgePercentile = parseDouble(config, PROPERTY_HEDGE_PERCENTILE, DEFAULT_HEDGE_PERCENTILE, 0, 100);
+        final String hedgeDelayValue = config.getProperty(PROPERTY_HEDGE_DELAY);
+        fixedHedgeDelay = hedgeDelayValue == null ? null : parseLong(config, PROPERTY_HEDGE_DELAY, 0, 0);
+        minHedgeDelay = parseLong(config, PROPERTY_MIN_HEDGE_DELAY, DEFAULT_MIN_HEDGE_DELAY, 0);
+        minSamples = parseLong(config, PROPERTY_MIN_SAMPLES, DEFAULT_MIN_SAMPLES, 1);
+        tokensPerRequest = Math.round(parseDouble(config, PROPERTY_MAX_HEDGE_PERCENT, DEFAULT_MAX_HEDGE_PERCENT, 0, 100) / 100.0 * TOKEN_SCALE);
+        maxHedgeRequestSize = parseLong(config, PROPERTY_MAX_HEDGE_REQUEST_SIZE, DEFAULT_MAX_HEDGE_REQUEST_SIZE, 0);
+        final int maxThreads = (int) parseLong(config, PROPERTY_MAX_THREADS, DEFAULT_MAX_THREADS, 2);
+
+        // The executor service is owned by the container so nothing to shut
+        // down here, only the number of concurrent attempts is limited
+        threads = new Semaphore(Math.max(2, maxThreads));
+    }
+
+    private long parseLong(final WorkerConfig config, final String property, final long defaultValue, final long minValue) {
+        final String value = config.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final long result = Long.parseLong(value.trim());
+            if (result < minValue) {
+                configErrors.add("Property " + property + " must be at least " + minValue);
+            }
+            return result;
+        } catch (NumberFormatException ex) {
+            configErrors.add("Illegal value for property " + property + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private double parseDouble(final WorkerConfig config, final String property, final double defaultValue, final double minValue, final double maxValue) {
+        final String value = config.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final double result = Double.parseDouble(value.trim());
+            if (result < minValue || result > maxValue) {
+                configErrors.add("Property " + property + " must be between " + minValue + " and " + maxValue);
+            }
+            return result;
+        } catch (NumberFormatException ex) {
+            configErrors.add("Illegal value for property " + property + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    protected DispatcherProcessSessionLocal getWorkerSession(final RequestContext requestContext) {
+        return requestContext.getServices().get(DispatcherProcessSessionLocal.class);
+    }
+
+    /**
+     * @return the container managed executor service to dispatch the
+     * attempts with or null if not available
+     */
+    protected ExecutorService getExecutorService() {
+        ExecutorService result = executorService;
+        if (result == null && !executorServiceUnavailable) {
+            try {
+                result = (ExecutorService) new InitialContext().lookup(EXECUTOR_SERVICE_NAME);
+                executorService = result;
+            } catch (NamingException | ClassCastException ex) {
+                LOG.warn("No managed executor service available, requests will not be hedged: " + ex.getMessage());
+                executorServiceUnavailable = true;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Response processData(final Request signRequest,
+            final RequestContext requestContext) throws IllegalRequestException,
+            CryptoTokenOfflineException, SignServerException {
+
+        if (!configErrors.isEmpty()) {
+            throw new SignServerException("Worker is misconfigured");
+        }
+        requests.incrementAndGet();
+        addHedgeTokens();
+
+        final ExecutorService executor;
+        if (idempotent && workers.size() > 1 && signRequest instanceof SignatureRequest
+                && ((SignatureRequest) signRequest).getRequestData().getLength() <= maxHedgeRequestSize
+                && (executor = getExecutorService()) != null) {
+            return processHedged((SignatureRequest) signRequest, requestContext, executor);
+        } else {
+            return processInOrder(signRequest, requestContext);
+        }
+    }
+
+    private RequestContext createNextContext(final RequestContext requestContext) {
+        final RequestContext nextContext = requestContext.copyWithNewLogMap();
+
+        // Mark request comming from a dispatcher so the DispatchedAuthorizer can be used
+        nextContext.put(RequestContext.DISPATCHER_AUTHORIZED_CLIENT, true);
+        return nextContext;
+    }
+
+    /**
+     * Dispatches the request to the first worker not having its crypto token
+     * offline.
+     */
+    private Response processInOrder(final Request signRequest,
+            final RequestContext requestContext) throws IllegalRequestException,
+            CryptoTokenOfflineException, SignServerException {
+        final RequestContext nextContext = createNextContext(requestContext);
+        for (String workerName : workers) {
+            try {
+                return dispatch(workerName, signRequest, nextContext, requestContext);
+            } catch (CryptoTokenOfflineException ex) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Skipping offline worker: " + workerName + " ("
+                            + ex.getMessage() + ")");
+                }
+            }
+        }
+        throw new CryptoTokenOfflineException("No active worker found");
+    }
+
+    private Response dispatch(final String workerName, final Request request,
+            final RequestContext nextContext, final RequestContext requestContext)
+            throws IllegalRequestException, CryptoTokenOfflineException,
+            SignServerException {
+        final long start = System.nanoTime();
+        try {
+            final Response response = getWorkerSession(requestContext).process(new AdminInfo("Client user", null, null),
+                    new WorkerIdentifier(workerName), request, nextContext);
+            histograms.get(workerName).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Dispatched to worker: " + workerName);
+            }
+            return response;
+        } catch (NoSuchWorkerException ex) {
+            throw new SignServerException("Worker is misconfigured", ex);
+        }
+    }
+
+    /**
+     * Dispatches the request to the primary worker and, if no response has
+     * been received within the hedge delay, to the next worker.
+     */
+    private Response processHedged(final SignatureRequest request,
+            final RequestContext requestContext, final ExecutorService executor) throws IllegalRequestException,
+            CryptoTokenOfflineException, SignServerException {
+        final byte[] requestBytes;
+        try {
+            requestBytes = request.getRequestData().getAsByteArray();
+        } catch (IOException ex) {
+            throw new SignServerException("Unable to read request data", ex);
+        }
+
+        final CompletionService<Attempt> completionService = new ExecutorCompletionService<>(executor);
+        final List<Attempt> attempts = new ArrayList<>(2);
+        int next = 0;
+        Attempt winner = null;
+        Exception lastError = null;
+        try {
+            // Send to the primary worker
+            Attempt primary = submit(completionService, workers.get(next++), request, requestBytes, requestContext);
+            if (primary == null) {
+                // No threads available, just dispatch in this thread instead
+                primaryRejected.incrementAndGet();
+                return processInOrder(request, requestContext);
+            }
+            attempts.add(primary);
+            int pending = 1;
+
+            final long hedgeDelay = getHedgeDelay();
+            Future<Attempt> completed = hedgeDelay < 0 ? completionService.take()
+                    : completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (completed == null) {
+                // No response in time: hedge if allowed
+                if (tryAcquireHedgeToken()) {
+                    final Attempt hedge = submit(completionService, workers.get(next++), request, requestBytes, requestContext);
+                    if (hedge != null) {
+                        attempts.add(hedge);
+                        pending++;
+                        hedgedRequests.incrementAndGet();
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Hedging request to worker " + hedge.workerName + " after " + hedgeDelay + " ms");
+                        }
+                    }
+                } else {
+                    hedgesDenied.incrementAndGet();
+                }
+                completed = completionService.take();
+            }
+
+            while (true) {
+                pending--;
+                final Attempt attempt = completed.get();
+                if (attempt.error == null) {
+                    winner = attempt;
+                    break;
+                }
+                lastError = attempt.error;
+                if (attempt.error instanceof IllegalRequestException) {
+                    // The request itself is wrong, no point in sending it elsewhere
+                    break;
+                }
+                if (!(attempt.error instanceof CryptoTokenOfflineException) && pending == 0) {
+                    break;
+                }
+                if (attempt.error instanceof CryptoTokenOfflineException && pending == 0) {
+                    // Fail over to the next worker, if any
+                    final Attempt failover = next < workers.size()
+                            ? submit(completionService, workers.get(next++), request, requestBytes, requestContext)
+                            : null;
+                    if (failover == null) {
+                        break;
+                    }
+                    attempts.add(failover);
+                    pending++;
+                }
+                completed = completionService.take();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SignServerException("Interrupted while waiting for dispatched request", ex);
+        } catch (ExecutionException ex) {
+            throw new SignServerException("Dispatched request failed", ex.getCause());
+        } finally {
+            // Discard all other attempts
+            for (Attempt attempt : attempts) {
+                if (attempt != winner) {
+                    attempt.abandon();
+                }
+            }
+        }
+
+        if (winner == null) {
+            if (lastError instanceof IllegalRequestException) {
+                throw (IllegalRequestException) lastError;
+            } else if (lastError instanceof SignServerException) {
+                throw (SignServerException) lastError;
+            } else if (lastError instanceof CryptoTokenOfflineException || lastError == null) {
+                throw new CryptoTokenOfflineException("No active worker found");
+            } else {
+                throw new SignServerException("Dispatched request failed", lastError);
+            }
+        }
+        if (winner != attempts.get(0)) {
+            hedgeWins.incrementAndGet();
+        }
+        return copyResponse(winner, request);
+    }
+
+    /**
+     * Copies the response data from the winning attempt to the response data
+     * of the original request and closes the attempt.
+     */
+    private Response copyResponse(final Attempt winner, final SignatureRequest request) throws SignServerException {
+        final Response response = winner.response;
+        if (!(response instanceof SignatureResponse)) {
+            return response;
+        }
+        final SignatureResponse signatureResponse = (SignatureResponse) response;
+        final WritableData responseData = request.getResponseData();
+        try (InputStream in = winner.responseData.toReadableData().getAsInputStream();
+                OutputStream out = responseData.getAsOutputStream()) {
+            IOUtils.copy(in, out);
+        } catch (IOException ex) {
+            throw new SignServerException("Unable to copy response data", ex);
+        }
+
+        // Let archived responses refer to the copy as the attempt's data is closed
+        Collection<? extends Archivable> archivables = signatureResponse.getArchivables();
+        if (archivables != null) {
+            final List<Archivable> copied = new ArrayList<>(archivables.size());
+            for (Archivable archivable : archivables) {
+                if (Archivable.TYPE_RESPONSE.equals(archivable.getType())) {
+                    copied.add(new DefaultArchivable(archivable.getType(), archivable.getContentType(),
+                            responseData.toReadableData(), archivable.getArchiveId()));
+                } else {
+                    copied.add(archivable);
+                }
+            }
+            archivables = copied;
+        }
+        winner.close();
+
+        return new SignatureResponse(signatureResponse.getRequestID(), responseData,
+                signatureResponse.getSignerCertificate(),
+                signatureResponse.getArchiveId(),
+                archivables,
+                signatureResponse.getContentType());
+    }
+
+    private Attempt submit(final CompletionService<Attempt> completionService,
+            final String workerName, final SignatureRequest request,
+            final byte[] requestBytes, final RequestContext requestContext) {
+        // Each attempt gets its own data and context as they are not thread-safe
+        final TemporarlyWritableData responseData = new TemporarlyWritableData(false, null);
+        final SignatureRequest attemptRequest = new SignatureRequest(request.getRequestID(),
+                new ByteArrayReadableData(requestBytes, null), responseData);
+        final Attempt attempt = new Attempt(workerName, attemptRequest, responseData,
+                createNextContext(requestContext), requestContext);
+        if (!attempt.permits.tryAcquire()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Too many concurrent attempts for dispatching to " + workerName);
+            }
+            attempt.close();
+            return null;
+        }
+        try {
+            completionService.submit(attempt);
+            return attempt;
+        } catch (RejectedExecutionException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("No thread available for dispatching to " + workerName);
+            }
+            attempt.permits.release();
+            attempt.close();
+            return null;
+        }
+    }
+
+    /**
+     * @return the hedge delay in milliseconds or -1 if the request should not
+     * be hedged
+     */
+    protected long getHedgeDelay() {
+        if (fixedHedgeDelay != null) {
+            return Math.max(fixedHedgeDelay, minHedgeDelay);
+        }
+        final long now = System.currentTimeMillis();
+        if (now - cachedHedgeDelayTime >= DELAY_REFRESH_INTERVAL_MILLIS) {
+            final LatencyHistogram histogram = histograms.get(workers.get(0));
+            if (histogram.getCount() < minSamples) {
+                cachedHedgeDelay = -1;
+            } else {
+                final long micros = histogram.getValueAtPercentile(hedgePercentile);
+                cachedHedgeDelay = Math.max(TimeUnit.MICROSECONDS.toMillis(micros), minHedgeDelay);
+            }
+            cachedHedgeDelayTime = now;
+        }
+        return cachedHedgeDelay;
+    }
+
+    private void addHedgeTokens() {
+        final long max = MAX_HEDGE_BURST * TOKEN_SCALE;
+        long current;
+        while ((current = hedgeTokens.get()) < max
+                && !hedgeTokens.compareAndSet(current, Math.min(max, current + tokensPerRequest))) {
+            // Retry
+        }
+    }
+
+    private boolean tryAcquireHedgeToken() {
+        long current;
+        do {
+            current = hedgeTokens.get();
+            if (current < TOKEN_SCALE) {
+                return false;
+            }
+        } while (!hedgeTokens.compareAndSet(current, current - TOKEN_SCALE));
+        return true;
+    }
+
+    @Override
+    public WorkerStatusInfo getStatus(final List<String> additionalFatalErrors, final IServices services) {
+        final WorkerStatusInfo status = super.getStatus(additionalFatalErrors, services);
+
+        final long hedgeDelay = getHedgeDelay();
+        if (!idempotent) {
+            status.getBriefEntries().add(new WorkerStatusInfo.Entry("Hedge delay", "Hedging disabled as workers are not declared idempotent"));
+        } else {
+            status.getBriefEntries().add(new WorkerStatusInfo.Entry("Hedge delay", hedgeDelay < 0 ? "Not enough samples" : hedgeDelay + " ms"));
+        }
+        status.getBriefEntries().add(new WorkerStatusInfo.Entry("Hedged requests", hedgedRequests.get() + " of " + requests.get()
+                + " (won: " + hedgeWins.get() + ", denied: " + hedgesDenied.get() + ")"));
+        status.getBriefEntries().add(new WorkerStatusInfo.Entry("Dispatched in order as no thread was available", String.valueOf(primaryRejected.get())));
+
+        final StringBuilder latencies = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            latencies.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        status.getCompleteEntries().add(new WorkerStatusInfo.Entry("Worker latencies (µs)", latencies.toString()));
+
+        return status;
+    }
+
+    @Override
+    protected List<String> getFatalErrors(final IServices services) {
+        final LinkedList<String> errors = new LinkedList<>(super.getFatalErrors(services));
+        errors.addAll(configErrors);
+        return errors;
+    }
+
+    /**
+     * @return the latency histogram for the given worker or null
+     */
+    protected LatencyHistogram getHistogram(final String workerName) {
+        return histograms.get(workerName);
+    }
+
+    /**
+     * One dispatch of the request to a worker.
+     */
+    private class Attempt implements Callable<Attempt> {
+        private final String workerName;
+        private final SignatureRequest request;
+        private final TemporarlyWritableData responseData;
+        private final RequestContext nextContext;
+        private final RequestContext requestContext;
+        private final Semaphore permits = threads;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+
+        private Response response;
+        private Exception error;
+
+        Attempt(final String workerName, final SignatureRequest request,
+                final TemporarlyWritableData responseData,
+                final RequestContext nextContext, final RequestContext requestContext) {
+            this.workerName = workerName;
+            this.request = request;
+            this.responseData = responseData;
+            this.nextContext = nextContext;
+            this.requestContext = requestContext;
+        }
+
+        @Override
+        public Attempt call() {
+            try {
+                response = dispatch(workerName, request, nextContext, requestContext);
+            } catch (IllegalRequestException | CryptoTokenOfflineException | SignServerException | RuntimeException ex) {
+                error = ex;
+            } finally {
+                permits.release();
+            }
+            if (!state.compareAndSet(RUNNING, DONE)) {
+                // Nobody is waiting for this one anymore
+                close();
+            }
+            return this;
+        }
+
+        /** Discards the attempt, cleaning up as soon as it has completed. */
+        void abandon() {
+            if (!state.compareAndSet(RUNNING, ABANDONED)) {
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                responseData.close();
+            } catch (IOException ex) {
+                LOG.warn("Unable to close response data: " + ex.getMessage());
+            }
+        }
+    }
+}
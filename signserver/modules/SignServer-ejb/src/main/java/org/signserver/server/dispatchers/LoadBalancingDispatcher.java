@@ -0,0 +1,322 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.dispatchers;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.persistence.EntityManager;
+import org.apache.log4j.Logger;
+import org.signserver.common.CryptoTokenOfflineException;
+import org.signserver.common.IllegalRequestException;
+import org.signserver.common.NoSuchWorkerException;
+import org.signserver.common.RequestContext;
+import org.signserver.common.SignServerException;
+import org.signserver.common.WorkerConfig;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.WorkerStatusInfo;
+import org.signserver.common.data.Request;
+import org.signserver.common.data.Response;
+import org.signserver.ejb.interfaces.DispatcherProcessSessionLocal;
+import org.signserver.server.IServices;
+import org.signserver.server.WorkerContext;
+import org.signserver.server.log.AdminInfo;
+
+/**
+ * Dispatching requests over a list of workers based on their current load
+ * and health.
+ *
+ * Each request is dispatched to the worker with the least number of
+ * outstanding requests or, with the POWER_OF_TWO_CHOICES strategy, to the
+ * least loaded of two randomly picked workers. A worker failing with
+ * CryptoTokenOfflineException or SignServerException a number of times in a
+ * row is taken out of rotation for a while and then let back in gradually.
+ * In case of CryptoTokenOfflineException the request is dispatched to the
+ * next worker.
+ *
+ * Properties:<br/>
+ * WORKERS = Comma separated list of worker names<br/>
+ * SELECTION = LEAST_OUTSTANDING (default) or POWER_OF_TWO_CHOICES<br/>
+ * FAILURE_THRESHOLD = Number of consecutive failures before a worker is
+ * taken out of rotation (default: 3)<br/>
+ * OPEN_DURATION = Milliseconds before a failed worker is probed again
+ * (default: 30000)<br/>
+ * SLOW_START_DURATION = Milliseconds over which a recovered worker is
+ * ramped up to full weight (default: 60000)
+ *
+ * @version $Id$
+ */
+public class LoadBalancingDispatcher extends BaseDispatcher {
+
+    /** Log4j instance for this class. */
+    private static final Logger LOG = Logger.getLogger(
+            LoadBalancingDispatcher.class);
+
+    /** Worker selection strategies. */
+    public enum Selection {
+        LEAST_OUTSTANDING,
+        POWER_OF_TWO_CHOICES
+    }
+
+    // Property constants
+    public static final String PROPERTY_WORKERS = "WORKERS";
+    public static final String PROPERTY_SELECTION = "SELECTION";
+    public static final String PROPERTY_FAILURE_THRESHOLD = "FAILURE_THRESHOLD";
+    public static final String PROPERTY_OPEN_DURATION = "OPEN_DURATION";
+    public static final String PROPERTY_SLOW_START_DURATION = "SLOW_START_DURATION";
+
+    // Default values
+    private static final Selection DEFAULT_SELECTION = Selection.LEAST_OUTSTANDING;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    private static final long DEFAULT_OPEN_DURATION = 30000L;
+    private static final long DEFAULT_SLOW_START_DURATION = 60000L;
+
+    /** Targets to dispatch to. */
+    private List<DispatchTarget> targets;
+
+    private Selection selection;
+
+    /** Configuration errors. */
+    private LinkedList<String> configErrors;
+
+    private String name;
+
+    @Override
+    public void init(final int workerId, final WorkerConfig config,
+            final WorkerContext workerContext, final EntityManager workerEM) {
+        super.init(workerId, config, workerContext, workerEM);
+        configErrors = new LinkedList<>();
+
+        name = config.getProperty("NAME");
+
+        selection = DEFAULT_SELECTION;
+        final String selectionValue = config.getProperty(PROPERTY_SELECTION);
+        if (selectionValue != null) {
+            try {
+                selection = Selection.valueOf(selectionValue.trim().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException ex) {
+                configErrors.add("Illegal value for property " + PROPERTY_SELECTION + ": " + selectionValue);
+            }
+        }
+
+        final int failureThreshold = (int) parseLong(config, PROPERTY_FAILURE_THRESHOLD, DEFAULT_FAILURE_THRESHOLD, 1);
+        final long openDuration = parseLong(config, PROPERTY_OPEN_DURATION, DEFAULT_OPEN_DURATION, 0);
+        final long slowStartDuration = parseLong(config, PROPERTY_SLOW_START_DURATION, DEFAULT_SLOW_START_DURATION, 0);
+
+        targets = new ArrayList<>();
+        final String workersValue = config.getProperty(PROPERTY_WORKERS);
+        if (workersValue == null) {
+            configErrors.add("Property " + PROPERTY_WORKERS + " missing!");
+        } else {
+            for (String workerName : workersValue.split(",")) {
+                workerName = workerName.trim();
+                if (workerName.isEmpty()) {
+                    continue;
+                }
+                if (workerName.equals(name)) {
+                    LOG.warn("Ignoring dispatching to it self (worker "
+                            + name + ")");
+                } else {
+                    targets.add(new DispatchTarget(workerName, failureThreshold, openDuration, slowStartDuration));
+                }
+            }
+            if (targets.isEmpty()) {
+                configErrors.add("No workers to dispatch to in property " + PROPERTY_WORKERS);
+            }
+        }
+    }
+
+    private long parseLong(final WorkerConfig config, final String property, final long defaultValue, final long minValue) {
+        final String value = config.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final long result = Long.parseLong(value.trim());
+            if (result < minValue) {
+                configErrors.add("Property " + property + " must be at least " + minValue);
+            }
+            return result;
+        } catch (NumberFormatException ex) {
+            configErrors.add("Illegal value for property " + property + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    protected DispatcherProcessSessionLocal getWorkerSession(final RequestContext requestContext) {
+        return requestContext.getServices().get(DispatcherProcessSessionLocal.class);
+    }
+
+    /**
+     * @return current time in milliseconds, can be overridden by tests
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public Response processData(final Request signRequest,
+            final RequestContext requestContext) throws IllegalRequestException,
+            CryptoTokenOfflineException, SignServerException {
+
+        if (!configErrors.isEmpty()) {
+            throw new SignServerException("Worker is misconfigured");
+        }
+
+        final RequestContext nextContext = requestContext.copyWithNewLogMap();
+
+        // Mark request comming from a dispatcher so the DispatchedAuthorizer can be used
+        nextContext.put(RequestContext.DISPATCHER_AUTHORIZED_CLIENT, true);
+
+        final List<DispatchTarget> candidates = new ArrayList<>(targets);
+        DispatchTarget.Permit permit;
+        while ((permit = acquireTarget(candidates)) != null) {
+            final DispatchTarget target = permit.getTarget();
+            candidates.remove(target);
+            try {
+                final Response response = getWorkerSession(requestContext).process(new AdminInfo("Client user", null, null),
+                        new WorkerIdentifier(target.getName()), signRequest,
+                        nextContext);
+                if (target.recordSuccess(permit, currentTimeMillis())) {
+                    LOG.info("Worker " + target.getName() + " back in rotation");
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Dispatched to worker: " + target);
+                }
+                return response;
+            } catch (CryptoTokenOfflineException ex) {
+                recordFailure(permit);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Skipping offline worker: " + target.getName() + " ("
+                            + ex.getMessage() + ")");
+                }
+            } catch (NoSuchWorkerException ex) {
+                recordFailure(permit);
+                throw new SignServerException("Worker is misconfigured", ex);
+            } catch (IllegalRequestException ex) {
+                target.release(permit);
+                throw ex;
+            } catch (SignServerException | RuntimeException ex) {
+                recordFailure(permit);
+                throw ex;
+            }
+        }
+        throw new CryptoTokenOfflineException("No active worker found");
+    }
+
+    private void recordFailure(final DispatchTarget.Permit permit) {
+        final DispatchTarget target = permit.getTarget();
+        if (target.recordFailure(permit, currentTimeMillis())) {
+            LOG.warn("Worker " + target.getName() + " taken out of rotation after failures");
+        }
+    }
+
+    /**
+     * Selects and reserves a target among the candidates.
+     *
+     * @param candidates targets not yet tried for this request
+     * @return the permit for the reserved target or null if none is available
+     */
+    private DispatchTarget.Permit acquireTarget(final List<DispatchTarget> candidates) {
+        final long now = currentTimeMillis();
+        final List<DispatchTarget> selectable = new ArrayList<>(candidates.size());
+        for (DispatchTarget target : candidates) {
+            if (target.isSelectable(now)) {
+                if (target.getState() == DispatchTarget.State.CLOSED) {
+                    selectable.add(target);
+                } else {
+                    // Let a probe through as soon as possible
+                    final DispatchTarget.Permit permit = target.tryAcquire(now);
+                    if (permit != null) {
+                        return permit;
+                    }
+                }
+            }
+        }
+        while (!selectable.isEmpty()) {
+            final DispatchTarget target = select(selectable, now);
+            final DispatchTarget.Permit permit = target.tryAcquire(now);
+            if (permit != null) {
+                return permit;
+            }
+            // Opened since it was checked
+            selectable.remove(target);
+        }
+        return null;
+    }
+
+    private DispatchTarget select(final List<DispatchTarget> selectable, final long now) {
+        final int size = selectable.size();
+        if (size == 1) {
+            return selectable.get(0);
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final DispatchTarget result;
+        if (selection == Selection.POWER_OF_TWO_CHOICES) {
+            final int first = random.nextInt(size);
+            final int second = (first + 1 + random.nextInt(size - 1)) % size;
+            final DispatchTarget a = selectable.get(first);
+            final DispatchTarget b = selectable.get(second);
+            result = b.getEffectiveLoad(now) < a.getEffectiveLoad(now) ? b : a;
+        } else {
+            // Start at a random offset so that ties are spread out
+            final int offset = random.nextInt(size);
+            DispatchTarget best = null;
+            double bestLoad = Double.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                final DispatchTarget candidate = selectable.get((offset + i) % size);
+                final double load = candidate.getEffectiveLoad(now);
+                if (load < bestLoad) {
+                    best = candidate;
+                    bestLoad = load;
+                }
+            }
+            result = best;
+        }
+        return result;
+    }
+
+    /**
+     * @return the targets this dispatcher dispatches to
+     */
+    protected List<DispatchTarget> getTargets() {
+        return targets;
+    }
+
+    @Override
+    public WorkerStatusInfo getStatus(final List<String> additionalFatalErrors, final IServices services) {
+        final WorkerStatusInfo status = super.getStatus(additionalFatalErrors, services);
+
+        int available = 0;
+        final StringBuilder targetsValue = new StringBuilder();
+        for (DispatchTarget target : targets) {
+            if (target.getState() == DispatchTarget.State.CLOSED) {
+                available++;
+            }
+            targetsValue.append(target).append("\n");
+        }
+        status.getBriefEntries().add(new WorkerStatusInfo.Entry("Available workers", available + " of " + targets.size()));
+        status.getCompleteEntries().add(new WorkerStatusInfo.Entry("Dispatch targets", targetsValue.toString()));
+
+        return status;
+    }
+
+    @Override
+    protected List<String> getFatalErrors(final IServices services) {
+        final LinkedList<String> errors = new LinkedList<>(super.getFatalErrors(services));
+        errors.addAll(configErrors);
+        return errors;
+    }
+}
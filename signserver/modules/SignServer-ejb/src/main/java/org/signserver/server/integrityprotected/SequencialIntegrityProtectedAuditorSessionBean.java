@@ -0,0 +1,92 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.integrityprotected;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.apache.log4j.Logger;
+import org.cesecore.audit.impl.integrityprotected.AuditRecordData;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.dbprotection.DatabaseProtectionException;
+import org.cesecore.util.QueryResultWrapper;
+
+/**
+ * Read only access to the audit log rows for the ParallelAuditLogVerifier.
+ *
+ * Runs without a transaction so that the rows loaded are detached directly
+ * and not kept in a persistence context between the calls. The integrity
+ * protection of each row is verified by AuditRecordData when it is loaded.
+ *
+ * @version $Id$
+ */
+@Stateless
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class SequencialIntegrityProtectedAuditorSessionBean implements SequencialIntegrityProtectedAuditorSessionLocal {
+
+    private static final Logger log = Logger.getLogger(SequencialIntegrityProtectedAuditorSessionBean.class);
+
+    @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
+    private EntityManager entityManager;
+
+    @Override
+    public List<String> getNodeIds() {
+        return entityManager.createQuery("SELECT DISTINCT a.nodeId FROM AuditRecordData a", String.class).getResultList();
+    }
+
+    @Override
+    public Long getMaxSequenceNumber(final String nodeId, final long maxTimeStamp) {
+        final Query query = entityManager.createQuery("SELECT MAX(a.sequenceNumber) FROM AuditRecordData a WHERE a.nodeId=:nodeId AND a.timeStamp<=:timeStamp");
+        query.setParameter("nodeId", nodeId);
+        query.setParameter("timeStamp", maxTimeStamp);
+        return QueryResultWrapper.getSingleResult(query);
+    }
+
+    @Override
+    public List<Long> verifyRange(final String nodeId, final long afterSequenceNumber, final long lastSequenceNumber, final long maxTimeStamp, final int max)
+            throws AuditRecordVerificationException {
+        final TypedQuery<AuditRecordData> query = entityManager.createQuery("SELECT a FROM AuditRecordData a WHERE a.nodeId=:nodeId"
+                + " AND a.sequenceNumber>:after AND a.sequenceNumber<=:last AND a.timeStamp<=:timeStamp ORDER BY a.sequenceNumber ASC",
+                AuditRecordData.class);
+        query.setParameter("nodeId", nodeId);
+        query.setParameter("after", afterSequenceNumber);
+        query.setParameter("last", lastSequenceNumber);
+        query.setParameter("timeStamp", maxTimeStamp);
+        query.setMaxResults(max);
+        try {
+            final List<AuditRecordData> rows = query.getResultList();
+            final List<Long> result = new ArrayList<>(rows.size());
+            for (AuditRecordData row : rows) {
+                result.add(row.getSequenceNumber());
+            }
+            return result;
+        } catch (DatabaseProtectionException e) {
+            if (!(e.getEntity() instanceof AuditRecordData)) {
+                throw e;
+            }
+            final long sequenceNumber = ((AuditRecordData) e.getEntity()).getSequenceNumber();
+            if (log.isDebugEnabled()) {
+                log.debug("Verification failed for log with sequence number " + sequenceNumber + " on nodeId " + nodeId + ": " + e.getMessage());
+            }
+            throw new AuditRecordVerificationException(sequenceNumber, e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.ejb.worker.impl;
+
+import java.util.Arrays;
+import org.apache.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.ejb.worker.impl.ProcessingStageMetrics.Stage;
+
+/**
+ * Unit tests for the ProcessingStageMetrics class.
+ *
+ * @version $Id$
+ */
+public class ProcessingStageMetricsUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ProcessingStageMetricsUnitTest.class);
+
+    /**
+     * Tests recording, the Prometheus output and resetting by worker name and
+     * for all workers.
+     */
+    @Test
+    public void testRecordExportAndReset() {
+        LOG.info("testRecordExportAndReset");
+        final ProcessingStageMetrics instance = new ProcessingStageMetrics();
+
+        final ProcessingStageMetrics.WorkerStages worker1 = instance.getWorker(1, "Worker1");
+        for (int i = 1; i <= 100; i++) {
+            worker1.record(Stage.PROCESS_DATA, i * 1000000L); // i ms
+        }
+        worker1.record(Stage.LOGGING, 2000);
+        instance.getWorker(2, "Worker2").record(Stage.LOOKUP, 5000);
+        assertSame("same instance", worker1, instance.getWorker(1, "Worker1"));
+
+        // Values are in microseconds
+        assertEquals("count", 100, worker1.getHistogram(Stage.PROCESS_DATA).getCount());
+        assertEquals("max", 100000, worker1.getHistogram(Stage.PROCESS_DATA).getMax());
+        assertEquals("logging", 2, worker1.getHistogram(Stage.LOGGING).getMax());
+
+        final String text = instance.toPrometheusText();
+        assertTrue(text, text.contains("# TYPE signserver_processing_stage_seconds summary\n"));
+        assertTrue(text, text.contains("signserver_processing_stage_seconds_count{worker=\"Worker1\",worker_id=\"1\",stage=\"process_data\"} 100\n"));
+        assertTrue(text, text.contains("signserver_processing_stage_seconds_sum{worker=\"Worker1\",worker_id=\"1\",stage=\"process_data\"} 5.05\n"));
+        assertTrue(text, text.contains("signserver_processing_stage_seconds{worker=\"Worker1\",worker_id=\"1\",stage=\"process_data\",quantile=\"0.5\"} 0.05"));
+        assertTrue(text, text.contains("stage=\"lookup\",quantile=\"0.99\"} 5.0E-6\n"));
+        assertFalse("no empty stages: " + text, text.contains("stage=\"archiving\""));
+
+        // Reset one worker by name
+        instance.reset(new WorkerIdentifier("WORKER1"));
+        assertEquals("reset", 0, worker1.getHistogram(Stage.PROCESS_DATA).getCount());
+        assertEquals("other worker", 1, instance.getWorker(2, "Worker2").getHistogram(Stage.LOOKUP).getCount());
+
+        // Reset all
+        instance.reset(null);
+        assertEquals("reset all", 0, instance.getWorker(2, "Worker2").getHistogram(Stage.LOOKUP).getCount());
+
+        // Renamed and removed workers
+        instance.getWorker(2, "Renamed");
+        instance.retainAll(Arrays.asList(2));
+        assertEquals("workers", 1, instance.getWorkers().size());
+        assertEquals("renamed", "Renamed", instance.getWorkers().get(0).getWorkerName());
+    }
+}
@@ -0,0 +1,160 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.ejb.worker.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.signserver.common.InvalidWorkerIdException;
+import org.signserver.common.StaticWorkerStatus;
+import org.signserver.common.WorkerConfig;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.WorkerStatus;
+import org.signserver.common.WorkerStatusInfo;
+
+/**
+ * Unit tests for the WorkerStatusSnapshot class.
+ *
+ * @version $Id$
+ */
+public class WorkerStatusSnapshotUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(WorkerStatusSnapshotUnitTest.class);
+
+    /**
+     * Tests that statuses are read from the snapshot after a refresh and
+     * fetched when forced, too old or invalidated.
+     *
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSnapshotReads() throws Exception {
+        LOG.info("testSnapshotReads");
+        final MockedFetcher fetcher = new MockedFetcher(3, 0);
+        final long[] now = {1000};
+        final WorkerStatusSnapshot instance = new WorkerStatusSnapshot(fetcher) {
+            @Override
+            protected long currentTimeMillis() {
+                return now[0];
+            }
+        };
+        assertEquals("no snapshot", -1, instance.getSnapshotAge());
+
+        instance.refresh(null, 2);
+        assertEquals("fetched all", 3, fetcher.calls.get());
+        now[0] += 500;
+        assertEquals("age", 500, instance.getSnapshotAge());
+
+        // From snapshot, by ID and by name
+        assertEquals("worker 2", 2, instance.getStatus(new WorkerIdentifier(2), false, 1000).getWorkerId());
+        assertEquals("worker 3", 3, instance.getStatus(new WorkerIdentifier("worker3"), false, 1000).getWorkerId());
+        assertEquals("no new calls", 3, fetcher.calls.get());
+
+        // Forced, too old and disabled
+        instance.getStatus(new WorkerIdentifier(1), true, 1000);
+        assertEquals("forced", 4, fetcher.calls.get());
+        instance.getStatus(new WorkerIdentifier(2), false, 100);
+        assertEquals("too old", 5, fetcher.calls.get());
+        instance.getStatus(new WorkerIdentifier(2), false, 0);
+        assertEquals("no snapshot used", 6, fetcher.calls.get());
+
+        // Invalidated
+        instance.invalidate(new WorkerIdentifier("WORKER3"));
+        instance.getStatus(new WorkerIdentifier(3), false, 1000);
+        assertEquals("invalidated", 7, fetcher.calls.get());
+
+        // Removed worker
+        fetcher.workers.remove(Integer.valueOf(3));
+        instance.refresh(null, 2);
+        try {
+            instance.getStatus(new WorkerIdentifier(3), false, 1000);
+            fail("Should have thrown InvalidWorkerIdException");
+        } catch (InvalidWorkerIdException expected) { // NOPMD
+            // OK
+        }
+    }
+
+    /**
+     * Tests that a refresh does not use more threads than allowed, even if
+     * the executor has more.
+     */
+    @Test
+    public void testBoundedParallelism() {
+        LOG.info("testBoundedParallelism");
+        final MockedFetcher fetcher = new MockedFetcher(20, 20);
+        final WorkerStatusSnapshot instance = new WorkerStatusSnapshot(fetcher);
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            instance.refresh(executor, 3);
+            assertEquals("fetched all", 20, fetcher.calls.get());
+            assertTrue("max concurrent: " + fetcher.maxConcurrent.get(), fetcher.maxConcurrent.get() <= 3);
+            assertTrue("concurrent: " + fetcher.maxConcurrent.get(), fetcher.maxConcurrent.get() > 1);
+            assertTrue("duration", instance.getLastRefreshDuration() >= 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** Fetcher returning statuses for worker 1..n. */
+    private static class MockedFetcher implements WorkerStatusSnapshot.StatusFetcher {
+        private final List<Integer> workers = Collections.synchronizedList(new ArrayList<Integer>());
+        private final Map<Integer, Boolean> running = new ConcurrentHashMap<>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final long delay;
+
+        MockedFetcher(final int count, final long delay) {
+            for (int i = 1; i <= count; i++) {
+                workers.add(i);
+            }
+            this.delay = delay;
+        }
+
+        @Override
+        public List<Integer> getAllWorkers() {
+            return new ArrayList<>(workers);
+        }
+
+        @Override
+        public WorkerStatus getStatus(final WorkerIdentifier wi) throws InvalidWorkerIdException {
+            calls.incrementAndGet();
+            final int id = wi.getId();
+            if (!workers.contains(id)) {
+                throw new InvalidWorkerIdException("No such worker: " + id);
+            }
+            running.put(id, true);
+            maxConcurrent.accumulateAndGet(running.size(), Math::max);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.remove(id);
+            }
+            final WorkerConfig config = new WorkerConfig();
+            config.setProperty("NAME", "Worker" + id);
+            return new StaticWorkerStatus(new WorkerStatusInfo(id, "Worker" + id, "Worker", WorkerStatus.STATUS_ACTIVE,
+                    Collections.<WorkerStatusInfo.Entry>emptyList(), Collections.<String>emptyList(),
+                    Collections.<WorkerStatusInfo.Entry>emptyList(), config));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.ejb.worker.impl;
+
+import java.util.Collections;
+import java.util.List;
+import javax.persistence.EntityManager;
+import org.apache.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.signserver.common.WorkerConfig;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.common.WorkerStatusInfo;
+import org.signserver.common.WorkerType;
+import org.signserver.server.IServices;
+import org.signserver.server.IWorker;
+import org.signserver.server.WorkerContext;
+
+/**
+ * Unit tests for the WorkerStore class.
+ *
+ * @version $Id$
+ */
+public class WorkerStoreUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(WorkerStoreUnitTest.class);
+
+    private static final List<byte[]> CHAIN = Collections.singletonList(new byte[] {1, 2, 3});
+
+    /**
+     * Tests that the cached signer certificate chain is dropped when the
+     * worker is replaced, cleared or when the chain is explicitly cleared.
+     */
+    @Test
+    public void testSignerCertificateChainInvalidation() {
+        LOG.info("testSignerCertificateChainInvalidation");
+        final WorkerStore instance = new WorkerStore();
+
+        // Not cached for workers that are not loaded
+        instance.putSignerCertificateChain(1, CHAIN);
+        assertFalse("not loaded", instance.hasSignerCertificateChain(1));
+
+        instance.putWorkerOnly(1, new MockedWorker("Worker1"));
+        instance.putSignerCertificateChain(1, CHAIN);
+        assertSame("cached", CHAIN, instance.getSignerCertificateChain(1));
+
+        // Explicit clear by name
+        instance.clearSignerCertificateChain(new WorkerIdentifier("worker1"));
+        assertFalse("cleared by name", instance.hasSignerCertificateChain(1));
+
+        // No chain configured is also cached
+        instance.putSignerCertificateChain(1, null);
+        assertTrue("null cached", instance.hasSignerCertificateChain(1));
+        assertNull("null chain", instance.getSignerCertificateChain(1));
+
+        // Reloaded worker
+        instance.putSignerCertificateChain(1, CHAIN);
+        instance.putWorkerOnly(1, new MockedWorker("Worker1"));
+        assertFalse("new instance", instance.hasSignerCertificateChain(1));
+
+        // Same instance loaded with components keeps the chain
+        final MockedWorker worker = new MockedWorker("Worker1");
+        instance.putWorkerOnly(1, worker);
+        instance.putSignerCertificateChain(1, CHAIN);
+        instance.putWorkerWithComponents(1, new WorkerWithComponents(1, worker, Collections.<String>emptyList(), null, null, null, null, null));
+        assertSame("same instance", CHAIN, instance.getSignerCertificateChain(1));
+
+        instance.clear(new WorkerIdentifier(1));
+        assertFalse("worker cleared", instance.hasSignerCertificateChain(1));
+
+        instance.putWorkerOnly(1, worker);
+        instance.putSignerCertificateChain(1, CHAIN);
+        instance.clearAll();
+        assertFalse("all cleared", instance.hasSignerCertificateChain(1));
+    }
+
+    /** Minimal worker only having a configuration. */
+    private static class MockedWorker implements IWorker {
+        private final WorkerConfig config = new WorkerConfig();
+
+        MockedWorker(final String name) {
+            config.setProperty("NAME", name);
+        }
+
+        @Override
+        public WorkerType getWorkerType() {
+            return WorkerType.PROCESSABLE;
+        }
+
+        @Override
+        public void init(int workerId, WorkerConfig config, WorkerContext workerContext, EntityManager workerEntityManager) {
+        }
+
+        @Override
+        public WorkerConfig getConfig() {
+            return config;
+        }
+
+        @Override
+        public WorkerStatusInfo getStatus(List<String> additionalFatalErrors, IServices services) {
+            throw new UnsupportedOperationException("Not supported");
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.dispatchers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.signserver.common.CryptoTokenOfflineException;
+import org.signserver.common.RequestContext;
+import org.signserver.common.WorkerConfig;
+import org.signserver.common.WorkerStatusInfo;
+import org.signserver.common.WorkerType;
+import org.signserver.common.data.SignatureRequest;
+import org.signserver.common.data.SignatureResponse;
+import org.signserver.ejb.interfaces.DispatcherProcessSessionLocal;
+import org.signserver.server.SignServerContext;
+import org.signserver.server.data.impl.ByteArrayReadableData;
+import org.signserver.server.data.impl.TemporarlyWritableData;
+
+/**
+ * Unit tests for the HedgingDispatcher class.
+ *
+ * @version $Id$
+ */
+public class HedgingDispatcherUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(HedgingDispatcherUnitTest.class);
+
+    /** Executor service standing in for the container's. */
+    private static final ExecutorService EXECUTOR_SERVICE = Executors.newCachedThreadPool();
+
+    /**
+     * Tests that a slow primary worker is hedged and that the response from
+     * the secondary worker is returned.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testHedgeWins() throws Exception {
+        LOG.info("testHedgeWins");
+
+        final Map<String, Long> delays = new ConcurrentHashMap<>();
+        delays.put("worker1", 2000L);
+        delays.put("worker2", 0L);
+        final HedgingDispatcher instance = new MockedHedgingDispatcher(createSession(delays, Collections.emptyList()));
+        final WorkerConfig config = createConfig("worker1, worker2");
+        config.setProperty("HEDGE_DELAY", "20");
+        instance.init(1, config, new SignServerContext(null, null), null);
+
+        final long start = System.currentTimeMillis();
+        try (TemporarlyWritableData responseData = new TemporarlyWritableData(false, null)) {
+            final SignatureResponse response = (SignatureResponse) instance.processData(createRequest(responseData), new RequestContext());
+            assertTrue("faster than primary", System.currentTimeMillis() - start < 2000);
+            assertSame("response data", responseData, response.getResponseData());
+            assertEquals("response", "signed by worker2", new String(responseData.toReadableData().getAsByteArray(), StandardCharsets.UTF_8));
+        }
+        final String status = instance.getStatus(Collections.emptyList(), null).getBriefEntries().toString();
+        assertTrue("status: " + status, status.contains("1 of 1 (won: 1, denied: 0)"));
+    }
+
+    /**
+     * Tests that a fast primary is not hedged and that no hedging is done
+     * before enough samples have been collected.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testNoHedgeForFastPrimary() throws Exception {
+        LOG.info("testNoHedgeForFastPrimary");
+
+        final Map<String, Long> delays = new ConcurrentHashMap<>();
+        delays.put("worker1", 0L);
+        delays.put("worker2", 0L);
+        final HedgingDispatcher instance = new MockedHedgingDispatcher(createSession(delays, Collections.emptyList()));
+        final WorkerConfig config = createConfig("worker1, worker2");
+        config.setProperty("MIN_SAMPLES", "10");
+        config.setProperty("MIN_HEDGE_DELAY", "1000");
+        instance.init(1, config, new SignServerContext(null, null), null);
+        assertEquals("not enough samples", -1, instance.getHedgeDelay());
+
+        for (int i = 0; i < 20; i++) {
+            try (TemporarlyWritableData responseData = new TemporarlyWritableData(false, null)) {
+                instance.processData(createRequest(responseData), new RequestContext());
+                assertEquals("response", "signed by worker1", new String(responseData.toReadableData().getAsByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals("samples", 20, instance.getHistogram("worker1").getCount());
+        assertEquals("samples", 0, instance.getHistogram("worker2").getCount());
+    }
+
+    /**
+     * Tests that the number of hedged requests is capped.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testHedgeCap() throws Exception {
+        LOG.info("testHedgeCap");
+
+        final Map<String, Long> delays = new ConcurrentHashMap<>();
+        delays.put("worker1", 100L);
+        delays.put("worker2", 0L);
+        final HedgingDispatcher instance = new MockedHedgingDispatcher(createSession(delays, Collections.emptyList()));
+        final WorkerConfig config = createConfig("worker1, worker2");
+        config.setProperty("HEDGE_DELAY", "1");
+        config.setProperty("MIN_HEDGE_DELAY", "1");
+        config.setProperty("MAX_HEDGE_PERCENT", "0");
+        instance.init(1, config, new SignServerContext(null, null), null);
+
+        for (int i = 0; i < 12; i++) {
+            try (TemporarlyWritableData responseData = new TemporarlyWritableData(false, null)) {
+                instance.processData(createRequest(responseData), new RequestContext());
+            }
+        }
+        final WorkerStatusInfo status = instance.getStatus(Collections.emptyList(), null);
+        assertTrue("status: " + status.getBriefEntries(), status.getBriefEntries().toString().contains("10 of 12"));
+    }
+
+    /**
+     * Tests that a request not getting a thread for the primary attempt is
+     * dispatched in order and not counted as a denied hedge.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testPrimaryRejected() throws Exception {
+        LOG.info("testPrimaryRejected");
+
+        final Map<String, Long> delays = new ConcurrentHashMap<>();
+        delays.put("worker1", 500L);
+        delays.put("worker2", 0L);
+        final HedgingDispatcher instance = new MockedHedgingDispatcher(createSession(delays, Collections.emptyList()));
+        final WorkerConfig config = createConfig("worker1, worker2");
+        config.setProperty("HEDGE_DELAY", "10000");
+        config.setProperty("MAX_THREADS", "2");
+        instance.init(1, config, new SignServerContext(null, null), null);
+
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(EXECUTOR_SERVICE.submit(() -> {
+                try (TemporarlyWritableData responseData = new TemporarlyWritableData(false, null)) {
+                    instance.processData(createRequest(responseData), new RequestContext());
+                }
+                return null;
+            }));
+            Thread.sleep(100);
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        final String status = instance.getStatus(Collections.emptyList(), null).getBriefEntries().toString();
+        assertTrue("status: " + status, status.contains("0 of 3 (won: 0, denied: 0)"));
+        assertTrue("status: " + status, status.contains("title=Dispatched in order as no thread was available, value=1"));
+    }
+
+    /**
+     * Tests that an offline primary fails over to the next worker.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testFailover() throws Exception {
+        LOG.info("testFailover");
+
+        final Map<String, Long> delays = new ConcurrentHashMap<>();
+        delays.put("worker1", 0L);
+        delays.put("worker2", 0L);
+        final HedgingDispatcher instance = new MockedHedgingDispatcher(createSession(delays, Collections.singletonList("worker1")));
+        instance.init(1, createConfig("worker1, worker2"), new SignServerContext(null, null), null);
+
+        try (TemporarlyWritableData responseData = new TemporarlyWritableData(false, null)) {
+            instance.processData(createRequest(responseData), new RequestContext());
+            assertEquals("response", "signed by worker2", new String(responseData.toReadableData().getAsByteArray(), StandardCharsets.UTF_8));
+        }
+
+        final HedgingDispatcher allOffline = new MockedHedgingDispatcher(createSession(delays, Arrays.asList("worker1", "worker2")));
+        allOffline.init(1, createConfig("worker1, worker2"), new SignServerContext(null, null), null);
+        try (TemporarlyWritableData responseData = new TemporarlyWritableData(false, null)) {
+            allOffline.processData(createRequest(responseData), new RequestContext());
+            fail("Should have thrown CryptoTokenOfflineException");
+        } catch (CryptoTokenOfflineException expected) { // NOPMD
+            // OK
+        }
+    }
+
+    /**
+     * Tests that requests are not hedged unless the workers are declared
+     * idempotent.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testNoHedgeUnlessIdempotent() throws Exception {
+        LOG.info("testNoHedgeUnlessIdempotent");
+
+        final Map<String, Long> delays = new ConcurrentHashMap<>();
+        delays.put("worker1", 200L);
+        delays.put("worker2", 0L);
+        final HedgingDispatcher instance = new MockedHedgingDispatcher(createSession(delays, Collections.emptyList()));
+        final WorkerConfig config = createConfig("worker1, worker2");
+        config.removeProperty("IDEMPOTENT");
+        config.setProperty("HEDGE_DELAY", "1");
+        config.setProperty("MIN_HEDGE_DELAY", "1");
+        instance.init(1, config, new SignServerContext(null, null), null);
+
+        try (TemporarlyWritableData responseData = new TemporarlyWritableData(false, null)) {
+            instance.processData(createRequest(responseData), new RequestContext());
+            assertEquals("response", "signed by worker1", new String(responseData.toReadableData().getAsByteArray(), StandardCharsets.UTF_8));
+        }
+        final String status = instance.getStatus(Collections.emptyList(), null).getBriefEntries().toString();
+        assertTrue("status: " + status, status.contains("0 of 1"));
+        assertTrue("status: " + status, status.contains("not declared idempotent"));
+    }
+
+    /**
+     * Tests that a missing WORKERS property gives an error.
+     */
+    @Test
+    public void testMissingProperty() {
+        LOG.info("testMissingProperty");
+        final HedgingDispatcher instance = new MockedHedgingDispatcher(null);
+        instance.init(1, createConfig(null), new SignServerContext(null, null), null);
+        assertTrue("errs: " + instance.getFatalErrors(null), instance.getFatalErrors(null).toString().contains("WORKERS"));
+    }
+
+    private static SignatureRequest createRequest(final TemporarlyWritableData responseData) {
+        return new SignatureRequest(100, new ByteArrayReadableData("data".getBytes(StandardCharsets.UTF_8), null), responseData);
+    }
+
+    private static DispatcherProcessSessionLocal createSession(final Map<String, Long> delays, final List<String> offline) {
+        return (info, wi, request, context) -> {
+            assertEquals("dispatcher authorized", true, context.get(RequestContext.DISPATCHER_AUTHORIZED_CLIENT));
+            if (offline.contains(wi.getName())) {
+                throw new CryptoTokenOfflineException("Offline");
+            }
+            try {
+                Thread.sleep(delays.get(wi.getName()));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            final SignatureRequest signatureRequest = (SignatureRequest) request;
+            try (OutputStream out = signatureRequest.getResponseData().getAsOutputStream()) {
+                out.write(("signed by " + wi.getName()).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return new SignatureResponse(signatureRequest.getRequestID(), signatureRequest.getResponseData(), null, null, null, "text/plain");
+        };
+    }
+
+    private static WorkerConfig createConfig(final String workers) {
+        final WorkerConfig config = new WorkerConfig();
+        config.setProperty(WorkerConfig.TYPE, WorkerType.PROCESSABLE.name());
+        config.setProperty("NAME", "Dispatcher1");
+        config.setProperty("IDEMPOTENT", "TRUE");
+        if (workers != null) {
+            config.setProperty("WORKERS", workers);
+        }
+        return config;
+    }
+
+    /** Mocked HedgingDispatcher not doing any JNDI lookups. */
+    private static class MockedHedgingDispatcher extends HedgingDispatcher {
+        private final DispatcherProcessSessionLocal session;
+
+        MockedHedgingDispatcher(final DispatcherProcessSessionLocal session) {
+            this.session = session;
+        }
+
+        @Override
+        protected DispatcherProcessSessionLocal getWorkerSession(RequestContext context) {
+            return session;
+        }
+
+        @Override
+        protected ExecutorService getExecutorService() {
+            return EXECUTOR_SERVICE;
+        }
+    }
+
+}
@@ -0,0 +1,312 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.server.dispatchers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.signserver.common.CryptoTokenOfflineException;
+import org.signserver.common.IllegalRequestException;
+import org.signserver.common.RequestContext;
+import org.signserver.common.SignServerException;
+import org.signserver.common.WorkerConfig;
+import org.signserver.common.WorkerType;
+import org.signserver.common.data.Response;
+import org.signserver.ejb.interfaces.DispatcherProcessSessionLocal;
+import org.signserver.server.IServices;
+import org.signserver.server.SignServerContext;
+
+/**
+ * Unit tests for the LoadBalancingDispatcher class.
+ *
+ * @version $Id$
+ */
+public class LoadBalancingDispatcherUnitTest {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(LoadBalancingDispatcherUnitTest.class);
+
+    private static final Response OK_RESPONSE = new Response() {};
+
+    /**
+     * Tests that not setting the required property gives an error.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testMissingProperty() throws Exception {
+        LOG.info("testMissingProperty");
+
+        final WorkerConfig config = createConfig(null);
+        final MockedLoadBalancingDispatcher instance = new MockedLoadBalancingDispatcher(null);
+        instance.init(1, config, new SignServerContext(null, null), null);
+        final IServices services = null;
+        assertTrue("errs: " + instance.getFatalErrors(services), instance.getFatalErrors(services).toString().contains("WORKERS"));
+
+        config.setProperty("WORKERS", "worker1, worker2");
+        config.setProperty("SELECTION", "NO_SUCH_STRATEGY");
+        instance.init(1, config, new SignServerContext(null, null), null);
+        assertTrue("errs: " + instance.getFatalErrors(services), instance.getFatalErrors(services).toString().contains("SELECTION"));
+
+        config.setProperty("SELECTION", "power_of_two_choices");
+        instance.init(1, config, new SignServerContext(null, null), null);
+        assertTrue("errs: " + instance.getFatalErrors(services), instance.getFatalErrors(services).isEmpty());
+    }
+
+    /**
+     * Tests that requests are spread over all workers with both strategies.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSpreadsRequests() throws Exception {
+        LOG.info("testSpreadsRequests");
+
+        for (String selection : new String[] {"LEAST_OUTSTANDING", "POWER_OF_TWO_CHOICES"}) {
+            final Map<String, Integer> counts = new HashMap<>();
+            final MockedLoadBalancingDispatcher instance = new MockedLoadBalancingDispatcher((info, wi, request, context) -> {
+                assertEquals("dispatcher authorized", true, context.get(RequestContext.DISPATCHER_AUTHORIZED_CLIENT));
+                counts.merge(wi.getName(), 1, Integer::sum);
+                return OK_RESPONSE;
+            });
+            final WorkerConfig config = createConfig("worker1, worker2, worker3");
+            config.setProperty("SELECTION", selection);
+            instance.init(1, config, new SignServerContext(null, null), null);
+
+            for (int i = 0; i < 300; i++) {
+                assertSame(OK_RESPONSE, instance.processData(null, new RequestContext()));
+            }
+            assertEquals(selection + ": " + counts, 3, counts.size());
+            for (DispatchTarget target : instance.getTargets()) {
+                assertEquals("outstanding", 0, target.getOutstanding());
+                assertEquals("successes", (long) counts.get(target.getName()), target.getSuccesses());
+            }
+        }
+    }
+
+    /**
+     * Tests that a failing worker is taken out of rotation, probed after the
+     * open duration and ramped up again after recovering.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCircuitBreaking() throws Exception {
+        LOG.info("testCircuitBreaking");
+
+        final Set<String> offline = new HashSet<>();
+        offline.add("worker1");
+        final Map<String, Integer> counts = new HashMap<>();
+        final MockedLoadBalancingDispatcher instance = new MockedLoadBalancingDispatcher((info, wi, request, context) -> {
+            counts.merge(wi.getName(), 1, Integer::sum);
+            if (offline.contains(wi.getName())) {
+                throw new CryptoTokenOfflineException("Offline");
+            }
+            return OK_RESPONSE;
+        });
+        final WorkerConfig config = createConfig("worker1, worker2");
+        config.setProperty("FAILURE_THRESHOLD", "2");
+        config.setProperty("OPEN_DURATION", "1000");
+        config.setProperty("SLOW_START_DURATION", "10000");
+        instance.init(1, config, new SignServerContext(null, null), null);
+        final DispatchTarget worker1 = instance.getTargets().get(0);
+
+        // Requests falls through to the other worker until worker1 is out
+        for (int i = 0; i < 20; i++) {
+            assertSame(OK_RESPONSE, instance.processData(null, new RequestContext()));
+        }
+        assertEquals("state", DispatchTarget.State.OPEN, worker1.getState());
+        assertEquals("failures", 2, worker1.getFailures());
+        assertEquals("worker1 requests", 2, (int) counts.get("worker1"));
+
+        // After the open duration one probe is let through and fails
+        instance.time += 1000;
+        instance.processData(null, new RequestContext());
+        assertEquals("worker1 requests", 3, (int) counts.get("worker1"));
+        assertEquals("state", DispatchTarget.State.OPEN, worker1.getState());
+
+        // Next probe succeeds
+        offline.clear();
+        instance.time += 1000;
+        counts.clear();
+        instance.processData(null, new RequestContext());
+        assertEquals("worker1 requests", 1, (int) counts.get("worker1"));
+        assertEquals("state", DispatchTarget.State.CLOSED, worker1.getState());
+        assertTrue("reduced weight", worker1.getWeight(instance.time) < 0.5);
+
+        // Full weight after slow start
+        instance.time += 10000;
+        assertEquals("full weight", 1.0, worker1.getWeight(instance.time), 0.0);
+        final String status = instance.getStatus(Collections.emptyList(), null).getCompleteEntries().toString();
+        assertTrue("status: " + status, status.contains("worker1: state=CLOSED"));
+    }
+
+    /**
+     * Tests that only one of concurrent requests becomes the probe and that
+     * the outcome of requests acquired before the circuit changed does not
+     * change it again.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSingleProbe() throws Exception {
+        LOG.info("testSingleProbe");
+        final DispatchTarget target = new DispatchTarget("worker1", 1, 1000, 0);
+        final DispatchTarget.Permit stale1 = target.tryAcquire(0);
+        final DispatchTarget.Permit stale2 = target.tryAcquire(0);
+        assertTrue("opened", target.recordFailure(target.tryAcquire(0), 0));
+        assertNull("open", target.tryAcquire(500));
+
+        // Concurrent requests after the open duration
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<DispatchTarget.Permit>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return target.tryAcquire(1000);
+                }));
+            }
+            start.countDown();
+            DispatchTarget.Permit probe = null;
+            for (Future<DispatchTarget.Permit> result : results) {
+                final DispatchTarget.Permit permit = result.get();
+                if (permit != null) {
+                    assertNull("only one probe", probe);
+                    probe = permit;
+                }
+            }
+            assertNotNull("probe", probe);
+            assertTrue("is probe", probe.isProbe());
+            assertEquals("state", DispatchTarget.State.HALF_OPEN, target.getState());
+
+            // A late failure does not end the probe
+            assertFalse("stale failure", target.recordFailure(stale1, 1000));
+            assertEquals("state", DispatchTarget.State.HALF_OPEN, target.getState());
+            assertNull("still probing", target.tryAcquire(1000));
+
+            assertTrue("closed", target.recordSuccess(probe, 1000));
+
+            // A late failure does not open it again
+            assertFalse("stale failure", target.recordFailure(stale2, 1000));
+            assertEquals("state", DispatchTarget.State.CLOSED, target.getState());
+            assertEquals("outstanding", 0, target.getOutstanding());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // A released probe lets the next request probe
+        assertTrue("opened", target.recordFailure(target.tryAcquire(2000), 2000));
+        final DispatchTarget.Permit probe = target.tryAcquire(3000);
+        assertTrue("probe", probe.isProbe());
+        target.release(probe);
+        assertEquals("state", DispatchTarget.State.OPEN, target.getState());
+        assertTrue("next probe", target.tryAcquire(3000).isProbe());
+    }
+
+    /**
+     * Tests that all workers being offline gives CryptoTokenOfflineException
+     * and that illegal requests are not counted as failures.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testNoActiveWorkerAndIllegalRequest() throws Exception {
+        LOG.info("testNoActiveWorkerAndIllegalRequest");
+
+        final MockedLoadBalancingDispatcher offlineInstance = new MockedLoadBalancingDispatcher((info, wi, request, context) -> {
+            throw new CryptoTokenOfflineException("Offline");
+        });
+        offlineInstance.init(1, createConfig("worker1, worker2"), new SignServerContext(null, null), null);
+        try {
+            offlineInstance.processData(null, new RequestContext());
+            fail("Should have thrown CryptoTokenOfflineException");
+        } catch (CryptoTokenOfflineException expected) { // NOPMD
+            // OK
+        }
+
+        final MockedLoadBalancingDispatcher illegalInstance = new MockedLoadBalancingDispatcher((info, wi, request, context) -> {
+            throw new IllegalRequestException("Illegal");
+        });
+        illegalInstance.init(1, createConfig("worker1"), new SignServerContext(null, null), null);
+        for (int i = 0; i < 5; i++) {
+            try {
+                illegalInstance.processData(null, new RequestContext());
+                fail("Should have thrown IllegalRequestException");
+            } catch (IllegalRequestException expected) { // NOPMD
+                // OK
+            }
+        }
+        final DispatchTarget target = illegalInstance.getTargets().get(0);
+        assertEquals("state", DispatchTarget.State.CLOSED, target.getState());
+        assertEquals("failures", 0, target.getFailures());
+        assertEquals("outstanding", 0, target.getOutstanding());
+    }
+
+    /**
+     * Tests that a misconfigured dispatcher does not dispatch.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test(expected = SignServerException.class)
+    public void testMisconfigured() throws Exception {
+        LOG.info("testMisconfigured");
+        final MockedLoadBalancingDispatcher instance = new MockedLoadBalancingDispatcher((info, wi, request, context) -> OK_RESPONSE);
+        instance.init(1, createConfig(null), new SignServerContext(null, null), null);
+        instance.processData(null, new RequestContext());
+    }
+
+    private static WorkerConfig createConfig(final String workers) {
+        final WorkerConfig config = new WorkerConfig();
+        config.setProperty(WorkerConfig.TYPE, WorkerType.PROCESSABLE.name());
+        config.setProperty("NAME", "Dispatcher1");
+        if (workers != null) {
+            config.setProperty("WORKERS", workers);
+        }
+        return config;
+    }
+
+    /** Mocked LoadBalancingDispatcher not doing any JNDI lookups. */
+    private static class MockedLoadBalancingDispatcher extends LoadBalancingDispatcher {
+        private final DispatcherProcessSessionLocal session;
+        private long time = 1000000;
+
+        MockedLoadBalancingDispatcher(final DispatcherProcessSessionLocal session) {
+            this.session = session;
+        }
+
+        @Override
+        protected DispatcherProcessSessionLocal getWorkerSession(RequestContext context) {
+            return session;
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return time;
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/*************************************************************************
+ *                                                                       *
+ *  SignServer: The OpenSource Automated Signing Server                  *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.signserver.web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.naming.NamingException;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.log4j.Logger;
+import org.signserver.common.ServiceLocator;
+import org.signserver.common.WorkerIdentifier;
+import org.signserver.ejb.interfaces.ProcessingMetricsSessionLocal;
+
+/**
+ * Servlet exposing the processing stage latency histograms in the Prometheus
+ * text exposition format.
+ *
+ * GET returns the metrics. POST with the parameter action=reset clears the
+ * recorded values of all workers or of the worker given by the optional
+ * worker parameter (name or ID).
+ *
+ * Only the IPs in the AuthorizedIPs init parameter (separated by ';') are
+ * allowed, or all if it contains ANY.
+ *
+ * @version $Id$
+ */
+public class ProcessingMetricsServlet extends HttpServlet {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ProcessingMetricsServlet.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private List<String> authIPs = Collections.emptyList();
+    private boolean allIPsAuth;
+
+    private ProcessingMetricsSessionLocal metricsSession;
+
+    @Override
+    public void init(final ServletConfig config) throws ServletException {
+        super.init(config);
+        final String authIPString = config.getInitParameter("AuthorizedIPs");
+        if (authIPString != null) {
+            authIPs = Arrays.asList(authIPString.split(";"));
+        }
+        allIPsAuth = authIPs.contains("ANY");
+    }
+
+    private ProcessingMetricsSessionLocal getMetricsSession() throws ServletException {
+        if (metricsSession == null) {
+            try {
+                metricsSession = ServiceLocator.getInstance().lookupLocal(ProcessingMetricsSessionLocal.class);
+            } catch (NamingException ex) {
+                throw new ServletException("Unable to lookup processing metrics session", ex);
+            }
+        }
+        return metricsSession;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+        if (checkAuthorized(request, response)) {
+            final byte[] body = getMetricsSession().getPrometheusMetrics().getBytes(StandardCharsets.UTF_8);
+            response.setContentType(CONTENT_TYPE);
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+        }
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+        if (checkAuthorized(request, response)) {
+            if (!"reset".equals(request.getParameter("action"))) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unsupported action");
+                return;
+            }
+            final String worker = request.getParameter("worker");
+            final WorkerIdentifier wi = worker == null || worker.trim().isEmpty()
+                    ? null : WorkerIdentifier.createFromIdOrName(worker.trim());
+            getMetricsSession().reset(wi);
+            LOG.info("Processing latencies reset for " + (wi == null ? "all workers" : wi)
+                    + " by " + request.getRemoteAddr());
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        }
+    }
+
+    private boolean checkAuthorized(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final String remoteIP = request.getRemoteAddr();
+        if (allIPsAuth || authIPs.contains(remoteIP)) {
+            return true;
+        }
+        LOG.error("Metrics request received from a non authorized IP: " + remoteIP);
+        response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Not authorized");
+        return false;
+    }
+}
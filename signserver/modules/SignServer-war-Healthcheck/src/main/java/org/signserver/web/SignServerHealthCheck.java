@@ -36,6 +36,7 @@ import org.signserver.common.WorkerIdentifier;
 import org.signserver.common.WorkerStatus;
 import org.signserver.common.WorkerType;
 import org.signserver.ejb.interfaces.WorkerSessionLocal;
+import org.signserver.ejb.interfaces.WorkerStatusSnapshotSessionLocal;
 import org.signserver.healthcheck.HealthCheckUtils;
 import org.signserver.server.nodb.FileBasedDatabaseManager;
 import org.signserver.web.pub.cluster.IHealthCheck;
@@ -62,6 +63,7 @@ public class SignServerHealthCheck implements IHealthCheck {
             SignServerHealthCheck.class);
     
     private WorkerSessionLocal signserversession;
+    private WorkerStatusSnapshotSessionLocal statusSnapshotSession;
     
     private int minfreememory;
     private String checkDBString;
@@ -80,6 +82,17 @@ public class SignServerHealthCheck implements IHealthCheck {
         return signserversession;
     }
 
+    private WorkerStatusSnapshotSessionLocal getStatusSnapshotSession() {
+        if (statusSnapshotSession == null) {
+            try {
+                statusSnapshotSession = ServiceLocator.getInstance().lookupLocal(WorkerStatusSnapshotSessionLocal.class);
+            } catch (NamingException e) {
+                LOG.error(e);
+            }
+        }
+        return statusSnapshotSession;
+    }
+
     @Override
     public void init(final ServletConfig config, final EntityManager em) {
         minfreememory = Integer.parseInt(config.getInitParameter("MinimumFreeMemory")) * 1024 * 1024;
@@ -146,12 +159,20 @@ public class SignServerHealthCheck implements IHealthCheck {
 
     private List<String> checkSigners() {
         final LinkedList<String> result = new LinkedList<>();
+        final WorkerStatusSnapshotSessionLocal snapshotSession = getStatusSnapshotSession();
+        if (LOG.isDebugEnabled() && snapshotSession != null) {
+            LOG.debug("Worker status snapshot age: " + snapshotSession.getSnapshotAge()
+                    + " ms, last refresh took: " + snapshotSession.getLastRefreshDuration() + " ms");
+        }
         Iterator<Integer> iter = getWorkerSession().getWorkers(WorkerType.PROCESSABLE).iterator();
         while (iter.hasNext()) {
             int processableId = ((Integer) iter.next());
 
             try {
-                WorkerStatus workerStatus = getWorkerSession().getStatus(new WorkerIdentifier(processableId));
+                // Without the snapshot session, get the status directly
+                WorkerStatus workerStatus = snapshotSession == null
+                        ? getWorkerSession().getStatus(new WorkerIdentifier(processableId))
+                        : snapshotSession.getStatus(new WorkerIdentifier(processableId), false);
                 if (workerStatus.isDisabled()) {
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("Not checking worker " + processableId + " as it is disabled");
@@ -14,7 +14,9 @@ package org.signserver.web;
 
 import org.signserver.web.common.ServletUtils;
 import org.signserver.server.data.impl.BinaryFileUpload;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
@@ -42,6 +44,8 @@ import org.signserver.server.log.IWorkerLogger;
 import org.signserver.server.log.LogMap;
 import org.signserver.ejb.interfaces.GlobalConfigurationSessionLocal;
 import org.signserver.common.data.ReadableData;
+import org.signserver.common.data.BatchSignatureRequest;
+import org.signserver.common.data.BatchSignatureResponse;
 import org.signserver.common.data.CertificateValidationRequest;
 import org.signserver.common.data.CertificateValidationResponse;
 import org.signserver.common.data.SignatureRequest;
@@ -93,6 +97,7 @@ public class GenericProcessServlet extends AbstractProcessServlet {
 
     private enum ProcessType {
         signDocument,
+        signBatch,
         validateDocument,
         validateCertificate
     };
@@ -127,6 +132,7 @@ public class GenericProcessServlet extends AbstractProcessServlet {
 
         WorkerIdentifier wi = null;
         CloseableReadableData data = null;
+        List<byte[]> batchItems = null;
         String fileName = null;
         String pdfPassword = null;
         boolean workerRequest = false;
@@ -164,6 +170,7 @@ public class GenericProcessServlet extends AbstractProcessServlet {
                     itemsToDelete = items;
                     final Iterator<FileItem> iter = items.iterator();
                     //FileItem fileItem = null;
+                    final List<FileItem> extraUploads = new LinkedList<>();
                     String encoding = null;
                     while (iter.hasNext()) {
                         final FileItem item = iter.next();
@@ -224,18 +231,40 @@ public class GenericProcessServlet extends AbstractProcessServlet {
                                 }
                             }
                         } else {
-                            // We only care for one upload at a time right now
+                            // We only care for one upload at a time right now,
+                            // except for a batch where each upload is an item
                             if (data == null) {
                                 data = dataFactory.createReadableData(item, uploadConfig.getRepository());
                                 fileName = item.getName();
                             } else {
-                                LOG.error("Only one upload at a time supported!");
-                                // Make sure any temporary files are removed
+                                extraUploads.add(item);
+                            }
+                        }
+                    }
+
+                    if (processType == ProcessType.signBatch && data != null) {
+                        batchItems = new ArrayList<>(1 + extraUploads.size());
+                        batchItems.add(null); // The first upload, after decoding below
+                        for (FileItem item : extraUploads) {
+                            byte[] bytes = item.get();
+                            if (encoding != null && !encoding.isEmpty() && bytes.length > 0) {
                                 try {
-                                    item.delete();
-                                } catch (Throwable ignored) {} // NOPMD
+                                    bytes = Base64.decode(bytes);
+                                } catch (DecoderException ex) {
+                                    sendBadRequest(res, "Incorrect base64 data");
+                                    return;
+                                }
                             }
+                            batchItems.add(bytes);
                         }
+                    } else if (!extraUploads.isEmpty()) {
+                        LOG.error("Only one upload at a time supported!");
+                    }
+                    for (FileItem item : extraUploads) {
+                        // Make sure any temporary files are removed
+                        try {
+                            item.delete();
+                        } catch (Throwable ignored) {} // NOPMD
                     }
 
                     if (data == null) {
@@ -270,6 +299,9 @@ public class GenericProcessServlet extends AbstractProcessServlet {
                             throw new ServletException("Upload failed", ex);
                         }
                     }
+                    if (batchItems != null) {
+                        batchItems.set(0, data.getAsByteArray());
+                    }
                 } catch (FileUploadBase.SizeLimitExceededException ex) {
                     LOG.error(HTTP_MAX_UPLOAD_SIZE + " exceeded: " + ex.getLocalizedMessage(), ex);
                     res.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
@@ -342,30 +374,52 @@ public class GenericProcessServlet extends AbstractProcessServlet {
                         sendBadRequest(res, "Missing field 'data' in request");
                         return;
                     }
-                    byte[] bytes = req.getParameter(DATA_PROPERTY_NAME).getBytes();
+                    final String[] values;
+                    if (processType == ProcessType.signBatch) {
+                        // Each data field is an item
+                        values = req.getParameterValues(DATA_PROPERTY_NAME);
+                        batchItems = new ArrayList<>(values.length);
+                    } else {
+                        values = new String[] { req.getParameter(DATA_PROPERTY_NAME) };
+                    }
+                    byte[] bytes = null;
+                    for (String value : values) {
+                        bytes = value.getBytes();
 
-                    String encoding = req.getParameter(ENCODING_PROPERTY_NAME);
-                    if (encoding != null && !encoding.isEmpty()) {
-                        if (ENCODING_BASE64.equalsIgnoreCase(encoding)) {
-                            if (LOG.isDebugEnabled()) {
-                                LOG.debug("Decoding base64 data");
-                            }
-                            if (bytes.length > 0) {
-                                try {
-                                    bytes = Base64.decode(bytes);
-                                } catch (DecoderException ex) {
-                                    sendBadRequest(res, "Incorrect base64 data");
-                                    return;
+                        String encoding = req.getParameter(ENCODING_PROPERTY_NAME);
+                        if (encoding != null && !encoding.isEmpty()) {
+                            if (ENCODING_BASE64.equalsIgnoreCase(encoding)) {
+                                if (LOG.isDebugEnabled()) {
+                                    LOG.debug("Decoding base64 data");
                                 }
+                                if (bytes.length > 0) {
+                                    try {
+                                        bytes = Base64.decode(bytes);
+                                    } catch (DecoderException ex) {
+                                        sendBadRequest(res, "Incorrect base64 data");
+                                        return;
+                                    }
+                                }
+                            } else {
+                                if (LOG.isDebugEnabled()) {
+                                    LOG.debug("Unknown encoding: " + encoding);
+                                }
+                                sendBadRequest(res,
+                                        "Unknown encoding for the 'data' field.");
+                                return;
                             }
-                        } else {
-                            if (LOG.isDebugEnabled()) {
-                                LOG.debug("Unknown encoding: " + encoding);
-                            }
-                            sendBadRequest(res,
-                                    "Unknown encoding for the 'data' field.");
-                            return;
                         }
+                        if (batchItems != null) {
+                            batchItems.add(bytes);
+                        }
+                    }
+                    if (batchItems != null) {
+                        // The request data is all items, for the size check and logging
+                        final ByteArrayOutputStream all = new ByteArrayOutputStream();
+                        for (byte[] item : batchItems) {
+                            all.write(item);
+                        }
+                        bytes = all.toByteArray();
                     }
 
                     try {
@@ -378,6 +432,9 @@ public class GenericProcessServlet extends AbstractProcessServlet {
                     } catch (FileUploadException ex) {
                         throw new ServletException("Upload failed", ex);
                     }
+                } else if (processType == ProcessType.signBatch) {
+                    sendBadRequest(res, "Batch requests must be form encoded");
+                    return;
                 } else {
                     // Pass-through the content to be handled by worker if
                     // unknown content-type
@@ -414,7 +471,7 @@ public class GenericProcessServlet extends AbstractProcessServlet {
                 if (wi == null) {
                     res.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing worker name or ID");
                 } else {
-                    processRequest(req, res, wi, data, uploadConfig, fileName, pdfPassword, processType,
+                    processRequest(req, res, wi, data, batchItems, uploadConfig, fileName, pdfPassword, processType,
                         metadataHolder);
                 }
             }
@@ -465,7 +522,7 @@ public class GenericProcessServlet extends AbstractProcessServlet {
         dataFactory = DataUtils.createDataFactory();
     }
 
-    private void processRequest(final HttpServletRequest req, final HttpServletResponse res, final WorkerIdentifier wi, final CloseableReadableData data, final UploadConfig uploadConfig,
+    private void processRequest(final HttpServletRequest req, final HttpServletResponse res, final WorkerIdentifier wi, final CloseableReadableData data, final List<byte[]> batchItems, final UploadConfig uploadConfig,
             final String fileName, final String pdfPassword, final ProcessType processType,
             final MetaDataHolder metadataHolder) throws java.io.IOException, ServletException {
         final String remoteAddr = req.getRemoteAddr();
@@ -581,6 +638,31 @@ public class GenericProcessServlet extends AbstractProcessServlet {
 
                     break;
                 }
+                case signBatch: {
+                    final Response response = processSession.process(new AdminInfo("Client user", null, null), wi,
+                            new BatchSignatureRequest(requestId, batchItems, responseData), context);
+
+                    if (response instanceof BatchSignatureResponse) {
+                        // One Base64 encoded signature per line, in the order of the items
+                        final BatchSignatureResponse batchResponse = (BatchSignatureResponse) response;
+                        final StringBuilder sb = new StringBuilder();
+                        try (InputStream in = batchResponse.getResponseData().toReadableData().getAsInputStream()) {
+                            for (int length : batchResponse.getSignatureLengths()) {
+                                final byte[] signature = new byte[length];
+                                IOUtils.readFully(in, signature);
+                                sb.append(Base64.toBase64String(signature)).append("\n");
+                            }
+                        }
+                        responseText = sb.toString();
+
+                        res.setContentType("text/plain");
+                        res.setContentLength(responseText.getBytes().length);
+                        res.getOutputStream().write(responseText.getBytes());
+                    } else {
+                        throw new SignServerException("Unexpected response type: " + response);
+                    }
+                    break;
+                }
                 case validateDocument: {
                     final DocumentValidationResponse validationResponse = (DocumentValidationResponse) processSession.process(new AdminInfo("Client user", null, null), wi,
                                 new DocumentValidationRequest(requestId, data), context);
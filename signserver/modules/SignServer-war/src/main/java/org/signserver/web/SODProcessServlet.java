@@ -20,9 +20,11 @@ import java.io.OutputStream;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ThreadLocalRandom;
 import javax.ejb.EJB;
 
@@ -44,6 +46,8 @@ import org.signserver.common.RequestMetadata;
 import org.signserver.common.SignServerException;
 import org.signserver.common.WorkerIdentifier;
 import org.signserver.common.data.ReadableData;
+import org.signserver.common.data.Request;
+import org.signserver.common.data.SODBatchRequest;
 import org.signserver.common.data.SODRequest;
 import org.signserver.common.data.SODResponse;
 import org.signserver.ejb.interfaces.ProcessSessionLocal;
@@ -61,6 +65,10 @@ import org.signserver.server.data.impl.UploadConfig;
  * to the MRTD SOD Signer. It uses the worker configured by either workerId or workerName parameters from the request, defaulting to workerId 1.
  *
  * It will create a SODSignRequest that is sent to the worker and expects a SODSignResponse back from the signer.
+ *
+ * Many SODs can be requested at once by giving the data groups of each
+ * document as documentN.dataGroupM. The SODs are then returned concatenated,
+ * in the order of the document numbers.
  * This is not located in the mrtdsod module package because it has to be available at startup to map urls.
  *
  * @author Markus Kilås
@@ -81,6 +89,12 @@ public class SODProcessServlet extends AbstractProcessServlet {
     private static final String WORKERNAME_PROPERTY_NAME = "workerName";
     private static final String DATAGROUP_PROPERTY_NAME = "dataGroup";
 
+    /**
+     * Prefix of the data groups of each document in a batch request, i.e.
+     * document0.dataGroup1, document0.dataGroup2, document1.dataGroup1 etc.
+     */
+    private static final String DOCUMENT_PROPERTY_NAME = "document";
+
     /** Specifies if the fields are encoded in any way */
     private static final String ENCODING_PROPERTY_NAME = "encoding";
 
@@ -188,12 +202,40 @@ public class SODProcessServlet extends AbstractProcessServlet {
 
             // Collect all [dataGroup1, dataGroup2, ..., dataGroupN]
             Map<Integer, byte[]> dataGroups = new HashMap<>(16);
+            final Map<Integer, Map<Integer, byte[]>> documents = new TreeMap<>();
             Enumeration en = req.getParameterNames();
             while (en.hasMoreElements()) {
                 Object o = en.nextElement();
                 if (o instanceof String) {
                     String key = (String) o;
-                    if (key.startsWith(DATAGROUP_PROPERTY_NAME)) {
+                    if (key.startsWith(DOCUMENT_PROPERTY_NAME)) {
+                        final int separator = key.indexOf('.');
+                        try {
+                            if (separator < 0 || !key.startsWith(DATAGROUP_PROPERTY_NAME, separator + 1)) {
+                                throw new NumberFormatException();
+                            }
+                            final Integer document = Integer.valueOf(key.substring(DOCUMENT_PROPERTY_NAME.length(), separator));
+                            final Integer dataGroupId = Integer.valueOf(key.substring(separator + 1 + DATAGROUP_PROPERTY_NAME.length()));
+                            final String dataStr = req.getParameter(key);
+                            if (document >= 0 && (dataGroupId > -1) && (dataGroupId < 17)
+                                    && (dataStr != null) && (dataStr.length() > 0)) {
+                                byte[] data = dataStr.getBytes();
+                                if (base64Encoded) {
+                                    try {
+                                        data = Base64.decode(data);
+                                    } catch (DecoderException ex) {
+                                        sendBadRequest(res, "Incorrect base64 data");
+                                        return;
+                                    }
+                                }
+                                documents.computeIfAbsent(document, k -> new HashMap<>(16)).put(dataGroupId, data);
+                            } else if (LOG.isDebugEnabled()) {
+                                LOG.debug("Ignoring " + key);
+                            }
+                        } catch (NumberFormatException ex) {
+                            LOG.warn("Field is not of the form \"" + DOCUMENT_PROPERTY_NAME + "N." + DATAGROUP_PROPERTY_NAME + "M\": \"" + key + "\"");
+                        }
+                    } else if (key.startsWith(DATAGROUP_PROPERTY_NAME)) {
                         try {
                             Integer dataGroupId = new Integer(key.substring(DATAGROUP_PROPERTY_NAME.length()));
                             if ((dataGroupId > -1) && (dataGroupId < 17)) {
@@ -238,13 +280,21 @@ public class SODProcessServlet extends AbstractProcessServlet {
                 }
             }
 
-            if (dataGroups.isEmpty()) {
+            if (dataGroups.isEmpty() && documents.isEmpty()) {
                 sendBadRequest(res, "Missing dataGroup fields in request");
                 return;
             }
+            if (!dataGroups.isEmpty() && !documents.isEmpty()) {
+                sendBadRequest(res, "Can not combine dataGroup and document fields in request");
+                return;
+            }
 
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Received number of dataGroups: " + dataGroups.size());
+                if (documents.isEmpty()) {
+                    LOG.debug("Received number of dataGroups: " + dataGroups.size());
+                } else {
+                    LOG.debug("Received number of documents: " + documents.size());
+                }
             }
 
             // LDS versioning
@@ -286,8 +336,14 @@ public class SODProcessServlet extends AbstractProcessServlet {
 
                 addRequestMetaData(metadataHolder, metadata);
 
-                final SODRequest signRequest = new SODRequest(requestId,
-                    dataGroups, ldsVersion, unicodeVersion, responseData);
+                final Request signRequest;
+                if (documents.isEmpty()) {
+                    signRequest = new SODRequest(requestId,
+                        dataGroups, ldsVersion, unicodeVersion, responseData);
+                } else {
+                    signRequest = new SODBatchRequest(requestId,
+                        new ArrayList<>(documents.values()), ldsVersion, unicodeVersion, responseData);
+                }
 
                 response = (SODResponse) getProcessSession().process(new AdminInfo("Client user", null, null),
                         wi, signRequest, context);